@@ -65,6 +65,11 @@ public final class ChannelBufferUtils {
         return byteBuffer.readSlice(stringSize).toString(charset);
     }
 
+    /**
+     * The length of a UUID in its canonical string form, as the bearer-box sends it
+     */
+    public static final int UUID_STRING_LENGTH = 36;
+
     /**
      * Read a UUID from the byte buffer in the form of a string
      * @param byteBuffer the bytes to read from
@@ -80,6 +85,53 @@ public final class ChannelBufferUtils {
         }
     }
 
+    /**
+     * Checks whether the next octet string of the byte buffer is a UUID in its canonical 36 character form, in which
+     * case its bits can be parsed in place with {@link #getUUIDMostSigBits(ByteBuf, int)} and
+     * {@link #getUUIDLeastSigBits(ByteBuf, int)} starting at reader index + 4
+     * @param byteBuffer the bytes to check
+     * @return true if the next octet string is a canonical UUID
+     */
+    public static boolean hasCanonicalUUID(ByteBuf byteBuffer) {
+        final int readerIndex = byteBuffer.readerIndex();
+        if (byteBuffer.readableBytes() < 4 + UUID_STRING_LENGTH || byteBuffer.getInt(readerIndex) != UUID_STRING_LENGTH)
+            return false;
+
+        final int start = readerIndex + 4;
+        for (int i = 0; i < UUID_STRING_LENGTH; i++) {
+            final byte character = byteBuffer.getByte(start + i);
+            final boolean valid = i == 8 || i == 13 || i == 18 || i == 23 ?
+                    character == '-' :
+                    hexValue(character) >= 0;
+            if (!valid)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses the most significant bits of a canonical UUID string without moving the reader index
+     * @param byteBuffer the bytes to read from
+     * @param index the index of the first character of the UUID string
+     * @return the most significant bits
+     */
+    public static long getUUIDMostSigBits(ByteBuf byteBuffer, int index) {
+        return parseHex(byteBuffer, index, 8) << 32 |
+               parseHex(byteBuffer, index + 9, 4) << 16 |
+               parseHex(byteBuffer, index + 14, 4);
+    }
+
+    /**
+     * Parses the least significant bits of a canonical UUID string without moving the reader index
+     * @param byteBuffer the bytes to read from
+     * @param index the index of the first character of the UUID string
+     * @return the least significant bits
+     */
+    public static long getUUIDLeastSigBits(ByteBuf byteBuffer, int index) {
+        return parseHex(byteBuffer, index + 19, 4) << 48 |
+               parseHex(byteBuffer, index + 24, 12);
+    }
+
     /**
      * Read a 4 byte integer from the byte buffer
      * @param byteBuffer the bytes to read from
@@ -156,6 +208,24 @@ public final class ChannelBufferUtils {
         writeStringToOctetString(stringFormat, out, charset);
     }
 
+    private static long parseHex(ByteBuf byteBuffer, int index, int digits) {
+        long value = 0;
+        for (int i = 0; i < digits; i++) {
+            value = value << 4 | hexValue(byteBuffer.getByte(index + i));
+        }
+        return value;
+    }
+
+    private static int hexValue(byte character) {
+        if (character >= '0' && character <= '9')
+            return character - '0';
+        if (character >= 'a' && character <= 'f')
+            return character - 'a' + 10;
+        if (character >= 'A' && character <= 'F')
+            return character - 'A' + 10;
+        return -1;
+    }
+
     private static void checkOctetStringSize(ByteBuf byteBuffer, int stringSize) {
         if(stringSize < -1 || stringSize > byteBuffer.readableBytes())
             throw new StringSizeException("The octet string size read was " + stringSize +
@@ -82,6 +82,11 @@ public class ChannelHandlerProvider {
                                                         LENGTH_FIELD_SIZE);
             case LENGTH_FRAME_ENCODER:
                 return new LengthFieldPrepender(LENGTH_FIELD_SIZE, false);
+            case FLUSH_COALESCER:
+                return new FlushCoalescingHandler(clientSession,
+                                                  sessionConfiguration.getMaxCoalescedMessages(),
+                                                  sessionConfiguration.getMaxCoalescedBytes(),
+                                                  sessionConfiguration.getFlushLinger());
             default:
                 throw new IllegalArgumentException("Invalid handler type");
         }
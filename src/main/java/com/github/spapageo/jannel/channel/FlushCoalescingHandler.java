@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.spapageo.jannel.channel;
+
+import com.github.spapageo.jannel.client.SessionCallbackHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+import javax.annotation.Nonnegative;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Turns the flush that follows every message write into one flush per event loop iteration. A flush is deferred to
+ * the end of the current iteration, or until the linger passes, and goes out right away once the queued messages or
+ * bytes reach their limit. The handler sits next to the socket, so it sees one encoded frame per message.
+ *
+ * All the handler methods run on the channel event loop. Producers on other threads are safe because Netty hands their
+ * writes and flushes over to the event loop.
+ */
+public class FlushCoalescingHandler extends ChannelOutboundHandlerAdapter {
+
+    private final SessionCallbackHandler session;
+
+    private final int maxMessages;
+
+    private final int maxBytes;
+
+    private final long lingerMillis;
+
+    private int pendingMessages;
+
+    private long pendingBytes;
+
+    private boolean flushScheduled;
+
+    private ScheduledFuture<?> lingerFuture;
+
+    private ChannelHandlerContext context;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            if (flushScheduled) {
+                flushNow(context);
+            }
+        }
+    };
+
+    /**
+     * Creates a new handler
+     * @param session the session that is informed of every flush
+     * @param maxMessages the number of queued messages that are flushed right away, 0 for no limit
+     * @param maxBytes the number of queued bytes that are flushed right away, 0 for no limit
+     * @param lingerMillis how long a write may wait for more writes, 0 to flush at the end of the event loop iteration
+     */
+    public FlushCoalescingHandler(SessionCallbackHandler session,
+                                  @Nonnegative int maxMessages,
+                                  @Nonnegative int maxBytes,
+                                  @Nonnegative long lingerMillis) {
+        checkArgument(maxMessages >= 0, "The message limit can not be negative");
+        checkArgument(maxBytes >= 0, "The byte limit can not be negative");
+        checkArgument(lingerMillis >= 0, "The linger can not be negative");
+        this.session = session;
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        context = ctx;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        flushNow(ctx);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            pendingBytes += ((ByteBuf) msg).readableBytes();
+        }
+        pendingMessages++;
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (limitReached()) {
+            flushNow(ctx);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            if (lingerMillis > 0) {
+                lingerFuture = ctx.executor().schedule(flushTask, lingerMillis, TimeUnit.MILLISECONDS);
+            } else {
+                // the task runs after the writes that are already queued on the event loop
+                ctx.executor().execute(flushTask);
+            }
+        }
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushNow(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushNow(ctx);
+        ctx.close(promise);
+    }
+
+    /**
+     * @return the number of messages written since the last flush
+     */
+    int getPendingMessages() {
+        return pendingMessages;
+    }
+
+    private boolean limitReached() {
+        return (maxMessages > 0 && pendingMessages >= maxMessages) || (maxBytes > 0 && pendingBytes >= maxBytes);
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        flushScheduled = false;
+        if (lingerFuture != null) {
+            lingerFuture.cancel(false);
+            lingerFuture = null;
+        }
+
+        if (pendingMessages == 0) {
+            return;
+        }
+
+        final int flushed = pendingMessages;
+        pendingMessages = 0;
+        pendingBytes = 0;
+        ctx.flush();
+        session.fireFlushed(flushed);
+    }
+}
@@ -59,5 +59,10 @@ public enum HandlerType {
     /**
      * Handles message frames encoding
      */
-    LENGTH_FRAME_ENCODER
+    LENGTH_FRAME_ENCODER,
+
+    /**
+     * Coalesces the flushes of the outbound messages
+     */
+    FLUSH_COALESCER
 }
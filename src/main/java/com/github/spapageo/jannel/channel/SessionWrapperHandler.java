@@ -57,4 +57,10 @@ public class SessionWrapperHandler extends SimpleChannelInboundHandler<Message>
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         session.fireConnectionClosed();
     }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        session.fireChannelWritabilityChanged(ctx.channel().isWritable());
+        ctx.fireChannelWritabilityChanged();
+    }
 }
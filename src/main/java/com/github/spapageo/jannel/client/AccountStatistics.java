@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.client;
+
+import javax.annotation.Nonnegative;
+
+/**
+ * A snapshot of the sms of one account that went through a {@link FairShareScheduler}
+ */
+public final class AccountStatistics {
+
+    private final int queued;
+
+    private final int inFlight;
+
+    private final long dispatchedCount;
+
+    private final long completedCount;
+
+    private final double dispatchRate;
+
+    /**
+     * Creates a new snapshot
+     * @param queued the number of sms waiting for their turn
+     * @param inFlight the number of sms handed to the session that have not completed yet
+     * @param dispatchedCount the number of sms handed to the session
+     * @param completedCount the number of sms whose future completed
+     * @param dispatchRate the recent number of sms handed to the session per second
+     */
+    public AccountStatistics(int queued, int inFlight, long dispatchedCount, long completedCount, double dispatchRate) {
+        this.queued = queued;
+        this.inFlight = inFlight;
+        this.dispatchedCount = dispatchedCount;
+        this.completedCount = completedCount;
+        this.dispatchRate = dispatchRate;
+    }
+
+    /**
+     * @return the number of sms waiting for their turn
+     */
+    @Nonnegative public int getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return the number of sms handed to the session that have not completed yet
+     */
+    @Nonnegative public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the number of sms handed to the session
+     */
+    @Nonnegative public long getDispatchedCount() {
+        return dispatchedCount;
+    }
+
+    /**
+     * @return the number of sms whose future completed, successfully or not
+     */
+    @Nonnegative public long getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * @return the number of sms handed to the session per second, an exponentially weighted average over about the
+     * last second, so it shows the share an account gets right now rather than since the scheduler was created
+     */
+    @Nonnegative public double getDispatchRate() {
+        return dispatchRate;
+    }
+
+    @Override
+    public String toString() {
+        return "AccountStatistics{" +
+               "queued=" + queued +
+               ", inFlight=" + inFlight +
+               ", dispatchedCount=" + dispatchedCount +
+               ", completedCount=" + completedCount +
+               ", dispatchRate=" + dispatchRate +
+               '}';
+    }
+}
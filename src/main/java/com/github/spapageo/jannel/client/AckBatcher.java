@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.spapageo.jannel.client;
+
+import com.github.spapageo.jannel.msg.Ack;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPromise;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.nio.channels.ClosedChannelException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Collects the acks of a session and writes them in batches with a single flush. A batch is written once it holds
+ * the batch size acks or when the linger passes after its first ack, whichever comes first.
+ */
+final class AckBatcher {
+
+    private final ClientSession session;
+
+    private final int batchSize;
+
+    private final long lingerMillis;
+
+    private final Queue<PendingAck> pending = new ConcurrentLinkedQueue<PendingAck>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Creates a new batcher
+     * @param session the session whose acks are batched
+     * @param batchSize the number of acks that are written right away
+     * @param lingerMillis how long the first ack of a batch may wait for more acks
+     */
+    AckBatcher(ClientSession session, @Nonnegative int batchSize, @Nonnegative long lingerMillis) {
+        checkArgument(batchSize > 0, "batchSize must be > 0");
+        checkArgument(lingerMillis >= 0, "lingerMillis must be >= 0");
+        this.session = session;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Queues an ack for the next batch
+     * @param ack the ack
+     * @return the future of the ack write, it fails if the connection changes before the batch is written
+     */
+    @Nonnull
+    ChannelPromise add(Ack ack) {
+        final Channel channel = session.getChannel();
+        final ChannelPromise promise = channel.newPromise();
+        pending.offer(new PendingAck(ack, promise));
+
+        if (pendingCount.incrementAndGet() >= batchSize) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                channel.eventLoop().schedule(flushTask, lingerMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // a shut down event loop never runs the linger, so the batch is written now and the flag cleared
+                flush();
+            }
+        }
+        return promise;
+    }
+
+    /**
+     * Writes the queued acks with a single flush
+     */
+    synchronized void flush() {
+        // cleared first, so that an ack queued while writing schedules the next batch
+        flushScheduled.set(false);
+
+        final Channel channel = session.getChannel();
+        int written = 0;
+        PendingAck next;
+        while ((next = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            if (next.promise.channel() != channel) {
+                // the bearer-box sends the sms of a dropped connection again, so their acks are useless
+                next.promise.tryFailure(new ClosedChannelException());
+                continue;
+            }
+            channel.write(next.ack, next.promise);
+            written++;
+        }
+
+        if (written > 0) {
+            channel.flush();
+        }
+    }
+
+    /**
+     * @return the number of acks waiting for their batch
+     */
+    int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    private static final class PendingAck {
+
+        private final Ack ack;
+
+        private final ChannelPromise promise;
+
+        private PendingAck(Ack ack, ChannelPromise promise) {
+            this.ack = ack;
+            this.promise = promise;
+        }
+    }
+}
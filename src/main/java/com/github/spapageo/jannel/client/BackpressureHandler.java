@@ -0,0 +1,44 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.client;
+
+/**
+ * Optional interface of a {@link SessionHandler} that is told when the session stops and starts accepting new sms
+ * @see ClientSession#isAccepting()
+ */
+public interface BackpressureHandler {
+
+    /**
+     * Fired when the session stops accepting new sms because its window reached the high water mark or the outbound
+     * buffer of its channel is full. Producers should stop pulling work until the session is resumed.
+     * @param clientSession the paused session
+     */
+    void fireSessionPaused(ClientSession clientSession);
+
+    /**
+     * Fired when a paused session accepts new sms again
+     * @param clientSession the resumed session
+     */
+    void fireSessionResumed(ClientSession clientSession);
+}
@@ -23,15 +23,31 @@
 
 package com.github.spapageo.jannel.client;
 
+import com.github.spapageo.jannel.channel.HandlerType;
 import com.github.spapageo.jannel.exception.BadMessageException;
 import com.github.spapageo.jannel.msg.*;
+import com.github.spapageo.jannel.windowing.AdjustmentReason;
+import com.github.spapageo.jannel.windowing.AimdWindowController;
+import com.github.spapageo.jannel.windowing.ExpiryListener;
+import com.github.spapageo.jannel.windowing.OfferListener;
+import com.github.spapageo.jannel.windowing.ResponseListener;
+import com.github.spapageo.jannel.windowing.WaterMarkListener;
 import com.github.spapageo.jannel.windowing.Window;
 import com.github.spapageo.jannel.windowing.WindowFuture;
+import com.github.spapageo.jannel.windowing.WindowVisitor;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.Timeout;
 import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import org.slf4j.Logger;
@@ -41,8 +57,23 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.net.SocketAddress;
 import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * A client session to a remote bearer-box which can be used to send messages using it member
@@ -64,6 +95,16 @@ public class ClientSession implements SessionCallbackHandler {
          */
         IDENTIFIED,
 
+        /**
+         * Connection open but no new sms are accepted until the outstanding ones are acknowledged
+         */
+        DRAINING,
+
+        /**
+         * Connection lost, the session is paused until a new connection is open
+         */
+        RECONNECTING,
+
         /**
          * Connection closed
          */
@@ -72,22 +113,94 @@ public class ClientSession implements SessionCallbackHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ClientSession.class);
 
+    private static final int ACK_LATENCY_SMOOTHING = 8;
+
     private volatile State state;
 
     private final ClientSessionConfiguration configuration;
 
-    private final Channel channel;
+    private volatile Channel channel;
 
     private SessionHandler sessionHandler;
 
     private final Window<UUID, Sms, Ack> sendWindow;
 
+    @Nullable
+    private final AimdWindowController windowController;
+
+    private final Timer timer;
+
+    private final RetryPolicy retryPolicy;
+
+    private final AtomicInteger outstandingRetries = new AtomicInteger();
+
+    private final Random retryJitter = new Random();
+
+    private final AtomicLong staleDropped = new AtomicLong();
+
+    private final AtomicLong flushes = new AtomicLong();
+
+    private final AtomicLong flushedMessages = new AtomicLong();
+
+    private final AtomicInteger moBacklog = new AtomicInteger();
+
+    private final AtomicBoolean heartbeatsStarted = new AtomicBoolean();
+
+    private final MoDispatcher moDispatcher;
+
+    private final AckBatcher ackBatcher;
+
+    // a moving average that tolerates lost updates, it only has to be roughly right
+    private volatile long ackLatencyNanos;
+
+    private volatile long lastAckNanos;
+
+    private final Object backpressureLock = new Object();
+
+    private boolean windowAboveHighWaterMark;
+
+    private boolean channelWritable = true;
+
+    private boolean connected = true;
+
+    private volatile boolean accepting = true;
+
+    @Nullable
+    private volatile SessionConnector connector;
+
+    private final Object reconnectLock = new Object();
+
+    private final SettableFuture<ClientSession> closeFuture = SettableFuture.create();
+
+    // the state to return to once reconnected, DRAINING if the session started draining while reconnecting
+    private volatile State reconnectedState;
+
+    // whether the new connection has to be identified, guarded by the reconnect lock
+    private boolean reidentify;
+
+    // reset by the first message received on a new connection, so a connection that drops right away counts as a
+    // failed attempt
+    private volatile int reconnectAttempts;
+
+    // the sms written while reconnecting, they are sent once the new connection is open
+    private final Queue<Sms> heldWrites = new ConcurrentLinkedQueue<Sms>();
+
+    @Nullable
+    private volatile WindowVisitor<UUID, Sms, Ack> requeueSink;
+
+    private final OfferListener<UUID, Sms> smsWriter = new OfferListener<UUID, Sms>() {
+        @Override
+        public void onOfferAccepted(UUID key, Sms sms) {
+            writeSms(sms);
+        }
+    };
+
     /**
      * Construct a new client session to a remote bearer-box
      * @param configuration the client configuration to use for this session
      * @param channel the connected channel to the remote bearer-box
      * @param sessionHandler the session that will be called every time a specific event occurs
-     * @param timer the timer used by the window for expiring requests
+     * @param timer the timer used by the window for expiring requests and for delaying resends
      */
     public ClientSession(ClientSessionConfiguration configuration,
                          Channel channel,
@@ -95,9 +208,75 @@ public class ClientSession implements SessionCallbackHandler {
                          @Nullable SessionHandler sessionHandler) {
         this.configuration = configuration;
         this.channel = channel;
+        this.timer = timer;
+        this.retryPolicy = configuration.getRetryPolicy();
         this.sessionHandler = sessionHandler == null ? new DefaultSessionHandler() : sessionHandler;
         this.state = State.OPEN;
-        this.sendWindow = new Window<UUID, Sms, Ack>(configuration.getWindowSize(), timer);
+        this.sendWindow = new Window<UUID, Sms, Ack>(configuration.getWindowSize(),
+                                                   timer,
+                                                   configuration.getWindowEngine(),
+                                                   configuration.getMaxPendingOffers(),
+                                                   configuration.getOverflowPolicy(),
+                                                   configuration.getFutureRecycling(),
+                                                   configuration.getPriorityClasses());
+
+        this.moDispatcher = configuration.getMoDispatchThreads() > 0 ?
+                new MoDispatcher(this, configuration.getMoDispatchThreads(), configuration.getMoQueueCapacity()) :
+                null;
+        this.ackBatcher = configuration.getAckBatchSize() > 0 ?
+                new AckBatcher(this, configuration.getAckBatchSize(), configuration.getAckLinger()) :
+                null;
+
+        if (configuration.isAdaptiveWindow()) {
+            this.windowController = new AimdWindowController(sendWindow,
+                                                             configuration.getMinWindowSize(),
+                                                             configuration.getWindowSize(),
+                                                             configuration.getTargetAckLatency());
+        } else {
+            this.windowController = null;
+        }
+
+        this.sendWindow.setResponseListener(new ResponseListener<Sms, Ack>() {
+            @Override
+            public void responseReceived(Sms sms, Ack ack, long latencyNanos) {
+                recordAckLatency(latencyNanos);
+                if (windowController != null) {
+                    adjustWindow(ack, latencyNanos);
+                }
+            }
+        });
+
+        this.sendWindow.setExpiryListener(new ExpiryListener<Sms, Ack>() {
+            @Override
+            public void requestsExpired(List<WindowFuture<Sms, Ack>> expired) {
+                if (windowController != null) {
+                    windowController.onCongestion(AdjustmentReason.EXPIRED);
+                }
+                fireMessagesExpired(expired);
+            }
+        });
+
+        if (configuration.getWindowHighWaterMark() > 0) {
+            this.sendWindow.setWaterMarks(configuration.getWindowLowWaterMark(),
+                                          configuration.getWindowHighWaterMark());
+            this.sendWindow.setWaterMarkListener(new WaterMarkListener() {
+                @Override
+                public void highWaterMarkReached() {
+                    synchronized (backpressureLock) {
+                        windowAboveHighWaterMark = true;
+                        updateAccepting();
+                    }
+                }
+
+                @Override
+                public void lowWaterMarkReached() {
+                    synchronized (backpressureLock) {
+                        windowAboveHighWaterMark = false;
+                        updateAccepting();
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -107,6 +286,10 @@ public class ClientSession implements SessionCallbackHandler {
      */
     @Override
     public void fireInboundMessage(Message msg) throws InterruptedException {
+        if (reconnectAttempts != 0) {
+            reconnectAttempts = 0;
+        }
+
         MessageType messageType = msg.getType();
 
         switch (messageType){
@@ -117,11 +300,15 @@ public class ClientSession implements SessionCallbackHandler {
                 this.sessionHandler.fireAdminCommandReceived((Admin)msg);
                 break;
             case SMS:
-                this.sessionHandler.fireSmsReceived((Sms) msg);
+                moBacklog.incrementAndGet();
+                if (moDispatcher != null) {
+                    moDispatcher.dispatch((Sms) msg);
+                } else {
+                    this.sessionHandler.fireSmsReceived((Sms) msg);
+                }
                 break;
             case ACK:
-                Ack ack = (Ack) msg;
-                handleSmsAckResponse(ack, ack.getId());
+                handleSmsAckResponse((Ack) msg);
                 break;
             case DATAGRAM:
                 LOGGER.warn("Unsupported datagram message received");
@@ -154,15 +341,269 @@ public class ClientSession implements SessionCallbackHandler {
      */
     @Override
     public void fireConnectionClosed() {
+        if (startReconnecting()) {
+            return;
+        }
+
         Throwable cause = new ClosedChannelException();
 
-        this.sendWindow.failAll(cause);
+        this.sendWindow.failAll(cause, requeueSink);
 
         if (isClosed()) {
             LOGGER.debug("Unbind/close was requested, ignoring channelClosed event");
         } else {
             sessionHandler.fireChannelUnexpectedlyClosed();
         }
+        // without a reconnect the session is done, whether it was closed or not
+        closeFuture.set(this);
+    }
+
+    /**
+     * Pauses the session and schedules a reconnect if the session can reconnect
+     * @return true if the session reconnects, false if its sms should fail
+     */
+    private boolean startReconnecting() {
+        if (connector == null) {
+            return false;
+        }
+
+        synchronized (reconnectLock) {
+            if (state != State.OPEN && state != State.IDENTIFIED) {
+                return false;
+            }
+            if (reconnectAttempts >= configuration.getMaxReconnectAttempts()) {
+                LOGGER.error("The connection to {} dropped again before receiving anything, not reconnecting",
+                             getRemoteAddress().orNull());
+                return false;
+            }
+            reconnectedState = state;
+            reidentify = state == State.IDENTIFIED;
+            state = State.RECONNECTING;
+        }
+
+        synchronized (backpressureLock) {
+            connected = false;
+            updateAccepting();
+        }
+
+        LOGGER.warn("The connection to {} was lost with {} sms in flight, reconnecting",
+                    getRemoteAddress().orNull(), sendWindow.getSize());
+        scheduleReconnect();
+        return true;
+    }
+
+    private void scheduleReconnect() {
+        final int attempt = ++reconnectAttempts;
+        final long backoffMillis = Math.min(configuration.getMaxReconnectBackoff(),
+                                            configuration.getReconnectBackoff() << Math.min(attempt - 1, 20));
+
+        timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                final SessionConnector sessionConnector = connector;
+                if (state != State.RECONNECTING || sessionConnector == null) {
+                    return;
+                }
+
+                LOGGER.info("Reconnecting to {}:{}, attempt {}", configuration.getHost(), configuration.getPort(), attempt);
+                final ChannelFuture connectFuture;
+                try {
+                    connectFuture = sessionConnector.connect(ClientSession.this);
+                } catch (RuntimeException e) {
+                    reconnectFailed(e);
+                    return;
+                }
+
+                connectFuture.addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        if (future.isSuccess()) {
+                            reconnected(future.channel());
+                        } else {
+                            reconnectFailed(future.cause());
+                        }
+                    }
+                });
+            }
+        }, backoffMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconnectFailed(Throwable cause) {
+        if (state != State.RECONNECTING) {
+            return;
+        }
+        if (reconnectAttempts < configuration.getMaxReconnectAttempts()) {
+            LOGGER.warn("Reconnect attempt {} failed: {}", reconnectAttempts, cause.toString());
+            scheduleReconnect();
+            return;
+        }
+
+        synchronized (reconnectLock) {
+            if (state != State.RECONNECTING) {
+                return;
+            }
+            state = State.CLOSED;
+        }
+
+        LOGGER.error("Giving up reconnecting after {} attempts", reconnectAttempts, cause);
+        shutdownMoDispatcher();
+        heldWrites.clear();
+        this.sendWindow.failAll(new ClosedChannelException(), requeueSink);
+        sessionHandler.fireChannelUnexpectedlyClosed();
+        closeFuture.set(this);
+    }
+
+    /**
+     * Identifies the new connection and sends the sms of the window again with their original ids, their futures stay
+     * pending until their acks arrive on the new connection
+     * @param newChannel the new channel
+     */
+    private void reconnected(Channel newChannel) {
+        final Set<UUID> replayed = new HashSet<UUID>();
+
+        synchronized (reconnectLock) {
+            if (state != State.RECONNECTING) {
+                // closed or drained while connecting
+                newChannel.close();
+                return;
+            }
+
+            this.channel = newChannel;
+            if (moDispatcher != null) {
+                moDispatcher.channelChanged();
+            }
+            if (reidentify) {
+                sendMessage(new Admin(AdminCommand.IDENTIFY, configuration.getClientId()));
+            }
+
+            this.sendWindow.forEach(new WindowVisitor<UUID, Sms, Ack>() {
+                @Override
+                public void visit(UUID key, Sms sms, WindowFuture<Sms, Ack> future) {
+                    replayed.add(key);
+                    writeSmsNow(sms);
+                }
+            });
+            state = reconnectedState;
+        }
+
+        // the held sms may have been offered before the window was visited, those are already written
+        Sms held;
+        while ((held = heldWrites.poll()) != null) {
+            if (!replayed.contains(held.getId())) {
+                writeSmsNow(held);
+            }
+        }
+
+        synchronized (backpressureLock) {
+            connected = true;
+            channelWritable = newChannel.isWritable();
+            updateAccepting();
+        }
+
+        LOGGER.info("Reconnected to {}, {} sms sent again", getRemoteAddress().orNull(), replayed.size());
+    }
+
+    /**
+     * Makes the session reconnect through the given connector when its connection drops, if the configuration allows
+     * reconnect attempts
+     * @param connector the connector or null to disable reconnecting
+     */
+    void setConnector(@Nullable SessionConnector connector) {
+        this.connector = connector;
+    }
+
+    /**
+     * @return whether the session lost its connection and is reconnecting
+     */
+    public boolean isReconnecting() {
+        return State.RECONNECTING.equals(state);
+    }
+
+    /**
+     * Hands the sms of one expiry sweep to the session handler on the session executor, at once if it is an
+     * {@link ExpiryBatchHandler}
+     * @param expired the expired requests, which can only be read until the listener returns
+     */
+    private void fireMessagesExpired(List<WindowFuture<Sms, Ack>> expired) {
+        final List<Sms> messages = new ArrayList<Sms>(expired.size());
+        for (final WindowFuture<Sms, Ack> future : expired) {
+            messages.add(future.getRequest());
+        }
+
+        final Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                final SessionHandler handler = sessionHandler;
+                if (handler == null) {
+                    return;
+                }
+                if (handler instanceof ExpiryBatchHandler) {
+                    ((ExpiryBatchHandler) handler).fireMessagesExpired(messages);
+                } else {
+                    for (final Sms sms : messages) {
+                        handler.fireMessageExpired(sms);
+                    }
+                }
+            }
+        };
+
+        try {
+            getSessionExecutor().execute(delivery);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("The session executor is shut down, delivering the expired sms on the timer thread");
+            delivery.run();
+        }
+    }
+
+    /**
+     * @return the executor that fires the session events, or the event loop of the channel before the session
+     *         handler is added to its pipeline
+     */
+    private Executor getSessionExecutor() {
+        final ChannelHandlerContext context = channel.pipeline().context(HandlerType.SESSION_WRAPPER.name());
+        return context == null ? channel.eventLoop() : context.executor();
+    }
+
+    /**
+     * Sets the sink that receives the in flight and pending sms when the connection closes, before their futures
+     * fail, so that they can be sent again over another session
+     * @param requeueSink the sink or null to only fail the sms
+     */
+    public void setRequeueSink(@Nullable WindowVisitor<UUID, Sms, Ack> requeueSink) {
+        this.requeueSink = requeueSink;
+    }
+
+    /**
+     * Informs the session that the writability of its channel changed
+     * @param writable true if the channel accepts writes without queueing them beyond the high water mark
+     */
+    @Override
+    public void fireChannelWritabilityChanged(boolean writable) {
+        synchronized (backpressureLock) {
+            channelWritable = writable;
+            updateAccepting();
+        }
+    }
+
+    /**
+     * Counts a coalesced flush of the session channel
+     * @param messages the number of messages in the flush
+     */
+    @Override
+    public void fireFlushed(int messages) {
+        flushes.incrementAndGet();
+        flushedMessages.addAndGet(messages);
+    }
+
+    /**
+     * A session stops accepting sms while its window is above the high water mark, its channel is not writable or it
+     * is reconnecting.
+     * A session handler that is a {@link BackpressureHandler} is informed of every change, so producers do not have to
+     * poll the window size.
+     * @return true if the session accepts new sms
+     */
+    public boolean isAccepting() {
+        return accepting && !isDraining();
     }
 
     /**
@@ -176,6 +617,7 @@ public class ClientSession implements SessionCallbackHandler {
         try {
             sendMessage(identifyCommand).syncUninterruptibly();
             state = State.IDENTIFIED;
+            startHeartbeats();
             sessionHandler.fireSessionInitialized(this);
         } catch (Exception throwable){
             LOGGER.error("Exception thrown while trying to identify to the bearer-box.", throwable);
@@ -184,6 +626,42 @@ public class ClientSession implements SessionCallbackHandler {
         }
     }
 
+    /**
+     * Identifies to the remote bearer-box without blocking. When the identify command can not be written the session
+     * is closed and the returned future fails.
+     * @param identifyCommand the identify command
+     * @return a future that completes with this session once it is identified
+     */
+    @Nonnull
+    public ListenableFuture<ClientSession> identifyAsync(Admin identifyCommand) {
+        if(identifyCommand.getAdminCommand() != AdminCommand.IDENTIFY)
+            throw new IllegalStateException("The command must be an IDENTIFY");
+
+        final SettableFuture<ClientSession> identified = SettableFuture.create();
+        sendMessage(identifyCommand).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.isSuccess()) {
+                    state = State.IDENTIFIED;
+                    startHeartbeats();
+                    sessionHandler.fireSessionInitialized(ClientSession.this);
+                    identified.set(ClientSession.this);
+                    return;
+                }
+
+                LOGGER.error("Exception thrown while trying to identify to the bearer-box.", future.cause());
+                // the listener may run on the event loop, so the close is not waited for
+                close(0);
+                if (future.isCancelled()) {
+                    identified.cancel(false);
+                } else {
+                    identified.setException(future.cause());
+                }
+            }
+        });
+        return identified;
+    }
+
     /**
      * @return true if the session is identified to the remote bearer-box
      */
@@ -200,13 +678,102 @@ public class ClientSession implements SessionCallbackHandler {
 
     /**
      * Closes the channel with the specified timeout
-     * @param timeoutInMillis the timeout in milliseconds
+     * @param timeoutInMillis the timeout in milliseconds, 0 to close without waiting
      */
     public void close(long timeoutInMillis) {
-        if (channel.isActive()) {
-            channel.close().awaitUninterruptibly(timeoutInMillis);
+        final boolean wasReconnecting;
+        synchronized (reconnectLock) {
+            wasReconnecting = isReconnecting();
+            this.state = State.CLOSED;
+        }
+        shutdownMoDispatcher();
+        if (ackBatcher != null) {
+            ackBatcher.flush();
+        }
+
+        final Channel current = channel;
+        if (current.isActive()) {
+            final ChannelFuture closeFuture = current.close();
+            if (timeoutInMillis > 0) {
+                closeFuture.awaitUninterruptibly(timeoutInMillis);
+            }
+        }
+
+        if (wasReconnecting) {
+            // nothing else fails the sms held by the reconnect
+            heldWrites.clear();
+            this.sendWindow.failAll(new ClosedChannelException(), requeueSink);
+        }
+        closeFuture.set(this);
+    }
+
+    private void shutdownMoDispatcher() {
+        if (moDispatcher != null) {
+            moDispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Stops accepting new sms while the outstanding ones are still acknowledged. Sending an sms through a draining
+     * session fails with an {@link IllegalStateException}.
+     */
+    public void startDraining() {
+        synchronized (reconnectLock) {
+            if (state == State.RECONNECTING) {
+                // the window still has to be sent again on the new connection before its acks can arrive
+                reconnectedState = State.DRAINING;
+            } else if (!isClosed()) {
+                this.state = State.DRAINING;
+            }
+        }
+    }
+
+    /**
+     * @return whether the session is draining, or reconnecting to drain
+     */
+    public boolean isDraining() {
+        final State current = state;
+        return State.DRAINING.equals(current) ||
+               (State.RECONNECTING.equals(current) && State.DRAINING.equals(reconnectedState));
+    }
+
+    /**
+     * Waits until every outstanding sms of the session is acknowledged or has failed
+     * @param timeoutMillis the maximum time to wait
+     * @return true if no sms is outstanding anymore
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    public boolean awaitDrained(long timeoutMillis) throws InterruptedException {
+        return sendWindow.awaitEmpty(Math.max(0, timeoutMillis));
+    }
+
+    /**
+     * Stops accepting new sms, waits for the outstanding ones to be acknowledged and then closes the session. The sms
+     * still outstanding at the deadline fail with a {@link ClosedChannelException} and are returned, so that they
+     * can be sent again over another session.
+     * @param timeoutMillis the maximum time to wait for the outstanding sms
+     * @return the sms that were not acknowledged in time
+     * @throws InterruptedException when the waiting thread is interrupted, the session is then left draining
+     */
+    @Nonnull
+    public List<Sms> drainAndClose(long timeoutMillis) throws InterruptedException {
+        startDraining();
+        awaitDrained(timeoutMillis);
+
+        final List<Sms> remaining = new ArrayList<Sms>();
+        this.sendWindow.failAll(new ClosedChannelException(), new WindowVisitor<UUID, Sms, Ack>() {
+            @Override
+            public void visit(UUID key, Sms sms, WindowFuture<Sms, Ack> future) {
+                remaining.add(sms);
+            }
+        });
+        if (!remaining.isEmpty()) {
+            LOGGER.info("Closing the session to {} with {} unacknowledged sms",
+                        getRemoteAddress().orNull(), remaining.size());
         }
-        this.state = State.CLOSED;
+
+        close();
+        return remaining;
     }
 
     /**
@@ -216,6 +783,15 @@ public class ClientSession implements SessionCallbackHandler {
         return State.CLOSED.equals(state);
     }
 
+    /**
+     * @return a future that completes with this session once it is closed, gave up reconnecting or lost its
+     * connection without reconnecting
+     */
+    @Nonnull
+    public ListenableFuture<ClientSession> getCloseFuture() {
+        return closeFuture;
+    }
+
     /**
      * Close and destroy this session
      */
@@ -237,11 +813,20 @@ public class ClientSession implements SessionCallbackHandler {
     public Ack sendSmsAndWait(Sms sms, long timeoutInMillis) throws
                                                              InterruptedException,
                                                              ExecutionException {
-        return sendSms(sms, timeoutInMillis).get();
+        final WindowFuture<Sms, Ack> future = sendSms(sms, timeoutInMillis);
+        try {
+            return future.get();
+        } finally {
+            // an interrupted wait leaves the future pending, it is then simply not recycled
+            if (future.isDone()) {
+                future.release();
+            }
+        }
     }
 
     /**
-     * Asynchronously sends an sms
+     * Asynchronously sends an sms. An sms whose {@link Sms#getDeadline() deadline} passes before it is written is
+     * failed with a {@link StaleSmsException} instead, and the wait for a window slot never outlasts the deadline.
      * @param sms           the sms to send
      * @param timeoutMillis the timeout for an open window slot to appear
      * @return the future on the operation
@@ -252,34 +837,56 @@ public class ClientSession implements SessionCallbackHandler {
     public WindowFuture<Sms, Ack> sendSms(final Sms sms,
                                           final long timeoutMillis) throws InterruptedException {
 
-        // Generate UUID if null
-        if (sms.getId() == null) {
-            sms.setId(UUID.randomUUID());
-        }
+        prepareSms(sms);
 
-        // Apply the current client id if null
-        if(sms.getBoxId() == null)
-            sms.setBoxId(configuration.getClientId());
+        final long remainingMillis = getRemainingMillis(sms);
+        if (remainingMillis <= 0) {
+            return rejectStale(sms);
+        }
 
         WindowFuture future = sendWindow.offer(sms.getId(),
                                                sms,
-                                               timeoutMillis,
+                                               sms.getPriority(),
+                                               Math.min(timeoutMillis, remainingMillis),
                                                configuration.getRequestExpiryTimeout());
 
-        sendMessage(sms).addListener(new GenericFutureListener<Future<? super Void>>() {
-            @Override
-            public void operationComplete(Future<? super Void> channelFuture) throws Exception {
-                if (!channelFuture.isSuccess() && !channelFuture.isCancelled()) {
-                    sendWindow.fail(sms.getId(), channelFuture.cause());
-                } else if (channelFuture.isCancelled()) {
-                    sendWindow.cancel(sms.getId(), true);
-                }
-            }
-        });
+        writeSms(sms);
 
         return future;
     }
 
+    /**
+     * Asynchronously sends an sms without blocking the calling thread. When the window is full the sms waits in the
+     * pending queue of the window and is written to the channel as soon as a slot is freed. Like in
+     * {@link #sendSms(Sms, long)} a stale sms is failed with a {@link StaleSmsException} instead of being written.
+     * @param sms           the sms to send
+     * @param timeoutMillis the timeout for an open window slot to appear, values below 1 wait forever
+     * @return the future on the operation
+     */
+    @Nonnull
+    public WindowFuture<Sms, Ack> sendSmsAsync(final Sms sms, final long timeoutMillis) {
+
+        prepareSms(sms);
+
+        final long remainingMillis = getRemainingMillis(sms);
+        if (remainingMillis <= 0) {
+            return rejectStale(sms);
+        }
+
+        // a timeout below 1 waits forever, so only a deadline can bound it
+        long offerTimeoutMillis = timeoutMillis;
+        if (remainingMillis != Long.MAX_VALUE && (timeoutMillis <= 0 || timeoutMillis > remainingMillis)) {
+            offerTimeoutMillis = remainingMillis;
+        }
+
+        return sendWindow.offerAsync(sms.getId(),
+                                     sms,
+                                     sms.getPriority(),
+                                     offerTimeoutMillis,
+                                     configuration.getRequestExpiryTimeout(),
+                                     smsWriter);
+    }
+
     /**
      * Send an heartbeat message to the remote server
      * @param heartBeat the heartbeat message
@@ -291,24 +898,295 @@ public class ClientSession implements SessionCallbackHandler {
     }
 
     /**
-     * Send an ack message to the remote server
+     * Send an ack message to the remote server. With ack batches the ack is written with the next batch.
      * @param ack the ack message
      * @return the channel future of this operation
+     * @see ClientSessionConfiguration#setAckBatchSize(int)
      */
     @Nonnull
     public Future sendAck(Ack ack){
-        return sendMessage(ack);
+        decrementMoBacklog();
+        return ackBatcher != null ? ackBatcher.add(ack) : sendMessage(ack);
+    }
+
+    /**
+     * Takes a received sms out of the backlog, when it is acked or dropped without reaching the handler
+     */
+    void decrementMoBacklog() {
+        // acks for sms that were not received here must not take the backlog below zero
+        int backlog;
+        do {
+            backlog = moBacklog.get();
+        } while (backlog > 0 && !moBacklog.compareAndSet(backlog, backlog - 1));
     }
 
-    private void handleSmsAckResponse(Ack ack, UUID receivedMsgUUID) throws InterruptedException {
-        final WindowFuture<Sms, Ack> future = this.sendWindow.complete(receivedMsgUUID, ack);
+    /**
+     * Acks a received sms once the handler has finished with it, so handlers can complete sms asynchronously. The ack
+     * carries the type the completion resolves to, a failed completion is acked as {@link AckType#FAILED_TMP} so that
+     * the bearer-box sends the sms again.
+     * @param sms the received sms
+     * @param completion the future of the handling of the sms
+     */
+    public void ackWhenComplete(final Sms sms, ListenableFuture<AckType> completion) {
+        Futures.addCallback(completion, new FutureCallback<AckType>() {
+            @Override
+            public void onSuccess(@Nullable AckType result) {
+                sendAck(new Ack(sms.getId(), result == null ? AckType.SUCCESS : result, (int) System.currentTimeMillis()));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                LOGGER.warn("Handling of the received sms [{}] failed, asking for it again", sms.getId(), t);
+                sendAck(new Ack(sms.getId(), AckType.FAILED_TMP, (int) System.currentTimeMillis()));
+            }
+        });
+    }
+
+    /**
+     * The load reported to the bearer-box by the heartbeats, which routes the received sms to the least loaded box.
+     * It is the number of received sms that have not been acked yet plus the window occupancy in percent, so a box
+     * that falls behind on either side gets less traffic.
+     * @return the load of this session
+     */
+    public int getLoad() {
+        final int limit = sendWindow.getSizeLimit();
+        return moBacklog.get() + (limit == 0 ? 0 : (int) (sendWindow.getSize() * 100L / limit));
+    }
+
+    /**
+     * @return the number of received sms that have not been acked yet
+     */
+    public int getMoBacklog() {
+        return moBacklog.get();
+    }
+
+    /**
+     * @return the number of received sms waiting for a worker, always 0 without received sms workers
+     * @see ClientSessionConfiguration#setMoDispatchThreads(int)
+     */
+    public int getMoQueued() {
+        return moDispatcher == null ? 0 : moDispatcher.getQueued();
+    }
+
+    /**
+     * @return true while the channel reads are paused because the received sms queue is full
+     */
+    public boolean isReadPaused() {
+        return moDispatcher != null && moDispatcher.isReadPaused();
+    }
+
+    private void startHeartbeats() {
+        if (configuration.getHeartbeatInterval() > 0 && heartbeatsStarted.compareAndSet(false, true)) {
+            scheduleHeartbeat();
+        }
+    }
+
+    private void scheduleHeartbeat() {
+        timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                final State current = state;
+                if (current == State.CLOSED) {
+                    return;
+                }
+
+                // a reconnecting session skips the beat, the new channel gets the next one
+                if (current == State.IDENTIFIED || current == State.DRAINING) {
+                    sendHeartBeat(new HeartBeat(getLoad()));
+                }
+                scheduleHeartbeat();
+            }
+        }, configuration.getHeartbeatInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    private void handleSmsAckResponse(Ack ack) throws InterruptedException {
+        if (!ack.hasId()) {
+            sessionHandler.fireUnexpectedAckReceived(ack);
+            return;
+        }
+
+        if (retryPolicy.isRetryable(ack.getResponse()) && scheduleRetry(ack)) {
+            return;
+        }
+
+        final WindowFuture<Sms, Ack> future = this.sendWindow.complete(ack.getIdMostSigBits(),
+                                                                       ack.getIdLeastSigBits(),
+                                                                       ack);
 
         if (future == null) {
             sessionHandler.fireUnexpectedAckReceived(ack);
             return;
         }
 
-        LOGGER.trace("Found a future in the window for id [{}]", ack.getId());
+        LOGGER.trace("Found a future in the window for ack [{}]", ack);
+    }
+
+    /**
+     * Schedules the resend of a temporarily failed sms. The sms keeps its window slot until it is resent, so its
+     * future only completes with the ack of the last try.
+     * @param ack the ack of the failed try
+     * @return false if the ack should complete the sms instead
+     */
+    private boolean scheduleRetry(Ack ack) {
+        final UUID id = ack.getId();
+        final WindowFuture<Sms, Ack> future = this.sendWindow.get(id);
+        if (future == null) {
+            return false;
+        }
+
+        final Sms sms = future.getRequest();
+        final int retry = Math.max(0, sms.getResendTry()) + 1;
+        if (retry > retryPolicy.getMaxRetries()) {
+            return false;
+        }
+        if (outstandingRetries.incrementAndGet() > retryPolicy.getMaxOutstandingRetries()) {
+            outstandingRetries.decrementAndGet();
+            return false;
+        }
+
+        final long backoffMillis = retryPolicy.getBackoffMillis(retry, retryJitter);
+        sms.setResendTry(retry);
+        sms.setResendTime((int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() + backoffMillis));
+
+        if (windowController != null) {
+            adjustWindow(ack, 0);
+        }
+
+        timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                outstandingRetries.decrementAndGet();
+
+                // the sms may have expired or failed while it was waiting
+                if (sendWindow.get(id) == future) {
+                    LOGGER.debug("Resending sms [{}], try {}", id, retry);
+                    writeSms(sms);
+                }
+            }
+        }, backoffMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void recordAckLatency(long latencyNanos) {
+        final long average = ackLatencyNanos;
+        ackLatencyNanos = average == 0 ? latencyNanos : average + (latencyNanos - average) / ACK_LATENCY_SMOOTHING;
+        lastAckNanos = System.nanoTime();
+    }
+
+    private void adjustWindow(Ack ack, long latencyNanos) {
+        final AckType response = ack.getResponse();
+        if (response == AckType.FAILED_TMP) {
+            windowController.onCongestion(AdjustmentReason.TEMPORARY_FAILURE);
+        } else if (response == AckType.BUFFERED) {
+            windowController.onCongestion(AdjustmentReason.BUFFERED);
+        } else {
+            windowController.onResponse(latencyNanos);
+        }
+    }
+
+    private void updateAccepting() {
+        final boolean nowAccepting = connected && channelWritable && !windowAboveHighWaterMark;
+        if (nowAccepting == accepting) {
+            return;
+        }
+        accepting = nowAccepting;
+
+        final SessionHandler handler = sessionHandler;
+        if (!(handler instanceof BackpressureHandler)) {
+            return;
+        }
+        if (nowAccepting) {
+            ((BackpressureHandler) handler).fireSessionResumed(this);
+        } else {
+            ((BackpressureHandler) handler).fireSessionPaused(this);
+        }
+    }
+
+    private void prepareSms(Sms sms) {
+        checkState(!isDraining(), "The session is draining");
+
+        // Generate UUID if null
+        if (sms.getId() == null) {
+            sms.setId(UUID.randomUUID());
+        }
+
+        // Apply the current client id if null
+        if(sms.getBoxId() == null)
+            sms.setBoxId(configuration.getClientId());
+
+        // A validity makes the sms useless once it has passed, even if it never left the client
+        if (sms.getDeadline() <= 0 && sms.getValidity() > 0) {
+            final long createdMillis = sms.getTime() > 0 ?
+                    TimeUnit.SECONDS.toMillis(sms.getTime()) :
+                    System.currentTimeMillis();
+            sms.setDeadline(createdMillis + TimeUnit.MINUTES.toMillis(sms.getValidity()));
+        }
+    }
+
+    /**
+     * @param sms the sms
+     * @return the millis left until the deadline of the sms, {@link Long#MAX_VALUE} if it has none
+     */
+    private static long getRemainingMillis(Sms sms) {
+        return sms.getDeadline() <= 0 ? Long.MAX_VALUE : sms.getDeadline() - System.currentTimeMillis();
+    }
+
+    private WindowFuture<Sms, Ack> rejectStale(Sms sms) {
+        staleDropped.incrementAndGet();
+        LOGGER.debug("Dropping stale sms [{}] before offering it", sms.getId());
+        return sendWindow.reject(sms.getId(), sms, new StaleSmsException("The sms deadline passed before it was sent"));
+    }
+
+    private void writeSms(final Sms sms) {
+        if (state == State.RECONNECTING) {
+            // re-check once held, the reconnect may have drained the held sms in between
+            heldWrites.add(sms);
+            if (state == State.RECONNECTING || !heldWrites.remove(sms)) {
+                return;
+            }
+        }
+        writeSmsNow(sms);
+    }
+
+    private void writeSmsNow(final Sms sms) {
+        if (getRemainingMillis(sms) <= 0) {
+            // free the slot instead of spending bearer-box capacity on a message nobody waits for, counting it
+            // first so the count is already up to date when the future listeners run
+            staleDropped.incrementAndGet();
+            if (sendWindow.fail(sms.getId(), new StaleSmsException("The sms deadline passed before it was written")) == null) {
+                staleDropped.decrementAndGet();
+            } else {
+                LOGGER.debug("Dropped stale sms [{}] before writing it", sms.getId());
+            }
+            return;
+        }
+
+        final ChannelFuture writeFuture = sendMessage(sms);
+        writeFuture.addListener(new GenericFutureListener<Future<? super Void>>() {
+            @Override
+            public void operationComplete(Future<? super Void> channelFuture) throws Exception {
+                if (!channelFuture.isSuccess() && !channelFuture.isCancelled()) {
+                    if (willReplay(writeFuture.channel())) {
+                        LOGGER.debug("Keeping sms [{}] for the reconnect, its connection dropped", sms.getId());
+                        return;
+                    }
+                    sendWindow.fail(sms.getId(), channelFuture.cause());
+                } else if (channelFuture.isCancelled()) {
+                    sendWindow.cancel(sms.getId(), true);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param written the channel an sms failed to be written to
+     * @return true if the sms stays in the window to be sent again by a reconnect
+     */
+    private boolean willReplay(Channel written) {
+        final State current = state;
+        return connector != null && !written.isActive() &&
+               (current == State.OPEN || current == State.IDENTIFIED || current == State.RECONNECTING) &&
+               reconnectAttempts < configuration.getMaxReconnectAttempts();
     }
 
     private ChannelFuture sendMessage(Message message) {
@@ -355,6 +1233,30 @@ public class ClientSession implements SessionCallbackHandler {
         return this.sendWindow;
     }
 
+    /**
+     * Changes the maximum window size without reconnecting. The sms in flight are kept, when shrinking the window the
+     * new sms wait until enough of them complete. With an adaptive window the size is the new highest limit of the
+     * window controller.
+     * @param windowSize the new maximum window size
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowController == null) {
+            sendWindow.resize(windowSize);
+            return;
+        }
+
+        synchronized (windowController) {
+            // the controller limit has to fit in the window at all times
+            if (windowSize < windowController.getMaxLimit()) {
+                windowController.setMaxLimit(windowSize);
+                sendWindow.resize(windowSize);
+            } else {
+                sendWindow.resize(windowSize);
+                windowController.setMaxLimit(windowSize);
+            }
+        }
+    }
+
     /**
      * @return the maximum window size
      */
@@ -371,6 +1273,59 @@ public class ClientSession implements SessionCallbackHandler {
         return sendWindow.getSize();
     }
 
+    /**
+     * @return the number of sms failed locally with a {@link StaleSmsException} because their deadline had passed
+     */
+    public long getStaleDroppedCount() {
+        return staleDropped.get();
+    }
+
+    /**
+     * @return the number of coalesced flushes, always 0 when flush coalescing is disabled
+     * @see ClientSessionConfiguration#setFlushCoalescing(boolean)
+     */
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    /**
+     * @return the number of messages written by the coalesced flushes, divided by {@link #getFlushCount()} it gives
+     * the average number of messages per flush
+     */
+    public long getFlushedMessageCount() {
+        return flushedMessages.get();
+    }
+
+    /**
+     * @return the moving average of the time between writing an sms and receiving its ack in nanoseconds, 0 before
+     * the first ack
+     */
+    public long getAckLatencyNanos() {
+        return ackLatencyNanos;
+    }
+
+    /**
+     * @return the nanoseconds since {@link #getAckLatencyNanos()} was last updated, 0 before the first ack
+     */
+    public long getAckLatencyAgeNanos() {
+        return ackLatencyNanos == 0 ? 0 : System.nanoTime() - lastAckNanos;
+    }
+
+    /**
+     * @return the number of resends that are waiting for their backoff to pass
+     */
+    public int getOutstandingRetries() {
+        return outstandingRetries.get();
+    }
+
+    /**
+     * @return the controller of the adaptive send window, absent when the window has a fixed size
+     */
+    @Nonnull
+    public Optional<AimdWindowController> getWindowController() {
+        return Optional.fromNullable(windowController);
+    }
+
     /**
      * @return the handler for this session
      */
@@ -23,6 +23,11 @@
 
 package com.github.spapageo.jannel.client;
 
+import com.github.spapageo.jannel.windowing.FutureRecycling;
+import com.github.spapageo.jannel.windowing.OverflowPolicy;
+import com.github.spapageo.jannel.windowing.PriorityClasses;
+import com.github.spapageo.jannel.windowing.WindowEngine;
+
 /**
  * Configuration used for the session and client connection to the bearer-box
  */
@@ -38,6 +43,56 @@ public class ClientSessionConfiguration {
 
     public static final String DEFAULT_CLIENT_NAME = "jannel_client";
 
+    public static final WindowEngine DEFAULT_WINDOW_ENGINE = WindowEngine.CONCURRENT_MAP;
+
+    public static final int DEFAULT_MAX_PENDING_OFFERS = 1000;
+
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.REJECT;
+
+    public static final boolean DEFAULT_ADAPTIVE_WINDOW = false;
+
+    public static final int DEFAULT_MIN_WINDOW_SIZE = 1;
+
+    public static final long DEFAULT_TARGET_ACK_LATENCY = 1000;
+
+    public static final FutureRecycling DEFAULT_FUTURE_RECYCLING = FutureRecycling.NONE;
+
+    public static final PriorityClasses DEFAULT_PRIORITY_CLASSES = PriorityClasses.NONE;
+
+    public static final int DEFAULT_WINDOW_HIGH_WATER_MARK = 0;
+
+    public static final int DEFAULT_WINDOW_LOW_WATER_MARK = 0;
+
+    public static final int DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 0;
+
+    public static final int DEFAULT_WRITE_BUFFER_LOW_WATER_MARK = 0;
+
+    public static final RetryPolicy DEFAULT_RETRY_POLICY = RetryPolicy.NONE;
+
+    public static final int DEFAULT_MAX_RECONNECT_ATTEMPTS = 0;
+
+    public static final long DEFAULT_RECONNECT_BACKOFF = 500;
+
+    public static final long DEFAULT_MAX_RECONNECT_BACKOFF = 30000;
+
+    public static final boolean DEFAULT_FLUSH_COALESCING = false;
+
+    public static final int DEFAULT_MAX_COALESCED_MESSAGES = 64;
+
+    public static final int DEFAULT_MAX_COALESCED_BYTES = 64 * 1024;
+
+    public static final long DEFAULT_FLUSH_LINGER = 0;
+
+    public static final long DEFAULT_HEARTBEAT_INTERVAL = 0;
+
+    public static final int DEFAULT_MO_DISPATCH_THREADS = 0;
+
+    public static final int DEFAULT_MO_QUEUE_CAPACITY = 1000;
+
+    public static final int DEFAULT_ACK_BATCH_SIZE = 0;
+
+    public static final long DEFAULT_ACK_LINGER = 10;
+
     private String host;
 
     private int port;
@@ -52,6 +107,56 @@ public class ClientSessionConfiguration {
 
     private long writeTimeout;
 
+    private WindowEngine windowEngine;
+
+    private int maxPendingOffers;
+
+    private OverflowPolicy overflowPolicy;
+
+    private boolean adaptiveWindow;
+
+    private int minWindowSize;
+
+    private long targetAckLatency;
+
+    private FutureRecycling futureRecycling;
+
+    private PriorityClasses priorityClasses;
+
+    private int windowHighWaterMark;
+
+    private int windowLowWaterMark;
+
+    private int writeBufferHighWaterMark;
+
+    private int writeBufferLowWaterMark;
+
+    private RetryPolicy retryPolicy;
+
+    private int maxReconnectAttempts;
+
+    private long reconnectBackoff;
+
+    private long maxReconnectBackoff;
+
+    private boolean flushCoalescing;
+
+    private int maxCoalescedMessages;
+
+    private int maxCoalescedBytes;
+
+    private long flushLinger;
+
+    private long heartbeatInterval;
+
+    private int moDispatchThreads;
+
+    private int moQueueCapacity;
+
+    private int ackBatchSize;
+
+    private long ackLinger;
+
     public ClientSessionConfiguration() {
         this(DEFAULT_CLIENT_NAME);
     }
@@ -62,6 +167,31 @@ public class ClientSessionConfiguration {
         this.requestExpiryTimeout = DEFAULT_REQUEST_EXPIRY_TIMEOUT;
         this.writeTimeout = DEFAULT_WRITE_TIMEOUT;
         this.connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        this.windowEngine = DEFAULT_WINDOW_ENGINE;
+        this.maxPendingOffers = DEFAULT_MAX_PENDING_OFFERS;
+        this.overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+        this.adaptiveWindow = DEFAULT_ADAPTIVE_WINDOW;
+        this.minWindowSize = DEFAULT_MIN_WINDOW_SIZE;
+        this.targetAckLatency = DEFAULT_TARGET_ACK_LATENCY;
+        this.futureRecycling = DEFAULT_FUTURE_RECYCLING;
+        this.priorityClasses = DEFAULT_PRIORITY_CLASSES;
+        this.windowHighWaterMark = DEFAULT_WINDOW_HIGH_WATER_MARK;
+        this.windowLowWaterMark = DEFAULT_WINDOW_LOW_WATER_MARK;
+        this.writeBufferHighWaterMark = DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK;
+        this.writeBufferLowWaterMark = DEFAULT_WRITE_BUFFER_LOW_WATER_MARK;
+        this.retryPolicy = DEFAULT_RETRY_POLICY;
+        this.maxReconnectAttempts = DEFAULT_MAX_RECONNECT_ATTEMPTS;
+        this.reconnectBackoff = DEFAULT_RECONNECT_BACKOFF;
+        this.maxReconnectBackoff = DEFAULT_MAX_RECONNECT_BACKOFF;
+        this.flushCoalescing = DEFAULT_FLUSH_COALESCING;
+        this.maxCoalescedMessages = DEFAULT_MAX_COALESCED_MESSAGES;
+        this.maxCoalescedBytes = DEFAULT_MAX_COALESCED_BYTES;
+        this.flushLinger = DEFAULT_FLUSH_LINGER;
+        this.heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+        this.moDispatchThreads = DEFAULT_MO_DISPATCH_THREADS;
+        this.moQueueCapacity = DEFAULT_MO_QUEUE_CAPACITY;
+        this.ackBatchSize = DEFAULT_ACK_BATCH_SIZE;
+        this.ackLinger = DEFAULT_ACK_LINGER;
     }
 
     public void setWindowSize(int value) {
@@ -72,6 +202,403 @@ public class ClientSessionConfiguration {
         return this.windowSize;
     }
 
+    /**
+     * Sets the engine used for the bookkeeping of the send window. Defaults to
+     * {@link WindowEngine#CONCURRENT_MAP}.
+     * @param windowEngine the window engine
+     */
+    public void setWindowEngine(WindowEngine windowEngine) {
+        this.windowEngine = windowEngine;
+    }
+
+    /**
+     * @return the engine used for the bookkeeping of the send window
+     */
+    public WindowEngine getWindowEngine() {
+        return windowEngine;
+    }
+
+    /**
+     * Sets the maximum number of asynchronous sends that may wait for a free window slot. Defaults to 1000.
+     * @param maxPendingOffers the maximum number of pending sends
+     */
+    public void setMaxPendingOffers(int maxPendingOffers) {
+        this.maxPendingOffers = maxPendingOffers;
+    }
+
+    /**
+     * @return the maximum number of asynchronous sends that may wait for a free window slot
+     */
+    public int getMaxPendingOffers() {
+        return maxPendingOffers;
+    }
+
+    /**
+     * Sets what happens to an asynchronous send when the pending queue is full. Defaults to
+     * {@link OverflowPolicy#REJECT}.
+     * @param overflowPolicy the overflow policy
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return what happens to an asynchronous send when the pending queue is full
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Enables the adaptive sizing of the send window. The window then starts at the minimum window size and grows
+     * up to the window size while the acks arrive within the target latency. Late acks, temporary failures, buffered
+     * acks and expiries shrink it again. Defaults to false.
+     * @param adaptiveWindow true to enable the adaptive window
+     */
+    public void setAdaptiveWindow(boolean adaptiveWindow) {
+        this.adaptiveWindow = adaptiveWindow;
+    }
+
+    /**
+     * @return true if the send window is sized adaptively
+     */
+    public boolean isAdaptiveWindow() {
+        return adaptiveWindow;
+    }
+
+    /**
+     * Sets the lowest size of an adaptive send window. Defaults to 1.
+     * @param minWindowSize the minimum window size
+     */
+    public void setMinWindowSize(int minWindowSize) {
+        this.minWindowSize = minWindowSize;
+    }
+
+    /**
+     * @return the lowest size of an adaptive send window
+     */
+    public int getMinWindowSize() {
+        return minWindowSize;
+    }
+
+    /**
+     * Sets the highest ack latency in milliseconds that still lets an adaptive send window grow. Defaults to 1000.
+     * @param targetAckLatency the target ack latency
+     */
+    public void setTargetAckLatency(long targetAckLatency) {
+        this.targetAckLatency = targetAckLatency;
+    }
+
+    /**
+     * @return the highest ack latency in milliseconds that still lets an adaptive send window grow
+     */
+    public long getTargetAckLatency() {
+        return targetAckLatency;
+    }
+
+    /**
+     * Sets whether the futures of the sent sms are recycled. With recycling enabled the caller must release every
+     * future it gets from the session once it is done with it. Defaults to {@link FutureRecycling#NONE}.
+     * @param futureRecycling the future recycling mode
+     */
+    public void setFutureRecycling(FutureRecycling futureRecycling) {
+        this.futureRecycling = futureRecycling;
+    }
+
+    /**
+     * @return whether the futures of the sent sms are recycled
+     */
+    public FutureRecycling getFutureRecycling() {
+        return futureRecycling;
+    }
+
+    /**
+     * Sets the priority classes of the send window. The sms that wait for a window slot are then admitted by their
+     * {@link com.github.spapageo.jannel.msg.Sms#getPriority()}. Defaults to {@link PriorityClasses#NONE}.
+     * @param priorityClasses the priority classes
+     */
+    public void setPriorityClasses(PriorityClasses priorityClasses) {
+        this.priorityClasses = priorityClasses;
+    }
+
+    /**
+     * @return the priority classes of the send window
+     */
+    public PriorityClasses getPriorityClasses() {
+        return priorityClasses;
+    }
+
+    /**
+     * Sets the number of used window slots at which the session is paused. Defaults to 0, which disables it.
+     * @param windowHighWaterMark the window high water mark
+     */
+    public void setWindowHighWaterMark(int windowHighWaterMark) {
+        this.windowHighWaterMark = windowHighWaterMark;
+    }
+
+    /**
+     * @return the number of used window slots at which the session is paused
+     */
+    public int getWindowHighWaterMark() {
+        return windowHighWaterMark;
+    }
+
+    /**
+     * Sets the number of used window slots at or below which a session paused by its window is resumed. Defaults to 0.
+     * @param windowLowWaterMark the window low water mark
+     */
+    public void setWindowLowWaterMark(int windowLowWaterMark) {
+        this.windowLowWaterMark = windowLowWaterMark;
+    }
+
+    /**
+     * @return the number of used window slots at or below which a session paused by its window is resumed
+     */
+    public int getWindowLowWaterMark() {
+        return windowLowWaterMark;
+    }
+
+    /**
+     * Sets the number of queued outbound bytes at which the channel stops being writable and the session is paused.
+     * Defaults to 0, which keeps the Netty default.
+     * @param writeBufferHighWaterMark the write buffer high water mark in bytes
+     */
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    /**
+     * @return the number of queued outbound bytes at which the channel stops being writable
+     */
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    /**
+     * Sets the number of queued outbound bytes below which the channel is writable again. Defaults to 0, which keeps
+     * the Netty default.
+     * @param writeBufferLowWaterMark the write buffer low water mark in bytes
+     */
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    /**
+     * @return the number of queued outbound bytes below which the channel is writable again
+     */
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    /**
+     * Sets how the sms that the bearer-box temporarily failed are resent. Defaults to {@link RetryPolicy#NONE}.
+     * @param retryPolicy the retry policy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the retry policy of the temporarily failed sms
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets how many times in a row a session tries to reconnect after its connection drops. While it reconnects the
+     * session is paused and its in flight sms stay pending, they are sent again with the same ids once the new
+     * connection is identified. Defaults to 0, which disables reconnecting.
+     * @param maxReconnectAttempts the maximum number of reconnect attempts
+     */
+    public void setMaxReconnectAttempts(int maxReconnectAttempts) {
+        this.maxReconnectAttempts = maxReconnectAttempts;
+    }
+
+    /**
+     * @return the maximum number of reconnect attempts
+     */
+    public int getMaxReconnectAttempts() {
+        return maxReconnectAttempts;
+    }
+
+    /**
+     * Sets the delay before the first reconnect attempt in milliseconds, doubled on every further attempt. Defaults to
+     * 500.
+     * @param reconnectBackoff the initial reconnect delay
+     */
+    public void setReconnectBackoff(long reconnectBackoff) {
+        this.reconnectBackoff = reconnectBackoff;
+    }
+
+    /**
+     * @return the initial reconnect delay in milliseconds
+     */
+    public long getReconnectBackoff() {
+        return reconnectBackoff;
+    }
+
+    /**
+     * Sets the longest delay between two reconnect attempts in milliseconds. Defaults to 30000.
+     * @param maxReconnectBackoff the maximum reconnect delay
+     */
+    public void setMaxReconnectBackoff(long maxReconnectBackoff) {
+        this.maxReconnectBackoff = maxReconnectBackoff;
+    }
+
+    /**
+     * @return the maximum reconnect delay in milliseconds
+     */
+    public long getMaxReconnectBackoff() {
+        return maxReconnectBackoff;
+    }
+
+    /**
+     * Sets whether the flushes of the session writes are coalesced. When enabled, the writes are queued and flushed
+     * together at the end of the event loop iteration, after the flush linger or as soon as one of the coalescing
+     * limits is reached. Defaults to false, which flushes every message.
+     * @param flushCoalescing true to coalesce the flushes
+     */
+    public void setFlushCoalescing(boolean flushCoalescing) {
+        this.flushCoalescing = flushCoalescing;
+    }
+
+    /**
+     * @return true if the flushes of the session writes are coalesced
+     */
+    public boolean isFlushCoalescing() {
+        return flushCoalescing;
+    }
+
+    /**
+     * Sets the number of queued messages that are flushed right away when flush coalescing is enabled. Defaults to 64,
+     * 0 removes the limit.
+     * @param maxCoalescedMessages the largest number of messages in one flush
+     */
+    public void setMaxCoalescedMessages(int maxCoalescedMessages) {
+        this.maxCoalescedMessages = maxCoalescedMessages;
+    }
+
+    /**
+     * @return the largest number of messages in one flush
+     */
+    public int getMaxCoalescedMessages() {
+        return maxCoalescedMessages;
+    }
+
+    /**
+     * Sets the number of queued bytes that are flushed right away when flush coalescing is enabled. Defaults to 65536,
+     * 0 removes the limit.
+     * @param maxCoalescedBytes the largest number of bytes in one flush
+     */
+    public void setMaxCoalescedBytes(int maxCoalescedBytes) {
+        this.maxCoalescedBytes = maxCoalescedBytes;
+    }
+
+    /**
+     * @return the largest number of bytes in one flush
+     */
+    public int getMaxCoalescedBytes() {
+        return maxCoalescedBytes;
+    }
+
+    /**
+     * Sets how long in milliseconds a queued write may wait for more writes before it is flushed when flush
+     * coalescing is enabled. Defaults to 0, which flushes at the end of the current event loop iteration.
+     * @param flushLinger the flush linger
+     */
+    public void setFlushLinger(long flushLinger) {
+        this.flushLinger = flushLinger;
+    }
+
+    /**
+     * @return the flush linger in milliseconds
+     */
+    public long getFlushLinger() {
+        return flushLinger;
+    }
+
+    /**
+     * Sets how often in milliseconds an identified session sends a heartbeat carrying its load to the bearer-box.
+     * Defaults to 0, which sends no heartbeats.
+     * @param heartbeatInterval the heartbeat interval
+     * @see ClientSession#getLoad()
+     */
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    /**
+     * @return the heartbeat interval in milliseconds
+     */
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Sets the number of worker threads that hand the received sms to the session handler. Defaults to 0, which
+     * hands them over on the session executor thread that read them.
+     * @param moDispatchThreads the number of received sms workers
+     */
+    public void setMoDispatchThreads(int moDispatchThreads) {
+        this.moDispatchThreads = moDispatchThreads;
+    }
+
+    /**
+     * @return the number of worker threads that hand the received sms to the session handler
+     */
+    public int getMoDispatchThreads() {
+        return moDispatchThreads;
+    }
+
+    /**
+     * Sets the number of received sms that may wait for a worker. The channel stops reading when the queue is full
+     * and reads again once it has drained to half its capacity. Only used with received sms workers. Defaults to 1000.
+     * @param moQueueCapacity the received sms queue capacity
+     */
+    public void setMoQueueCapacity(int moQueueCapacity) {
+        this.moQueueCapacity = moQueueCapacity;
+    }
+
+    /**
+     * @return the number of received sms that may wait for a worker
+     */
+    public int getMoQueueCapacity() {
+        return moQueueCapacity;
+    }
+
+    /**
+     * Sets the number of acks of received sms that are written together with a single flush. Defaults to 0, which
+     * writes and flushes every ack on its own.
+     * @param ackBatchSize the ack batch size
+     */
+    public void setAckBatchSize(int ackBatchSize) {
+        this.ackBatchSize = ackBatchSize;
+    }
+
+    /**
+     * @return the number of acks that are written together with a single flush
+     */
+    public int getAckBatchSize() {
+        return ackBatchSize;
+    }
+
+    /**
+     * Sets how long in milliseconds the first ack of a batch may wait for more acks. Only used with ack batches.
+     * Defaults to 10.
+     * @param ackLinger the ack linger
+     */
+    public void setAckLinger(long ackLinger) {
+        this.ackLinger = ackLinger;
+    }
+
+    /**
+     * @return how long in milliseconds the first ack of a batch may wait for more acks
+     */
+    public long getAckLinger() {
+        return ackLinger;
+    }
+
     /**
      * Set the amount of time to wait for an endpoint to respond to
      * a request before it expires. Defaults to disabled (-1).
@@ -31,10 +31,12 @@ import com.github.spapageo.jannel.msg.Sms;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 /**
  * The default session handler
  */
-public class DefaultSessionHandler implements SessionHandler {
+public class DefaultSessionHandler implements SessionHandler, ExpiryBatchHandler, BackpressureHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultSessionHandler.class);
 
@@ -51,6 +53,13 @@ public class DefaultSessionHandler implements SessionHandler {
         LOGGER.warn("Ignoring sms that has expired: {}", sms);
     }
 
+    @Override
+    public void fireMessagesExpired(List<Sms> expired) {
+        for (final Sms sms : expired) {
+            fireMessageExpired(sms);
+        }
+    }
+
     @Override
     public void fireBadMessageException(BadMessageException throwable) {
         LOGGER.warn("Ignoring BadMessageException that occurred: {}", throwable);
@@ -88,6 +97,16 @@ public class DefaultSessionHandler implements SessionHandler {
         LOGGER.warn("Ignoring heart bean message: {}", heartBeat);
     }
 
+    @Override
+    public void fireSessionPaused(ClientSession clientSession) {
+        LOGGER.debug("Session to {} paused", clientSession.getRemoteAddress().orNull());
+    }
+
+    @Override
+    public void fireSessionResumed(ClientSession clientSession) {
+        LOGGER.debug("Session to {} resumed", clientSession.getRemoteAddress().orNull());
+    }
+
     public ClientSession getClientSession() {
         return clientSession;
     }
@@ -0,0 +1,393 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.client;
+
+import com.github.spapageo.jannel.msg.Ack;
+import com.github.spapageo.jannel.msg.Sms;
+import com.github.spapageo.jannel.windowing.PendingOfferRejectedException;
+import com.github.spapageo.jannel.windowing.WindowFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Shares the window slots of a {@link ClientSession} between the accounts of the submitted sms. Every account has
+ * its own queue and the queues are served by deficit round robin, so each busy account gets a share of the slots in
+ * proportion to its weight however many sms the others submit. An account with nothing queued takes no turn, which
+ * lends its share to the busy ones until it submits again.
+ * <p>
+ * The scheduler only hands an sms to the session when the window has a free slot for it, so the order in which the
+ * sms enter the window is the one picked here. Sms sent to the same session without the scheduler still compete
+ * for the slots as before.
+ */
+public final class FairShareScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FairShareScheduler.class);
+
+    /**
+     * The account of the sms without one
+     */
+    public static final String DEFAULT_ACCOUNT = "";
+
+    // the time constant of the dispatch rates, events older than a few of these barely count
+    private static final long RATE_TIME_CONSTANT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ClientSession session;
+
+    private final int defaultWeight;
+
+    private final int maxQueuedPerAccount;
+
+    private final Object lock = new Object();
+
+    private final Map<String, AccountQueue> accounts = new HashMap<String, AccountQueue>();
+
+    // the accounts with queued sms in round robin order, the head is the one whose turn it is
+    private final ArrayDeque<AccountQueue> active = new ArrayDeque<AccountQueue>();
+
+    private int inFlight;
+
+    private boolean dispatching;
+
+    private boolean redispatch;
+
+    /**
+     * Creates a new scheduler where every account has a weight of 1
+     * @param session the session the sms are sent with
+     * @param maxQueuedPerAccount the maximum number of sms an account can have waiting for their turn
+     */
+    public FairShareScheduler(ClientSession session, @Nonnegative int maxQueuedPerAccount) {
+        this(session, 1, maxQueuedPerAccount);
+    }
+
+    /**
+     * Creates a new scheduler
+     * @param session the session the sms are sent with
+     * @param defaultWeight the weight of the accounts without a configured one
+     * @param maxQueuedPerAccount the maximum number of sms an account can have waiting for their turn
+     */
+    public FairShareScheduler(ClientSession session,
+                              @Nonnegative int defaultWeight,
+                              @Nonnegative int maxQueuedPerAccount) {
+        checkArgument(defaultWeight > 0, "defaultWeight must be > 0");
+        checkArgument(maxQueuedPerAccount > 0, "maxQueuedPerAccount must be > 0");
+
+        this.session = checkNotNull(session);
+        this.defaultWeight = defaultWeight;
+        this.maxQueuedPerAccount = maxQueuedPerAccount;
+    }
+
+    /**
+     * Sets the weight of an account. A busy account gets as many turns as its weight for every turn of a busy
+     * account with a weight of 1.
+     * @param account the account, null for the sms without one
+     * @param weight the weight
+     */
+    public void setWeight(@Nullable String account, @Nonnegative int weight) {
+        checkArgument(weight > 0, "weight must be > 0");
+        synchronized (lock) {
+            accountQueue(account).weight = weight;
+        }
+    }
+
+    /**
+     * @param account the account, null for the sms without one
+     * @return the weight of the account
+     */
+    @Nonnegative public int getWeight(@Nullable String account) {
+        synchronized (lock) {
+            final AccountQueue queue = accounts.get(accountOf(account));
+            return queue == null ? defaultWeight : queue.weight;
+        }
+    }
+
+    /**
+     * Queues an sms behind the other sms of its account and sends it with
+     * {@link ClientSession#sendSmsAsync(Sms, long)} on the turn of the account. The sms is rejected with a
+     * {@link PendingOfferRejectedException} when its account already has the maximum number of sms queued.
+     * @param sms the sms to send
+     * @return the future of the ack of the sms
+     */
+    @Nonnull public ListenableFuture<Ack> submit(Sms sms) {
+        checkNotNull(sms);
+
+        final SettableFuture<Ack> result = SettableFuture.create();
+        synchronized (lock) {
+            final AccountQueue queue = accountQueue(sms.getAccount());
+            if (queue.pending.size() >= maxQueuedPerAccount) {
+                result.setException(new PendingOfferRejectedException("The account queue is full"));
+                return result;
+            }
+
+            queue.pending.addLast(new QueuedSms(queue, sms, result));
+            if (queue.pending.size() == 1) {
+                active.addLast(queue);
+            }
+        }
+
+        dispatch();
+        return result;
+    }
+
+    /**
+     * @param account the account, null for the sms without one
+     * @return a snapshot of the sms of the account
+     */
+    @Nonnull public AccountStatistics getStatistics(@Nullable String account) {
+        synchronized (lock) {
+            final AccountQueue queue = accounts.get(accountOf(account));
+            return queue == null ? new AccountStatistics(0, 0, 0, 0, 0) : queue.snapshot(System.nanoTime());
+        }
+    }
+
+    /**
+     * @return a snapshot of the sms of every account that submitted one or has a configured weight
+     */
+    @Nonnull public Map<String, AccountStatistics> getStatistics() {
+        synchronized (lock) {
+            final Map<String, AccountStatistics> statistics = new HashMap<String, AccountStatistics>();
+            final long now = System.nanoTime();
+            for (final Map.Entry<String, AccountQueue> entry : accounts.entrySet()) {
+                statistics.put(entry.getKey(), entry.getValue().snapshot(now));
+            }
+            return statistics;
+        }
+    }
+
+    /**
+     * @return the number of sms waiting for their turn across all accounts
+     */
+    @Nonnegative public int getQueued() {
+        synchronized (lock) {
+            int queued = 0;
+            for (final AccountQueue queue : active) {
+                queued += queue.pending.size();
+            }
+            return queued;
+        }
+    }
+
+    /**
+     * @return the number of sms handed to the session that have not completed yet
+     */
+    @Nonnegative public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    private void dispatch() {
+        synchronized (lock) {
+            if (dispatching) {
+                // the dispatching thread picks the freed slots up before it stops
+                redispatch = true;
+                return;
+            }
+            dispatching = true;
+        }
+
+        while (true) {
+            final QueuedSms next;
+            synchronized (lock) {
+                next = inFlight < session.getWindow().getSizeLimit() ? pollNext() : null;
+                if (next == null) {
+                    if (!redispatch) {
+                        dispatching = false;
+                        return;
+                    }
+                    redispatch = false;
+                    continue;
+                }
+                inFlight++;
+                next.account.inFlight++;
+                next.account.dispatched(System.nanoTime());
+            }
+            send(next);
+        }
+    }
+
+    /**
+     * Takes the next sms in deficit round robin order. Every sms costs one unit of deficit and an account is given
+     * as many units as its weight when its turn starts.
+     * @return the sms or null if none is queued
+     */
+    @Nullable
+    private QueuedSms pollNext() {
+        final AccountQueue queue = active.peekFirst();
+        if (queue == null) {
+            return null;
+        }
+
+        if (queue.deficit == 0) {
+            queue.deficit = queue.weight;
+        }
+
+        final QueuedSms next = queue.pending.pollFirst();
+        queue.deficit--;
+
+        if (queue.pending.isEmpty()) {
+            // an idle account keeps no credit, otherwise it could burst past the others when it comes back
+            queue.deficit = 0;
+            active.pollFirst();
+        } else if (queue.deficit == 0) {
+            active.addLast(active.pollFirst());
+        }
+        return next;
+    }
+
+    private void send(final QueuedSms next) {
+        final WindowFuture<Sms, Ack> future;
+        try {
+            future = session.sendSmsAsync(next.sms, 0);
+        } catch (RuntimeException e) {
+            LOGGER.debug("Could not hand sms [{}] to the session", next.sms.getId(), e);
+            next.result.setException(e);
+            completed(next);
+            return;
+        }
+
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                copyResult(future, next.result);
+                completed(next);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void completed(QueuedSms done) {
+        synchronized (lock) {
+            inFlight--;
+            done.account.inFlight--;
+            done.account.completedCount++;
+        }
+        dispatch();
+    }
+
+    private static void copyResult(WindowFuture<Sms, Ack> future, SettableFuture<Ack> result) {
+        try {
+            if (future.isCancelled()) {
+                result.cancel(false);
+            } else {
+                result.set(future.get());
+            }
+        } catch (ExecutionException e) {
+            result.setException(e.getCause());
+        } catch (InterruptedException e) {
+            // the future is done, so this can not happen
+            Thread.currentThread().interrupt();
+            result.setException(e);
+        } finally {
+            future.release();
+        }
+    }
+
+    private AccountQueue accountQueue(@Nullable String account) {
+        final String name = accountOf(account);
+        AccountQueue queue = accounts.get(name);
+        if (queue == null) {
+            queue = new AccountQueue(defaultWeight);
+            accounts.put(name, queue);
+        }
+        return queue;
+    }
+
+    private static String accountOf(@Nullable String account) {
+        return account == null ? DEFAULT_ACCOUNT : account;
+    }
+
+    /**
+     * The queued sms and the counters of one account, guarded by the scheduler lock
+     */
+    private static final class AccountQueue {
+
+        private final ArrayDeque<QueuedSms> pending = new ArrayDeque<QueuedSms>();
+
+        private int weight;
+
+        private int deficit;
+
+        private int inFlight;
+
+        private long dispatchedCount;
+
+        private long completedCount;
+
+        // the dispatches per time constant, decayed up to rateNanos
+        private double rate;
+
+        private long rateNanos;
+
+        AccountQueue(int weight) {
+            this.weight = weight;
+        }
+
+        void dispatched(long nowNanos) {
+            dispatchedCount++;
+            rate = decayedRate(nowNanos) + 1;
+            rateNanos = nowNanos;
+        }
+
+        AccountStatistics snapshot(long nowNanos) {
+            final double perSecond = decayedRate(nowNanos) * TimeUnit.SECONDS.toNanos(1) / RATE_TIME_CONSTANT_NANOS;
+            return new AccountStatistics(pending.size(), inFlight, dispatchedCount, completedCount, perSecond);
+        }
+
+        private double decayedRate(long nowNanos) {
+            return rate == 0 ? 0 : rate * Math.exp(-(double) (nowNanos - rateNanos) / RATE_TIME_CONSTANT_NANOS);
+        }
+    }
+
+    /**
+     * An sms waiting for the turn of its account
+     */
+    private static final class QueuedSms {
+
+        private final AccountQueue account;
+
+        private final Sms sms;
+
+        private final SettableFuture<Ack> result;
+
+        QueuedSms(AccountQueue account, Sms sms, SettableFuture<Ack> result) {
+            this.account = account;
+            this.sms = sms;
+            this.result = result;
+        }
+    }
+}
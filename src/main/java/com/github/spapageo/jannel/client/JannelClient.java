@@ -27,21 +27,44 @@ import com.github.spapageo.jannel.channel.ChannelHandlerProvider;
 import com.github.spapageo.jannel.channel.HandlerType;
 import com.github.spapageo.jannel.msg.Admin;
 import com.github.spapageo.jannel.msg.AdminCommand;
+import com.github.spapageo.jannel.msg.Sms;
 import com.github.spapageo.jannel.transcode.DefaultTranscoder;
 import com.github.spapageo.jannel.transcode.Transcoder;
 import com.github.spapageo.jannel.transcode.TranscoderHelper;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 import io.netty.util.concurrent.EventExecutorGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * Represents a client to one or more bearer-box sessions
@@ -57,9 +80,31 @@ public class JannelClient {
     private final Bootstrap clientBootstrap;
     private final EventLoopGroup eventLoopGroup;
     private final Timer timer;
+    private final Set<ClientSession> sessions =
+            Collections.newSetFromMap(new ConcurrentHashMap<ClientSession, Boolean>());
 
+    /**
+     * Creates a client with the fastest transport available on this host
+     * @param ioThreads the number of event loop threads
+     * @see Transport#best()
+     */
     public JannelClient(int ioThreads) {
-        this(new NioEventLoopGroup(ioThreads), NioSocketChannel.class);
+        this(Transport.best(), ioThreads);
+    }
+
+    /**
+     * Creates a client with the given transport
+     * @param transport the transport to connect with
+     * @param ioThreads the number of event loop threads
+     * @throws IllegalStateException when the transport is not available on this host
+     */
+    public JannelClient(Transport transport, int ioThreads) {
+        this(transport.newBootstrap(ioThreads),
+             new NioEventLoopGroup(Runtime.getRuntime().availableProcessors()),
+             new ChannelHandlerProvider(),
+             new DefaultTranscoder(new TranscoderHelper()),
+             new HashedWheelTimer());
+        LOGGER.info("Using the {} transport", transport);
     }
 
     public JannelClient(EventLoopGroup eventLoopGroup, Class<? extends Channel> channelClass) {
@@ -98,6 +143,61 @@ public class JannelClient {
         this.eventLoopGroup.shutdownGracefully().awaitUninterruptibly();
     }
 
+    /**
+     * Drains all the open sessions of this client and then destroys it
+     * @param drainTimeoutMillis the maximum time to wait for the outstanding sms of the sessions
+     * @return the sms that were not acknowledged in time, by session
+     * @throws InterruptedException when the waiting thread is interrupted
+     * @see #drainAll(long)
+     */
+    @Nonnull
+    public Map<ClientSession, List<Sms>> destroy(long drainTimeoutMillis) throws InterruptedException {
+        final Map<ClientSession, List<Sms>> remaining = drainAll(drainTimeoutMillis);
+        destroy();
+        return remaining;
+    }
+
+    /**
+     * Drains all the open sessions of this client in parallel and closes them. Every session stops accepting new
+     * sms at once and all of them share the same deadline for their outstanding sms.
+     * @param timeoutMillis the maximum time to wait for the outstanding sms of the sessions
+     * @return the sms that were not acknowledged in time, by session
+     * @throws InterruptedException when the waiting thread is interrupted
+     * @see ClientSession#drainAndClose(long)
+     */
+    @Nonnull
+    public Map<ClientSession, List<Sms>> drainAll(long timeoutMillis) throws InterruptedException {
+        final List<ClientSession> draining = new ArrayList<ClientSession>();
+        for (final ClientSession session : sessions) {
+            if (session.isClosed()) {
+                sessions.remove(session);
+            } else {
+                session.startDraining();
+                draining.add(session);
+            }
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (final ClientSession session : draining) {
+            session.awaitDrained(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+
+        final Map<ClientSession, List<Sms>> remaining = new LinkedHashMap<ClientSession, List<Sms>>();
+        for (final ClientSession session : draining) {
+            remaining.put(session, session.drainAndClose(0));
+            sessions.remove(session);
+        }
+        return remaining;
+    }
+
+    /**
+     * @return the sessions created by this client that were not closed and did not lose their connection for good
+     */
+    @Nonnull
+    public Set<ClientSession> getSessions() {
+        return Collections.unmodifiableSet(sessions);
+    }
+
     /**
      * Send an identify admin command to the remote bearer-box
      * @param config the configuration to use for the resulting session
@@ -113,11 +213,181 @@ public class JannelClient {
         return session;
     }
 
+    /**
+     * Connects and identifies to the remote bearer-box without blocking the calling thread, so that many sessions can
+     * be opened concurrently. The whole attempt is bounded by the connect timeout of the configuration, when it
+     * passes the attempt is abandoned and the future fails with a {@link TimeoutException}.
+     * @param config the configuration to use for the resulting session
+     * @param sessionHandler the session handler to use for the new session
+     * @return a future that completes with the identified session
+     */
+    @Nonnull
+    public ListenableFuture<ClientSession> identifyAsync(final ClientSessionConfiguration config,
+                                                         @Nullable final SessionHandler sessionHandler) {
+        final SettableFuture<ClientSession> result = SettableFuture.create();
+        final AtomicReference<ClientSession> created = new AtomicReference<ClientSession>();
+
+        // a copy, so that concurrent connects with different timeouts do not race on the shared bootstrap
+        final ChannelFuture connectFuture = this.clientBootstrap.clone()
+                .option(CONNECT_TIMEOUT_OPTION, config.getConnectTimeout())
+                .connect(config.getHost(), config.getPort());
+
+        // the connect timeout of the bootstrap does not cover the identify write
+        final Timeout attemptTimeout = timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                result.setException(new TimeoutException("Could not identify to " + config.getHost() + ":" +
+                                                          config.getPort() + " in " + config.getConnectTimeout() +
+                                                          "ms"));
+            }
+        }, config.getConnectTimeout(), TimeUnit.MILLISECONDS);
+
+        connectFuture.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    if (!future.isCancelled()) {
+                        result.setException(future.cause());
+                    }
+                    return;
+                }
+
+                LOGGER.info("Successfully connected to bearer-box at: {}", future.channel().remoteAddress());
+                final ClientSession session = createSession(future.channel(), config, sessionHandler);
+                created.set(session);
+                if (result.isDone()) {
+                    // abandoned while connecting
+                    session.close(0);
+                    return;
+                }
+
+                Futures.addCallback(session.identifyAsync(new Admin(AdminCommand.IDENTIFY, config.getClientId())),
+                                    new FutureCallback<ClientSession>() {
+                                        @Override
+                                        public void onSuccess(ClientSession identified) {
+                                            result.set(identified);
+                                        }
+
+                                        @Override
+                                        public void onFailure(Throwable t) {
+                                            result.setException(t);
+                                        }
+                                    });
+            }
+        });
+
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                attemptTimeout.cancel();
+                if (isSuccessful(result)) {
+                    return;
+                }
+
+                // timed out, cancelled by the caller or failed, a late connect must not leave a session behind
+                connectFuture.cancel(false);
+                final ClientSession session = created.get();
+                if (session != null) {
+                    session.close(0);
+                } else {
+                    connectFuture.channel().close();
+                }
+            }
+        }, MoreExecutors.directExecutor());
+
+        return result;
+    }
+
+    private static boolean isSuccessful(Future<?> future) {
+        try {
+            Uninterruptibles.getUninterruptibly(future);
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (CancellationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens and identifies several sessions to the same bearer-box
+     * @param config the configuration to use for every session
+     * @param connections the number of sessions to open
+     * @param sessionHandler the session handler to use for every session
+     * @return a pool of the new sessions
+     */
+    @Nonnull
+    public SessionPool identifyPool(ClientSessionConfiguration config,
+                                    int connections,
+                                    @Nullable SessionHandler sessionHandler) {
+        return identifyPool(Collections.singletonList(config), connections, sessionHandler);
+    }
+
+    /**
+     * Opens and identifies sessions to one or more bearer-boxes. When a session can not be opened the ones opened
+     * before it are closed.
+     * @param configs the configurations of the bearer-boxes
+     * @param connectionsPerConfig the number of sessions to open with every configuration
+     * @param sessionHandler the session handler to use for every session
+     * @return a pool of the new sessions
+     */
+    @Nonnull
+    public SessionPool identifyPool(List<ClientSessionConfiguration> configs,
+                                    int connectionsPerConfig,
+                                    @Nullable SessionHandler sessionHandler) {
+        checkArgument(!configs.isEmpty(), "configs must not be empty");
+        checkArgument(connectionsPerConfig > 0, "connectionsPerConfig must be > 0");
+
+        final List<ClientSession> opened = new ArrayList<ClientSession>(configs.size() * connectionsPerConfig);
+        try {
+            for (final ClientSessionConfiguration config : configs) {
+                for (int i = 0; i < connectionsPerConfig; i++) {
+                    opened.add(identify(config, sessionHandler));
+                }
+            }
+        } catch (RuntimeException e) {
+            for (final ClientSession session : opened) {
+                session.close();
+            }
+            throw e;
+        }
+        return new SessionPool(opened);
+    }
+
     protected ClientSession createSession(Channel channel, ClientSessionConfiguration config, @Nullable SessionHandler sessionHandler) {
-        ClientSession session = new ClientSession(config, channel, timer, sessionHandler);
+        final ClientSession session = new ClientSession(config, channel, timer, sessionHandler);
+        sessions.add(session);
+        // a client with connection churn would otherwise keep every session it ever opened
+        session.getCloseFuture().addListener(new Runnable() {
+            @Override
+            public void run() {
+                sessions.remove(session);
+            }
+        }, MoreExecutors.directExecutor());
+
+        configurePipeline(channel, config, session);
+
+        if (config.getMaxReconnectAttempts() > 0) {
+            session.setConnector(new BootstrapConnector(config));
+        }
+
+        return session;
+    }
+
+    private void configurePipeline(Channel channel, ClientSessionConfiguration config, ClientSession session) {
+        configureWriteBufferWaterMarks(channel, config);
 
         ChannelPipeline pipeline = channel.pipeline();
 
+        // next to the socket, so that it counts the encoded frames
+        if (config.isFlushCoalescing()) {
+            pipeline.addLast(HandlerType.FLUSH_COALESCER.name(),
+                             channelHandlerProvider.getChangeHandler(HandlerType.FLUSH_COALESCER,
+                                                                     config,
+                                                                     session,
+                                                                     transcoder));
+        }
+
         if(config.getWriteTimeout() > 0) {
             pipeline.addLast(HandlerType.WRITE_TIMEOUT_HANDLER.name(),
                              channelHandlerProvider.getChangeHandler(HandlerType.WRITE_TIMEOUT_HANDLER,
@@ -160,8 +430,28 @@ public class JannelClient {
                                                                  transcoder))
                 //removes the placeholder handler that we added earlier
                 .remove(DummyChannelHandler.class);
+    }
 
-        return session;
+    private static void configureWriteBufferWaterMarks(Channel channel, ClientSessionConfiguration config) {
+        final int high = config.getWriteBufferHighWaterMark();
+        final int low = config.getWriteBufferLowWaterMark();
+        if (high <= 0 && low <= 0) {
+            return;
+        }
+
+        // netty rejects a high water mark below the current low one and vice versa, so the order depends on the values
+        final ChannelConfig channelConfig = channel.config();
+        if (high > 0 && high < channelConfig.getWriteBufferLowWaterMark()) {
+            channelConfig.setWriteBufferLowWaterMark(low > 0 ? low : high);
+            channelConfig.setWriteBufferHighWaterMark(high);
+        } else {
+            if (high > 0) {
+                channelConfig.setWriteBufferHighWaterMark(high);
+            }
+            if (low > 0) {
+                channelConfig.setWriteBufferLowWaterMark(low);
+            }
+        }
     }
 
     protected Channel createConnectedChannel(String host, int port, long connectTimeoutMillis) {
@@ -175,6 +465,37 @@ public class JannelClient {
 
     protected static class DummyChannelHandler extends ChannelHandlerAdapter {}
 
+    /**
+     * Reconnects a session to the bearer-box of its configuration with the bootstrap of this client
+     */
+    private final class BootstrapConnector implements SessionConnector {
+
+        private final ClientSessionConfiguration config;
+
+        BootstrapConnector(ClientSessionConfiguration config) {
+            this.config = config;
+        }
+
+        @Override
+        public ChannelFuture connect(final ClientSession session) {
+            // reconnects run on the timer while other sessions connect, so they must not touch the shared bootstrap
+            final ChannelFuture connectFuture = clientBootstrap.clone()
+                    .option(CONNECT_TIMEOUT_OPTION, config.getConnectTimeout())
+                    .connect(config.getHost(), config.getPort());
+            // added first, so the pipeline is ready before the session sees the new channel
+            connectFuture.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (future.isSuccess()) {
+                        LOGGER.info("Reconnected to bearer-box at: {}", future.channel().remoteAddress());
+                        configurePipeline(future.channel(), config, session);
+                    }
+                }
+            });
+            return connectFuture;
+        }
+    }
+
     public EventExecutorGroup getSessionExecutor() {
         return sessionExecutor;
     }
@@ -0,0 +1,204 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.spapageo.jannel.client;
+
+import com.github.spapageo.jannel.msg.Sms;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnegative;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Hands the received sms of a session to its handler on a pool of worker threads through a bounded queue. Once the
+ * queue is full the session channel stops reading, so TCP flow control pushes back on the bearer-box, and it reads
+ * again when the queue has drained to half its capacity. The sms that were already read when the reading stopped wait
+ * in an overflow list of the session, which the workers move to the queue as it makes room, so the thread that reads
+ * the channel never blocks. Sms that are dropped because the session closed are taken out of the mo backlog of the
+ * session, the bearer-box sends them again since they were never acked.
+ */
+final class MoDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MoDispatcher.class);
+
+    private final ClientSession session;
+
+    private final BlockingQueue<Runnable> queue;
+
+    private final ThreadPoolExecutor workers;
+
+    private final int resumeSize;
+
+    private final Object readLock = new Object();
+
+    // guarded by readLock, only holds sms while the reads are paused
+    private final Deque<Runnable> overflow = new ArrayDeque<Runnable>();
+
+    private volatile boolean readPaused;
+
+    /**
+     * Creates a new dispatcher
+     * @param session the session whose received sms are dispatched
+     * @param threads the number of worker threads
+     * @param capacity the number of sms that may wait for a worker
+     */
+    MoDispatcher(ClientSession session, @Nonnegative int threads, @Nonnegative int capacity) {
+        checkArgument(threads > 0, "threads must be > 0");
+        checkArgument(capacity > 0, "capacity must be > 0");
+        this.session = session;
+        this.queue = new ArrayBlockingQueue<Runnable>(capacity);
+        this.resumeSize = capacity / 2;
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue,
+                                              new ThreadFactoryBuilder().setDaemon(true)
+                                                                        .setNameFormat("jannel-mo-%d")
+                                                                        .build());
+    }
+
+    /**
+     * Queues an sms for the session handler, stopping the channel reads if the queue is full
+     * @param sms the received sms
+     */
+    void dispatch(final Sms sms) {
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    session.getSessionHandler().fireSmsReceived(sms);
+                } catch (RuntimeException e) {
+                    session.fireExceptionCaught(e);
+                } finally {
+                    resumeIfDrained();
+                }
+            }
+        };
+
+        synchronized (readLock) {
+            if (workers.isShutdown()) {
+                LOGGER.debug("Dropping a received sms, the session is closed");
+                session.decrementMoBacklog();
+                return;
+            }
+
+            // once an sms overflowed the later ones queue up behind it, so the handler sees them in order
+            if (!overflow.isEmpty() || !tryExecute(task)) {
+                overflow.add(task);
+            }
+
+            if (!readPaused && (!overflow.isEmpty() || queue.remainingCapacity() == 0)) {
+                readPaused = true;
+                LOGGER.debug("The received sms queue is full, pausing the reads");
+                session.getChannel().config().setAutoRead(false);
+            }
+            // the workers only look at the queue once they see the pause, the ones that finished before may have
+            // drained it already
+            if (readPaused) {
+                drainOverflow();
+            }
+        }
+    }
+
+    /**
+     * Applies the read state to the channel of a reconnected session
+     */
+    void channelChanged() {
+        synchronized (readLock) {
+            if (readPaused) {
+                session.getChannel().config().setAutoRead(false);
+            }
+        }
+    }
+
+    /**
+     * @return true while the channel reads are paused
+     */
+    boolean isReadPaused() {
+        return readPaused;
+    }
+
+    /**
+     * @return the number of sms waiting for a worker
+     */
+    int getQueued() {
+        synchronized (readLock) {
+            return queue.size() + overflow.size();
+        }
+    }
+
+    /**
+     * Stops the workers once the queued sms are handled, the sms that overflowed the queue are dropped
+     */
+    void shutdown() {
+        synchronized (readLock) {
+            workers.shutdown();
+            if (!overflow.isEmpty()) {
+                LOGGER.debug("Dropping {} received sms, the session is closed", overflow.size());
+                for (int i = overflow.size(); i > 0; i--) {
+                    session.decrementMoBacklog();
+                }
+                overflow.clear();
+            }
+        }
+    }
+
+    private boolean tryExecute(Runnable task) {
+        try {
+            workers.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void resumeIfDrained() {
+        // the overflow only fills while the reads are paused
+        if (!readPaused) {
+            return;
+        }
+        synchronized (readLock) {
+            drainOverflow();
+        }
+    }
+
+    // called with the read lock held
+    private void drainOverflow() {
+        // the workers are all started once the queue was full, so the overflow can go straight to the queue
+        while (!overflow.isEmpty() && queue.offer(overflow.peek())) {
+            overflow.poll();
+        }
+        if (readPaused && overflow.isEmpty() && queue.size() <= resumeSize) {
+            readPaused = false;
+            LOGGER.debug("The received sms queue drained, resuming the reads");
+            session.getChannel().config().setAutoRead(true);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.client;
+
+import com.github.spapageo.jannel.msg.AckType;
+
+import javax.annotation.Nonnegative;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Describes how a {@link ClientSession} resends sms that the bearer-box temporarily failed. The resends are delayed
+ * by an exponential backoff with random jitter, and the number of resends waiting at once is capped so that a burst
+ * of temporary failures can not keep the window full of retries.
+ */
+public final class RetryPolicy {
+
+    /**
+     * Never resend, every ack completes its sms
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, 0, 0);
+
+    private final int maxRetries;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private final double jitter;
+
+    private final int maxOutstandingRetries;
+
+    private final boolean retryBuffered;
+
+    /**
+     * Creates a new policy that only resends the sms failed with {@link AckType#FAILED_TMP}
+     * @param maxRetries the number of times an sms is resent before its last ack completes it
+     * @param initialBackoffMillis the delay before the first resend
+     * @param maxBackoffMillis the longest delay between two resends
+     * @param jitter the fraction of every delay that is randomly taken off, between 0 and 1
+     * @param maxOutstandingRetries the number of resends that may wait at once, further temporary failures complete
+     *                              their sms
+     */
+    public RetryPolicy(@Nonnegative int maxRetries,
+                       @Nonnegative long initialBackoffMillis,
+                       @Nonnegative long maxBackoffMillis,
+                       double jitter,
+                       @Nonnegative int maxOutstandingRetries) {
+        this(maxRetries, initialBackoffMillis, maxBackoffMillis, jitter, maxOutstandingRetries, false);
+    }
+
+    /**
+     * Creates a new policy
+     * @param maxRetries the number of times an sms is resent before its last ack completes it
+     * @param initialBackoffMillis the delay before the first resend
+     * @param maxBackoffMillis the longest delay between two resends
+     * @param jitter the fraction of every delay that is randomly taken off, between 0 and 1
+     * @param maxOutstandingRetries the number of resends that may wait at once, further temporary failures complete
+     *                              their sms
+     * @param retryBuffered whether the sms acknowledged with {@link AckType#BUFFERED} are resent too. The bearer-box
+     *                      keeps buffered sms in its store, so resending them may deliver them twice.
+     */
+    public RetryPolicy(@Nonnegative int maxRetries,
+                       @Nonnegative long initialBackoffMillis,
+                       @Nonnegative long maxBackoffMillis,
+                       double jitter,
+                       @Nonnegative int maxOutstandingRetries,
+                       boolean retryBuffered) {
+        checkArgument(maxRetries >= 0, "maxRetries must be >= 0");
+        checkArgument(initialBackoffMillis >= 0, "initialBackoffMillis must be >= 0");
+        checkArgument(maxBackoffMillis >= initialBackoffMillis, "maxBackoffMillis must be >= initialBackoffMillis");
+        checkArgument(jitter >= 0 && jitter <= 1, "jitter must be between 0 and 1");
+        checkArgument(maxOutstandingRetries >= 0, "maxOutstandingRetries must be >= 0");
+
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.jitter = jitter;
+        this.maxOutstandingRetries = maxOutstandingRetries;
+        this.retryBuffered = retryBuffered;
+    }
+
+    /**
+     * @param response the response of an ack
+     * @return whether an sms acknowledged with the response should be resent
+     */
+    public boolean isRetryable(AckType response) {
+        return maxRetries > 0 && (response == AckType.FAILED_TMP || (retryBuffered && response == AckType.BUFFERED));
+    }
+
+    /**
+     * @param retry the number of the resend, starting from 1
+     * @param random the source of the jitter
+     * @return the delay before the resend
+     */
+    @Nonnegative public long getBackoffMillis(int retry, Random random) {
+        final double exponential = initialBackoffMillis * Math.pow(2, Math.max(0, retry - 1));
+        final long backoff = (long) Math.min(maxBackoffMillis, exponential);
+
+        // taking a random part off spreads out the resends of sms that failed together
+        return backoff - (long) (backoff * jitter * random.nextDouble());
+    }
+
+    /**
+     * @return the number of times an sms is resent
+     */
+    @Nonnegative public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @return the delay before the first resend
+     */
+    @Nonnegative public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    /**
+     * @return the longest delay between two resends
+     */
+    @Nonnegative public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    /**
+     * @return the fraction of every delay that is randomly taken off
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @return the number of resends that may wait at once
+     */
+    @Nonnegative public int getMaxOutstandingRetries() {
+        return maxOutstandingRetries;
+    }
+
+    /**
+     * @return whether the buffered sms are resent too
+     */
+    public boolean isRetryBuffered() {
+        return retryBuffered;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+               "maxRetries=" + maxRetries +
+               ", initialBackoffMillis=" + initialBackoffMillis +
+               ", maxBackoffMillis=" + maxBackoffMillis +
+               ", jitter=" + jitter +
+               ", maxOutstandingRetries=" + maxOutstandingRetries +
+               ", retryBuffered=" + retryBuffered +
+               '}';
+    }
+}
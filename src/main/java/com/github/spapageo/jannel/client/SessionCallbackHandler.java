@@ -46,4 +46,16 @@ public interface SessionCallbackHandler {
      * Fired when the channel connection was closed
      */
     void fireConnectionClosed();
+
+    /**
+     * Fired when the outbound buffer of the channel crosses one of its water marks
+     * @param writable true if the channel accepts writes without queueing them beyond the high water mark
+     */
+    void fireChannelWritabilityChanged(boolean writable);
+
+    /**
+     * Fired when a coalesced flush wrote its queued messages to the channel
+     * @param messages the number of messages in the flush
+     */
+    void fireFlushed(int messages);
 }
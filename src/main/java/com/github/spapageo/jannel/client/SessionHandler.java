@@ -70,7 +70,8 @@ public interface SessionHandler {
     void fireUnexpectedAckReceived(Ack ack);
 
     /**
-     * Fired when an Sms is received
+     * Fired when an Sms is received. The handler must ack it, either right away with {@link ClientSession#sendAck} or
+     * once it is handled asynchronously with {@link ClientSession#ackWhenComplete}.
      * @param sms the sms that was received
      */
     void fireSmsReceived(Sms sms);
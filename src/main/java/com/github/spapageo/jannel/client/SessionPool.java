@@ -0,0 +1,227 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.client;
+
+import com.github.spapageo.jannel.msg.Ack;
+import com.github.spapageo.jannel.msg.Sms;
+import com.github.spapageo.jannel.windowing.Window;
+import com.github.spapageo.jannel.windowing.WindowFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A set of identified sessions, possibly to several bearer-boxes, that is used like a single session. Every sms is
+ * sent with the least loaded session, where the load of a session is the share of its window that is used or waited
+ * for, weighted by its recent ack latency. Sessions without an ack yet are weighted by the mean latency of the pool,
+ * and the latency of a session that got no ack for a while fades towards that mean, so that a session that once was
+ * slow gets sms again. Sessions that pushed back with {@link ClientSession#isAccepting()} are only picked when every
+ * open session did, and closed sessions are taken out of the pool the next time they are looked at.
+ */
+public class SessionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionPool.class);
+
+    static final long DEFAULT_LATENCY_HALF_LIFE_MILLIS = 1000;
+
+    private final CopyOnWriteArrayList<ClientSession> sessions;
+
+    private final long latencyHalfLifeNanos;
+
+    /**
+     * Creates a new pool
+     * @param sessions the identified sessions of the pool
+     */
+    public SessionPool(Collection<ClientSession> sessions) {
+        this(sessions, DEFAULT_LATENCY_HALF_LIFE_MILLIS);
+    }
+
+    /**
+     * Creates a new pool
+     * @param sessions the identified sessions of the pool
+     * @param latencyHalfLifeMillis the time without an ack after which the latency of a session is halfway to the
+     *                              mean latency of the pool
+     */
+    public SessionPool(Collection<ClientSession> sessions, long latencyHalfLifeMillis) {
+        checkArgument(!sessions.isEmpty(), "sessions must not be empty");
+        checkArgument(latencyHalfLifeMillis > 0, "latencyHalfLifeMillis must be positive");
+        this.sessions = new CopyOnWriteArrayList<ClientSession>(sessions);
+        this.latencyHalfLifeNanos = TimeUnit.MILLISECONDS.toNanos(latencyHalfLifeMillis);
+    }
+
+    /**
+     * Sends an sms with the least loaded session
+     * @see ClientSession#sendSms(Sms, long)
+     * @throws IllegalStateException when every session of the pool is closed
+     */
+    @Nonnull
+    public WindowFuture<Sms, Ack> sendSms(Sms sms, long timeoutMillis) throws InterruptedException {
+        return select().sendSms(sms, timeoutMillis);
+    }
+
+    /**
+     * Sends an sms with the least loaded session without blocking the calling thread
+     * @see ClientSession#sendSmsAsync(Sms, long)
+     * @throws IllegalStateException when every session of the pool is closed
+     */
+    @Nonnull
+    public WindowFuture<Sms, Ack> sendSmsAsync(Sms sms, long timeoutMillis) {
+        return select().sendSmsAsync(sms, timeoutMillis);
+    }
+
+    /**
+     * Sends an sms with the least loaded session and waits for its ack
+     * @see ClientSession#sendSmsAndWait(Sms, long)
+     * @throws IllegalStateException when every session of the pool is closed
+     */
+    @Nonnull
+    public Ack sendSmsAndWait(Sms sms, long timeoutInMillis) throws InterruptedException, ExecutionException {
+        return select().sendSmsAndWait(sms, timeoutInMillis);
+    }
+
+    /**
+     * Picks the session the next sms should be sent with
+     * @return the least loaded open session, preferring the ones that accept more sms
+     * @throws IllegalStateException when every session of the pool is closed
+     */
+    @Nonnull
+    public ClientSession select() {
+        final double meanLatency = meanAckLatency();
+        ClientSession best = null;
+        double bestLoad = Double.MAX_VALUE;
+        boolean bestAccepting = false;
+
+        for (final ClientSession session : sessions) {
+            if (session.isClosed() || session.isDraining()) {
+                if (sessions.remove(session)) {
+                    LOGGER.warn("Session to [{}] is closed, took it out of the pool, {} sessions left",
+                                session.getRemoteAddress().orNull(), sessions.size());
+                }
+                continue;
+            }
+
+            final boolean accepting = session.isAccepting();
+            if (bestAccepting && !accepting) {
+                continue;
+            }
+
+            final double load = loadOf(session, meanLatency, latencyHalfLifeNanos);
+            if (best == null || (accepting && !bestAccepting) || load < bestLoad) {
+                best = session;
+                bestLoad = load;
+                bestAccepting = accepting;
+            }
+        }
+
+        checkState(best != null, "Every session of the pool is closed");
+        return best;
+    }
+
+    /**
+     * Takes a session out of the pool without closing it
+     * @param session the session
+     * @return true if the session was in the pool
+     */
+    public boolean remove(ClientSession session) {
+        return sessions.remove(session);
+    }
+
+    /**
+     * @return the sessions currently in the pool
+     */
+    @Nonnull
+    public List<ClientSession> getSessions() {
+        return new ArrayList<ClientSession>(sessions);
+    }
+
+    /**
+     * @return the number of sessions currently in the pool
+     */
+    @Nonnegative
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Closes every session of the pool
+     */
+    public void close() {
+        for (final ClientSession session : sessions) {
+            session.close();
+        }
+        sessions.clear();
+    }
+
+    private double meanAckLatency() {
+        long total = 0;
+        int count = 0;
+        for (final ClientSession session : sessions) {
+            final long latency = session.getAckLatencyNanos();
+            if (latency > 0 && !session.isClosed()) {
+                total += latency;
+                count++;
+            }
+        }
+        // without any ack the sessions only differ by their occupancy
+        return count == 0 ? 1 : (double) total / count;
+    }
+
+    /**
+     * @param session the session
+     * @param meanLatency the mean ack latency of the pool in nanoseconds
+     * @param halfLifeNanos the age after which the latency of the session is halfway to the mean
+     * @return the used or awaited share of the window of the session, multiplied by the recent ack latency so that
+     * a slow bearer-box gets fewer sms than a fast one with the same backlog
+     */
+    static double loadOf(ClientSession session, double meanLatency, long halfLifeNanos) {
+        final Window<?, ?, ?> window = session.getWindow();
+        final int limit = window.getSizeLimit();
+        final int occupied = limit - window.getFreeSlots() + window.getPendingOfferCount();
+
+        // the sms about to be sent counts too, so that idle sessions still differ by their latency
+        final double occupancy = (occupied + 1.0) / limit;
+        return occupancy * effectiveLatency(session, meanLatency, halfLifeNanos);
+    }
+
+    private static double effectiveLatency(ClientSession session, double meanLatency, long halfLifeNanos) {
+        final long latency = session.getAckLatencyNanos();
+        if (latency <= 0) {
+            return meanLatency;
+        }
+        // a latency that no ack refreshed any more says little about the bearer-box, trust the pool instead
+        final double weight = Math.pow(0.5, (double) session.getAckLatencyAgeNanos() / halfLifeNanos);
+        return Math.max(1, meanLatency + (latency - meanLatency) * weight);
+    }
+}
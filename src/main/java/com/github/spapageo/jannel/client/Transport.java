@@ -0,0 +1,152 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.PlatformDependent;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Lists the network transports a {@link JannelClient} can connect with. Every transport turns Nagle's algorithm off,
+ * since an sms is a small message whose ack the window waits for.
+ */
+public enum Transport {
+
+    /**
+     * The java NIO transport, available everywhere
+     */
+    NIO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Nullable
+        @Override
+        public Throwable unavailabilityCause() {
+            return null;
+        }
+
+        @Override
+        EventLoopGroup newEventLoopGroup(int ioThreads) {
+            return new NioEventLoopGroup(ioThreads);
+        }
+
+        @Override
+        Class<? extends Channel> getChannelClass() {
+            return NioSocketChannel.class;
+        }
+    },
+
+    /**
+     * The native epoll transport of linux in edge triggered mode. It needs the native library of netty, which the
+     * native-epoll profile adds to the build.
+     */
+    EPOLL {
+        @Override
+        public boolean isAvailable() {
+            // the epoll event loops allocate their buffers through sun.misc.Unsafe
+            return Epoll.isAvailable() && PlatformDependent.hasUnsafe();
+        }
+
+        @Nullable
+        @Override
+        public Throwable unavailabilityCause() {
+            if (!Epoll.isAvailable()) {
+                return Epoll.unavailabilityCause();
+            }
+            return PlatformDependent.hasUnsafe() ? null : new UnsupportedOperationException("sun.misc.Unsafe is not available");
+        }
+
+        @Override
+        EventLoopGroup newEventLoopGroup(int ioThreads) {
+            return new EpollEventLoopGroup(ioThreads);
+        }
+
+        @Override
+        Class<? extends Channel> getChannelClass() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        Bootstrap configure(Bootstrap bootstrap) {
+            return super.configure(bootstrap).option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+        }
+    };
+
+    /**
+     * @return true if the transport can be used on this host
+     */
+    public abstract boolean isAvailable();
+
+    /**
+     * @return why the transport can not be used on this host, null if it is available
+     */
+    @Nullable
+    public abstract Throwable unavailabilityCause();
+
+    abstract EventLoopGroup newEventLoopGroup(int ioThreads);
+
+    abstract Class<? extends Channel> getChannelClass();
+
+    Bootstrap configure(Bootstrap bootstrap) {
+        return bootstrap.option(ChannelOption.TCP_NODELAY, true);
+    }
+
+    /**
+     * Builds a bootstrap for this transport with its own event loop group
+     * @param ioThreads the number of event loop threads
+     * @return the new bootstrap
+     * @throws IllegalStateException when the transport is not available on this host
+     */
+    @Nonnull
+    public Bootstrap newBootstrap(@Nonnegative int ioThreads) {
+        if (!isAvailable()) {
+            throw new IllegalStateException("The " + this + " transport is not available", unavailabilityCause());
+        }
+        return configure(new Bootstrap().group(newEventLoopGroup(ioThreads)).channel(getChannelClass()));
+    }
+
+    /**
+     * @return the fastest transport available on this host, {@link #EPOLL} on linux when the native library can be
+     * loaded and {@link #NIO} otherwise
+     */
+    @Nonnull
+    public static Transport best() {
+        return EPOLL.isAvailable() ? EPOLL : NIO;
+    }
+}
@@ -33,10 +33,16 @@ import java.util.UUID;
 public class Ack implements Message{
 
     /**
-     * The id of the acknowledged message
+     * The id of the acknowledged message, created lazily when the ack was decoded from its bits
      */
     private UUID id;
 
+    private long idMostSigBits;
+
+    private long idLeastSigBits;
+
+    private boolean hasId;
+
     /**
      * The response type
      */
@@ -54,7 +60,7 @@ public class Ack implements Message{
      * @param time the timestamp of the response
      */
     public Ack(UUID id, AckType response, int time) {
-        this.id = id;
+        setId(id);
         this.response = response;
         this.time = time;
     }
@@ -84,6 +90,9 @@ public class Ack implements Message{
      * @return the ack id
      */
     public UUID getId() {
+        if (id == null && hasId) {
+            id = new UUID(idMostSigBits, idLeastSigBits);
+        }
         return id;
     }
 
@@ -93,6 +102,42 @@ public class Ack implements Message{
      */
     public void setId(UUID id) {
         this.id = id;
+        this.hasId = id != null;
+        this.idMostSigBits = hasId ? id.getMostSignificantBits() : 0;
+        this.idLeastSigBits = hasId ? id.getLeastSignificantBits() : 0;
+    }
+
+    /**
+     * Sets the ack id from its bits without creating a UUID
+     * @param mostSigBits the most significant bits of the id
+     * @param leastSigBits the least significant bits of the id
+     */
+    public void setId(long mostSigBits, long leastSigBits) {
+        this.id = null;
+        this.hasId = true;
+        this.idMostSigBits = mostSigBits;
+        this.idLeastSigBits = leastSigBits;
+    }
+
+    /**
+     * @return true if the ack has an id
+     */
+    public boolean hasId() {
+        return hasId;
+    }
+
+    /**
+     * @return the most significant bits of the ack id
+     */
+    public long getIdMostSigBits() {
+        return idMostSigBits;
+    }
+
+    /**
+     * @return the least significant bits of the ack id
+     */
+    public long getIdLeastSigBits() {
+        return idLeastSigBits;
     }
 
     /**
@@ -128,7 +173,7 @@ public class Ack implements Message{
     @Override
     public String toString() {
         return "Ack{" +
-                "id=" + id +
+                "id=" + getId() +
                 ", response=" + response +
                 ", time=" + time +
                 '}';
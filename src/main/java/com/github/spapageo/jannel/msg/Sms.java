@@ -189,6 +189,12 @@ public class Sms implements Message{
      */
     private String metaData;
 
+    /**
+     * The epoch time in millis after which the sms is no longer worth sending, 0 for none. It is only used by the
+     * client and is never sent to the bearer-box.
+     */
+    private long deadline;
+
     /**
      * Default instance constructor
      */
@@ -472,6 +478,14 @@ public class Sms implements Message{
         this.metaData = metaData;
     }
 
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
     @Override
     public String toString() {
         return "Sms{" +
@@ -506,6 +520,7 @@ public class Sms implements Message{
                ", resendTry=" + resendTry +
                ", resendTime=" + resendTime +
                ", metaData='" + metaData + '\'' +
+               ", deadline=" + deadline +
                '}';
     }
 }
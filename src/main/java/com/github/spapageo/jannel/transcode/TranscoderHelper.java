@@ -66,7 +66,15 @@ public class TranscoderHelper {
         Ack ack = new Ack();
         ack.setResponse(AckType.fromValue(ChannelBufferUtils.readInt(byteBuffer)));
         ack.setTime(ChannelBufferUtils.readInt(byteBuffer));
-        ack.setId(ChannelBufferUtils.readUUID(byteBuffer, Charsets.UTF_8));
+        if (ChannelBufferUtils.hasCanonicalUUID(byteBuffer)) {
+            // parse the id in place so that the ack path never has to create a UUID
+            final int start = byteBuffer.readerIndex() + 4;
+            ack.setId(ChannelBufferUtils.getUUIDMostSigBits(byteBuffer, start),
+                      ChannelBufferUtils.getUUIDLeastSigBits(byteBuffer, start));
+            byteBuffer.skipBytes(4 + ChannelBufferUtils.UUID_STRING_LENGTH);
+        } else {
+            ack.setId(ChannelBufferUtils.readUUID(byteBuffer, Charsets.UTF_8));
+        }
         if (ack.getResponse() == AckType.ACK_UNDEF)
             throw new UnknownAckTypeException("Unknown ack type");
         return ack;
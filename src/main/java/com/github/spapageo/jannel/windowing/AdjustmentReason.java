@@ -0,0 +1,60 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+/**
+ * The reasons for which an {@link AimdWindowController} adjusts the size limit of its window
+ */
+public enum AdjustmentReason {
+
+    /**
+     * The responses arrived within the target latency so the limit grew additively
+     */
+    ADDITIVE_INCREASE,
+
+    /**
+     * A response arrived later than the target latency
+     */
+    LATENCY_SPIKE,
+
+    /**
+     * The remote end reported a temporary failure
+     */
+    TEMPORARY_FAILURE,
+
+    /**
+     * The remote end buffered the request instead of processing it
+     */
+    BUFFERED,
+
+    /**
+     * A request expired without a response
+     */
+    EXPIRED,
+
+    /**
+     * The highest limit was lowered below the current one
+     */
+    RESIZED
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.spapageo.jannel.windowing;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Lets a blocking offer wait in the pending offer queue until its request is admitted or its future completes
+ * @param <K> the key type
+ * @param <R> the request type
+ */
+final class AdmissionLatch<K, R> implements OfferListener<K, R>, Runnable {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    @Override
+    public void onOfferAccepted(K key, R request) {
+        latch.countDown();
+    }
+
+    @Override
+    public void run() {
+        latch.countDown();
+    }
+
+    /**
+     * Waits until the request is admitted or its future completes
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    void await() throws InterruptedException {
+        latch.await();
+    }
+}
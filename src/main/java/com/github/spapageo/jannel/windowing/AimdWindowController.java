@@ -0,0 +1,204 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Adapts the size limit of a {@link Window} with additive increase, multiplicative decrease. Every response that
+ * arrives within the target latency grows the limit by one over the current limit, so the limit grows by about one
+ * per window round trip. A late response, a temporary failure, a buffered response or an expiry cuts the limit by the
+ * decrease factor. Further congestion signals are ignored for one target latency after a cut, since they most likely
+ * belong to the same burst.
+ */
+public final class AimdWindowController {
+
+    public static final double DEFAULT_DECREASE_FACTOR = 0.5;
+
+    public static final int DEFAULT_HISTORY_SIZE = 64;
+
+    private final Window<?, ?, ?> window;
+
+    private final int minLimit;
+
+    private int maxLimit;
+
+    private final long targetLatencyNanos;
+
+    private final double decreaseFactor;
+
+    private final int historySize;
+
+    private final Deque<WindowAdjustment> history;
+
+    private double estimate;
+
+    private long lastDecreaseNanos;
+
+    /**
+     * Creates a new controller that starts the window at its minimum limit
+     * @param window the window to control
+     * @param minLimit the lowest limit
+     * @param maxLimit the highest limit, at most the maximum size of the window
+     * @param targetLatencyMillis the highest response latency that still lets the limit grow
+     */
+    public AimdWindowController(Window<?, ?, ?> window,
+                                @Nonnegative int minLimit,
+                                @Nonnegative int maxLimit,
+                                @Nonnegative long targetLatencyMillis) {
+        this(window, minLimit, maxLimit, targetLatencyMillis, DEFAULT_DECREASE_FACTOR, DEFAULT_HISTORY_SIZE);
+    }
+
+    /**
+     * Creates a new controller that starts the window at its minimum limit
+     * @param window the window to control
+     * @param minLimit the lowest limit
+     * @param maxLimit the highest limit, at most the maximum size of the window
+     * @param targetLatencyMillis the highest response latency that still lets the limit grow
+     * @param decreaseFactor the factor the limit is multiplied with on congestion
+     * @param historySize the number of adjustments to remember
+     */
+    public AimdWindowController(Window<?, ?, ?> window,
+                                @Nonnegative int minLimit,
+                                @Nonnegative int maxLimit,
+                                @Nonnegative long targetLatencyMillis,
+                                double decreaseFactor,
+                                @Nonnegative int historySize) {
+        checkArgument(minLimit > 0, "minLimit must be > 0");
+        checkArgument(maxLimit >= minLimit && maxLimit <= window.getMaxSize(),
+                      "maxLimit must be >= minLimit and <= the window size");
+        checkArgument(targetLatencyMillis > 0, "targetLatencyMillis must be > 0");
+        checkArgument(decreaseFactor > 0 && decreaseFactor < 1, "decreaseFactor must be > 0 and < 1");
+        checkArgument(historySize > 0, "historySize must be > 0");
+
+        this.window = checkNotNull(window);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.decreaseFactor = decreaseFactor;
+        this.historySize = historySize;
+        this.history = new ArrayDeque<WindowAdjustment>(historySize);
+        this.estimate = minLimit;
+        this.lastDecreaseNanos = System.nanoTime() - targetLatencyNanos;
+
+        window.setSizeLimit(minLimit);
+    }
+
+    /**
+     * Informs the controller that a response arrived
+     * @param latencyNanos the time between sending the request and receiving its response in nanoseconds
+     */
+    public synchronized void onResponse(long latencyNanos) {
+        if (latencyNanos > targetLatencyNanos) {
+            onCongestion(AdjustmentReason.LATENCY_SPIKE);
+            return;
+        }
+
+        final int previous = (int) estimate;
+        estimate = Math.min(maxLimit, estimate + 1.0 / previous);
+        apply(previous, AdjustmentReason.ADDITIVE_INCREASE);
+    }
+
+    /**
+     * Informs the controller of a congestion signal
+     * @param reason the kind of congestion
+     */
+    public synchronized void onCongestion(AdjustmentReason reason) {
+        final long now = System.nanoTime();
+        if (now - lastDecreaseNanos < targetLatencyNanos) {
+            return;
+        }
+        lastDecreaseNanos = now;
+
+        final int previous = (int) estimate;
+        estimate = Math.max(minLimit, Math.floor(previous * decreaseFactor));
+        apply(previous, checkNotNull(reason));
+    }
+
+    /**
+     * Changes the highest limit, usually along with a {@link Window#resize(int) resize} of the window. Lower it before
+     * shrinking the window and raise it after growing the window, so that the limit always fits in the window. The
+     * current limit is cut to the new highest limit and set on the window again, which also undoes a resize that
+     * moved the window limit on its own.
+     * @param maxLimit the highest limit, at most the maximum size of the window
+     */
+    public synchronized void setMaxLimit(@Nonnegative int maxLimit) {
+        checkArgument(maxLimit >= minLimit && maxLimit <= window.getMaxSize(),
+                      "maxLimit must be >= minLimit and <= the window size");
+
+        this.maxLimit = maxLimit;
+
+        final int previous = (int) estimate;
+        estimate = Math.min(estimate, maxLimit);
+        window.setSizeLimit((int) estimate);
+        apply(previous, AdjustmentReason.RESIZED);
+    }
+
+    /**
+     * @return the highest limit
+     */
+    @Nonnegative
+    public synchronized int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * @return the current size limit of the window
+     */
+    @Nonnegative
+    public synchronized int getLimit() {
+        return (int) estimate;
+    }
+
+    /**
+     * @return the latest adjustments of the limit, oldest first
+     */
+    @Nonnull
+    public synchronized List<WindowAdjustment> getHistory() {
+        return new ArrayList<WindowAdjustment>(history);
+    }
+
+    private void apply(int previous, AdjustmentReason reason) {
+        final int limit = (int) estimate;
+        if (limit == previous) {
+            return;
+        }
+
+        window.setSizeLimit(limit);
+
+        if (history.size() == historySize) {
+            history.removeFirst();
+        }
+        history.addLast(new WindowAdjustment(System.currentTimeMillis(), previous, limit, reason));
+    }
+}
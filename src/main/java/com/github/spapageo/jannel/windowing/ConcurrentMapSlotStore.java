@@ -0,0 +1,225 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link SlotStore} that keeps its values in a {@link ConcurrentHashMap} and guards the free slots with an
+ * {@link InterruptingSemaphore}. Slot numbers carry no meaning for this store.
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class ConcurrentMapSlotStore<K, V> implements SlotStore<K, V> {
+
+    private static final int ANY_SLOT = 0;
+
+    private final ConcurrentHashMap<K, V> values;
+
+    private final InterruptingSemaphore availableSlots;
+
+    // guarded by the store monitor like the limit
+    private int capacity;
+
+    private int limit;
+
+    /**
+     * Creates a new store
+     * @param capacity the number of slots
+     */
+    ConcurrentMapSlotStore(@Nonnegative int capacity) {
+        this.values = new ConcurrentHashMap<K, V>(capacity * 2);
+        this.availableSlots = new InterruptingSemaphore(capacity);
+        this.capacity = capacity;
+        this.limit = capacity;
+    }
+
+    @Override
+    public int acquire(@Nonnegative long timeoutMillis) throws InterruptedException {
+        return availableSlots.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS) ? ANY_SLOT : NO_SLOT;
+    }
+
+    @Override
+    public int tryAcquire() {
+        return availableSlots.tryAcquire() ? ANY_SLOT : NO_SLOT;
+    }
+
+    @Override
+    public boolean bind(int slot, K key, V value) {
+        return values.putIfAbsent(key, value) == null;
+    }
+
+    @Override
+    public int tryAcquireAll(int[] slots, @Nonnegative int count) {
+        int wanted = count;
+        while (wanted > 0) {
+            if (availableSlots.tryAcquire(wanted)) {
+                Arrays.fill(slots, 0, wanted, ANY_SLOT);
+                return wanted;
+            }
+            wanted = Math.min(wanted - 1, availableSlots.availablePermits());
+        }
+        return 0;
+    }
+
+    @Override
+    public void release(int slot) {
+        availableSlots.release();
+    }
+
+    @Override
+    public void releaseAll(int[] slots, @Nonnegative int count) {
+        if (count > 0) {
+            availableSlots.release(count);
+        }
+    }
+
+    @Nullable
+    @Override
+    public V get(K key) {
+        return values.get(key);
+    }
+
+    @Nullable
+    @Override
+    public V remove(K key) {
+        final V value = values.remove(key);
+        if (value != null) {
+            availableSlots.release();
+        }
+        return value;
+    }
+
+    @Override
+    public boolean remove(K key, V value) {
+        if (values.remove(key, value)) {
+            availableSlots.release();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void removeKeys(List<? extends K> keys, List<? super V> removed) {
+        int freed = 0;
+        for (final K key : keys) {
+            final V value = values.remove(key);
+            if (value != null) {
+                freed++;
+            }
+            removed.add(value);
+        }
+
+        if (freed > 0) {
+            availableSlots.release(freed);
+        }
+    }
+
+    @Override
+    public void forEach(ValueVisitor<? super V> visitor) {
+        for (final V value : values.values()) {
+            visitor.visit(value);
+        }
+    }
+
+    @Override
+    public int removeAll(ValueVisitor<? super V> visitor) {
+        int removed = 0;
+        for (final Map.Entry<K, V> entry : values.entrySet()) {
+            // a concurrent remove may have claimed the entry already
+            if (values.remove(entry.getKey(), entry.getValue())) {
+                visitor.visit(entry.getValue());
+                removed++;
+            }
+        }
+
+        if (removed > 0) {
+            availableSlots.release(removed);
+        }
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public int getFreeCount() {
+        return availableSlots.availablePermits();
+    }
+
+    @Override
+    public int getQueueLength() {
+        return availableSlots.getQueueLength();
+    }
+
+    @Override
+    public synchronized void setLimit(@Nonnegative int limit) {
+        checkArgument(limit > 0 && limit <= capacity, "limit must be > 0 and <= " + capacity);
+
+        final int delta = limit - this.limit;
+        if (delta > 0) {
+            availableSlots.release(delta);
+        } else if (delta < 0) {
+            // the permits may go negative in which case the releases pay the difference back
+            availableSlots.reducePermits(-delta);
+        }
+        this.limit = limit;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized void grow(@Nonnegative int capacity) {
+        // the permits follow the limit, so there is nothing to add until it is raised
+        this.capacity = Math.max(this.capacity, capacity);
+    }
+
+    @Override
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void interruptWaiters() {
+        availableSlots.tryInterrupt();
+    }
+
+    @Override
+    public void drain() {
+        availableSlots.drainPermits();
+    }
+}
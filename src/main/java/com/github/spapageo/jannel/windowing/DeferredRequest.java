@@ -1,6 +1,6 @@
 /*
  * The MIT License (MIT)
- * Copyright (c) 2016 Spyridon Papageorgiou
+ * Copyright (c) 2016 Spyros Papageorgiou
  *
  * Permission is hereby granted, free of charge, to any person obtaining a copy
  * of this software and associated documentation files (the "Software"), to
@@ -20,40 +20,117 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
  * SOFTWARE.
  */
-
 package com.github.spapageo.jannel.windowing;
 
-import com.google.common.util.concurrent.AbstractFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
- * Implementation of the {@link WindowFuture} based on the facilities provided by {@link AbstractFuture}
+ * Implementation of the {@link WindowFuture}. Unlike the Guava futures it can be reset, so that windows with
+ * {@link FutureRecycling} enabled can take it from a {@link FuturePool} and return it there once it is released.
  * @param <K> the key type
  * @param <R> the request type
  * @param <D> the response type
  */
-class DeferredRequest<K, R, D> extends AbstractFuture<D> implements WindowFuture<R, D>{
+class DeferredRequest<K, R, D> implements WindowFuture<R, D> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeferredRequest.class);
+
+    private static final int PENDING = 0;
+
+    private static final int SUCCEEDED = 1;
+
+    private static final int FAILED = 2;
 
-    private final R request;
+    private static final int CANCELLED = 3;
 
-    private final K key;
+    private static final int RELEASED = 4;
+
+    /**
+     * Claimed by the expiry sweep, no other completion can win anymore but the listeners have not run yet
+     */
+    private static final int EXPIRING = 5;
 
     private final Window<K, R, D> window;
 
+    @Nullable
+    private final FuturePool<K, R, D> pool;
+
+    private K key;
+
+    private R request;
+
+    private long expireTimeoutMillis;
+
+    private volatile long admissionNanos;
+
+    private volatile int state;
+
+    private volatile int generation;
+
+    // 0 while the deadline of the current request is not recorded
+    private volatile long expiryTicket;
+
+    @Nullable
+    private D value;
+
+    @Nullable
+    private Throwable cause;
+
+    @Nullable
+    private Runnable listener;
+
+    @Nullable
+    private Executor executor;
+
+    @Nullable
+    private List<Object> moreListeners;
+
+    @Nullable
+    private Throwable releaseSite;
+
+    /**
+     * Intentional package local constructor
+     * @param key the request key
+     * @param request the request object
+     * @param window the window
+     * @param expireTimeoutMillis the time after which the request expires once in the window, values below 1 disable it
+     */
+    DeferredRequest(K key, R request, Window<K, R, D> window, long expireTimeoutMillis) {
+        this(key, request, window, expireTimeoutMillis, null);
+    }
+
     /**
      * Intentional package local constructor
      * @param key the request key
      * @param request the request object
      * @param window the window
+     * @param expireTimeoutMillis the time after which the request expires once in the window, values below 1 disable it
+     * @param pool the pool the future returns to when released or null if it is not recycled
      */
-    DeferredRequest(K key, R request, Window<K, R, D> window) {
+    DeferredRequest(K key,
+                    R request,
+                    Window<K, R, D> window,
+                    long expireTimeoutMillis,
+                    @Nullable FuturePool<K, R, D> pool) {
         this.key = checkNotNull(key);
         this.request = checkNotNull(request);
         this.window = checkNotNull(window);
+        this.expireTimeoutMillis = expireTimeoutMillis;
+        this.pool = pool;
     }
 
     /**
@@ -71,27 +148,152 @@ class DeferredRequest<K, R, D> extends AbstractFuture<D> implements WindowFuture
     static <K, R, D> DeferredRequest<K, R, D> create(K key,
                                                      R request,
                                                      Window<K, R, D> window) {
-        return new DeferredRequest<K, R, D>(key, request, window);
+        return create(key, request, window, -1);
+    }
+
+    /**
+     * Creates a new {@link DeferredRequest} with the given key, request and expiry timeout. This future will be
+     * notified on completion, failure or cancellation of the given request. In case of expiry the failure cause will
+     * be TimeoutException.
+     * @param key the request key
+     * @param request the request object
+     * @param window the window object
+     * @param expireTimeoutMillis the time after which the request expires once in the window, values below 1 disable it
+     * @param <K> the key type
+     * @param <R> the request type
+     * @param <D> the response type
+     * @return the new future object
+     */
+    @Nonnull
+    static <K, R, D> DeferredRequest<K, R, D> create(K key,
+                                                     R request,
+                                                     Window<K, R, D> window,
+                                                     long expireTimeoutMillis) {
+        return new DeferredRequest<K, R, D>(key, request, window, expireTimeoutMillis);
+    }
+
+    /**
+     * Prepares a released future for a new request
+     * @param key the request key
+     * @param request the request object
+     * @param expireTimeoutMillis the time after which the request expires once in the window, values below 1 disable it
+     * @return this future
+     */
+    @Nonnull
+    DeferredRequest<K, R, D> reuse(K key, R request, long expireTimeoutMillis) {
+        this.key = checkNotNull(key);
+        this.request = checkNotNull(request);
+        this.expireTimeoutMillis = expireTimeoutMillis;
+        this.admissionNanos = 0;
+        // the volatile write publishes the fields above to the threads that see the future pending
+        this.state = PENDING;
+        return this;
     }
 
     @Override
     @Nonnull
     public R getRequest() {
+        checkNotReleased();
         return request;
     }
 
     @Override
+    public long getAdmissionNanos() {
+        checkNotReleased();
+        return admissionNanos;
+    }
+
+    /**
+     * Records that the request entered the window
+     */
+    void admitted() {
+        this.admissionNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the request key
+     */
+    @Nonnull
+    K getKey() {
+        return key;
+    }
+
+    /**
+     * @return the time after which the request expires once in the window, values below 1 mean it never expires
+     */
+    long getExpireTimeoutMillis() {
+        return expireTimeoutMillis;
+    }
+
+    /**
+     * @return the number of times the future was released, which tells its successive requests apart
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return true if the request is still waiting for its outcome. Unlike {@link #isDone()} it may be called on a
+     * released future.
+     */
+    boolean isPending() {
+        return isWaiting(state);
+    }
+
+    /**
+     * Records the ticket under which the {@link ExpiryEngine} keeps the deadline of the current request
+     * @param expiryTicket the ticket, unique within the engine
+     */
+    void setExpiryTicket(long expiryTicket) {
+        this.expiryTicket = expiryTicket;
+    }
+
+    /**
+     * Claims a pending request for the expiry sweep. A claimed request can neither be completed by anything else nor
+     * released, so the sweep can remove it from the window knowing that it still belongs to the same request.
+     * @param expiryTicket the ticket recorded with the deadline
+     * @return true if the request is still pending under the given ticket and now has to be expired by the caller
+     * @see #expire(Throwable)
+     */
+    boolean claimExpiry(long expiryTicket) {
+        synchronized (this) {
+            if (this.expiryTicket != expiryTicket || state != PENDING) {
+                return false;
+            }
+            state = EXPIRING;
+            return true;
+        }
+    }
+
+    /**
+     * Fails a request claimed by {@link #claimExpiry(long)}
+     * @param cause the cause of the failure
+     */
+    void expire(Throwable cause) {
+        complete(EXPIRING, FAILED, null, checkNotNull(cause));
+    }
+
+    /**
+     * Completes the future successfully
+     * @param value the response
+     * @return true if the future was completed by this call
+     */
     public boolean set(@Nullable D value) {
-        return super.set(value);
+        return complete(PENDING, SUCCEEDED, value, null);
     }
 
-    @Override
+    /**
+     * Completes the future with a failure
+     * @param throwable the cause of the failure
+     * @return true if the future was completed by this call
+     */
     public boolean setException(Throwable throwable) {
-        return super.setException(throwable);
+        return complete(PENDING, FAILED, null, checkNotNull(throwable));
     }
 
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
+        checkNotReleased();
         final WindowFuture<R, D> cancelledFuture = window.cancel(key, mayInterruptIfRunning);
 
         return cancelledFuture != null && cancelledFuture.isCancelled();
@@ -103,6 +305,165 @@ class DeferredRequest<K, R, D> extends AbstractFuture<D> implements WindowFuture
      * @return true of the task of this future was cancelled, false otherwise.
      */
     boolean cancelInternal(boolean mayInterruptIfRunning) {
-        return super.cancel(mayInterruptIfRunning);
+        return complete(PENDING, CANCELLED, null, null);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        checkNotReleased();
+        return state == CANCELLED;
+    }
+
+    @Override
+    public boolean isDone() {
+        checkNotReleased();
+        return !isWaiting(state);
+    }
+
+    @Override
+    public D get() throws InterruptedException, ExecutionException {
+        synchronized (this) {
+            while (isWaiting(state)) {
+                wait();
+            }
+            return report();
+        }
+    }
+
+    @Override
+    public D get(long timeout, @Nonnull TimeUnit unit) throws InterruptedException, ExecutionException,
+                                                              TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (isWaiting(state)) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return report();
+        }
+    }
+
+    @Override
+    public void addListener(Runnable listener, Executor executor) {
+        checkNotNull(listener, "Runnable was null.");
+        checkNotNull(executor, "Executor was null.");
+
+        synchronized (this) {
+            checkNotReleased();
+            if (isWaiting(state)) {
+                if (this.listener == null) {
+                    this.listener = listener;
+                    this.executor = executor;
+                } else {
+                    if (moreListeners == null) {
+                        moreListeners = new ArrayList<Object>(4);
+                    }
+                    moreListeners.add(listener);
+                    moreListeners.add(executor);
+                }
+                return;
+            }
+        }
+
+        execute(listener, executor);
+    }
+
+    @Override
+    public void release() {
+        if (pool == null) {
+            return;
+        }
+
+        synchronized (this) {
+            checkNotReleased();
+            checkState(!isWaiting(state), "A pending future can not be released");
+
+            state = RELEASED;
+            generation++;
+            expiryTicket = 0;
+            key = null;
+            request = null;
+            value = null;
+            cause = null;
+            listener = null;
+            executor = null;
+            moreListeners = null;
+            releaseSite = pool.isDetectingUseAfterRelease() ? new Throwable("The future was released here") : null;
+        }
+
+        pool.recycle(this);
+    }
+
+    private boolean complete(int expectedState, int completedState, @Nullable D value, @Nullable Throwable cause) {
+        final Runnable firstListener;
+        final Executor firstExecutor;
+        final List<Object> otherListeners;
+
+        synchronized (this) {
+            if (state != expectedState) {
+                return false;
+            }
+            this.value = value;
+            this.cause = cause;
+            this.state = completedState;
+
+            firstListener = this.listener;
+            firstExecutor = this.executor;
+            otherListeners = this.moreListeners;
+            this.listener = null;
+            this.executor = null;
+            this.moreListeners = null;
+
+            notifyAll();
+        }
+
+        // listeners added from now on run immediately, so the ones taken above are all that is left to notify
+        if (firstListener != null) {
+            execute(firstListener, firstExecutor);
+        }
+        if (otherListeners != null) {
+            for (int i = 0; i < otherListeners.size(); i += 2) {
+                execute((Runnable) otherListeners.get(i), (Executor) otherListeners.get(i + 1));
+            }
+        }
+        return true;
+    }
+
+    private D report() throws ExecutionException {
+        switch (state) {
+            case SUCCEEDED:
+                return value;
+            case FAILED:
+                throw new ExecutionException(cause);
+            case CANCELLED:
+                throw new CancellationException("Task was cancelled.");
+            default:
+                throw released();
+        }
+    }
+
+    private static boolean isWaiting(int state) {
+        return state == PENDING || state == EXPIRING;
+    }
+
+    private void checkNotReleased() {
+        if (state == RELEASED) {
+            throw released();
+        }
+    }
+
+    private IllegalStateException released() {
+        return new IllegalStateException("The future was used after it was released", releaseSite);
+    }
+
+    private static void execute(Runnable listener, Executor executor) {
+        try {
+            executor.execute(listener);
+        } catch (RuntimeException e) {
+            LOGGER.error("RuntimeException while executing runnable " + listener + " with executor " + executor, e);
+        }
     }
 }
@@ -0,0 +1,296 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Expires the requests of a {@link Window} in bulk. Instead of scheduling a timer task per request the deadlines are
+ * appended to a ring per expiry timeout. Since the timeout of a ring is constant its deadlines are in insertion order,
+ * so a single periodic sweep only has to look at the head of every ring to find the overdue requests. Requests that
+ * complete before their deadline are simply skipped when they reach the head. The rings keep the key of every
+ * request and a ticket that is unique to its deadline instead of the future itself, so the futures of completed
+ * requests are not held until their deadline and a recycled future is not expired by the deadline of its previous
+ * request.
+ * @param <K> the key type
+ * @param <R> the request type
+ * @param <P> the response type
+ */
+final class ExpiryEngine<K, R, P> implements TimerTask {
+
+    /**
+     * The default time between two sweeps, matching the default tick of the {@link io.netty.util.HashedWheelTimer}
+     */
+    static final long DEFAULT_SWEEP_INTERVAL_MILLIS = 100;
+
+    private final Window<K, R, P> window;
+
+    private final Timer timer;
+
+    private final long sweepIntervalMillis;
+
+    private DeadlineRing[] rings = new DeadlineRing[0];
+
+    private int pending;
+
+    private long lastTicket;
+
+    @Nullable
+    private Timeout sweepTimeout;
+
+    private boolean stopped;
+
+    private volatile int lastSweepExpiredCount;
+
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /**
+     * Creates a new engine
+     * @param window the window whose requests are expired
+     * @param timer the timer that runs the sweeps
+     * @param sweepIntervalMillis the time between two sweeps
+     */
+    ExpiryEngine(Window<K, R, P> window, Timer timer, @Nonnegative long sweepIntervalMillis) {
+        checkArgument(sweepIntervalMillis > 0, "sweepIntervalMillis must be > 0");
+
+        this.window = checkNotNull(window);
+        this.timer = checkNotNull(timer);
+        this.sweepIntervalMillis = sweepIntervalMillis;
+    }
+
+    /**
+     * Records the deadline of a request that just entered the window
+     * @param future the request
+     * @param timeoutMillis the expiry timeout of the request
+     */
+    synchronized void register(DeferredRequest<K, R, P> future, @Nonnegative long timeoutMillis) {
+        if (stopped) {
+            return;
+        }
+
+        final long ticket = ++lastTicket;
+        future.setExpiryTicket(ticket);
+        // reading the clock under the lock keeps the deadlines of every ring in order
+        ringFor(timeoutMillis).add(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis),
+                                   future.getKey(),
+                                   ticket);
+        pending++;
+
+        if (sweepTimeout == null) {
+            sweepTimeout = timer.newTimeout(this, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void run(Timeout timeout) throws Exception {
+        try {
+            sweep(System.nanoTime());
+        } finally {
+            synchronized (this) {
+                sweepTimeout = stopped || pending == 0 ?
+                        null :
+                        timer.newTimeout(this, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Expires every request whose deadline is not after the given time
+     * @param nanoTime the current {@link System#nanoTime()}
+     * @return the number of requests that expired
+     */
+    int sweep(long nanoTime) {
+        final List<K> dueKeys = new ArrayList<K>();
+        final List<Long> dueTickets = new ArrayList<Long>();
+
+        synchronized (this) {
+            for (final DeadlineRing ring : rings) {
+                while (!ring.isEmpty() && ring.peekDeadline() - nanoTime <= 0) {
+                    dueTickets.add(ring.peekTicket());
+                    @SuppressWarnings("unchecked")
+                    final K key = (K) ring.poll();
+                    dueKeys.add(key);
+                    pending--;
+                }
+            }
+        }
+
+        // the claim checks the ticket atomically with the state, so a request that completed, or whose future was
+        // reused for a new request with the same key, is left alone
+        final List<DeferredRequest<K, R, P>> overdue = new ArrayList<DeferredRequest<K, R, P>>(dueKeys.size());
+        for (int i = 0; i < dueKeys.size(); i++) {
+            final DeferredRequest<K, R, P> future = window.getFuture(dueKeys.get(i));
+            if (future != null && future.claimExpiry(dueTickets.get(i))) {
+                overdue.add(future);
+            }
+        }
+
+        if (overdue.isEmpty()) {
+            lastSweepExpiredCount = 0;
+            return 0;
+        }
+
+        // the counters are updated before any future completes so that its listeners see them
+        final List<DeferredRequest<K, R, P>> expired = window.removeExpired(overdue);
+        lastSweepExpiredCount = expired.size();
+        expiredCount.addAndGet(expired.size());
+
+        if (!expired.isEmpty()) {
+            window.completeExpired(expired);
+        }
+        return expired.size();
+    }
+
+    /**
+     * Stops the periodic sweeps and forgets every recorded deadline
+     */
+    synchronized void stop() {
+        stopped = true;
+        if (sweepTimeout != null) {
+            sweepTimeout.cancel();
+            sweepTimeout = null;
+        }
+        rings = new DeadlineRing[0];
+        pending = 0;
+    }
+
+    /**
+     * @return the number of recorded deadlines, including the ones of requests that already completed
+     */
+    synchronized int getPendingCount() {
+        return pending;
+    }
+
+    /**
+     * @return the number of requests expired by the last sweep
+     */
+    int getLastSweepExpiredCount() {
+        return lastSweepExpiredCount;
+    }
+
+    /**
+     * @return the number of requests expired since the engine was created
+     */
+    long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    private DeadlineRing ringFor(long timeoutMillis) {
+        // a window rarely sees more than one expiry timeout so a linear scan is the cheapest lookup
+        for (final DeadlineRing ring : rings) {
+            if (ring.timeoutMillis == timeoutMillis) {
+                return ring;
+            }
+        }
+
+        final DeadlineRing[] grown = new DeadlineRing[rings.length + 1];
+        System.arraycopy(rings, 0, grown, 0, rings.length);
+        grown[rings.length] = new DeadlineRing(timeoutMillis);
+        rings = grown;
+        return grown[rings.length - 1];
+    }
+
+    /**
+     * A growable circular buffer of deadlines and the keys and tickets of the requests they belong to
+     */
+    private static final class DeadlineRing {
+
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final long timeoutMillis;
+
+        private long[] deadlines = new long[INITIAL_CAPACITY];
+
+        private Object[] keys = new Object[INITIAL_CAPACITY];
+
+        private long[] tickets = new long[INITIAL_CAPACITY];
+
+        private int head;
+
+        private int size;
+
+        DeadlineRing(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long peekDeadline() {
+            return deadlines[head];
+        }
+
+        long peekTicket() {
+            return tickets[head];
+        }
+
+        void add(long deadline, Object key, long ticket) {
+            if (size == deadlines.length) {
+                grow();
+            }
+            final int tail = (head + size) & (deadlines.length - 1);
+            deadlines[tail] = deadline;
+            keys[tail] = key;
+            tickets[tail] = ticket;
+            size++;
+        }
+
+        Object poll() {
+            final Object key = keys[head];
+            keys[head] = null;
+            head = (head + 1) & (deadlines.length - 1);
+            size--;
+            return key;
+        }
+
+        private void grow() {
+            final long[] grownDeadlines = new long[deadlines.length * 2];
+            final Object[] grownKeys = new Object[deadlines.length * 2];
+            final long[] grownTickets = new long[deadlines.length * 2];
+            for (int i = 0; i < size; i++) {
+                final int position = (head + i) & (deadlines.length - 1);
+                grownDeadlines[i] = deadlines[position];
+                grownKeys[i] = keys[position];
+                grownTickets[i] = tickets[position];
+            }
+            deadlines = grownDeadlines;
+            keys = grownKeys;
+            tickets = grownTickets;
+            head = 0;
+        }
+    }
+}
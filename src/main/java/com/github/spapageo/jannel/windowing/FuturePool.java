@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A pool of released {@link DeferredRequest} instances. The futures are usually taken by the sending threads and
+ * released by the threads that consume the responses, so instead of thread local pools the futures are kept in a
+ * few stripes. A thread starts at the stripe picked by its id and moves on to the others when it finds it empty or
+ * full. Futures that find every stripe full are left to the garbage collector.
+ * @param <K> the key type
+ * @param <R> the request type
+ * @param <P> the response type
+ */
+final class FuturePool<K, R, P> {
+
+    /**
+     * The number of futures a stripe can hold
+     */
+    static final int STRIPE_CAPACITY = 256;
+
+    private final Window<K, R, P> window;
+
+    private final boolean detectingUseAfterRelease;
+
+    private final Stripe[] stripes;
+
+    private final int stripeMask;
+
+    /**
+     * Creates a new pool
+     * @param window the window the futures belong to
+     * @param detectingUseAfterRelease true to never reuse a released future so that every later use is detected
+     */
+    FuturePool(Window<K, R, P> window, boolean detectingUseAfterRelease) {
+        this.window = window;
+        this.detectingUseAfterRelease = detectingUseAfterRelease;
+
+        final int stripeCount = KeyIndex.tableSizeFor(Runtime.getRuntime().availableProcessors() * 2);
+        this.stripeMask = stripeCount - 1;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Takes a released future from the pool or creates a new one
+     * @param key the request key
+     * @param request the request object
+     * @param expireTimeoutMillis the time after which the request expires once in the window, values below 1 disable it
+     * @return a pending future for the request
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    DeferredRequest<K, R, P> acquire(K key, R request, long expireTimeoutMillis) {
+        final int home = homeStripe();
+        for (int i = 0; i <= stripeMask; i++) {
+            final Stripe stripe = stripes[(home + i) & stripeMask];
+            if (stripe.size == 0) {
+                continue;
+            }
+
+            synchronized (stripe) {
+                if (stripe.size > 0) {
+                    final int last = stripe.size - 1;
+                    final DeferredRequest<K, R, P> future = (DeferredRequest<K, R, P>) stripe.futures[last];
+                    stripe.futures[last] = null;
+                    stripe.size = last;
+                    return future.reuse(key, request, expireTimeoutMillis);
+                }
+            }
+        }
+
+        return new DeferredRequest<K, R, P>(key, request, window, expireTimeoutMillis, this);
+    }
+
+    /**
+     * Returns a released future to the pool
+     * @param future the future
+     */
+    void recycle(DeferredRequest<K, R, P> future) {
+        if (detectingUseAfterRelease) {
+            return;
+        }
+
+        final int home = homeStripe();
+        for (int i = 0; i <= stripeMask; i++) {
+            final Stripe stripe = stripes[(home + i) & stripeMask];
+            if (stripe.size == STRIPE_CAPACITY) {
+                continue;
+            }
+
+            synchronized (stripe) {
+                if (stripe.size < STRIPE_CAPACITY) {
+                    stripe.futures[stripe.size] = future;
+                    stripe.size++;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if released futures are kept out of the pool to detect their use after release
+     */
+    boolean isDetectingUseAfterRelease() {
+        return detectingUseAfterRelease;
+    }
+
+    /**
+     * @return the number of futures waiting in the pool
+     */
+    int size() {
+        int size = 0;
+        for (final Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    private int homeStripe() {
+        return SlotArrayStore.spread((int) Thread.currentThread().getId());
+    }
+
+    /**
+     * A bounded stack of released futures
+     */
+    private static final class Stripe {
+
+        private final Object[] futures = new Object[STRIPE_CAPACITY];
+
+        // written under the stripe lock, read without it to skip empty and full stripes
+        private volatile int size;
+    }
+}
@@ -42,6 +42,15 @@ final class InterruptingSemaphore extends Semaphore {
         super(permits);
     }
 
+    /**
+     * Shrinks the number of available permits, possibly below zero
+     * @param reduction the number of permits to remove
+     */
+    @Override
+    public void reducePermits(int reduction) {
+        super.reducePermits(reduction);
+    }
+
     /**
      * Tries to interrupt all waiting threads by calling {@link Thread#interrupt()}
      */
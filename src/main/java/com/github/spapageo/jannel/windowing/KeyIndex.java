@@ -0,0 +1,224 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+
+/**
+ * A compact open addressing map from keys to slot numbers. Collisions are resolved by linear probing and
+ * removals shift the following entries back so that no tombstones are left behind. The index is not thread
+ * safe, the caller is expected to guard it.
+ * @param <K> the key type
+ */
+final class KeyIndex<K> {
+
+    /**
+     * Visits the slots of an index that is being cleared
+     */
+    interface SlotVisitor {
+        /**
+         * @param slot the slot of a removed entry
+         */
+        void visit(int slot);
+    }
+
+    private static final int MINIMUM_CAPACITY = 4;
+
+    private Object[] keys;
+
+    private int[] hashes;
+
+    private int[] slots;
+
+    private int mask;
+
+    private int size;
+
+    /**
+     * Creates a new index
+     * @param expectedSize the number of keys the index should hold without resizing
+     */
+    KeyIndex(@Nonnegative int expectedSize) {
+        allocate(tableSizeFor(Math.max(MINIMUM_CAPACITY, expectedSize * 2)));
+    }
+
+    /**
+     * Finds the slot of the key
+     * @param key the key
+     * @param hash the spread hash of the key
+     * @return the slot or {@link SlotStore#NO_SLOT} if the key is not present
+     */
+    int get(Object key, int hash) {
+        final int position = find(key, hash);
+        return position < 0 ? SlotStore.NO_SLOT : slots[position];
+    }
+
+    /**
+     * Associates the key with a slot unless the key is already present
+     * @param key the key
+     * @param hash the spread hash of the key
+     * @param slot the slot
+     * @return the existing slot of the key or {@link SlotStore#NO_SLOT} if the key was inserted
+     */
+    int putIfAbsent(K key, int hash, int slot) {
+        int position = hash & mask;
+        while (keys[position] != null) {
+            if (hashes[position] == hash && keys[position].equals(key)) {
+                return slots[position];
+            }
+            position = (position + 1) & mask;
+        }
+
+        keys[position] = key;
+        hashes[position] = hash;
+        slots[position] = slot;
+
+        if (++size * 4 >= keys.length * 3) {
+            rehash(keys.length * 2);
+        }
+
+        return SlotStore.NO_SLOT;
+    }
+
+    /**
+     * Removes the key from the index
+     * @param key the key
+     * @param hash the spread hash of the key
+     * @return the slot of the removed key or {@link SlotStore#NO_SLOT} if the key was not present
+     */
+    int remove(Object key, int hash) {
+        final int position = find(key, hash);
+        if (position < 0) {
+            return SlotStore.NO_SLOT;
+        }
+
+        final int slot = slots[position];
+        shiftBack(position);
+        size--;
+        return slot;
+    }
+
+    /**
+     * Visits the slot of every key in the index without removing it
+     * @param visitor receives the slot of every key
+     */
+    void forEach(SlotVisitor visitor) {
+        for (int position = 0; position < keys.length; position++) {
+            if (keys[position] != null) {
+                visitor.visit(slots[position]);
+            }
+        }
+    }
+
+    /**
+     * Removes every key from the index
+     * @param visitor receives the slot of every removed key
+     */
+    void clear(SlotVisitor visitor) {
+        for (int position = 0; position < keys.length; position++) {
+            if (keys[position] != null) {
+                keys[position] = null;
+                visitor.visit(slots[position]);
+            }
+        }
+        size = 0;
+    }
+
+    /**
+     * @return the number of keys in the index
+     */
+    int size() {
+        return size;
+    }
+
+    private int find(Object key, int hash) {
+        int position = hash & mask;
+        while (keys[position] != null) {
+            if (hashes[position] == hash && keys[position].equals(key)) {
+                return position;
+            }
+            position = (position + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void shiftBack(int gap) {
+        int position = gap;
+        while (true) {
+            position = (position + 1) & mask;
+            if (keys[position] == null) {
+                break;
+            }
+
+            // move the entry into the gap unless its home lies cyclically within (gap, position]
+            final int home = hashes[position] & mask;
+            final boolean movable = gap <= position ?
+                    home <= gap || home > position :
+                    home <= gap && home > position;
+
+            if (movable) {
+                keys[gap] = keys[position];
+                hashes[gap] = hashes[position];
+                slots[gap] = slots[position];
+                gap = position;
+            }
+        }
+        keys[gap] = null;
+    }
+
+    private void rehash(int capacity) {
+        final Object[] oldKeys = keys;
+        final int[] oldHashes = hashes;
+        final int[] oldSlots = slots;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int position = oldHashes[i] & mask;
+                while (keys[position] != null) {
+                    position = (position + 1) & mask;
+                }
+                keys[position] = oldKeys[i];
+                hashes[position] = oldHashes[i];
+                slots[position] = oldSlots[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new Object[capacity];
+        this.hashes = new int[capacity];
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @param value the requested size
+     * @return the smallest power of two that is greater or equal to the given value
+     */
+    static int tableSizeFor(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An asynchronous offer that waits in the pending queue of a {@link Window} for a free slot
+ * @param <K> the key type
+ * @param <R> the request type
+ * @param <P> the response type
+ */
+final class PendingOffer<K, R, P> implements TimerTask {
+
+    private final DeferredRequest<K, R, P> future;
+
+    private final OfferListener<K, R> listener;
+
+    private final Window<K, R, P> window;
+
+    private final int priority;
+
+    private final long enqueuedNanos;
+
+    @Nullable
+    private volatile Timeout timeout;
+
+    /**
+     * Intentional package local constructor
+     * @param future the future of the offered request
+     * @param listener the listener to notify once the request is accepted
+     * @param window the window
+     * @param priority the priority class of the offer
+     */
+    PendingOffer(DeferredRequest<K, R, P> future,
+                 OfferListener<K, R> listener,
+                 Window<K, R, P> window,
+                 int priority) {
+        this.future = checkNotNull(future);
+        this.listener = checkNotNull(listener);
+        this.window = checkNotNull(window);
+        this.priority = priority;
+        this.enqueuedNanos = System.nanoTime();
+    }
+
+    DeferredRequest<K, R, P> getFuture() {
+        return future;
+    }
+
+    OfferListener<K, R> getListener() {
+        return listener;
+    }
+
+    /**
+     * @return the priority class of the offer
+     */
+    int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the offer started waiting
+     */
+    long getEnqueuedNanos() {
+        return enqueuedNanos;
+    }
+
+    /**
+     * @param timeout the timeout that removes this offer from the queue
+     */
+    void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Cancels the queue timeout of this offer
+     */
+    void cancelTimeout() {
+        final Timeout current = timeout;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    @Override
+    public void run(Timeout timeout) throws Exception {
+        if (window.removePendingOffer(this)) {
+            future.setException(new TimeoutException("The operation timed out (Pending offer queue)"));
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The bounded queue of the offers that wait for a slot of a {@link Window}. Every priority class has its own FIFO
+ * queue and {@link #poll(int)} picks the offer to admit by priority, taking the aging and the reserved slots of the
+ * {@link PriorityClasses} into account. With a single class it behaves like a plain bounded FIFO queue.
+ * @param <K> the key type
+ * @param <R> the request type
+ * @param <P> the response type
+ */
+final class PendingOfferQueue<K, R, P> {
+
+    private final ArrayDeque<PendingOffer<K, R, P>>[] queues;
+
+    private final int[] reservedAbove;
+
+    private final long agingNanos;
+
+    private final boolean reserving;
+
+    private final int capacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notFull = lock.newCondition();
+
+    // written under the lock, read without it by the fast paths
+    private volatile int size;
+
+    /**
+     * Creates a new queue
+     * @param capacity the maximum number of waiting offers
+     * @param priorityClasses the priority classes
+     */
+    @SuppressWarnings("unchecked")
+    PendingOfferQueue(@Nonnegative int capacity, PriorityClasses priorityClasses) {
+        final int classCount = priorityClasses.getCount();
+
+        this.capacity = capacity;
+        this.queues = new ArrayDeque[classCount];
+        this.reservedAbove = new int[classCount];
+        for (int priority = classCount - 1; priority >= 0; priority--) {
+            queues[priority] = new ArrayDeque<PendingOffer<K, R, P>>();
+            if (priority < classCount - 1) {
+                reservedAbove[priority] = reservedAbove[priority + 1] + priorityClasses.getReservedSlots(priority + 1);
+            }
+        }
+        this.reserving = reservedAbove[0] > 0;
+        this.agingNanos = classCount > 1 && priorityClasses.getAgingMillis() > 0 ?
+                TimeUnit.MILLISECONDS.toNanos(priorityClasses.getAgingMillis()) :
+                0;
+    }
+
+    /**
+     * Appends the offer unless the queue is full
+     * @param pendingOffer the offer
+     * @return true if the offer was appended
+     */
+    boolean offer(PendingOffer<K, R, P> pendingOffer) {
+        lock.lock();
+        try {
+            if (size == capacity) {
+                return false;
+            }
+            append(pendingOffer);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends the offer waiting for room in the queue if needed
+     * @param pendingOffer the offer
+     * @param timeoutMillis the maximum time to wait, values below 1 wait forever
+     * @return true if the offer was appended
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    boolean offer(PendingOffer<K, R, P> pendingOffer, long timeoutMillis) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lockInterruptibly();
+        try {
+            while (size == capacity) {
+                if (timeoutMillis < 1) {
+                    notFull.await();
+                } else if (nanos <= 0) {
+                    return false;
+                } else {
+                    nanos = notFull.awaitNanos(nanos);
+                }
+            }
+            append(pendingOffer);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the offer that should be admitted next
+     * @param freeSlots the number of free slots, including the one the offer will take
+     * @return the offer or null if the queue is empty or no waiting offer may take one of the free slots
+     */
+    @Nullable
+    PendingOffer<K, R, P> poll(int freeSlots) {
+        lock.lock();
+        try {
+            final long nanoTime = agingNanos > 0 ? System.nanoTime() : 0;
+
+            PendingOffer<K, R, P> chosen = null;
+            int chosenPriority = -1;
+            for (int priority = queues.length - 1; priority >= 0; priority--) {
+                final PendingOffer<K, R, P> head = queues[priority].peek();
+                if (head == null) {
+                    continue;
+                }
+
+                // on equal effective priorities the offer that waited longer wins
+                final int effective = effectivePriority(head, nanoTime);
+                final boolean preferred = effective > chosenPriority ||
+                        effective == chosenPriority && head.getEnqueuedNanos() - chosen.getEnqueuedNanos() < 0;
+                if (preferred && freeSlots > reservedAbove[effective]) {
+                    chosen = head;
+                    chosenPriority = effective;
+                }
+            }
+            return chosen == null ? null : take(queues[chosen.getPriority()].poll());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the offer that has waited the longest in the lowest priority class
+     * @return the offer or null if the queue is empty
+     */
+    @Nullable
+    PendingOffer<K, R, P> pollOldest() {
+        lock.lock();
+        try {
+            for (final ArrayDeque<PendingOffer<K, R, P>> queue : queues) {
+                if (!queue.isEmpty()) {
+                    return take(queue.poll());
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the offer from the queue
+     * @param pendingOffer the offer
+     * @return true if the offer was still waiting
+     */
+    boolean remove(PendingOffer<K, R, P> pendingOffer) {
+        lock.lock();
+        try {
+            return queues[pendingOffer.getPriority()].remove(pendingOffer) && take(pendingOffer) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the offer of the request with the given key
+     * @param key the request key
+     * @return the removed offer or null if no offer of the key was waiting
+     */
+    @Nullable
+    PendingOffer<K, R, P> removeByKey(Object key) {
+        lock.lock();
+        try {
+            for (final ArrayDeque<PendingOffer<K, R, P>> queue : queues) {
+                final Iterator<PendingOffer<K, R, P>> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    final PendingOffer<K, R, P> pendingOffer = iterator.next();
+                    if (pendingOffer.getFuture().getKey().equals(key)) {
+                        iterator.remove();
+                        return take(pendingOffer);
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param priority a priority class
+     * @return true if an offer of the class or a higher one is waiting
+     */
+    boolean hasWaitingAtOrAbove(int priority) {
+        if (size == 0) {
+            return false;
+        }
+
+        lock.lock();
+        try {
+            for (int i = priority; i < queues.length; i++) {
+                if (!queues[i].isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param priority a priority class
+     * @return the number of slots the class can not take because they are held back for the higher classes
+     */
+    int getReservedAbove(int priority) {
+        return reservedAbove[priority];
+    }
+
+    /**
+     * @return true if some classes hold back slots
+     */
+    boolean isReserving() {
+        return reserving;
+    }
+
+    /**
+     * @return true if waiting offers move up in priority over time
+     */
+    boolean isAging() {
+        return agingNanos > 0;
+    }
+
+    /**
+     * @return the time after which a waiting offer moves up one priority level
+     */
+    long getAgingNanos() {
+        return agingNanos;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int effectivePriority(PendingOffer<K, R, P> pendingOffer, long nanoTime) {
+        final int priority = pendingOffer.getPriority();
+        if (agingNanos == 0) {
+            return priority;
+        }
+        final long levels = (nanoTime - pendingOffer.getEnqueuedNanos()) / agingNanos;
+        return (int) Math.min(priority + levels, queues.length - 1);
+    }
+
+    private void append(PendingOffer<K, R, P> pendingOffer) {
+        queues[pendingOffer.getPriority()].add(pendingOffer);
+        size++;
+    }
+
+    private PendingOffer<K, R, P> take(PendingOffer<K, R, P> pendingOffer) {
+        size--;
+        notFull.signal();
+        return pendingOffer;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Describes the priority classes of a {@link Window}. Offers that wait for a slot are admitted highest priority first
+ * and every class may hold back a number of slots that lower classes can not take. To keep the lower classes from
+ * starving, an offer gains one priority level for every aging interval it spends waiting.
+ */
+public final class PriorityClasses {
+
+    /**
+     * A single class without reserved slots, which admits the waiting offers in arrival order
+     */
+    public static final PriorityClasses NONE = new PriorityClasses(new int[]{0}, 0);
+
+    private final int[] reservedSlots;
+
+    private final long agingMillis;
+
+    /**
+     * Creates new priority classes
+     * @param reservedSlots the number of slots held back for every class, indexed by priority with the lowest first
+     * @param agingMillis the time after which a waiting offer moves up one priority level, values below 1 disable it
+     */
+    public PriorityClasses(int[] reservedSlots, long agingMillis) {
+        checkArgument(checkNotNull(reservedSlots).length > 0, "at least one priority class is needed");
+        for (final int reserved : reservedSlots) {
+            checkArgument(reserved >= 0, "reserved slots must be >= 0");
+        }
+
+        this.reservedSlots = reservedSlots.clone();
+        this.agingMillis = agingMillis;
+    }
+
+    /**
+     * @return the number of priority classes
+     */
+    @Nonnegative public int getCount() {
+        return reservedSlots.length;
+    }
+
+    /**
+     * @param priority the priority class
+     * @return the number of slots held back for the class
+     */
+    @Nonnegative public int getReservedSlots(int priority) {
+        return reservedSlots[priority];
+    }
+
+    /**
+     * @return the number of slots held back for all the classes
+     */
+    @Nonnegative public int getTotalReservedSlots() {
+        int total = 0;
+        for (final int reserved : reservedSlots) {
+            total += reserved;
+        }
+        return total;
+    }
+
+    /**
+     * @return the time after which a waiting offer moves up one priority level, values below 1 mean never
+     */
+    public long getAgingMillis() {
+        return agingMillis;
+    }
+
+    /**
+     * @param priority a request priority, for example {@link com.github.spapageo.jannel.msg.Sms#getPriority()}
+     * @return the class of the priority, undefined and negative priorities fall in the lowest class
+     */
+    @Nonnegative public int classOf(int priority) {
+        return Math.min(Math.max(priority, 0), reservedSlots.length - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "PriorityClasses{" +
+               "reservedSlots=" + Arrays.toString(reservedSlots) +
+               ", agingMillis=" + agingMillis +
+               '}';
+    }
+}
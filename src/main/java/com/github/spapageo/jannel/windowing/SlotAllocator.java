@@ -0,0 +1,563 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Hands out the slot numbers of a slot array. Free slots are kept in a lock-free stack whose head, free
+ * count and ABA tag are packed into a single long, so reserving and freeing a slot costs one CAS and allocates
+ * nothing. Threads only block when no slot is free. The head and the count take 16 bits each, which leaves 32 bits
+ * for the tag, so a thread would have to stall for billions of stack operations before it could see the same tag
+ * again.
+ *
+ * The free slots can be split across several stacks, or stripes, to spread the CAS traffic of many producers. A
+ * thread reserves from the stripe picked by its id and steals from the others when that one is empty. A freed slot
+ * goes back to the stripe picked by its number, so the slots stay spread evenly. The slots themselves are shared by
+ * all stripes, which keeps the total number of reserved slots within the capacity.
+ *
+ * The allocator can {@link #grow(int) grow} while in use. The free stack links are kept in chunks like the
+ * {@link SlotValues}, so growing adds chunks without moving the links other threads are reading.
+ */
+final class SlotAllocator {
+
+    private static final int INDEX_BITS = 16;
+
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    private static final int COUNT_SHIFT = INDEX_BITS;
+
+    private static final int TAG_SHIFT = 2 * INDEX_BITS;
+
+    private static final int STRIPE_PADDING = 16;
+
+    /**
+     * The largest number of slots the packed free stack head can address
+     */
+    static final int MAXIMUM_CAPACITY = (int) INDEX_MASK;
+
+    // written under the limit lock
+    private volatile int capacity;
+
+    private final int chunkBits;
+
+    private final int chunkMask;
+
+    /**
+     * The link to the next free slot, stored as slot + 1 so that zero marks the bottom of the stack
+     */
+    private volatile int[][] nextFree;
+
+    /**
+     * The packed head of every stripe, padded so that two stripes never share a cache line
+     */
+    private final AtomicLongArray freeHeads;
+
+    private final int stripeMask;
+
+    private final ReentrantLock waitLock = new ReentrantLock();
+
+    private final Condition slotFreed = waitLock.newCondition();
+
+    private volatile int waiters;
+
+    private int interruptGeneration;
+
+    private final Object limitLock = new Object();
+
+    /**
+     * The slots taken out of circulation by a lowered limit, guarded by the limit lock
+     */
+    private int[] withheld;
+
+    private int withheldCount;
+
+    /**
+     * The number of reserved slots that must be withheld once released, written under the limit lock
+     */
+    private volatile int withholdDebt;
+
+    private int limit;
+
+    /**
+     * Creates a new allocator with every slot free
+     * @param capacity the number of slots
+     */
+    SlotAllocator(@Nonnegative int capacity) {
+        this(capacity, 1);
+    }
+
+    /**
+     * Creates a new allocator with every slot free
+     * @param capacity the number of slots
+     * @param stripes the number of free slot stacks, a power of two
+     */
+    SlotAllocator(@Nonnegative int capacity, @Nonnegative int stripes) {
+        this(capacity, stripes, 0);
+    }
+
+    /**
+     * Creates a new allocator with every slot free, for tests that need the tag to wrap around
+     * @param capacity the number of slots
+     * @param stripes the number of free slot stacks, a power of two
+     * @param initialTag the ABA tag of every stripe
+     */
+    SlotAllocator(@Nonnegative int capacity, @Nonnegative int stripes, long initialTag) {
+        checkArgument(capacity > 0 && capacity <= MAXIMUM_CAPACITY,
+                      "capacity must be > 0 and <= " + MAXIMUM_CAPACITY);
+        checkArgument(stripes > 0 && Integer.bitCount(stripes) == 1, "stripes must be a power of two");
+
+        this.capacity = capacity;
+        this.chunkBits = SlotValues.chunkBitsFor(capacity);
+        this.chunkMask = (1 << chunkBits) - 1;
+        this.nextFree = new int[0][];
+        addChunks(capacity);
+        this.stripeMask = stripes - 1;
+        this.freeHeads = new AtomicLongArray(stripes * STRIPE_PADDING);
+
+        // stack the slots of every stripe so that the lowest numbers are handed out first
+        for (int slot = capacity - 1; slot >= 0; slot--) {
+            final int stripe = slot & stripeMask;
+            final long head = head(stripe);
+            setLink(slot, (int) (head & INDEX_MASK));
+            freeHeads.set(stripe * STRIPE_PADDING, pack(slot + 1, count(head) + 1, initialTag));
+        }
+        this.withheld = new int[capacity];
+        this.limit = capacity;
+    }
+
+    /**
+     * @see SlotStore#acquire(long)
+     */
+    int acquire(@Nonnegative long timeoutMillis) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        final int slot = pop();
+        if (slot != SlotStore.NO_SLOT || timeoutMillis <= 0) {
+            return slot;
+        }
+
+        return awaitSlot(TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    /**
+     * @see SlotStore#tryAcquire()
+     */
+    int tryAcquire() {
+        return pop();
+    }
+
+    /**
+     * Pops up to the given number of slots with a single CAS
+     * @see SlotStore#tryAcquireAll(int[], int)
+     */
+    int tryAcquireAll(int[] slots, @Nonnegative int count) {
+        final int home = homeStripe();
+        int taken = 0;
+        for (int i = 0; i <= stripeMask && taken < count; i++) {
+            taken += popAll((home + i) & stripeMask, slots, taken, count - taken);
+        }
+        return taken;
+    }
+
+    private int popAll(int stripe, int[] slots, int offset, int count) {
+        retry:
+        while (true) {
+            final long head = head(stripe);
+            final int available = count(head);
+            final int taken = Math.min(count, available);
+            if (taken == 0) {
+                return 0;
+            }
+
+            // the links of the stacked slots only change once they are popped, which also changes the tag
+            int link = (int) (head & INDEX_MASK);
+            for (int i = 0; i < taken; i++) {
+                if (link == 0) {
+                    continue retry;
+                }
+                slots[offset + i] = link - 1;
+                link = link(link - 1);
+            }
+
+            if (casHead(stripe, head, pack(link, available - taken, tag(head) + 1))) {
+                return taken;
+            }
+        }
+    }
+
+    /**
+     * Chains the slots together and pushes them with a single CAS
+     * @see SlotStore#releaseAll(int[], int)
+     */
+    void releaseAll(int[] slots, @Nonnegative int count) {
+        if (count == 0) {
+            return;
+        }
+
+        for (int i = 0; i < count - 1; i++) {
+            setLink(slots[i], slots[i + 1] + 1);
+        }
+        setLink(slots[count - 1], 0);
+
+        releaseChain(slots[0] + 1, slots[count - 1], count);
+    }
+
+    /**
+     * Links a reserved slot in front of a chain of reserved slots, reusing the free stack links so that a chain of
+     * any length can be built without allocating
+     * @param slot the slot
+     * @param chain the link to the first slot of the chain, zero for an empty chain
+     * @return the link to the new first slot of the chain
+     */
+    int chain(int slot, int chain) {
+        setLink(slot, chain);
+        return slot + 1;
+    }
+
+    /**
+     * @param link the link to a slot of a chain
+     * @return the link to the next slot of the chain, zero at the end of the chain
+     */
+    int nextInChain(int link) {
+        return link(link - 1);
+    }
+
+    /**
+     * Pushes a chain of reserved slots with a single CAS
+     * @param chain the link to the first slot of the chain
+     * @param last the last slot of the chain
+     * @param count the number of slots in the chain
+     */
+    void releaseChain(int chain, int last, @Nonnegative int count) {
+        if (count == 0) {
+            return;
+        }
+        if (withholdDebt > 0) {
+            int link = chain;
+            while (link != 0) {
+                final int slot = link - 1;
+                link = link(slot);
+                release(slot);
+            }
+            return;
+        }
+
+        // the whole chain goes to the stripe of its first slot, stealing evens it out again
+        final int stripe = (chain - 1) & stripeMask;
+        while (true) {
+            final long head = head(stripe);
+            setLink(last, (int) (head & INDEX_MASK));
+
+            final long next = pack(chain, count(head) + count, tag(head) + 1);
+            if (casHead(stripe, head, next)) {
+                break;
+            }
+        }
+        signalWaiters(count);
+    }
+
+    /**
+     * @see SlotStore#release(int)
+     */
+    void release(int slot) {
+        if (withholdDebt > 0 && withhold(slot)) {
+            return;
+        }
+        push(slot);
+        signalWaiter();
+    }
+
+    /**
+     * @see SlotStore#setLimit(int)
+     */
+    void setLimit(@Nonnegative int limit) {
+        checkArgument(limit > 0 && limit <= capacity, "limit must be > 0 and <= " + capacity);
+
+        synchronized (limitLock) {
+            int delta = limit - this.limit;
+            this.limit = limit;
+
+            // shrink by withholding free slots and owing the rest until they are released
+            for (; delta < 0; delta++) {
+                final int slot = pop();
+                if (slot == SlotStore.NO_SLOT) {
+                    withholdDebt++;
+                } else {
+                    withheld[withheldCount++] = slot;
+                }
+            }
+
+            // grow by forgiving the debt first and then returning the withheld slots
+            for (; delta > 0 && withholdDebt > 0; delta--) {
+                withholdDebt--;
+            }
+            for (; delta > 0; delta--) {
+                push(withheld[--withheldCount]);
+                signalWaiter();
+            }
+        }
+    }
+
+    /**
+     * Adds slots to the allocator. The new slots stay out of circulation until the limit is raised to include them.
+     * @see SlotStore#grow(int)
+     */
+    void grow(@Nonnegative int capacity) {
+        checkArgument(capacity <= MAXIMUM_CAPACITY, "capacity must be <= " + MAXIMUM_CAPACITY);
+
+        synchronized (limitLock) {
+            final int previous = this.capacity;
+            if (capacity <= previous) {
+                return;
+            }
+
+            // the links must exist before any thread can learn about the new slots
+            addChunks(capacity);
+            withheld = Arrays.copyOf(withheld, capacity);
+            for (int slot = capacity - 1; slot >= previous; slot--) {
+                withheld[withheldCount++] = slot;
+            }
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * @see SlotStore#getLimit()
+     */
+    int getLimit() {
+        synchronized (limitLock) {
+            return limit;
+        }
+    }
+
+    /**
+     * @see SlotStore#getQueueLength()
+     */
+    int getQueueLength() {
+        return waiters;
+    }
+
+    /**
+     * @see SlotStore#interruptWaiters()
+     */
+    void interruptWaiters() {
+        waitLock.lock();
+        try {
+            interruptGeneration++;
+            slotFreed.signalAll();
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    /**
+     * @see SlotStore#drain()
+     */
+    void drain() {
+        while (pop() != SlotStore.NO_SLOT) {
+            // the popped slots are simply dropped
+        }
+    }
+
+    /**
+     * @return the number of slots
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of free slots
+     */
+    int getFreeCount() {
+        int free = 0;
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            free += count(head(stripe));
+        }
+        return free;
+    }
+
+    /**
+     * @return the number of free slot stacks
+     */
+    int getStripes() {
+        return stripeMask + 1;
+    }
+
+    private int awaitSlot(long nanos) throws InterruptedException {
+        waitLock.lockInterruptibly();
+        try {
+            final int generation = interruptGeneration;
+            waiters++;
+            try {
+                while (true) {
+                    final int slot = pop();
+                    if (slot != SlotStore.NO_SLOT) {
+                        return slot;
+                    }
+                    if (nanos <= 0L) {
+                        return SlotStore.NO_SLOT;
+                    }
+                    nanos = slotFreed.awaitNanos(nanos);
+                    if (generation != interruptGeneration) {
+                        throw new InterruptedException();
+                    }
+                }
+            } finally {
+                waiters--;
+            }
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    private boolean withhold(int slot) {
+        synchronized (limitLock) {
+            if (withholdDebt == 0) {
+                return false;
+            }
+            withholdDebt--;
+            withheld[withheldCount++] = slot;
+            return true;
+        }
+    }
+
+    private void signalWaiter() {
+        signalWaiters(1);
+    }
+
+    private void signalWaiters(int freed) {
+        // waiters is published before a waiter re-checks the stack so a free slot can not go unnoticed
+        if (waiters > 0) {
+            waitLock.lock();
+            try {
+                for (int i = 0; i < freed && i < waiters; i++) {
+                    slotFreed.signal();
+                }
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    private int pop() {
+        if (stripeMask == 0) {
+            return pop(0);
+        }
+
+        final int home = homeStripe();
+        for (int i = 0; i <= stripeMask; i++) {
+            final int slot = pop((home + i) & stripeMask);
+            if (slot != SlotStore.NO_SLOT) {
+                return slot;
+            }
+        }
+        return SlotStore.NO_SLOT;
+    }
+
+    private int pop(int stripe) {
+        while (true) {
+            final long head = head(stripe);
+            final int top = (int) (head & INDEX_MASK) - 1;
+            if (top < 0) {
+                return SlotStore.NO_SLOT;
+            }
+
+            final long next = pack(link(top), count(head) - 1, tag(head) + 1);
+            if (casHead(stripe, head, next)) {
+                return top;
+            }
+        }
+    }
+
+    private void push(int slot) {
+        final int stripe = slot & stripeMask;
+        while (true) {
+            final long head = head(stripe);
+            setLink(slot, (int) (head & INDEX_MASK));
+
+            final long next = pack(slot + 1, count(head) + 1, tag(head) + 1);
+            if (casHead(stripe, head, next)) {
+                return;
+            }
+        }
+    }
+
+    private int link(int slot) {
+        return nextFree[slot >>> chunkBits][slot & chunkMask];
+    }
+
+    private void setLink(int slot, int link) {
+        nextFree[slot >>> chunkBits][slot & chunkMask] = link;
+    }
+
+    private void addChunks(int capacity) {
+        final int[][] current = nextFree;
+        final int count = SlotValues.chunkCountFor(capacity, chunkBits);
+        if (count <= current.length) {
+            return;
+        }
+
+        final int[][] grown = Arrays.copyOf(current, count);
+        for (int i = current.length; i < count; i++) {
+            grown[i] = new int[chunkMask + 1];
+        }
+        nextFree = grown;
+    }
+
+    private int homeStripe() {
+        return stripeMask == 0 ? 0 : SlotArrayStore.spread((int) Thread.currentThread().getId()) & stripeMask;
+    }
+
+    private long head(int stripe) {
+        return freeHeads.get(stripe * STRIPE_PADDING);
+    }
+
+    private boolean casHead(int stripe, long expected, long next) {
+        return freeHeads.compareAndSet(stripe * STRIPE_PADDING, expected, next);
+    }
+
+    private static int count(long head) {
+        return (int) ((head >>> COUNT_SHIFT) & INDEX_MASK);
+    }
+
+    private static long tag(long head) {
+        return head >>> TAG_SHIFT;
+    }
+
+    private static long pack(long top, long count, long tag) {
+        // the bits of the tag above the packed word are dropped, so the tag wraps around to zero
+        return (tag << TAG_SHIFT) | (count << COUNT_SHIFT) | top;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link SlotStore} built on a pre-sized slot array that only grows when asked to. The free slots are handed out by a lock-free
+ * {@link SlotAllocator}, so reserving and freeing a slot costs one CAS and allocates nothing. Keys are mapped to
+ * their slots by a set of {@link KeyIndex} segments, each guarded by its own monitor. Threads only block when the
+ * array is full.
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class SlotArrayStore<K, V> implements SlotStore<K, V> {
+
+    /**
+     * The largest number of slots a store can have
+     */
+    static final int MAXIMUM_CAPACITY = SlotAllocator.MAXIMUM_CAPACITY;
+
+    private static final int KEYS_PER_SEGMENT = 8;
+
+    private static final int MAXIMUM_SEGMENTS = 1 << 12;
+
+    private final SlotValues values;
+
+    private final SlotAllocator allocator;
+
+    private final KeyIndex<K>[] segments;
+
+    private final int segmentBits;
+
+    private final int segmentMask;
+
+    /**
+     * Creates a new store
+     * @param capacity the number of slots
+     */
+    SlotArrayStore(@Nonnegative int capacity) {
+        this(capacity, 1);
+    }
+
+    /**
+     * Creates a new store whose free slots are split across several stripes
+     * @param capacity the number of slots
+     * @param stripes the number of free slot stripes, a power of two
+     * @see SlotAllocator#SlotAllocator(int, int)
+     */
+    @SuppressWarnings("unchecked")
+    SlotArrayStore(@Nonnegative int capacity, @Nonnegative int stripes) {
+        this.allocator = new SlotAllocator(capacity, stripes);
+        this.values = new SlotValues(capacity);
+
+        final int segmentCount = segmentCountFor(capacity);
+        this.segmentBits = Integer.numberOfTrailingZeros(segmentCount);
+        this.segmentMask = segmentCount - 1;
+        this.segments = new KeyIndex[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new KeyIndex<K>(capacity / segmentCount + 1);
+        }
+    }
+
+    @Override
+    public int acquire(@Nonnegative long timeoutMillis) throws InterruptedException {
+        return allocator.acquire(timeoutMillis);
+    }
+
+    @Override
+    public int tryAcquire() {
+        return allocator.tryAcquire();
+    }
+
+    @Override
+    public boolean bind(int slot, K key, V value) {
+        final int hash = spread(key.hashCode());
+        final KeyIndex<K> segment = segmentFor(hash);
+
+        synchronized (segment) {
+            if (segment.putIfAbsent(key, hash >>> segmentBits, slot) != NO_SLOT) {
+                return false;
+            }
+            values.set(slot, value);
+        }
+        return true;
+    }
+
+    @Override
+    public int tryAcquireAll(int[] slots, @Nonnegative int count) {
+        return allocator.tryAcquireAll(slots, count);
+    }
+
+    @Override
+    public void release(int slot) {
+        allocator.release(slot);
+    }
+
+    @Override
+    public void releaseAll(int[] slots, @Nonnegative int count) {
+        allocator.releaseAll(slots, count);
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        final int hash = spread(key.hashCode());
+        final KeyIndex<K> segment = segmentFor(hash);
+
+        synchronized (segment) {
+            final int slot = segment.get(key, hash >>> segmentBits);
+            return slot == NO_SLOT ? null : (V) values.get(slot);
+        }
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(K key) {
+        final int hash = spread(key.hashCode());
+        final KeyIndex<K> segment = segmentFor(hash);
+
+        final V value;
+        final int slot;
+        synchronized (segment) {
+            slot = segment.remove(key, hash >>> segmentBits);
+            if (slot == NO_SLOT) {
+                return null;
+            }
+            value = (V) values.get(slot);
+            values.set(slot, null);
+        }
+
+        allocator.release(slot);
+        return value;
+    }
+
+    @Override
+    public boolean remove(K key, V value) {
+        final int hash = spread(key.hashCode());
+        final KeyIndex<K> segment = segmentFor(hash);
+
+        final int slot;
+        synchronized (segment) {
+            final int bound = segment.get(key, hash >>> segmentBits);
+            if (bound == NO_SLOT || values.get(bound) != value) {
+                return false;
+            }
+            slot = segment.remove(key, hash >>> segmentBits);
+            values.set(slot, null);
+        }
+
+        allocator.release(slot);
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(ValueVisitor<? super V> visitor) {
+        final List<Object> bound = new ArrayList<Object>();
+        final KeyIndex.SlotVisitor collector = new KeyIndex.SlotVisitor() {
+            @Override
+            public void visit(int slot) {
+                bound.add(values.get(slot));
+            }
+        };
+        for (final KeyIndex<K> segment : segments) {
+            synchronized (segment) {
+                segment.forEach(collector);
+            }
+        }
+
+        for (final Object value : bound) {
+            visitor.visit((V) value);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int removeAll(ValueVisitor<? super V> visitor) {
+        final SlotChain chain = new SlotChain(allocator);
+        for (final KeyIndex<K> segment : segments) {
+            synchronized (segment) {
+                segment.clear(chain);
+            }
+        }
+
+        // the chained slots are neither indexed nor free, so nobody else touches their values
+        for (int slot = chain.first(); slot != NO_SLOT; slot = chain.next(slot)) {
+            final V value = (V) values.get(slot);
+            values.set(slot, null);
+            visitor.visit(value);
+        }
+
+        final int removed = chain.size();
+        chain.release();
+        return removed;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void removeKeys(List<? extends K> keys, List<? super V> removed) {
+        final int[] freed = new int[keys.size()];
+        int freedCount = 0;
+
+        for (final K key : keys) {
+            final int hash = spread(key.hashCode());
+            final KeyIndex<K> segment = segmentFor(hash);
+
+            synchronized (segment) {
+                final int slot = segment.remove(key, hash >>> segmentBits);
+                if (slot == NO_SLOT) {
+                    removed.add(null);
+                } else {
+                    removed.add((V) values.get(slot));
+                    values.set(slot, null);
+                    freed[freedCount++] = slot;
+                }
+            }
+        }
+
+        allocator.releaseAll(freed, freedCount);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (final KeyIndex<K> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int getQueueLength() {
+        return allocator.getQueueLength();
+    }
+
+    @Override
+    public void setLimit(@Nonnegative int limit) {
+        allocator.setLimit(limit);
+    }
+
+    @Override
+    public int getLimit() {
+        return allocator.getLimit();
+    }
+
+    @Override
+    public void grow(@Nonnegative int capacity) {
+        // the values go first, the allocator hands the new slots out as soon as the limit allows it
+        values.grow(capacity);
+        allocator.grow(capacity);
+    }
+
+    @Override
+    public int getCapacity() {
+        return allocator.getCapacity();
+    }
+
+    @Override
+    public void interruptWaiters() {
+        allocator.interruptWaiters();
+    }
+
+    @Override
+    public void drain() {
+        allocator.drain();
+    }
+
+    @Override
+    public int getFreeCount() {
+        return allocator.getFreeCount();
+    }
+
+    /**
+     * @return the number of free slot stripes
+     */
+    int getStripes() {
+        return allocator.getStripes();
+    }
+
+    private KeyIndex<K> segmentFor(int hash) {
+        return segments[hash & segmentMask];
+    }
+
+    /**
+     * @param capacity the number of slots
+     * @return the number of index segments for a store of the given capacity
+     */
+    static int segmentCountFor(int capacity) {
+        // roughly eight keys per segment keeps both the probe chains and the lock collisions short
+        return Math.min(KeyIndex.tableSizeFor(Math.max(1, capacity / KEYS_PER_SEGMENT)), MAXIMUM_SEGMENTS);
+    }
+
+    /**
+     * @param capacity the number of slots
+     * @return the number of free slot stripes for a sharded store of the given capacity
+     */
+    static int stripeCountFor(int capacity) {
+        // two stripes per processor keep the producers apart while leaving enough slots in each one to steal from
+        final int stripes = KeyIndex.tableSizeFor(Runtime.getRuntime().availableProcessors() * 2);
+        return Math.min(stripes, Integer.highestOneBit(capacity));
+    }
+
+    /**
+     * @param hash the hash code of a key
+     * @return the hash with its bits spread so that both the segment and the index bits are well distributed
+     */
+    static int spread(int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+/**
+ * Collects the slots of the keys cleared from a key index into a chain of the {@link SlotAllocator}, so that a
+ * whole store can be emptied without allocating per entry and its slots freed with a single CAS. The chain is not
+ * thread safe, the caller is expected to guard it.
+ */
+final class SlotChain implements KeyIndex.SlotVisitor {
+
+    private final SlotAllocator allocator;
+
+    private int first;
+
+    private int last = SlotStore.NO_SLOT;
+
+    private int count;
+
+    /**
+     * Creates a new empty chain
+     * @param allocator the allocator that owns the slots
+     */
+    SlotChain(SlotAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    @Override
+    public void visit(int slot) {
+        // append so that the chain keeps the order the slots were visited in
+        final int link = allocator.chain(slot, 0);
+        if (count == 0) {
+            first = link;
+        } else {
+            allocator.chain(last, link);
+        }
+        last = slot;
+        count++;
+    }
+
+    /**
+     * @return the first slot of the chain or {@link SlotStore#NO_SLOT} if the chain is empty
+     */
+    int first() {
+        return first - 1;
+    }
+
+    /**
+     * @param slot a slot of the chain
+     * @return the next slot of the chain or {@link SlotStore#NO_SLOT} at the end of the chain
+     */
+    int next(int slot) {
+        return allocator.nextInChain(slot + 1) - 1;
+    }
+
+    /**
+     * @return the number of slots in the chain
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Frees every slot of the chain and empties it
+     */
+    void release() {
+        allocator.releaseChain(first, last, count);
+        first = 0;
+        last = SlotStore.NO_SLOT;
+        count = 0;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * The slot bookkeeping behind a {@link Window}. A store hands out a bounded number of slots and keeps the
+ * association between a key and the value occupying a slot.
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+interface SlotStore<K, V> {
+
+    /**
+     * Returned by {@link #acquire(long)} when no slot became available in time
+     */
+    int NO_SLOT = -1;
+
+    /**
+     * Reserves a free slot waiting at most the given amount of time for one to become available
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     * @return the reserved slot or {@link #NO_SLOT} if none became available in time
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    int acquire(@Nonnegative long timeoutMillis) throws InterruptedException;
+
+    /**
+     * Reserves up to the given number of free slots without waiting, in one step where the store allows it
+     * @param slots receives the reserved slots
+     * @param count the number of slots wanted, at most the length of the array
+     * @return the number of reserved slots
+     */
+    @Nonnegative int tryAcquireAll(int[] slots, @Nonnegative int count);
+
+    /**
+     * Frees reserved slots that were never bound, in one step where the store allows it
+     * @param slots the slots
+     * @param count the number of slots to free from the start of the array
+     */
+    void releaseAll(int[] slots, @Nonnegative int count);
+
+    /**
+     * Reserves a free slot without waiting
+     * @return the reserved slot or {@link #NO_SLOT} if none is free
+     */
+    int tryAcquire();
+
+    /**
+     * Binds the key and value to a previously reserved slot
+     * @param slot the reserved slot
+     * @param key the key
+     * @param value the value
+     * @return true if the value was bound, false if the key is already present in which case the slot
+     * remains reserved and must be released by the caller
+     */
+    boolean bind(int slot, K key, V value);
+
+    /**
+     * Returns a reserved but unbound slot to the store
+     * @param slot the slot to release
+     */
+    void release(int slot);
+
+    /**
+     * @param key the key
+     * @return the value bound to the key or null if there is none
+     */
+    @Nullable V get(K key);
+
+    /**
+     * Removes the value bound to the key and frees its slot
+     * @param key the key
+     * @return the removed value or null if the key was not present
+     */
+    @Nullable V remove(K key);
+
+    /**
+     * Removes the key and frees its slot only if it is still bound to the given value
+     * @param key the key
+     * @param value the expected value
+     * @return true if the value was removed
+     */
+    boolean remove(K key, V value);
+
+    /**
+     * Receives the values removed from a store
+     * @param <V> the value type
+     */
+    interface ValueVisitor<V> {
+        /**
+         * @param value a removed value
+         */
+        void visit(V value);
+    }
+
+    /**
+     * Visits every bound value without removing it. The visitor is called outside the store locks, so values bound or
+     * removed while the store is visited may or may not be seen.
+     * @param visitor the visitor that receives the bound values
+     */
+    void forEach(ValueVisitor<? super V> visitor);
+
+    /**
+     * Removes every bound value and frees their slots in one step where the store allows it. The visitor is called
+     * outside the store locks, before the slots are freed.
+     * @param visitor the visitor that receives the removed values
+     * @return the number of removed values
+     */
+    @Nonnegative int removeAll(ValueVisitor<? super V> visitor);
+
+    /**
+     * Removes the values bound to the given keys and frees their slots in one step where the store allows it
+     * @param keys the keys
+     * @param removed receives the removed value of every key in order, or null where the key was not present
+     */
+    void removeKeys(List<? extends K> keys, List<? super V> removed);
+
+    /**
+     * @return the number of bound values
+     */
+    @Nonnegative int size();
+
+    /**
+     * @return the number of slots that can be reserved right now
+     */
+    @Nonnegative int getFreeCount();
+
+    /**
+     * @return the number of threads waiting in {@link #acquire(long)}
+     */
+    @Nonnegative int getQueueLength();
+
+    /**
+     * Changes the number of slots that may be reserved at the same time. Shrinking below the number of reserved slots
+     * takes the excess slots out of circulation as they are released.
+     * @param limit the new limit, between 1 and the capacity of the store
+     */
+    void setLimit(@Nonnegative int limit);
+
+    /**
+     * @return the number of slots that may be reserved at the same time
+     */
+    @Nonnegative int getLimit();
+
+    /**
+     * Adds slots to the store while it is in use. The new slots only become reservable once the limit is raised to
+     * include them.
+     * @param capacity the new number of slots, does nothing when it is not above the current one
+     */
+    void grow(@Nonnegative int capacity);
+
+    /**
+     * @return the number of slots
+     */
+    @Nonnegative int getCapacity();
+
+    /**
+     * Interrupts the threads waiting in {@link #acquire(long)}
+     */
+    void interruptWaiters();
+
+    /**
+     * Takes every currently free slot out of circulation
+     */
+    void drain();
+}
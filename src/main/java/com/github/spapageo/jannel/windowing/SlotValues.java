@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * The values of a slot array, kept in chunks of a fixed size so that the array can grow while other threads use the
+ * existing slots. Growing only adds chunks, so no value is ever copied and every slot stays guarded by whatever the
+ * store guards it with. The thread that reads a new slot must have learned about it after the growth, which the
+ * slot allocator guarantees by handing out the new slots only after they were added.
+ */
+final class SlotValues {
+
+    private static final int MINIMUM_CHUNK_SIZE = 64;
+
+    private final int chunkBits;
+
+    private final int chunkMask;
+
+    private volatile Object[][] chunks;
+
+    /**
+     * Creates new values
+     * @param capacity the number of slots
+     */
+    SlotValues(@Nonnegative int capacity) {
+        this.chunkBits = chunkBitsFor(capacity);
+        this.chunkMask = (1 << chunkBits) - 1;
+        this.chunks = new Object[0][];
+        grow(capacity);
+    }
+
+    /**
+     * @param slot the slot
+     * @return the value of the slot
+     */
+    @Nullable
+    Object get(int slot) {
+        return chunks[slot >>> chunkBits][slot & chunkMask];
+    }
+
+    /**
+     * @param slot the slot
+     * @param value the new value of the slot
+     */
+    void set(int slot, @Nullable Object value) {
+        chunks[slot >>> chunkBits][slot & chunkMask] = value;
+    }
+
+    /**
+     * Adds the chunks needed for the given number of slots
+     * @param capacity the new number of slots
+     */
+    synchronized void grow(@Nonnegative int capacity) {
+        final Object[][] current = chunks;
+        final int count = chunkCountFor(capacity, chunkBits);
+        if (count <= current.length) {
+            return;
+        }
+
+        final Object[][] grown = Arrays.copyOf(current, count);
+        for (int i = current.length; i < count; i++) {
+            grown[i] = new Object[chunkMask + 1];
+        }
+        chunks = grown;
+    }
+
+    /**
+     * @param capacity the initial number of slots
+     * @return the log2 of the chunk size, so that the initial slots fit in a single chunk
+     */
+    static int chunkBitsFor(int capacity) {
+        return Integer.numberOfTrailingZeros(KeyIndex.tableSizeFor(Math.max(MINIMUM_CHUNK_SIZE, capacity)));
+    }
+
+    /**
+     * @param capacity the number of slots
+     * @param chunkBits the log2 of the chunk size
+     * @return the number of chunks needed for the slots
+     */
+    static int chunkCountFor(int capacity, int chunkBits) {
+        return (int) ((capacity + (1L << chunkBits) - 1) >>> chunkBits);
+    }
+}
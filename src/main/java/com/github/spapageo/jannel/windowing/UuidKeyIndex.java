@@ -0,0 +1,219 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+
+/**
+ * A {@link KeyIndex} for UUID keys that stores the two halves of every key in primitive arrays, so neither the
+ * entries nor the looked up keys need to be objects. Collisions are resolved by linear probing and removals shift
+ * the following entries back. The index is not thread safe, the caller is expected to guard it.
+ */
+final class UuidKeyIndex {
+
+    private static final int MINIMUM_CAPACITY = 4;
+
+    private long[] mostSigBits;
+
+    private long[] leastSigBits;
+
+    private int[] hashes;
+
+    /**
+     * The slot of every entry stored as slot + 1 so that zero marks an empty position
+     */
+    private int[] slots;
+
+    private int mask;
+
+    private int size;
+
+    /**
+     * Creates a new index
+     * @param expectedSize the number of keys the index should hold without resizing
+     */
+    UuidKeyIndex(@Nonnegative int expectedSize) {
+        allocate(KeyIndex.tableSizeFor(Math.max(MINIMUM_CAPACITY, expectedSize * 2)));
+    }
+
+    /**
+     * Finds the slot of the key
+     * @param msb the most significant bits of the key
+     * @param lsb the least significant bits of the key
+     * @param hash the spread hash of the key
+     * @return the slot or {@link SlotStore#NO_SLOT} if the key is not present
+     */
+    int get(long msb, long lsb, int hash) {
+        final int position = find(msb, lsb, hash);
+        return position < 0 ? SlotStore.NO_SLOT : slots[position] - 1;
+    }
+
+    /**
+     * Associates the key with a slot unless the key is already present
+     * @param msb the most significant bits of the key
+     * @param lsb the least significant bits of the key
+     * @param hash the spread hash of the key
+     * @param slot the slot
+     * @return the existing slot of the key or {@link SlotStore#NO_SLOT} if the key was inserted
+     */
+    int putIfAbsent(long msb, long lsb, int hash, int slot) {
+        int position = hash & mask;
+        while (slots[position] != 0) {
+            if (mostSigBits[position] == msb && leastSigBits[position] == lsb) {
+                return slots[position] - 1;
+            }
+            position = (position + 1) & mask;
+        }
+
+        mostSigBits[position] = msb;
+        leastSigBits[position] = lsb;
+        hashes[position] = hash;
+        slots[position] = slot + 1;
+
+        if (++size * 4 >= slots.length * 3) {
+            rehash(slots.length * 2);
+        }
+
+        return SlotStore.NO_SLOT;
+    }
+
+    /**
+     * Removes the key from the index
+     * @param msb the most significant bits of the key
+     * @param lsb the least significant bits of the key
+     * @param hash the spread hash of the key
+     * @return the slot of the removed key or {@link SlotStore#NO_SLOT} if the key was not present
+     */
+    int remove(long msb, long lsb, int hash) {
+        final int position = find(msb, lsb, hash);
+        if (position < 0) {
+            return SlotStore.NO_SLOT;
+        }
+
+        final int slot = slots[position] - 1;
+        shiftBack(position);
+        size--;
+        return slot;
+    }
+
+    /**
+     * Visits the slot of every key in the index without removing it
+     * @param visitor receives the slot of every key
+     */
+    void forEach(KeyIndex.SlotVisitor visitor) {
+        for (int position = 0; position < slots.length; position++) {
+            if (slots[position] != 0) {
+                visitor.visit(slots[position] - 1);
+            }
+        }
+    }
+
+    /**
+     * Removes every key from the index
+     * @param visitor receives the slot of every removed key
+     */
+    void clear(KeyIndex.SlotVisitor visitor) {
+        for (int position = 0; position < slots.length; position++) {
+            if (slots[position] != 0) {
+                final int slot = slots[position] - 1;
+                slots[position] = 0;
+                visitor.visit(slot);
+            }
+        }
+        size = 0;
+    }
+
+    /**
+     * @return the number of keys in the index
+     */
+    int size() {
+        return size;
+    }
+
+    private int find(long msb, long lsb, int hash) {
+        int position = hash & mask;
+        while (slots[position] != 0) {
+            if (mostSigBits[position] == msb && leastSigBits[position] == lsb) {
+                return position;
+            }
+            position = (position + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void shiftBack(int gap) {
+        int position = gap;
+        while (true) {
+            position = (position + 1) & mask;
+            if (slots[position] == 0) {
+                break;
+            }
+
+            // move the entry into the gap unless its home lies cyclically within (gap, position]
+            final int home = hashes[position] & mask;
+            final boolean movable = gap <= position ?
+                    home <= gap || home > position :
+                    home <= gap && home > position;
+
+            if (movable) {
+                mostSigBits[gap] = mostSigBits[position];
+                leastSigBits[gap] = leastSigBits[position];
+                hashes[gap] = hashes[position];
+                slots[gap] = slots[position];
+                gap = position;
+            }
+        }
+        slots[gap] = 0;
+    }
+
+    private void rehash(int capacity) {
+        final long[] oldMostSigBits = mostSigBits;
+        final long[] oldLeastSigBits = leastSigBits;
+        final int[] oldHashes = hashes;
+        final int[] oldSlots = slots;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] != 0) {
+                int position = oldHashes[i] & mask;
+                while (slots[position] != 0) {
+                    position = (position + 1) & mask;
+                }
+                mostSigBits[position] = oldMostSigBits[i];
+                leastSigBits[position] = oldLeastSigBits[i];
+                hashes[position] = oldHashes[i];
+                slots[position] = oldSlots[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.mostSigBits = new long[capacity];
+        this.leastSigBits = new long[capacity];
+        this.hashes = new int[capacity];
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+    }
+}
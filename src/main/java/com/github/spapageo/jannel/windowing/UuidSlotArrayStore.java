@@ -0,0 +1,316 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A {@link SlotStore} for UUID keys. It works like the {@link SlotArrayStore} but indexes the keys by their two
+ * halves in {@link UuidKeyIndex} segments, so lookups by the raw bits of a key never create a {@link UUID}.
+ * @param <V> the value type
+ */
+final class UuidSlotArrayStore<V> implements SlotStore<UUID, V> {
+
+    private final SlotValues values;
+
+    private final SlotAllocator allocator;
+
+    private final UuidKeyIndex[] segments;
+
+    private final int segmentBits;
+
+    private final int segmentMask;
+
+    /**
+     * Creates a new store
+     * @param capacity the number of slots
+     */
+    UuidSlotArrayStore(@Nonnegative int capacity) {
+        this.allocator = new SlotAllocator(capacity);
+        this.values = new SlotValues(capacity);
+
+        final int segmentCount = SlotArrayStore.segmentCountFor(capacity);
+        this.segmentBits = Integer.numberOfTrailingZeros(segmentCount);
+        this.segmentMask = segmentCount - 1;
+        this.segments = new UuidKeyIndex[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new UuidKeyIndex(capacity / segmentCount + 1);
+        }
+    }
+
+    @Override
+    public int acquire(@Nonnegative long timeoutMillis) throws InterruptedException {
+        return allocator.acquire(timeoutMillis);
+    }
+
+    @Override
+    public int tryAcquire() {
+        return allocator.tryAcquire();
+    }
+
+    @Override
+    public boolean bind(int slot, UUID key, V value) {
+        final long msb = key.getMostSignificantBits();
+        final long lsb = key.getLeastSignificantBits();
+        final int hash = hash(msb, lsb);
+        final UuidKeyIndex segment = segmentFor(hash);
+
+        synchronized (segment) {
+            if (segment.putIfAbsent(msb, lsb, hash >>> segmentBits, slot) != NO_SLOT) {
+                return false;
+            }
+            values.set(slot, value);
+        }
+        return true;
+    }
+
+    @Override
+    public int tryAcquireAll(int[] slots, @Nonnegative int count) {
+        return allocator.tryAcquireAll(slots, count);
+    }
+
+    @Override
+    public void release(int slot) {
+        allocator.release(slot);
+    }
+
+    @Override
+    public void releaseAll(int[] slots, @Nonnegative int count) {
+        allocator.releaseAll(slots, count);
+    }
+
+    @Nullable
+    @Override
+    public V get(UUID key) {
+        return get(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    /**
+     * @param msb the most significant bits of the key
+     * @param lsb the least significant bits of the key
+     * @return the value bound to the key or null if there is none
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V get(long msb, long lsb) {
+        final int hash = hash(msb, lsb);
+        final UuidKeyIndex segment = segmentFor(hash);
+
+        synchronized (segment) {
+            final int slot = segment.get(msb, lsb, hash >>> segmentBits);
+            return slot == NO_SLOT ? null : (V) values.get(slot);
+        }
+    }
+
+    @Nullable
+    @Override
+    public V remove(UUID key) {
+        return remove(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    /**
+     * Removes the value bound to the key and frees its slot
+     * @param msb the most significant bits of the key
+     * @param lsb the least significant bits of the key
+     * @return the removed value or null if the key was not present
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V remove(long msb, long lsb) {
+        final int hash = hash(msb, lsb);
+        final UuidKeyIndex segment = segmentFor(hash);
+
+        final V value;
+        final int slot;
+        synchronized (segment) {
+            slot = segment.remove(msb, lsb, hash >>> segmentBits);
+            if (slot == NO_SLOT) {
+                return null;
+            }
+            value = (V) values.get(slot);
+            values.set(slot, null);
+        }
+
+        allocator.release(slot);
+        return value;
+    }
+
+    @Override
+    public boolean remove(UUID key, V value) {
+        final long msb = key.getMostSignificantBits();
+        final long lsb = key.getLeastSignificantBits();
+        final int hash = hash(msb, lsb);
+        final UuidKeyIndex segment = segmentFor(hash);
+
+        final int slot;
+        synchronized (segment) {
+            final int bound = segment.get(msb, lsb, hash >>> segmentBits);
+            if (bound == NO_SLOT || values.get(bound) != value) {
+                return false;
+            }
+            slot = segment.remove(msb, lsb, hash >>> segmentBits);
+            values.set(slot, null);
+        }
+
+        allocator.release(slot);
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(ValueVisitor<? super V> visitor) {
+        final List<Object> bound = new ArrayList<Object>();
+        final KeyIndex.SlotVisitor collector = new KeyIndex.SlotVisitor() {
+            @Override
+            public void visit(int slot) {
+                bound.add(values.get(slot));
+            }
+        };
+        for (final UuidKeyIndex segment : segments) {
+            synchronized (segment) {
+                segment.forEach(collector);
+            }
+        }
+
+        for (final Object value : bound) {
+            visitor.visit((V) value);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int removeAll(ValueVisitor<? super V> visitor) {
+        final SlotChain chain = new SlotChain(allocator);
+        for (final UuidKeyIndex segment : segments) {
+            synchronized (segment) {
+                segment.clear(chain);
+            }
+        }
+
+        // the chained slots are neither indexed nor free, so nobody else touches their values
+        for (int slot = chain.first(); slot != NO_SLOT; slot = chain.next(slot)) {
+            final V value = (V) values.get(slot);
+            values.set(slot, null);
+            visitor.visit(value);
+        }
+
+        final int removed = chain.size();
+        chain.release();
+        return removed;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void removeKeys(List<? extends UUID> keys, List<? super V> removed) {
+        final int[] freed = new int[keys.size()];
+        int freedCount = 0;
+
+        for (final UUID key : keys) {
+            final long msb = key.getMostSignificantBits();
+            final long lsb = key.getLeastSignificantBits();
+            final int hash = hash(msb, lsb);
+            final UuidKeyIndex segment = segmentFor(hash);
+
+            synchronized (segment) {
+                final int slot = segment.remove(msb, lsb, hash >>> segmentBits);
+                if (slot == NO_SLOT) {
+                    removed.add(null);
+                } else {
+                    removed.add((V) values.get(slot));
+                    values.set(slot, null);
+                    freed[freedCount++] = slot;
+                }
+            }
+        }
+
+        allocator.releaseAll(freed, freedCount);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (final UuidKeyIndex segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int getFreeCount() {
+        return allocator.getFreeCount();
+    }
+
+    @Override
+    public int getQueueLength() {
+        return allocator.getQueueLength();
+    }
+
+    @Override
+    public void setLimit(@Nonnegative int limit) {
+        allocator.setLimit(limit);
+    }
+
+    @Override
+    public int getLimit() {
+        return allocator.getLimit();
+    }
+
+    @Override
+    public void grow(@Nonnegative int capacity) {
+        // the values go first, the allocator hands the new slots out as soon as the limit allows it
+        values.grow(capacity);
+        allocator.grow(capacity);
+    }
+
+    @Override
+    public int getCapacity() {
+        return allocator.getCapacity();
+    }
+
+    @Override
+    public void interruptWaiters() {
+        allocator.interruptWaiters();
+    }
+
+    @Override
+    public void drain() {
+        allocator.drain();
+    }
+
+    private UuidKeyIndex segmentFor(int hash) {
+        return segments[hash & segmentMask];
+    }
+
+    private static int hash(long msb, long lsb) {
+        // the same value as UUID.hashCode() so both lookup paths agree
+        final long hilo = msb ^ lsb;
+        return SlotArrayStore.spread(((int) (hilo >> 32)) ^ (int) hilo);
+    }
+}
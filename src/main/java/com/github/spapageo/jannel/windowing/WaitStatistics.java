@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of how long the requests of one priority class that found no free slot of a {@link Window} waited
+ * for one
+ */
+public final class WaitStatistics {
+
+    private final long waitedCount;
+
+    private final long totalWaitNanos;
+
+    private final long maxWaitNanos;
+
+    /**
+     * Creates a new snapshot
+     * @param waitedCount the number of requests that waited
+     * @param totalWaitNanos the total time the requests waited
+     * @param maxWaitNanos the longest time a request waited
+     */
+    public WaitStatistics(long waitedCount, long totalWaitNanos, long maxWaitNanos) {
+        this.waitedCount = waitedCount;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    /**
+     * @return the number of requests that waited
+     */
+    @Nonnegative public long getWaitedCount() {
+        return waitedCount;
+    }
+
+    /**
+     * @return the total time the requests waited in nanoseconds
+     */
+    @Nonnegative public long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    /**
+     * @return the longest time a request waited in nanoseconds
+     */
+    @Nonnegative public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    /**
+     * @param unit the unit of the result
+     * @return the average time the requests waited
+     */
+    public double getAverageWait(TimeUnit unit) {
+        return waitedCount == 0 ? 0 : (double) totalWaitNanos / waitedCount / unit.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "WaitStatistics{" +
+               "waitedCount=" + waitedCount +
+               ", totalWaitNanos=" + totalWaitNanos +
+               ", maxWaitNanos=" + maxWaitNanos +
+               '}';
+    }
+}
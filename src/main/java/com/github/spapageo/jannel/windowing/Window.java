@@ -23,39 +23,138 @@
 
 package com.github.spapageo.jannel.windowing;
 
+import com.google.common.util.concurrent.MoreExecutors;
+import io.netty.util.Timeout;
 import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class Window<K,R,P> {
 
-    private final ConcurrentHashMap<K, DeferredRequest<K, R, P>> futures;
-
-    private final InterruptingSemaphore availableSlots;
+    private final SlotStore<K, DeferredRequest<K, R, P>> store;
 
     private final Timer wheelTimer;
 
-    private final int maxSize;
+    // written under the window monitor
+    private volatile int maxSize;
+
+    // the limit of the store, kept here so the water mark checks do not have to ask the store for it
+    private volatile int sizeLimit;
+
+    private final PendingOfferQueue<K, R, P> pendingOffers;
+
+    private final PriorityClasses priorityClasses;
+
+    private final AtomicLongArray waitedCounts;
+
+    private final AtomicLongArray totalWaitNanos;
+
+    private final AtomicLongArray maxWaitNanos;
+
+    private final AtomicBoolean agingDrainScheduled = new AtomicBoolean();
+
+    private final TimerTask agingDrain = new TimerTask() {
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            agingDrainScheduled.set(false);
+            drainPendingOffers();
+        }
+    };
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final ExpiryEngine<K, R, P> expiryEngine;
+
+    @Nullable
+    private final FuturePool<K, R, P> futurePool;
+
+    @Nullable
+    private volatile ExpiryListener<R, P> expiryListener;
+
+    @Nullable
+    private volatile ResponseListener<R, P> responseListener;
+
+    @Nullable
+    private volatile WaterMarkListener waterMarkListener;
+
+    private volatile int lowWaterMark;
+
+    private volatile int highWaterMark;
+
+    private final AtomicBoolean aboveHighWaterMark = new AtomicBoolean();
+
+    private final Object emptyLock = new Object();
+
+    private volatile int emptyWaiters;
 
     public Window(@Nonnegative int size, Timer timer) {
+        this(size, timer, WindowEngine.CONCURRENT_MAP);
+    }
+
+    public Window(@Nonnegative int size, Timer timer, WindowEngine engine) {
+        this(size, timer, engine, size, OverflowPolicy.REJECT);
+    }
+
+    public Window(@Nonnegative int size,
+                  Timer timer,
+                  WindowEngine engine,
+                  @Nonnegative int maxPendingOffers,
+                  OverflowPolicy overflowPolicy) {
+        this(size, timer, engine, maxPendingOffers, overflowPolicy, FutureRecycling.NONE);
+    }
+
+    public Window(@Nonnegative int size,
+                  Timer timer,
+                  WindowEngine engine,
+                  @Nonnegative int maxPendingOffers,
+                  OverflowPolicy overflowPolicy,
+                  FutureRecycling futureRecycling) {
+        this(size, timer, engine, maxPendingOffers, overflowPolicy, futureRecycling, PriorityClasses.NONE);
+    }
+
+    public Window(@Nonnegative int size,
+                  Timer timer,
+                  WindowEngine engine,
+                  @Nonnegative int maxPendingOffers,
+                  OverflowPolicy overflowPolicy,
+                  FutureRecycling futureRecycling,
+                  PriorityClasses priorityClasses) {
         checkArgument(size > 0, "size must be > 0");
+        checkArgument(maxPendingOffers > 0, "maxPendingOffers must be > 0");
+        checkArgument(checkNotNull(priorityClasses).getTotalReservedSlots() < size,
+                      "the reserved slots must be < size");
 
-        this.futures = new ConcurrentHashMap<K, DeferredRequest<K, R, P>>(size*2);
+        this.store = checkNotNull(engine).createStore(size);
         this.wheelTimer = timer;
-        this.availableSlots = new InterruptingSemaphore(size);
         this.maxSize = size;
+        this.sizeLimit = size;
+        this.pendingOffers = new PendingOfferQueue<K, R, P>(maxPendingOffers, priorityClasses);
+        this.priorityClasses = priorityClasses;
+        this.waitedCounts = new AtomicLongArray(priorityClasses.getCount());
+        this.totalWaitNanos = new AtomicLongArray(priorityClasses.getCount());
+        this.maxWaitNanos = new AtomicLongArray(priorityClasses.getCount());
+        this.overflowPolicy = checkNotNull(overflowPolicy);
+        this.expiryEngine = new ExpiryEngine<K, R, P>(this, timer, ExpiryEngine.DEFAULT_SWEEP_INTERVAL_MILLIS);
+        this.futurePool = checkNotNull(futureRecycling) == FutureRecycling.NONE ?
+                null :
+                new FuturePool<K, R, P>(this, futureRecycling == FutureRecycling.POOLED_DEBUG);
     }
 
     public int getMaxSize() {
@@ -63,22 +162,171 @@ public class Window<K,R,P> {
     }
 
     public int getSize() {
-        return this.futures.size();
+        return this.store.size();
+    }
+
+    /**
+     * Limits the number of requests that may be in the window at the same time. When the limit is lowered below the
+     * current size no request is removed, the new requests just wait until enough of them complete.
+     * @param limit the new limit, between 1 and the maximum size
+     */
+    public synchronized void setSizeLimit(@Nonnegative int limit) {
+        checkArgument(limit > 0 && limit <= maxSize, "limit must be > 0 and <= maxSize");
+
+        this.store.setLimit(limit);
+        this.sizeLimit = limit;
+
+        drainPendingOffers();
+        checkHighWaterMark();
+        checkLowWaterMark();
+    }
+
+    /**
+     * @return the number of requests that may be in the window at the same time
+     */
+    @Nonnegative public int getSizeLimit() {
+        return this.store.getLimit();
+    }
+
+    /**
+     * Changes the maximum size of the window while it is in use. Growing past the slots the window was created with
+     * adds new slots. Shrinking removes no request, the excess slots are taken out of circulation as the requests
+     * holding them complete, just like with a lowered size limit. A size limit at the old maximum size follows the
+     * new one, a lower limit is only clamped to it.
+     * @param size the new maximum size
+     */
+    public synchronized void resize(@Nonnegative int size) {
+        checkArgument(size > 0, "size must be > 0");
+        checkArgument(priorityClasses.getTotalReservedSlots() < size, "the reserved slots must be < size");
+        checkArgument(highWaterMark <= size, "size must be >= the high water mark");
+
+        final int limit = this.store.getLimit();
+        final int newLimit = limit == maxSize ? size : Math.min(limit, size);
+
+        this.store.grow(size);
+        if (newLimit != limit) {
+            this.store.setLimit(newLimit);
+        }
+        this.sizeLimit = newLimit;
+        this.maxSize = size;
+
+        drainPendingOffers();
+        checkHighWaterMark();
+        checkLowWaterMark();
+    }
+
+    /**
+     * Sets the water marks on the number of used slots. Only the slots taken by requests count, the ones held back by
+     * a lowered size limit do not, so a window shrunk below the high water mark by a congestion controller never
+     * reports being above it without the requests whose completion would bring it back.
+     * @param lowWaterMark the number of used slots at or below which the window stops being above the high water mark
+     * @param highWaterMark the number of used slots at which the window is above the high water mark, 0 disables it
+     */
+    public synchronized void setWaterMarks(@Nonnegative int lowWaterMark, @Nonnegative int highWaterMark) {
+        checkArgument(highWaterMark >= 0 && highWaterMark <= maxSize, "highWaterMark must be >= 0 and <= maxSize");
+        checkArgument(lowWaterMark >= 0 && (lowWaterMark < highWaterMark || highWaterMark == 0),
+                      "lowWaterMark must be >= 0 and < highWaterMark");
+
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+
+        checkHighWaterMark();
+        checkLowWaterMark();
+    }
+
+    /**
+     * @return the number of used slots at or below which the window stops being above the high water mark
+     */
+    @Nonnegative public int getLowWaterMark() {
+        return this.lowWaterMark;
+    }
+
+    /**
+     * @return the number of used slots at which the window is above the high water mark, 0 if disabled
+     */
+    @Nonnegative public int getHighWaterMark() {
+        return this.highWaterMark;
+    }
+
+    /**
+     * @return true if the high water mark was reached and the used slots have not dropped to the low water mark since
+     */
+    public boolean isAboveHighWaterMark() {
+        return this.aboveHighWaterMark.get();
+    }
+
+    /**
+     * Sets the listener notified when the used slots cross the water marks
+     * @param waterMarkListener the listener or null to remove it
+     */
+    public void setWaterMarkListener(@Nullable WaterMarkListener waterMarkListener) {
+        this.waterMarkListener = waterMarkListener;
+    }
+
+    /**
+     * @return the priority classes of the window
+     */
+    @Nonnull public PriorityClasses getPriorityClasses() {
+        return this.priorityClasses;
+    }
+
+    /**
+     * Returns the wait statistics of a priority class. Only the requests that found no free slot and had to wait
+     * for one are counted.
+     * @param priority the request priority, mapped to its class by {@link PriorityClasses#classOf(int)}
+     * @return a snapshot of the statistics
+     */
+    @Nonnull public WaitStatistics getWaitStatistics(int priority) {
+        final int priorityClass = priorityClasses.classOf(priority);
+        return new WaitStatistics(waitedCounts.get(priorityClass),
+                                  totalWaitNanos.get(priorityClass),
+                                  maxWaitNanos.get(priorityClass));
+    }
+
+    /**
+     * Sets the listener notified with the requests expired by every sweep
+     * @param expiryListener the listener or null to remove it
+     */
+    public void setExpiryListener(@Nullable ExpiryListener<R, P> expiryListener) {
+        this.expiryListener = expiryListener;
+    }
+
+    /**
+     * Sets the listener notified of every response before the future of its request completes
+     * @param responseListener the listener or null to remove it
+     */
+    public void setResponseListener(@Nullable ResponseListener<R, P> responseListener) {
+        this.responseListener = responseListener;
     }
     
     public boolean containsKey(@Nonnull K key) {
-        return this.futures.containsKey(checkNotNull(key));
+        return this.store.get(checkNotNull(key)) != null;
     }
     
     @Nullable public WindowFuture<R, P> get(K key) {
-        return this.futures.get(checkNotNull(key));
+        return this.store.get(checkNotNull(key));
     }
     
 
     public synchronized void destroy() {
-        this.availableSlots.tryInterrupt();
-        this.cancelAll();
-        this.availableSlots.drainPermits();
+        this.expiryEngine.stop();
+        this.store.interruptWaiters();
+        this.cancelAll(null);
+        this.store.drain();
+    }
+
+    /**
+     * Creates a future that has already failed without taking a slot or touching the window, for requests the
+     * caller turns away before offering them
+     * @param key the request key
+     * @param request the request
+     * @param cause the failure cause
+     * @return the failed future
+     */
+    @Nonnull public WindowFuture<R, P> reject(K key, R request, Throwable cause) {
+        final DeferredRequest<K, R, P> future = newFuture(checkNotNull(key), checkNotNull(request), -1);
+        future.setException(checkNotNull(cause));
+        return future;
     }
 
     @Nonnull public WindowFuture<R, P> offer(K key, R request, @Nonnegative long offerTimeoutMillis)
@@ -88,126 +336,793 @@ public class Window<K,R,P> {
 
     @Nonnull public WindowFuture<R, P> offer(K key, R request, @Nonnegative long offerTimeoutMillis, long expireTimeoutMillis)
             throws InterruptedException {
+        return this.offer(key, request, 0, offerTimeoutMillis, expireTimeoutMillis);
+    }
+
+    /**
+     * Offers a request waiting for a free slot if needed. In a window with several priority classes the waiting
+     * offers are admitted by priority.
+     * @param key the request key
+     * @param request the request
+     * @param priority the request priority, mapped to its class by {@link PriorityClasses#classOf(int)}
+     * @param offerTimeoutMillis the maximum time to wait for a free slot
+     * @param expireTimeoutMillis the time after admission after which the request expires, values below 1 disable it
+     * @return the future of the request
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    @Nonnull public WindowFuture<R, P> offer(K key,
+                                            R request,
+                                            int priority,
+                                            @Nonnegative long offerTimeoutMillis,
+                                            long expireTimeoutMillis) throws InterruptedException {
         checkArgument(offerTimeoutMillis >= 0, "offerTimeoutMillis must be >= 0 ");
         checkNotNull(key);
         checkNotNull(request);
 
-        final DeferredRequest<K, R, P> future = expireTimeoutMillis < 1 ?
-                DeferredRequest.create(key, request, this) :
-                TimedDeferredRequest.create(key, request, this, wheelTimer, expireTimeoutMillis);
+        final DeferredRequest<K, R, P> future = newFuture(key, request, expireTimeoutMillis);
+
+        if (priorityClasses.getCount() > 1) {
+            return offerByPriority(future, priorityClasses.classOf(priority), offerTimeoutMillis);
+        }
+
+        int slot = store.tryAcquire();
+        if (slot == SlotStore.NO_SLOT && offerTimeoutMillis > 0) {
+            slot = awaitSlot(offerTimeoutMillis);
+        }
 
-        if (!availableSlots.tryAcquire(offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        if (slot == SlotStore.NO_SLOT) {
             future.setException(new TimeoutException());
             return future;
         }
 
-        @Nullable final DeferredRequest<K, R, P> previousDeferred = this.futures.putIfAbsent(key, future);
+        occupy(slot, future);
 
-        if(previousDeferred != null){
-            //The key already existed in the map
-            availableSlots.release();
-            future.setException(new DuplicateKeyException("The key already exists in the window"));
+        return future;
+    }
+
+    /**
+     * Offers a batch of requests. The free slots for the whole batch are reserved in one step and only the requests
+     * that did not get one wait, sharing the offer timeout. Requests that time out or whose key is already in the
+     * window get a failed future, like with {@link #offer(Object, Object, long, long)}. If the waiting thread is
+     * interrupted the requests that were not admitted yet fail with the {@link InterruptedException} and the
+     * interrupt flag is restored. In a window with several priority classes the requests are offered one by one
+     * with the default priority.
+     * @param requests the requests by key
+     * @param offerTimeoutMillis the maximum time to wait for the free slots
+     * @param expireTimeoutMillis the time after admission after which the requests expire, values below 1 disable it
+     * @return the future of every request by key, in the iteration order of the requests
+     */
+    @Nonnull public Map<K, WindowFuture<R, P>> offerAll(Map<K, R> requests,
+                                                       @Nonnegative long offerTimeoutMillis,
+                                                       long expireTimeoutMillis) {
+        checkArgument(offerTimeoutMillis >= 0, "offerTimeoutMillis must be >= 0 ");
+        checkNotNull(requests);
+
+        // a null found after the reservation would leave the slots of the rest of the batch taken
+        for (final Map.Entry<K, R> entry : requests.entrySet()) {
+            checkNotNull(entry.getKey());
+            checkNotNull(entry.getValue());
+        }
+
+        final Map<K, WindowFuture<R, P>> futures = new LinkedHashMap<K, WindowFuture<R, P>>(requests.size() * 2);
+        final int[] slots = new int[requests.size()];
+        final int reserved = priorityClasses.getCount() > 1 ? 0 : store.tryAcquireAll(slots, slots.length);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+
+        int next = 0;
+        InterruptedException interrupted = null;
+        try {
+            for (final Map.Entry<K, R> entry : requests.entrySet()) {
+                final DeferredRequest<K, R, P> future = newFuture(entry.getKey(), entry.getValue(), expireTimeoutMillis);
+                futures.put(entry.getKey(), future);
+
+                if (next < reserved) {
+                    occupy(slots[next++], future);
+                } else if (interrupted != null) {
+                    future.setException(interrupted);
+                } else {
+                    try {
+                        offerRemaining(future, deadline);
+                    } catch (InterruptedException e) {
+                        interrupted = e;
+                        future.setException(e);
+                    }
+                }
+            }
+        } finally {
+            if (next < reserved) {
+                // only reached when the batch failed part way, or the map shrank while it was offered
+                store.releaseAll(Arrays.copyOfRange(slots, next, reserved), reserved - next);
+                drainPendingOffers();
+            }
+        }
+
+        if (interrupted != null) {
+            Thread.currentThread().interrupt();
+        }
+        return futures;
+    }
+
+    /**
+     * Offers a request of a batch that did not get a slot from the bulk reservation
+     */
+    private void offerRemaining(DeferredRequest<K, R, P> future, long deadline) throws InterruptedException {
+        final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+        if (priorityClasses.getCount() > 1) {
+            offerByPriority(future, 0, Math.max(0, remainingMillis));
+            return;
+        }
+
+        int slot = store.tryAcquire();
+        if (slot == SlotStore.NO_SLOT && remainingMillis > 0) {
+            slot = awaitSlot(remainingMillis);
+        }
+
+        if (slot == SlotStore.NO_SLOT) {
+            future.setException(new TimeoutException());
+            return;
+        }
+
+        occupy(slot, future);
+    }
+
+    /**
+     * Waits for a free slot in the store queue, which counts as a pending offer while it waits
+     */
+    private int awaitSlot(long timeoutMillis) throws InterruptedException {
+        final long waitStart = System.nanoTime();
+        try {
+            final int slot = store.acquire(timeoutMillis);
+            if (slot != SlotStore.NO_SLOT) {
+                recordWait(0, System.nanoTime() - waitStart);
+            }
+            return slot;
+        } finally {
+            signalIfEmpty();
+        }
+    }
+
+    /**
+     * Offers a request without blocking the calling thread. If no slot is free the request waits in the bounded
+     * pending offer queue and is admitted as soon as a slot is freed by a completion, failure or cancellation. The
+     * listener is notified once the request occupies a slot, which is the point where it should be sent.
+     * @param key the request key
+     * @param request the request
+     * @param offerTimeoutMillis the maximum time to wait in the pending offer queue, values below 1 wait forever
+     * @param expireTimeoutMillis the time after admission after which the request expires, values below 1 disable it
+     * @param listener the listener to notify on admission
+     * @return the future of the request
+     */
+    @Nonnull public WindowFuture<R, P> offerAsync(K key,
+                                                 R request,
+                                                 long offerTimeoutMillis,
+                                                 long expireTimeoutMillis,
+                                                 OfferListener<K, R> listener) {
+        return this.offerAsync(key, request, 0, offerTimeoutMillis, expireTimeoutMillis, listener);
+    }
+
+    /**
+     * Offers a request without blocking the calling thread, like {@link #offerAsync(Object, Object, long, long,
+     * OfferListener)}. In a window with several priority classes the waiting offers are admitted by priority.
+     * @param key the request key
+     * @param request the request
+     * @param priority the request priority, mapped to its class by {@link PriorityClasses#classOf(int)}
+     * @param offerTimeoutMillis the maximum time to wait in the pending offer queue, values below 1 wait forever
+     * @param expireTimeoutMillis the time after admission after which the request expires, values below 1 disable it
+     * @param listener the listener to notify on admission
+     * @return the future of the request
+     */
+    @Nonnull public WindowFuture<R, P> offerAsync(K key,
+                                                 R request,
+                                                 int priority,
+                                                 long offerTimeoutMillis,
+                                                 long expireTimeoutMillis,
+                                                 OfferListener<K, R> listener) {
+        checkNotNull(key);
+        checkNotNull(request);
+        checkNotNull(listener);
+
+        final DeferredRequest<K, R, P> future = newFuture(key, request, expireTimeoutMillis);
+        final int priorityClass = priorityClasses.classOf(priority);
+
+        // only take a slot directly when no offer of the same or a higher priority is waiting for one
+        if (!pendingOffers.hasWaitingAtOrAbove(priorityClass) && isAdmissible(priorityClass)) {
+            final int slot = store.tryAcquire();
+            if (slot != SlotStore.NO_SLOT) {
+                admit(slot, future, listener);
+                return future;
+            }
+        }
+
+        final PendingOffer<K, R, P> pendingOffer = new PendingOffer<K, R, P>(future, listener, this, priorityClass);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+        if (!enqueue(pendingOffer, offerTimeoutMillis)) {
             return future;
         }
 
+        if (offerTimeoutMillis > 0) {
+            // a blocking enqueue already used part of the offer timeout
+            final long remainingNanos = Math.max(0, deadline - System.nanoTime());
+            pendingOffer.setTimeout(wheelTimer.newTimeout(pendingOffer, remainingNanos, TimeUnit.NANOSECONDS));
+        }
+
+        // a slot may have been freed before the offer became visible in the queue
+        drainPendingOffers();
+
         return future;
     }
-    
+
+    /**
+     * @return the number of requests that could enter the window right now without waiting, cheaper than
+     * {@link #getSize()} since it does not look at the stored requests
+     */
+    @Nonnegative public int getFreeSlots() {
+        return Math.max(0, this.store.getFreeCount());
+    }
 
     @Nonnegative public int getPendingOfferCount() {
-        return this.availableSlots.getQueueLength();
+        return this.store.getQueueLength() + this.pendingOffers.size();
+    }
+
+    /**
+     * Waits until no request is in the window and no offer is waiting for a slot. The waiting thread is woken by the
+     * completion, failure, cancellation or timeout that empties the window.
+     * @param timeoutMillis the maximum time to wait
+     * @return true if the window is empty
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    public boolean awaitEmpty(@Nonnegative long timeoutMillis) throws InterruptedException {
+        checkArgument(timeoutMillis >= 0, "timeoutMillis must be >= 0");
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        synchronized (emptyLock) {
+            // registered before the window is looked at, so a request removed meanwhile is sure to signal
+            emptyWaiters++;
+            try {
+                while (!isEmpty()) {
+                    final long remainingNanos = deadline - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(emptyLock, remainingNanos);
+                }
+                return true;
+            } finally {
+                emptyWaiters--;
+            }
+        }
+    }
+
+    /**
+     * @return the number of requests that expired during the last expiry sweep
+     */
+    @Nonnegative public int getLastSweepExpiredCount() {
+        return this.expiryEngine.getLastSweepExpiredCount();
+    }
+
+    /**
+     * @return the number of requests that expired since the window was created
+     */
+    @Nonnegative public long getExpiredCount() {
+        return this.expiryEngine.getExpiredCount();
     }
     
 
     @Nullable public WindowFuture<R, P> complete(K key, P response)  {
 
-        // try to remove future from window
-        final DeferredRequest<K, R, P> future = this.futures.remove(checkNotNull(key));
+        // try to remove future from window, this also frees its slot
+        final DeferredRequest<K, R, P> future = this.store.remove(checkNotNull(key));
         if (future == null) {
             return null;
         }
 
-        // signal that a future is completed
-        this.availableSlots.release();
+        notifyResponse(future, checkNotNull(response));
+        future.set(response);
 
-        future.set(checkNotNull(response));
+        drainPendingOffers();
 
         return future;
     }
 
-    @Nullable public WindowFuture<R, P> fail(K key, Throwable t){
+    /**
+     * Completes the request whose UUID key has the given bits. Only valid for windows keyed by {@link UUID}. With
+     * the {@link WindowEngine#UUID_SLOT_ARRAY} engine the lookup does not create a UUID.
+     * @param mostSigBits the most significant bits of the key
+     * @param leastSigBits the least significant bits of the key
+     * @param response the response
+     * @return the completed future or null if no request with this key was in the window
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public WindowFuture<R, P> complete(long mostSigBits, long leastSigBits, P response) {
 
-        // try to remove future from window
-        final DeferredRequest<K, R, P> future = this.futures.remove(checkNotNull(key));
+        // try to remove future from window, this also frees its slot
+        final DeferredRequest<K, R, P> future = this.store instanceof UuidSlotArrayStore ?
+                ((UuidSlotArrayStore<DeferredRequest<K, R, P>>) this.store).remove(mostSigBits, leastSigBits) :
+                this.store.remove((K) new UUID(mostSigBits, leastSigBits));
         if (future == null) {
             return null;
         }
 
-        // signal that a future is completed
-        this.availableSlots.release();
+        notifyResponse(future, checkNotNull(response));
+        future.set(response);
 
-        // set failed
-        future.setException(checkNotNull(t));
+        drainPendingOffers();
 
         return future;
     }
-    
 
-    @Nonnull public List<WindowFuture<R, P>> failAll(Throwable t) {
-        final List<WindowFuture<R, P>> failed = new ArrayList<WindowFuture<R, P>>();
+    /**
+     * Completes a batch of requests, like the acks decoded from a single read. The slots of the whole batch are
+     * freed in one step and the pending offers are admitted once at the end.
+     * @param responses the responses by request key
+     * @return the completed future of every response in order, or null where no request with the key was in the
+     *         window
+     */
+    @Nonnull public List<WindowFuture<R, P>> completeAll(Collection<? extends Map.Entry<K, P>> responses) {
+        final List<K> keys = new ArrayList<K>(responses.size());
+        for (final Map.Entry<K, P> response : responses) {
+            keys.add(checkNotNull(response.getKey()));
+            checkNotNull(response.getValue());
+        }
 
-        final Iterator<Map.Entry<K, DeferredRequest<K, R, P>>> iterator =
-                this.futures.entrySet().iterator();
+        // try to remove the futures from the window, this also frees their slots
+        final List<DeferredRequest<K, R, P>> removed = new ArrayList<DeferredRequest<K, R, P>>(keys.size());
+        this.store.removeKeys(keys, removed);
 
-        while(iterator.hasNext()) {
-            final DeferredRequest<K, R, P> future = iterator.next().getValue();
-            iterator.remove();
+        final List<WindowFuture<R, P>> completed = new ArrayList<WindowFuture<R, P>>(removed.size());
+        int index = 0;
+        for (final Map.Entry<K, P> response : responses) {
+            final DeferredRequest<K, R, P> future = removed.get(index++);
+            if (future != null) {
+                notifyResponse(future, response.getValue());
+                future.set(response.getValue());
+            }
+            completed.add(future);
+        }
+
+        drainPendingOffers();
 
-            availableSlots.release();
+        return completed;
+    }
 
-            future.setException(t);
+    @Nullable public WindowFuture<R, P> fail(K key, Throwable t){
 
-            failed.add(future);
+        // try to remove future from window, this also frees its slot
+        final DeferredRequest<K, R, P> future = this.store.remove(checkNotNull(key));
+        if (future == null) {
+            return null;
         }
 
-        return failed;
+        // set failed
+        future.setException(checkNotNull(t));
+
+        drainPendingOffers();
+
+        return future;
+    }
+    
+
+    @Nonnull public List<WindowFuture<R, P>> failAll(Throwable t) {
+        final CollectingVisitor<K, R, P> failed = new CollectingVisitor<K, R, P>();
+        this.failAll(t, failed);
+        return failed.futures;
+    }
+
+    /**
+     * Fails every request in the window and every pending offer without collecting them. The slots are freed in
+     * one step once every future has failed, so listeners that offer new requests should not wait for a slot.
+     * @param t the cause of the failure
+     * @param visitor the visitor that receives every failed request before its future fails, for example to
+     *                re-queue it, or null
+     * @return the number of failed requests
+     */
+    @Nonnegative public int failAll(Throwable t, @Nullable WindowVisitor<K, R, P> visitor) {
+        return this.removeAll(new RemovalVisitor(checkNotNull(t), visitor));
     }
 
     @Nullable public WindowFuture<R, P> cancel(K key, boolean mayInterruptIfRunning){
 
-        // try to remove future from window
-        final DeferredRequest<K, R, P> future = this.futures.remove(checkNotNull(key));
+        // try to remove future from window, this also frees its slot
+        final DeferredRequest<K, R, P> future = this.store.remove(checkNotNull(key));
         if (future == null) {
-            return null;
+            return cancelPendingOffer(key, mayInterruptIfRunning);
         }
 
-        // signal that a future is completed
-        this.availableSlots.release();
-
         // set failed
         future.cancelInternal(mayInterruptIfRunning);
 
+        drainPendingOffers();
+
         return future;
     }
 
 
     @Nonnull public List<WindowFuture<R, P>> cancelAll() {
-        final List<WindowFuture<R, P>> failed = new ArrayList<WindowFuture<R, P>>();
+        final CollectingVisitor<K, R, P> cancelled = new CollectingVisitor<K, R, P>();
+        this.cancelAll(cancelled);
+        return cancelled.futures;
+    }
+
+    /**
+     * Cancels every request in the window and every pending offer without collecting them, like
+     * {@link #failAll(Throwable, WindowVisitor)}
+     * @param visitor the visitor that receives every cancelled request before its future is cancelled, or null
+     * @return the number of cancelled requests
+     */
+    @Nonnegative public int cancelAll(@Nullable WindowVisitor<K, R, P> visitor) {
+        return this.removeAll(new RemovalVisitor(null, visitor));
+    }
+
+    /**
+     * Visits every request in the window without removing it, for example to send the requests again on a new
+     * connection. Pending offers are not visited. Requests offered or completed while the window is visited may or may
+     * not be seen.
+     * @param visitor the visitor that receives every request in the window
+     */
+    public void forEach(final WindowVisitor<K, R, P> visitor) {
+        checkNotNull(visitor);
+        this.store.forEach(new SlotStore.ValueVisitor<DeferredRequest<K, R, P>>() {
+            @Override
+            public void visit(DeferredRequest<K, R, P> future) {
+                visitor.visit(future.getKey(), future.getRequest(), future);
+            }
+        });
+    }
+
+    /**
+     * @param key the request key
+     * @return the future of the request in the window with the given key or null if there is none
+     */
+    @Nullable
+    DeferredRequest<K, R, P> getFuture(K key) {
+        return store.get(key);
+    }
+
+    /**
+     * Removes the overdue requests from the window
+     * @param overdue the requests claimed by {@link DeferredRequest#claimExpiry(long)}, a claimed future can not be
+     *                released, so it is still bound to the key of the request whose deadline passed
+     * @return the requests that must be expired, which are all of them
+     */
+    List<DeferredRequest<K, R, P>> removeExpired(List<DeferredRequest<K, R, P>> overdue) {
+        for (final DeferredRequest<K, R, P> future : overdue) {
+            // a response that arrived after the claim has removed the request and freed its slot already
+            store.remove(future.getKey(), future);
+        }
+        return overdue;
+    }
+
+    /**
+     * Fails the removed overdue requests with a {@link TimeoutException}
+     * @param expired the requests returned by {@link #removeExpired(List)}
+     */
+    void completeExpired(List<DeferredRequest<K, R, P>> expired) {
+        // the listener goes first because the owners of the futures may release them as soon as they fail
+        final ExpiryListener<R, P> listener = expiryListener;
+        if (listener != null) {
+            listener.requestsExpired(new ArrayList<WindowFuture<R, P>>(expired));
+        }
+
+        for (final DeferredRequest<K, R, P> future : expired) {
+            future.expire(new TimeoutException("The operation timed out (Window full)"));
+        }
+
+        drainPendingOffers();
+    }
+
+    /**
+     * Removes an offer that timed out from the pending offer queue
+     * @param pendingOffer the pending offer
+     * @return true if the offer was still pending
+     */
+    boolean removePendingOffer(PendingOffer<K, R, P> pendingOffer) {
+        final boolean removed = pendingOffers.remove(pendingOffer);
+        signalIfEmpty();
+        return removed;
+    }
+
+    private boolean enqueue(PendingOffer<K, R, P> pendingOffer, long offerTimeoutMillis) {
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    if (pendingOffers.offer(pendingOffer, offerTimeoutMillis)) {
+                        return true;
+                    }
+                    pendingOffer.getFuture()
+                                .setException(new TimeoutException("The operation timed out (Pending offer queue full)"));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    pendingOffer.getFuture().setException(e);
+                }
+                return false;
+            case DROP_OLDEST:
+                while (!pendingOffers.offer(pendingOffer)) {
+                    final PendingOffer<K, R, P> oldest = pendingOffers.pollOldest();
+                    if (oldest != null) {
+                        oldest.cancelTimeout();
+                        oldest.getFuture().setException(
+                                new PendingOfferRejectedException("Dropped from the full pending offer queue"));
+                    }
+                }
+                return true;
+            case REJECT:
+            default:
+                if (pendingOffers.offer(pendingOffer)) {
+                    return true;
+                }
+                pendingOffer.getFuture().setException(new PendingOfferRejectedException("The pending offer queue is full"));
+                return false;
+        }
+    }
+
+    private DeferredRequest<K, R, P> newFuture(K key, R request, long expireTimeoutMillis) {
+        return futurePool == null ?
+                DeferredRequest.create(key, request, this, expireTimeoutMillis) :
+                futurePool.acquire(key, request, expireTimeoutMillis);
+    }
+
+    private void notifyResponse(DeferredRequest<K, R, P> future, P response) {
+        final ResponseListener<R, P> listener = responseListener;
+        if (listener != null) {
+            // the future may be released by its own listeners, so the request is reported before it completes
+            listener.responseReceived(future.getRequest(), response, System.nanoTime() - future.getAdmissionNanos());
+        }
+    }
+
+    private void startExpiry(DeferredRequest<K, R, P> future) {
+        final long expireTimeoutMillis = future.getExpireTimeoutMillis();
+        if (expireTimeoutMillis > 0) {
+            expiryEngine.register(future, expireTimeoutMillis);
+        }
+    }
+
+    private void drainPendingOffers() {
+        admitPendingOffers();
+        checkLowWaterMark();
+        signalIfEmpty();
+    }
+
+    private void signalIfEmpty() {
+        // the window is only looked at while a thread waits for it to empty
+        if (emptyWaiters > 0 && isEmpty()) {
+            synchronized (emptyLock) {
+                emptyLock.notifyAll();
+            }
+        }
+    }
+
+    private boolean isEmpty() {
+        return this.store.size() == 0 && getPendingOfferCount() == 0;
+    }
+
+    private void admitPendingOffers() {
+        while (!pendingOffers.isEmpty()) {
+            final int slot = store.tryAcquire();
+            if (slot == SlotStore.NO_SLOT) {
+                return;
+            }
+
+            // the slot just taken still counts as free for the reservations
+            final int freeSlots = pendingOffers.isReserving() ? store.getFreeCount() + 1 : Integer.MAX_VALUE;
+            final PendingOffer<K, R, P> pendingOffer = pendingOffers.poll(freeSlots);
+            if (pendingOffer == null) {
+                store.release(slot);
+                if (pendingOffers.isEmpty()) {
+                    // another thread emptied the queue, check again for late arrivals
+                    continue;
+                }
+                // the free slots are reserved for higher priorities than the waiting ones
+                scheduleAgingDrain();
+                return;
+            }
 
-        final Iterator<Map.Entry<K, DeferredRequest<K, R, P>>> iterator =
-                this.futures.entrySet().iterator();
+            pendingOffer.cancelTimeout();
+            recordWait(pendingOffer.getPriority(), System.nanoTime() - pendingOffer.getEnqueuedNanos());
+            admit(slot, pendingOffer.getFuture(), pendingOffer.getListener());
+        }
+    }
+
+    private void scheduleAgingDrain() {
+        // without aging the waiting offers can only be admitted once more slots are freed
+        if (pendingOffers.isAging() && agingDrainScheduled.compareAndSet(false, true)) {
+            wheelTimer.newTimeout(agingDrain, pendingOffers.getAgingNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Nonnull
+    private WindowFuture<R, P> offerByPriority(DeferredRequest<K, R, P> future,
+                                               int priorityClass,
+                                               long offerTimeoutMillis) throws InterruptedException {
+        // the slots of a prioritised window are handed out by the pending offer queue so blocking offers wait there too
+        if (!pendingOffers.hasWaitingAtOrAbove(priorityClass) && isAdmissible(priorityClass)) {
+            final int slot = store.tryAcquire();
+            if (slot != SlotStore.NO_SLOT) {
+                occupy(slot, future);
+                return future;
+            }
+        }
+
+        final AdmissionLatch<K, R> latch = new AdmissionLatch<K, R>();
+        final PendingOffer<K, R, P> pendingOffer = new PendingOffer<K, R, P>(future, latch, this, priorityClass);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+        if (offerTimeoutMillis == 0 || !pendingOffers.offer(pendingOffer, offerTimeoutMillis)) {
+            future.setException(new TimeoutException());
+            return future;
+        }
+
+        // the wait for room in the pending offer queue counts against the offer timeout, a spent timeout fails the
+        // offer on the next tick unless a slot is freed before
+        final long remainingNanos = Math.max(0, deadline - System.nanoTime());
+        pendingOffer.setTimeout(wheelTimer.newTimeout(pendingOffer, remainingNanos, TimeUnit.NANOSECONDS));
+        future.addListener(latch, MoreExecutors.directExecutor());
+
+        drainPendingOffers();
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            if (pendingOffers.remove(pendingOffer)) {
+                pendingOffer.cancelTimeout();
+                future.setException(e);
+                signalIfEmpty();
+                throw e;
+            }
+            // the request was admitted meanwhile, so it is handed to the caller with the interrupt flag restored
+            Thread.currentThread().interrupt();
+        }
+        return future;
+    }
+
+    private boolean isAdmissible(int priorityClass) {
+        final int reserved = pendingOffers.getReservedAbove(priorityClass);
+        return reserved == 0 || store.getFreeCount() > reserved;
+    }
+
+    private void recordWait(int priorityClass, long waitNanos) {
+        waitedCounts.incrementAndGet(priorityClass);
+        totalWaitNanos.addAndGet(priorityClass, waitNanos);
+
+        long max = maxWaitNanos.get(priorityClass);
+        while (waitNanos > max && !maxWaitNanos.compareAndSet(priorityClass, max, waitNanos)) {
+            max = maxWaitNanos.get(priorityClass);
+        }
+    }
+
+    private boolean occupy(int slot, DeferredRequest<K, R, P> future) {
+        if (!store.bind(slot, future.getKey(), future)) {
+            //The key already existed in the window
+            store.release(slot);
+            future.setException(new DuplicateKeyException("The key already exists in the window"));
+            return false;
+        }
+
+        future.admitted();
+        startExpiry(future);
+        checkHighWaterMark();
+        return true;
+    }
+
+    private void checkHighWaterMark() {
+        final int high = highWaterMark;
+        if (high > 0 && !aboveHighWaterMark.get() && getUsedSlots() >= high &&
+                aboveHighWaterMark.compareAndSet(false, true)) {
+            final WaterMarkListener listener = waterMarkListener;
+            if (listener != null) {
+                listener.highWaterMarkReached();
+            }
+            // slots freed while the flag was changing would otherwise go unnoticed until the next completion
+            checkLowWaterMark();
+        }
+    }
 
-        while(iterator.hasNext()) {
-            final DeferredRequest<K, R, P> future = iterator.next().getValue();
-            iterator.remove();
+    private void checkLowWaterMark() {
+        if (aboveHighWaterMark.get() && (getUsedSlots() <= lowWaterMark || highWaterMark == 0) &&
+                aboveHighWaterMark.compareAndSet(true, false)) {
+            final WaterMarkListener listener = waterMarkListener;
+            if (listener != null) {
+                listener.lowWaterMarkReached();
+            }
+            // likewise for slots taken while the flag was changing
+            checkHighWaterMark();
+        }
+    }
+
+    private int getUsedSlots() {
+        // the free count of a store shrunk below its reserved slots can go negative, which keeps them counted
+        return Math.max(0, sizeLimit - store.getFreeCount());
+    }
+
+    private void admit(int slot, DeferredRequest<K, R, P> future, OfferListener<K, R> listener) {
+        final K key = future.getKey();
+        if (!occupy(slot, future)) {
+            return;
+        }
+
+        try {
+            listener.onOfferAccepted(key, future.getRequest());
+        } catch (RuntimeException e) {
+            fail(key, e);
+        }
+    }
+
+    @Nullable
+    private WindowFuture<R, P> cancelPendingOffer(K key, boolean mayInterruptIfRunning) {
+        if (pendingOffers.isEmpty()) {
+            return null;
+        }
 
-            availableSlots.release();
+        final PendingOffer<K, R, P> pendingOffer = pendingOffers.removeByKey(key);
+        if (pendingOffer == null) {
+            return null;
+        }
+
+        pendingOffer.cancelTimeout();
+        pendingOffer.getFuture().cancelInternal(mayInterruptIfRunning);
+        signalIfEmpty();
+        return pendingOffer.getFuture();
+    }
 
-            future.cancelInternal(true);
+    private int removeAll(RemovalVisitor removalVisitor) {
+        int removed = 0;
 
-            failed.add(future);
+        // take the pending offers first so that the freed slots are not handed to them
+        PendingOffer<K, R, P> pendingOffer;
+        while ((pendingOffer = pendingOffers.pollOldest()) != null) {
+            pendingOffer.cancelTimeout();
+            removalVisitor.visit(pendingOffer.getFuture());
+            removed++;
         }
+        removed += this.store.removeAll(removalVisitor);
 
-        return failed;
+        drainPendingOffers();
+
+        return removed;
+    }
+
+    /**
+     * Completes the futures removed by a bulk failure or cancellation
+     */
+    private final class RemovalVisitor implements SlotStore.ValueVisitor<DeferredRequest<K, R, P>> {
+
+        @Nullable private final Throwable cause;
+
+        @Nullable private final WindowVisitor<K, R, P> visitor;
+
+        /**
+         * @param cause the cause of the failure or null to cancel the futures
+         * @param visitor the visitor of the removed requests or null
+         */
+        RemovalVisitor(@Nullable Throwable cause, @Nullable WindowVisitor<K, R, P> visitor) {
+            this.cause = cause;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public void visit(DeferredRequest<K, R, P> future) {
+            if (visitor != null) {
+                visitor.visit(future.getKey(), future.getRequest(), future);
+            }
+
+            if (cause == null) {
+                future.cancelInternal(true);
+            } else {
+                future.setException(cause);
+            }
+        }
+    }
+
+    /**
+     * Collects the futures of the removed requests for the bulk operations that return them
+     */
+    private static final class CollectingVisitor<K, R, P> implements WindowVisitor<K, R, P> {
+
+        private final List<WindowFuture<R, P>> futures = new ArrayList<WindowFuture<R, P>>();
+
+        @Override
+        public void visit(K key, R request, WindowFuture<R, P> future) {
+            futures.add(future);
+        }
     }
 }
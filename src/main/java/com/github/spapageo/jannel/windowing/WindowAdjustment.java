@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A single change of the size limit of a window
+ */
+public final class WindowAdjustment {
+
+    private final long timestamp;
+
+    private final int previousLimit;
+
+    private final int limit;
+
+    private final AdjustmentReason reason;
+
+    /**
+     * Creates a new adjustment
+     * @param timestamp the time of the adjustment in milliseconds since the epoch
+     * @param previousLimit the limit before the adjustment
+     * @param limit the limit after the adjustment
+     * @param reason the reason of the adjustment
+     */
+    public WindowAdjustment(long timestamp, int previousLimit, int limit, AdjustmentReason reason) {
+        this.timestamp = timestamp;
+        this.previousLimit = previousLimit;
+        this.limit = limit;
+        this.reason = checkNotNull(reason);
+    }
+
+    /**
+     * @return the time of the adjustment in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the limit before the adjustment
+     */
+    @Nonnegative
+    public int getPreviousLimit() {
+        return previousLimit;
+    }
+
+    /**
+     * @return the limit after the adjustment
+     */
+    @Nonnegative
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the reason of the adjustment
+     */
+    @Nonnull
+    public AdjustmentReason getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return "WindowAdjustment{" +
+               "timestamp=" + timestamp +
+               ", previousLimit=" + previousLimit +
+               ", limit=" + limit +
+               ", reason=" + reason +
+               '}';
+    }
+}
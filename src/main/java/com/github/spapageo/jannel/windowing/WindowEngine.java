@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+/**
+ * Lists the slot bookkeeping engines a {@link Window} can be built on
+ */
+public enum WindowEngine {
+
+    /**
+     * Requests are kept in a concurrent hash map and the free slots are counted by a semaphore
+     */
+    CONCURRENT_MAP,
+
+    /**
+     * Requests are kept in a pre-sized slot array with a lock-free free slot stack and a compact key to slot index.
+     * The slot array engines hold at most 65535 requests.
+     */
+    SLOT_ARRAY,
+
+    /**
+     * Like {@link #SLOT_ARRAY} but the key index stores UUID keys as two primitive longs. It can only be used by
+     * windows keyed by {@link java.util.UUID} and lets {@link Window#complete(long, long, Object)} look requests up
+     * without creating a UUID.
+     */
+    UUID_SLOT_ARRAY,
+
+    /**
+     * Like {@link #SLOT_ARRAY} but the free slots are split across stripes picked by the producer thread, with
+     * empty stripes stealing from the others. Meant for sessions shared by many producer threads, where a single free
+     * slot stack becomes a point of contention.
+     */
+    SHARDED;
+
+    /**
+     * Creates a new store for this engine
+     * @param capacity the number of slots
+     * @param <K> the key type
+     * @param <V> the value type
+     * @return the new store
+     */
+    @SuppressWarnings("unchecked")
+    <K, V> SlotStore<K, V> createStore(int capacity) {
+        switch (this) {
+            case UUID_SLOT_ARRAY:
+                return (SlotStore<K, V>) new UuidSlotArrayStore<V>(capacity);
+            case SLOT_ARRAY:
+                return new SlotArrayStore<K, V>(capacity);
+            case SHARDED:
+                return new SlotArrayStore<K, V>(capacity, SlotArrayStore.stripeCountFor(capacity));
+            case CONCURRENT_MAP:
+            default:
+                return new ConcurrentMapSlotStore<K, V>(capacity);
+        }
+    }
+}
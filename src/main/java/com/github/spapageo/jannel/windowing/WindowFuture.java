@@ -32,6 +32,12 @@ import javax.annotation.Nonnull;
  * Represents the future result of the a window request. It is based on {@link ListenableFuture} in order to support
  * adding callback to the returned futures. For more info on adding callbacks to the returned future see
  * {@link Futures}
+ * <p>
+ * The future belongs to the caller that offered the request. When the window recycles its futures (see
+ * {@link FutureRecycling}) the owner should {@link #release()} it once the future is done and nothing will look at
+ * it again. A released future may already stand for a different request, so neither the owner nor anyone it shared
+ * the future with may touch it afterwards. This also covers the futures returned by the window methods that
+ * complete requests, since a listener may have released them before the method returns.
  * @param <R> the request type
  * @param <D> the response type
  */
@@ -42,4 +48,17 @@ public interface WindowFuture<R, D> extends ListenableFuture<D> {
      * @return the request
      */
     @Nonnull R getRequest();
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the request entered the window
+     * @return the admission time or 0 if the request never entered the window
+     */
+    long getAdmissionNanos();
+
+    /**
+     * Hands the future back to its window for reuse. It must be done and every listener added to it must have run,
+     * releasing it from the last of its listeners is fine. Does nothing when the window does not recycle futures.
+     * @throws IllegalStateException if the future is still pending or was already released
+     */
+    void release();
 }
@@ -0,0 +1,43 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.windowing;
+
+/**
+ * Visits the requests that a bulk operation such as {@link Window#failAll(Throwable, WindowVisitor)} removes from a
+ * {@link Window}, or the requests that {@link Window#forEach(WindowVisitor)} finds in it
+ * @param <K> the key type
+ * @param <R> the request type
+ * @param <P> the response type
+ */
+public interface WindowVisitor<K, R, P> {
+
+    /**
+     * Called for every removed request right before its future is completed, so that the request can still be
+     * handed to another sink, for example one that sends it again once the session reconnects
+     * @param key the request key
+     * @param request the request
+     * @param future the future of the request
+     */
+    void visit(K key, R request, WindowFuture<R, P> future);
+}
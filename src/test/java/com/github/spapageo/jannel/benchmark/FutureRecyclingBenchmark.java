@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.spapageo.jannel.benchmark;
+
+import com.github.spapageo.jannel.windowing.FutureRecycling;
+import com.github.spapageo.jannel.windowing.OverflowPolicy;
+import com.github.spapageo.jannel.windowing.Window;
+import com.github.spapageo.jannel.windowing.WindowEngine;
+import com.github.spapageo.jannel.windowing.WindowFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.netty.util.HashedWheelTimer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the garbage produced per request with and without recycled futures. Every operation offers a request,
+ * adds a listener to its future, completes it and releases the future, like a caller that consumes the response in a
+ * callback. The interesting figure is the gc.alloc.rate.norm reported by the GC profiler.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *           -Dexec.mainClass=com.github.spapageo.jannel.benchmark.FutureRecyclingBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FutureRecyclingBenchmark {
+
+    private static final Object REQUEST = new Object();
+
+    private static final Object RESPONSE = new Object();
+
+    private static final Runnable LISTENER = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Param({"NONE", "POOLED"})
+    public FutureRecycling recycling;
+
+    private Window<Long, Object, Object> window;
+
+    private HashedWheelTimer timer;
+
+    private long sequence;
+
+    @Setup
+    public void setup() {
+        timer = new HashedWheelTimer();
+        window = new Window<Long, Object, Object>(1024,
+                                                  timer,
+                                                  WindowEngine.SLOT_ARRAY,
+                                                  1024,
+                                                  OverflowPolicy.REJECT,
+                                                  recycling);
+    }
+
+    @TearDown
+    public void tearDown() {
+        window.destroy();
+        timer.stop();
+    }
+
+    @Benchmark
+    public Object offerCompleteAndRelease() throws Exception {
+        // the keys stay within the Long cache so that boxing them allocates nothing
+        final Long key = sequence++ & 127;
+
+        final WindowFuture<Object, Object> future = window.offer(key, REQUEST, 0);
+        future.addListener(LISTENER, MoreExecutors.directExecutor());
+        window.complete(key, RESPONSE);
+
+        final Object response = future.get();
+        future.release();
+        return response;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FutureRecyclingBenchmark.class.getSimpleName())
+                                       .addProfiler(GCProfiler.class)
+                                       .build()).run();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.benchmark;
+
+import com.github.spapageo.jannel.channel.ChannelHandlerProvider;
+import com.github.spapageo.jannel.channel.HandlerType;
+import com.github.spapageo.jannel.client.ClientSession;
+import com.github.spapageo.jannel.client.ClientSessionConfiguration;
+import com.github.spapageo.jannel.client.JannelClient;
+import com.github.spapageo.jannel.client.Transport;
+import com.github.spapageo.jannel.msg.Ack;
+import com.github.spapageo.jannel.msg.Sms;
+import com.github.spapageo.jannel.msg.SmsType;
+import com.github.spapageo.jannel.msg.enums.DataCoding;
+import com.github.spapageo.jannel.transcode.DefaultTranscoder;
+import com.github.spapageo.jannel.transcode.Transcoder;
+import com.github.spapageo.jannel.transcode.TranscoderHelper;
+import com.github.spapageo.jannel.windowing.WindowFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ack latency and the cpu cost of the client transports against a local server that speaks the box
+ * protocol and acks every sms right away. For every available transport it reports the p50 and p99 time between
+ * writing an sms and receiving its ack, and the process cpu time per sms. The server always uses NIO, so the
+ * difference between the cpu figures is the cost of the client transport. Every transport runs once flushing every
+ * sms and once with flush coalescing, which also reports the average number of messages per flush.
+ *
+ * Run with: mvn -Pnative-epoll test-compile exec:java -Dexec.classpathScope=test
+ *           -Dexec.mainClass=com.github.spapageo.jannel.benchmark.TransportBenchmark [-Dexec.args=messages]
+ */
+public class TransportBenchmark {
+
+    private static final int DEFAULT_MEASURED_MESSAGES = 200000;
+
+    private static final int WINDOW_SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        final NioEventLoopGroup serverGroup = new NioEventLoopGroup(1);
+        final Channel server = startBoxServer(serverGroup);
+        final int port = ((InetSocketAddress) server.localAddress()).getPort();
+        final int messages = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MEASURED_MESSAGES;
+
+        try {
+            for (final Transport transport : Transport.values()) {
+                if (!transport.isAvailable()) {
+                    System.out.println(transport + ": not available, " + transport.unavailabilityCause());
+                    continue;
+                }
+                run(transport, port, messages, false);
+                run(transport, port, messages, true);
+            }
+        } finally {
+            server.close().syncUninterruptibly();
+            serverGroup.shutdownGracefully().syncUninterruptibly();
+        }
+
+        // the clients leave their timer and session executor threads behind
+        System.exit(0);
+    }
+
+    private static void run(Transport transport, int port, int messages, boolean coalesce) throws Exception {
+        final JannelClient client = new JannelClient(transport, 1);
+        try {
+            final ClientSessionConfiguration configuration = new ClientSessionConfiguration("benchmark");
+            configuration.setHost("127.0.0.1");
+            configuration.setPort(port);
+            configuration.setWindowSize(WINDOW_SIZE);
+            configuration.setFlushCoalescing(coalesce);
+            final ClientSession session = client.identify(configuration, null);
+
+            // the warm up lets the jit compile the send and receive paths of the transport
+            send(session, messages / 4);
+
+            final long flushesBefore = session.getFlushCount();
+            final long flushedBefore = session.getFlushedMessageCount();
+            final long cpuBefore = getProcessCpuTime();
+            final long[] latencies = send(session, messages);
+            final long cpuNanos = getProcessCpuTime() - cpuBefore;
+            final long flushes = session.getFlushCount() - flushesBefore;
+            final long flushed = session.getFlushedMessageCount() - flushedBefore;
+
+            Arrays.sort(latencies);
+            System.out.printf("%s%s: p50 %d us, p99 %d us, %d ns cpu/sms, %.1f messages/flush%n",
+                              transport,
+                              coalesce ? " coalesced" : "",
+                              TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length / 2]),
+                              TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length * 99 / 100]),
+                              cpuNanos / messages,
+                              flushes == 0 ? 1.0 : (double) flushed / flushes);
+            session.close();
+        } finally {
+            client.destroy();
+        }
+    }
+
+    /**
+     * Keeps the window full until every sms is acked
+     * @return the ack latency of every sms in nanoseconds
+     */
+    private static long[] send(ClientSession session, int messages) throws InterruptedException {
+        final long[] latencies = new long[messages];
+        final CountDownLatch acked = new CountDownLatch(messages);
+
+        for (int i = 0; i < messages; i++) {
+            final Sms sms = new Sms("hello", "306975834115", "Hello World", SmsType.MOBILE_TERMINATED_PUSH,
+                                    DataCoding.DC_UNDEF);
+            final int index = i;
+            final WindowFuture<Sms, Ack> future = session.sendSms(sms, 10000);
+            // taken once the sms holds a window slot, so the wait for a free slot is not counted
+            final long sentNanos = System.nanoTime();
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    latencies[index] = System.nanoTime() - sentNanos;
+                    acked.countDown();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        if (!acked.await(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("The sms were not acked in time");
+        }
+        return latencies;
+    }
+
+    private static long getProcessCpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    private static Channel startBoxServer(NioEventLoopGroup group) {
+        final ChannelHandlerProvider handlers = new ChannelHandlerProvider();
+        final Transcoder transcoder = new DefaultTranscoder(new TranscoderHelper());
+        final ClientSessionConfiguration configuration = new ClientSessionConfiguration();
+
+        return new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) throws Exception {
+                        channel.pipeline()
+                               .addLast(handlers.getChangeHandler(HandlerType.LENGTH_FRAME_DECODER, configuration, null, transcoder))
+                               .addLast(handlers.getChangeHandler(HandlerType.LENGTH_FRAME_ENCODER, configuration, null, transcoder))
+                               .addLast(handlers.getChangeHandler(HandlerType.MESSAGE_DECODER, configuration, null, transcoder))
+                               .addLast(handlers.getChangeHandler(HandlerType.MESSAGE_ENCODER, configuration, null, transcoder))
+                               .addLast(new SimpleChannelInboundHandler<Sms>() {
+                                   @Override
+                                   protected void channelRead0(ChannelHandlerContext ctx, Sms sms) {
+                                       ctx.writeAndFlush(new Ack(sms.getId()));
+                                   }
+                               });
+                    }
+                })
+                .bind("127.0.0.1", 0)
+                .syncUninterruptibly()
+                .channel();
+    }
+}
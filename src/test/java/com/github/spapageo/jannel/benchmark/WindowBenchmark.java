@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.benchmark;
+
+import com.github.spapageo.jannel.windowing.Window;
+import com.github.spapageo.jannel.windowing.WindowEngine;
+import com.github.spapageo.jannel.windowing.WindowFuture;
+import io.netty.util.HashedWheelTimer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the offer/complete throughput of the window engines with several producer threads. Every producer
+ * keeps a number of requests in flight and completes the oldest one after each offer, just like a session
+ * that receives the acks in order.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *           -Dexec.mainClass=com.github.spapageo.jannel.benchmark.WindowBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class WindowBenchmark {
+
+    private static final Object REQUEST = new Object();
+
+    private static final Object RESPONSE = new Object();
+
+    @Param({"CONCURRENT_MAP", "SLOT_ARRAY", "UUID_SLOT_ARRAY", "SHARDED"})
+    public WindowEngine engine;
+
+    @Param({"50000"})
+    public int windowSize;
+
+    @Param({"1000"})
+    public int inFlightPerProducer;
+
+    private Window<UUID, Object, Object> window;
+
+    private HashedWheelTimer timer;
+
+    /**
+     * The per thread producer state
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+
+        private static final AtomicLong PRODUCER_IDS = new AtomicLong();
+
+        private final long producerId = PRODUCER_IDS.incrementAndGet();
+
+        private UUID[] inFlight;
+
+        private int position;
+
+        private long sequence;
+
+        @Setup
+        public void setup(WindowBenchmark benchmark) throws InterruptedException {
+            inFlight = new UUID[benchmark.inFlightPerProducer];
+            for (int i = 0; i < inFlight.length; i++) {
+                inFlight[i] = nextKey();
+                benchmark.window.offer(inFlight[i], REQUEST, 1000);
+            }
+        }
+
+        /**
+         * @return a unique key with random looking bits, like the ones produced by {@link UUID#randomUUID()}
+         */
+        UUID nextKey() {
+            final long seed = (producerId << 40) + sequence++;
+            return new UUID(mix(seed), mix(~seed));
+        }
+
+        private static long mix(long value) {
+            long z = value * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        timer = new HashedWheelTimer();
+        window = new Window<UUID, Object, Object>(windowSize, timer, engine);
+    }
+
+    @TearDown
+    public void tearDown() {
+        window.destroy();
+        timer.stop();
+    }
+
+    @Benchmark
+    public WindowFuture<Object, Object> offerAndComplete(Producer producer) throws InterruptedException {
+        final UUID key = producer.nextKey();
+        window.offer(key, REQUEST, 1000);
+
+        if (producer.inFlight.length == 0) {
+            return window.complete(key, RESPONSE);
+        }
+
+        final UUID oldest = producer.inFlight[producer.position];
+        producer.inFlight[producer.position] = key;
+        producer.position = (producer.position + 1) % producer.inFlight.length;
+        return window.complete(oldest, RESPONSE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WindowBenchmark.class.getSimpleName()).build()).run();
+    }
+}
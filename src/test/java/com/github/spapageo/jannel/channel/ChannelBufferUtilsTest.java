@@ -34,6 +34,8 @@ import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class ChannelBufferUtilsTest {
 
@@ -173,6 +175,44 @@ public class ChannelBufferUtilsTest {
         assertEquals("Encoded and decoded UUIDs do not match", uuid, readUUID);
     }
 
+    @Test
+    public void testGetUUIDBitsParsesACanonicalUUIDInPlace() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        byte[] stringBytes = uuid.toString().toUpperCase().getBytes(StandardCharsets.UTF_8);
+        ByteBuf encodedUUID = Unpooled.buffer(stringBytes.length + 4);
+        encodedUUID.writeInt(stringBytes.length);
+        encodedUUID.writeBytes(stringBytes);
+
+        assertTrue(ChannelBufferUtils.hasCanonicalUUID(encodedUUID));
+        assertEquals(uuid.getMostSignificantBits(), ChannelBufferUtils.getUUIDMostSigBits(encodedUUID, 4));
+        assertEquals(uuid.getLeastSignificantBits(), ChannelBufferUtils.getUUIDLeastSigBits(encodedUUID, 4));
+        assertEquals(0, encodedUUID.readerIndex());
+        encodedUUID.release();
+    }
+
+    @Test
+    public void testHasCanonicalUUIDWhenInputIsAMalformedUUIDReturnsFalse() throws Exception {
+        String UUIDString = UUID.randomUUID().toString().replace('-', '1');
+        byte[] stringBytes = UUIDString.getBytes(StandardCharsets.UTF_8);
+        ByteBuf encodedUUID = Unpooled.buffer(stringBytes.length + 4);
+        encodedUUID.writeInt(stringBytes.length);
+        encodedUUID.writeBytes(stringBytes);
+
+        assertFalse(ChannelBufferUtils.hasCanonicalUUID(encodedUUID));
+        encodedUUID.release();
+    }
+
+    @Test
+    public void testHasCanonicalUUIDWhenInputIsAShortUUIDReturnsFalse() throws Exception {
+        byte[] stringBytes = "1-1-1-1-1".getBytes(StandardCharsets.UTF_8);
+        ByteBuf encodedUUID = Unpooled.buffer(stringBytes.length + 4);
+        encodedUUID.writeInt(stringBytes.length);
+        encodedUUID.writeBytes(stringBytes);
+
+        assertFalse(ChannelBufferUtils.hasCanonicalUUID(encodedUUID));
+        encodedUUID.release();
+    }
+
     @Test(expected = NotEnoughDataDecoderException.class)
     public void testReadIntWhenInputBufferIsSmallThan4BytesThrowsNotEnoughDataException() throws Exception {
         byte[] input = { 0x00,0x00, 0x00};
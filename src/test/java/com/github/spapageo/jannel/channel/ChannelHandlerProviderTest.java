@@ -91,6 +91,16 @@ public class ChannelHandlerProviderTest {
                            instanceof WriteTimeoutHandler);
     }
 
+    @Test
+    public void testCreateFlushCoalescingHandler() throws Exception {
+        assertTrue("Not correct class",
+                   channelHandlerProvider.getChangeHandler(HandlerType.FLUSH_COALESCER,
+                                                           mock(ClientSessionConfiguration.class),
+                                                           mock(SessionCallbackHandler.class),
+                                                           mock(Transcoder.class))
+                           instanceof FlushCoalescingHandler);
+    }
+
     @Test
     public void testCreateSessionWrapperHandler() throws Exception {
         assertTrue("Not correct class",
@@ -0,0 +1,159 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.spapageo.jannel.channel;
+
+import com.github.spapageo.jannel.client.SessionCallbackHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class FlushCoalescingHandlerTest {
+
+    private SessionCallbackHandler session;
+
+    @Before
+    public void setUp() throws Exception {
+        session = mock(SessionCallbackHandler.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLingerIsRejected() throws Exception {
+        new FlushCoalescingHandler(session, 0, 0, -1);
+    }
+
+    @Test
+    public void testFlushesAreDeferredToTheEndOfTheEventLoopIteration() throws Exception {
+        FlushCoalescingHandler handler = new FlushCoalescingHandler(session, 0, 0, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        channel.writeAndFlush(frame(10));
+        channel.writeAndFlush(frame(10));
+        channel.writeAndFlush(frame(10));
+
+        assertNull(channel.readOutbound());
+        assertEquals(3, handler.getPendingMessages());
+
+        channel.runPendingTasks();
+
+        assertEquals(3, channel.outboundMessages().size());
+        assertEquals(0, handler.getPendingMessages());
+        verify(session).fireFlushed(3);
+    }
+
+    @Test
+    public void testReachingTheMessageLimitFlushesRightAway() throws Exception {
+        FlushCoalescingHandler handler = new FlushCoalescingHandler(session, 2, 0, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        channel.writeAndFlush(frame(10));
+        assertNull(channel.readOutbound());
+
+        channel.writeAndFlush(frame(10));
+
+        assertEquals(2, channel.outboundMessages().size());
+        verify(session).fireFlushed(2);
+    }
+
+    @Test
+    public void testReachingTheByteLimitFlushesRightAway() throws Exception {
+        FlushCoalescingHandler handler = new FlushCoalescingHandler(session, 0, 100, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        channel.writeAndFlush(frame(60));
+        assertNull(channel.readOutbound());
+
+        channel.writeAndFlush(frame(60));
+
+        assertEquals(2, channel.outboundMessages().size());
+        verify(session).fireFlushed(2);
+    }
+
+    @Test
+    public void testLingerDelaysTheFlush() throws Exception {
+        FlushCoalescingHandler handler = new FlushCoalescingHandler(session, 0, 0, 50);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        channel.writeAndFlush(frame(10));
+        channel.runPendingTasks();
+
+        assertNull(channel.readOutbound());
+
+        Thread.sleep(100);
+        channel.runScheduledPendingTasks();
+
+        assertEquals(1, channel.outboundMessages().size());
+        verify(session).fireFlushed(1);
+    }
+
+    @Test
+    public void testLimitFlushCancelsTheLinger() throws Exception {
+        FlushCoalescingHandler handler = new FlushCoalescingHandler(session, 2, 0, 50);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        channel.writeAndFlush(frame(10));
+        channel.writeAndFlush(frame(10));
+
+        Thread.sleep(100);
+        channel.runScheduledPendingTasks();
+
+        assertEquals(2, channel.outboundMessages().size());
+        verify(session).fireFlushed(2);
+    }
+
+    @Test
+    public void testWritesWithoutAFlushAreNotFlushed() throws Exception {
+        FlushCoalescingHandler handler = new FlushCoalescingHandler(session, 0, 0, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        channel.write(frame(10));
+        channel.runPendingTasks();
+
+        assertNull(channel.readOutbound());
+        verify(session, never()).fireFlushed(anyInt());
+    }
+
+    @Test
+    public void testCloseFlushesThePendingWrites() throws Exception {
+        FlushCoalescingHandler handler = new FlushCoalescingHandler(session, 0, 0, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        channel.writeAndFlush(frame(10));
+        channel.close();
+
+        assertEquals(1, channel.outboundMessages().size());
+        verify(session).fireFlushed(1);
+    }
+
+    private static ByteBuf frame(int size) {
+        return Unpooled.wrappedBuffer(new byte[size]);
+    }
+}
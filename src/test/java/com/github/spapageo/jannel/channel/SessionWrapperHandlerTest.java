@@ -25,10 +25,13 @@ package com.github.spapageo.jannel.channel;
 
 import com.github.spapageo.jannel.client.SessionCallbackHandler;
 import com.github.spapageo.jannel.msg.Message;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
 import org.junit.Test;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class SessionWrapperHandlerTest {
 
@@ -62,4 +65,18 @@ public class SessionWrapperHandlerTest {
         sessionWrapperHandler.channelInactive(null);
         verify(handler).fireConnectionClosed();
     }
+
+    @Test
+    public void testChannelWritabilityChanged() throws Exception {
+        SessionCallbackHandler handler = mock(SessionCallbackHandler.class);
+        SessionWrapperHandler sessionWrapperHandler = new SessionWrapperHandler(handler);
+        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        Channel channel = mock(Channel.class);
+        when(ctx.channel()).thenReturn(channel);
+        when(channel.isWritable()).thenReturn(false);
+
+        sessionWrapperHandler.channelWritabilityChanged(ctx);
+        verify(handler).fireChannelWritabilityChanged(false);
+        verify(ctx).fireChannelWritabilityChanged();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.spapageo.jannel.client;
+
+import com.github.spapageo.jannel.msg.Ack;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AckBatcherTest {
+
+    private ClientSession session;
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        session = mock(ClientSession.class);
+        channel = new EmbeddedChannel();
+        when(session.getChannel()).thenReturn(channel);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroBatchSizeIsRejected() throws Exception {
+        new AckBatcher(session, 0, 10);
+    }
+
+    @Test
+    public void testAcksWaitForTheLinger() throws Exception {
+        AckBatcher batcher = new AckBatcher(session, 10, 50);
+        Ack first = new Ack(UUID.randomUUID());
+        Ack second = new Ack(UUID.randomUUID());
+
+        ChannelPromise promise = batcher.add(first);
+        batcher.add(second);
+
+        assertNull(channel.readOutbound());
+        assertEquals(2, batcher.getPendingCount());
+
+        Thread.sleep(100);
+        channel.runScheduledPendingTasks();
+
+        assertSame(first, channel.readOutbound());
+        assertSame(second, channel.readOutbound());
+        assertTrue(promise.isSuccess());
+        assertEquals(0, batcher.getPendingCount());
+    }
+
+    @Test
+    public void testAFullBatchIsWrittenRightAway() throws Exception {
+        AckBatcher batcher = new AckBatcher(session, 2, 10000);
+
+        batcher.add(new Ack(UUID.randomUUID()));
+        assertNull(channel.readOutbound());
+
+        ChannelPromise promise = batcher.add(new Ack(UUID.randomUUID()));
+
+        assertEquals(2, channel.outboundMessages().size());
+        assertTrue(promise.isSuccess());
+    }
+
+    @Test
+    public void testAcksOfADroppedConnectionFail() throws Exception {
+        AckBatcher batcher = new AckBatcher(session, 10, 10000);
+        ChannelPromise promise = batcher.add(new Ack(UUID.randomUUID()));
+
+        EmbeddedChannel reconnected = new EmbeddedChannel();
+        when(session.getChannel()).thenReturn(reconnected);
+        batcher.flush();
+
+        assertTrue(promise.cause() instanceof ClosedChannelException);
+        assertNull(reconnected.readOutbound());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testAcksAreWrittenRightAwayWhenTheLingerCannotBeScheduled() throws Exception {
+        Channel closed = mock(Channel.class);
+        EventLoop eventLoop = mock(EventLoop.class);
+        when(closed.eventLoop()).thenReturn(eventLoop);
+        when(closed.newPromise()).thenAnswer(new Answer<ChannelPromise>() {
+            @Override
+            public ChannelPromise answer(InvocationOnMock invocation) throws Throwable {
+                return new DefaultChannelPromise((Channel) invocation.getMock(), ImmediateEventExecutor.INSTANCE);
+            }
+        });
+        when(eventLoop.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+                .thenThrow(new RejectedExecutionException());
+        when(session.getChannel()).thenReturn(closed);
+        AckBatcher batcher = new AckBatcher(session, 10, 10000);
+
+        Ack first = new Ack(UUID.randomUUID());
+        ChannelPromise firstPromise = batcher.add(first);
+        Ack second = new Ack(UUID.randomUUID());
+        ChannelPromise secondPromise = batcher.add(second);
+
+        verify(closed).write(first, firstPromise);
+        verify(closed).write(second, secondPromise);
+        verify(closed, times(2)).flush();
+        verify(eventLoop, times(2)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        assertEquals(0, batcher.getPendingCount());
+    }
+}
@@ -27,25 +27,46 @@ import com.github.spapageo.jannel.exception.BadMessageException;
 import com.github.spapageo.jannel.exception.StringSizeException;
 import com.github.spapageo.jannel.msg.*;
 import com.github.spapageo.jannel.msg.enums.DataCoding;
+import com.github.spapageo.jannel.windowing.AimdWindowController;
 import com.github.spapageo.jannel.windowing.DuplicateKeyException;
+import com.github.spapageo.jannel.windowing.PriorityClasses;
 import com.github.spapageo.jannel.windowing.WindowFuture;
+import com.github.spapageo.jannel.windowing.WindowVisitor;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
 import io.netty.channel.DefaultChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.util.HashedWheelTimer;
 import io.netty.util.Timer;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
+import java.net.ConnectException;
 import java.net.SocketAddress;
 import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
@@ -64,7 +85,7 @@ public class ClientSessionTest {
     @Mock(answer = Answers.RETURNS_MOCKS)
     Channel channel;
 
-    @Mock(answer = Answers.RETURNS_MOCKS)
+    @Mock(answer = Answers.RETURNS_MOCKS, extraInterfaces = {ExpiryBatchHandler.class, BackpressureHandler.class})
     SessionHandler sessionHandler;
 
     final Timer timer = new HashedWheelTimer();
@@ -160,6 +181,161 @@ public class ClientSessionTest {
 
 
 
+    @Test
+    public void testLoadCountsTheMoBacklogAndTheWindowOccupancy() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        clientSession.fireInboundMessage(new Sms());
+        clientSession.fireInboundMessage(new Sms());
+        assertEquals(2, clientSession.getMoBacklog());
+
+        clientSession.sendAck(new Ack());
+        assertEquals(1, clientSession.getMoBacklog());
+
+        clientSession.sendSms(new Sms(), 1000);
+        assertEquals(1 + 50, clientSession.getLoad());
+
+        clientSession.sendAck(new Ack());
+        clientSession.sendAck(new Ack());
+        assertEquals(0, clientSession.getMoBacklog());
+    }
+
+    @Test
+    public void testReceivedSmsIsDispatchedToTheWorkersWhenConfigured() throws Exception {
+        clientSessionConfiguration.setMoDispatchThreads(1);
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, sessionHandler);
+
+        Sms sms = new Sms();
+        session.fireInboundMessage(sms);
+
+        verify(sessionHandler, timeout(5000)).fireSmsReceived(sms);
+        assertEquals(0, session.getMoQueued());
+        assertFalse(session.isReadPaused());
+        session.close(0);
+    }
+
+    @Test
+    public void testReceivedSmsIsAckedOnceItsCompletionResolves() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        Sms sms = new Sms();
+        sms.setId(UUID.randomUUID());
+        SettableFuture<AckType> completion = SettableFuture.create();
+        clientSession.ackWhenComplete(sms, completion);
+        verify(channel, never()).writeAndFlush(any());
+
+        completion.set(AckType.BUFFERED);
+
+        ArgumentCaptor<Ack> ack = ArgumentCaptor.forClass(Ack.class);
+        verify(channel).writeAndFlush(ack.capture());
+        assertEquals(sms.getId(), ack.getValue().getId());
+        assertEquals(AckType.BUFFERED, ack.getValue().getResponse());
+    }
+
+    @Test
+    public void testReceivedSmsWhoseHandlingFailedIsAckedAsTemporarilyFailed() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        Sms sms = new Sms();
+        sms.setId(UUID.randomUUID());
+        clientSession.ackWhenComplete(sms, Futures.<AckType>immediateFailedFuture(new IOException()));
+
+        ArgumentCaptor<Ack> ack = ArgumentCaptor.forClass(Ack.class);
+        verify(channel).writeAndFlush(ack.capture());
+        assertEquals(AckType.FAILED_TMP, ack.getValue().getResponse());
+    }
+
+    @Test
+    public void testAcksAreBatchedWhenConfigured() throws Exception {
+        EmbeddedChannel embedded = new EmbeddedChannel();
+        clientSessionConfiguration.setAckBatchSize(2);
+        ClientSession session = new ClientSession(clientSessionConfiguration, embedded, timer, sessionHandler);
+
+        session.sendAck(new Ack(UUID.randomUUID()));
+        assertNull(embedded.readOutbound());
+
+        session.sendAck(new Ack(UUID.randomUUID()));
+        assertEquals(2, embedded.outboundMessages().size());
+    }
+
+    @Test
+    public void testIdentifiedSessionSendsHeartbeatsWithItsLoad() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        promise.setSuccess();
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        clientSessionConfiguration.setHeartbeatInterval(10);
+        clientSession.fireInboundMessage(new Sms());
+
+        Admin admin = new Admin();
+        admin.setBoxId("test");
+        admin.setAdminCommand(AdminCommand.IDENTIFY);
+        clientSession.identify(admin);
+
+        ArgumentCaptor<Object> written = ArgumentCaptor.forClass(Object.class);
+        verify(channel, timeout(5000).atLeast(2)).writeAndFlush(Matchers.isA(HeartBeat.class));
+        verify(channel, atLeast(3)).writeAndFlush(written.capture());
+        HeartBeat heartBeat = (HeartBeat) written.getAllValues().get(1);
+        assertEquals(1, heartBeat.getLoad());
+
+        clientSession.close(0);
+        // lets a beat that was already running finish
+        Thread.sleep(200);
+        int beats = mockingDetails(channel).getInvocations().size();
+        Thread.sleep(300);
+        assertEquals(beats, mockingDetails(channel).getInvocations().size());
+    }
+
+    @Test
+    public void testNoHeartbeatsAreSentByDefault() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        promise.setSuccess();
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        Admin admin = new Admin();
+        admin.setBoxId("test");
+        admin.setAdminCommand(AdminCommand.IDENTIFY);
+        clientSession.identify(admin);
+
+        Thread.sleep(300);
+        verify(channel, never()).writeAndFlush(Matchers.isA(HeartBeat.class));
+    }
+
+    @Test
+    public void testIdentifyAsyncCompletesOnceTheCommandIsWritten() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        ListenableFuture<ClientSession> identified = clientSession.identifyAsync(new Admin(AdminCommand.IDENTIFY, "test"));
+        assertFalse(identified.isDone());
+        assertFalse(clientSession.isIdentified());
+
+        promise.setSuccess();
+
+        assertSame(clientSession, identified.get(5, TimeUnit.SECONDS));
+        assertTrue(clientSession.isIdentified());
+        verify(sessionHandler).fireSessionInitialized(clientSession);
+    }
+
+    @Test
+    public void testIdentifyAsyncClosesTheSessionWhenTheWriteFails() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        promise.setFailure(new IOException("test"));
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        try {
+            clientSession.identifyAsync(new Admin(AdminCommand.IDENTIFY, "test")).get(5, TimeUnit.SECONDS);
+            fail("The write failure must fail the future");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(clientSession.isClosed());
+        verify(sessionHandler, never()).fireSessionInitialized(clientSession);
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testIdentifyWhenCommandIsNotIdentifyThrows() throws Exception {
         DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
@@ -316,6 +492,411 @@ public class ClientSessionTest {
         Futures.getChecked(future, IOException.class);
     }
 
+    @Test
+    public void testSendSmsAsyncWritesWhenSlotIsFree() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        promise.setSuccess();
+
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        Sms sms = new Sms("from", "to", "date", SmsType.MOBILE_TERMINATED_PUSH, DataCoding.DC_8BIT);
+
+        WindowFuture<Sms, Ack> future = clientSession.sendSmsAsync(sms, 5000);
+
+        assertFalse(future.isDone());
+        assertNotNull(sms.getId());
+        assertSame(clientSessionConfiguration.getClientId(), sms.getBoxId());
+        verify(channel).writeAndFlush(sms);
+    }
+
+    @Test
+    public void testSendSmsAsyncWritesQueuedSmsWhenSlotIsFreed() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        promise.setSuccess();
+
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        Sms first = new Sms();
+        first.setId(UUID.randomUUID());
+        Sms second = new Sms();
+        second.setId(UUID.randomUUID());
+        Sms queued = new Sms();
+        queued.setId(UUID.randomUUID());
+
+        clientSession.sendSmsAsync(first, 5000);
+        clientSession.sendSmsAsync(second, 5000);
+        WindowFuture<Sms, Ack> future = clientSession.sendSmsAsync(queued, 5000);
+
+        verify(channel, never()).writeAndFlush(queued);
+        assertFalse(future.isDone());
+
+        clientSession.fireInboundMessage(new Ack(first.getId()));
+
+        verify(channel).writeAndFlush(queued);
+        assertTrue(clientSession.getWindow().containsKey(queued.getId()));
+    }
+
+    @Test
+    public void testSendSmsAsyncWritesQueuedSmsByPriority() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        promise.setSuccess();
+
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        clientSessionConfiguration.setWindowSize(1);
+        clientSessionConfiguration.setPriorityClasses(new PriorityClasses(new int[]{0, 0, 0, 0}, 0));
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, sessionHandler);
+
+        Sms first = new Sms();
+        first.setId(UUID.randomUUID());
+        Sms bulk = new Sms();
+        bulk.setId(UUID.randomUUID());
+        bulk.setPriority(0);
+        Sms otp = new Sms();
+        otp.setId(UUID.randomUUID());
+        otp.setPriority(3);
+
+        session.sendSmsAsync(first, 5000);
+        session.sendSmsAsync(bulk, 5000);
+        session.sendSmsAsync(otp, 5000);
+
+        session.fireInboundMessage(new Ack(first.getId()));
+
+        verify(channel).writeAndFlush(otp);
+        verify(channel, never()).writeAndFlush(bulk);
+        assertEquals(1, session.getWindow().getWaitStatistics(3).getWaitedCount());
+    }
+
+    @Test
+    public void testSessionPausesAtTheWindowHighWaterMark() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        promise.setSuccess();
+
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        clientSessionConfiguration.setWindowSize(4);
+        clientSessionConfiguration.setWindowHighWaterMark(3);
+        clientSessionConfiguration.setWindowLowWaterMark(1);
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, sessionHandler);
+
+        List<Sms> sent = new ArrayList<Sms>();
+        for (int i = 0; i < 3; i++) {
+            Sms sms = new Sms();
+            sms.setId(UUID.randomUUID());
+            session.sendSmsAsync(sms, 5000);
+            sent.add(sms);
+        }
+
+        assertFalse(session.isAccepting());
+        verify((BackpressureHandler) sessionHandler).fireSessionPaused(session);
+
+        session.fireInboundMessage(new Ack(sent.get(0).getId()));
+        assertFalse(session.isAccepting());
+
+        session.fireInboundMessage(new Ack(sent.get(1).getId()));
+        assertTrue(session.isAccepting());
+        verify((BackpressureHandler) sessionHandler).fireSessionResumed(session);
+    }
+
+    @Test
+    public void testSessionPausesWhileTheChannelIsNotWritable() throws Exception {
+        assertTrue(clientSession.isAccepting());
+
+        clientSession.fireChannelWritabilityChanged(false);
+        assertFalse(clientSession.isAccepting());
+        verify((BackpressureHandler) sessionHandler).fireSessionPaused(clientSession);
+
+        clientSession.fireChannelWritabilityChanged(true);
+        assertTrue(clientSession.isAccepting());
+        verify((BackpressureHandler) sessionHandler).fireSessionResumed(clientSession);
+    }
+
+    @Test
+    public void testHandlersWithoutBackpressureCallbacksAreNotToldOfPauses() throws Exception {
+        SessionHandler plainHandler = mock(SessionHandler.class);
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, plainHandler);
+
+        session.fireChannelWritabilityChanged(false);
+        assertFalse(session.isAccepting());
+        session.fireChannelWritabilityChanged(true);
+        assertTrue(session.isAccepting());
+
+        verifyZeroInteractions(plainHandler);
+    }
+
+    @Test
+    public void testFlushesAreCounted() throws Exception {
+        assertEquals(0, clientSession.getFlushCount());
+
+        clientSession.fireFlushed(3);
+        clientSession.fireFlushed(1);
+
+        assertEquals(2, clientSession.getFlushCount());
+        assertEquals(4, clientSession.getFlushedMessageCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testSendSmsAsyncReturnsFailedFutureWhenWriteFails() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        promise.setFailure(new IOException());
+
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        Sms sms = new Sms();
+        sms.setId(UUID.randomUUID());
+        sms.setBoxId("test box");
+
+        WindowFuture<Sms, Ack> future = clientSession.sendSmsAsync(sms, 5000);
+
+        Futures.getChecked(future, IOException.class);
+    }
+
+    @Test
+    public void testAdaptiveWindowShrinksOnTemporaryFailureAck() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        promise.setSuccess();
+
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        clientSessionConfiguration.setWindowSize(10);
+        clientSessionConfiguration.setMinWindowSize(1);
+        clientSessionConfiguration.setAdaptiveWindow(true);
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, sessionHandler);
+        AimdWindowController controller = session.getWindowController().get();
+
+        for (int i = 0; i < 50; i++) {
+            Sms sms = new Sms();
+            sms.setId(UUID.randomUUID());
+            session.sendSms(sms, 5000);
+            session.fireInboundMessage(new Ack(sms.getId(), AckType.SUCCESS, 0));
+        }
+        int grownLimit = controller.getLimit();
+
+        Sms sms = new Sms();
+        sms.setId(UUID.randomUUID());
+        session.sendSms(sms, 5000);
+        session.fireInboundMessage(new Ack(sms.getId(), AckType.FAILED_TMP, 0));
+
+        assertTrue(grownLimit > 1);
+        assertEquals(grownLimit / 2, controller.getLimit());
+        assertEquals(controller.getLimit(), session.getWindow().getSizeLimit());
+    }
+
+    @Test
+    public void testSmsPastItsDeadlineIsFailedWithoutTakingASlot() throws Exception {
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, sessionHandler);
+
+        Sms sms = new Sms();
+        sms.setDeadline(System.currentTimeMillis() - 1);
+        WindowFuture<Sms, Ack> future = session.sendSms(sms, 1000);
+
+        try {
+            future.get();
+            fail("The sms should have been dropped");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof StaleSmsException);
+        }
+        assertEquals(0, session.getWindowSize());
+        assertEquals(1, session.getStaleDroppedCount());
+        verify(channel, never()).writeAndFlush(any());
+    }
+
+    @Test
+    public void testSmsPastItsValidityIsFailedAsync() throws Exception {
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, sessionHandler);
+
+        Sms sms = new Sms();
+        sms.setTime((int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - 120);
+        sms.setValidity(1);
+        WindowFuture<Sms, Ack> future = session.sendSmsAsync(sms, 1000);
+
+        assertTrue(future.isDone());
+        assertEquals(sms.getTime() * 1000L + 60000, sms.getDeadline());
+        assertEquals(1, session.getStaleDroppedCount());
+        verify(channel, never()).writeAndFlush(any());
+    }
+
+    @Test
+    public void testSmsThatGoesStaleWhileWaitingForAResendIsNotWritten() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        promise.setSuccess();
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        clientSessionConfiguration.setRetryPolicy(new RetryPolicy(3, 100, 100, 0, 10));
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, sessionHandler);
+
+        Sms sms = new Sms();
+        sms.setDeadline(System.currentTimeMillis() + 50);
+        WindowFuture<Sms, Ack> future = session.sendSms(sms, 1000);
+        session.fireInboundMessage(new Ack(sms.getId(), AckType.FAILED_TMP, 0));
+
+        try {
+            future.get(5000, TimeUnit.MILLISECONDS);
+            fail("The sms should have been dropped");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof StaleSmsException);
+        }
+        assertEquals(0, session.getWindowSize());
+        assertEquals(1, session.getStaleDroppedCount());
+        verify(channel, times(1)).writeAndFlush(sms);
+    }
+
+    @Test
+    public void testTemporaryFailureIsResentUntilItSucceeds() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        promise.setSuccess();
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        clientSessionConfiguration.setRetryPolicy(new RetryPolicy(3, 10, 10, 0, 10));
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, sessionHandler);
+
+        Sms sms = new Sms();
+        WindowFuture<Sms, Ack> future = session.sendSms(sms, 5000);
+        session.fireInboundMessage(new Ack(sms.getId(), AckType.FAILED_TMP, 0));
+
+        assertFalse(future.isDone());
+        assertEquals(1, sms.getResendTry());
+        verify(channel, timeout(5000).times(2)).writeAndFlush(sms);
+        assertEquals(0, session.getOutstandingRetries());
+
+        session.fireInboundMessage(new Ack(sms.getId(), AckType.SUCCESS, 0));
+
+        assertEquals(AckType.SUCCESS, future.get().getResponse());
+    }
+
+    @Test
+    public void testTemporaryFailureCompletesTheSmsOnceTheRetriesRunOut() throws Exception {
+        DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
+        promise.setSuccess();
+        when(channel.writeAndFlush(any())).thenReturn(promise);
+
+        clientSessionConfiguration.setRetryPolicy(new RetryPolicy(1, 10, 10, 0, 10));
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, sessionHandler);
+
+        Sms sms = new Sms();
+        WindowFuture<Sms, Ack> future = session.sendSms(sms, 5000);
+        session.fireInboundMessage(new Ack(sms.getId(), AckType.FAILED_TMP, 0));
+        verify(channel, timeout(5000).times(2)).writeAndFlush(sms);
+
+        session.fireInboundMessage(new Ack(sms.getId(), AckType.FAILED_TMP, 0));
+
+        assertEquals(AckType.FAILED_TMP, future.get().getResponse());
+        assertEquals(0, session.getWindowSize());
+    }
+
+    @Test
+    public void testTemporaryFailuresBeyondTheOutstandingRetryCapCompleteTheSms() throws Exception {
+        clientSessionConfiguration.setRetryPolicy(new RetryPolicy(3, 60000, 60000, 0, 1));
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, sessionHandler);
+
+        Sms first = new Sms();
+        Sms second = new Sms();
+        WindowFuture<Sms, Ack> firstFuture = session.sendSms(first, 5000);
+        WindowFuture<Sms, Ack> secondFuture = session.sendSms(second, 5000);
+        session.fireInboundMessage(new Ack(first.getId(), AckType.FAILED_TMP, 0));
+        session.fireInboundMessage(new Ack(second.getId(), AckType.FAILED_TMP, 0));
+
+        assertFalse(firstFuture.isDone());
+        assertEquals(AckType.FAILED_TMP, secondFuture.get().getResponse());
+        assertEquals(1, session.getOutstandingRetries());
+    }
+
+    @Test
+    public void testBufferedAcksAreOnlyResentWhenThePolicyAsksForIt() throws Exception {
+        RetryPolicy policy = new RetryPolicy(3, 10, 10, 0, 10);
+        RetryPolicy bufferedPolicy = new RetryPolicy(3, 10, 10, 0, 10, true);
+
+        assertTrue(policy.isRetryable(AckType.FAILED_TMP));
+        assertFalse(policy.isRetryable(AckType.BUFFERED));
+        assertTrue(bufferedPolicy.isRetryable(AckType.BUFFERED));
+        assertFalse(bufferedPolicy.isRetryable(AckType.FAILED));
+        assertFalse(RetryPolicy.NONE.isRetryable(AckType.FAILED_TMP));
+    }
+
+    @Test
+    public void testRetryBackoffGrowsExponentiallyUpToTheCap() throws Exception {
+        RetryPolicy policy = new RetryPolicy(5, 100, 1000, 0, 1);
+        Random random = new Random(42);
+
+        assertEquals(100, policy.getBackoffMillis(1, random));
+        assertEquals(400, policy.getBackoffMillis(3, random));
+        assertEquals(1000, policy.getBackoffMillis(5, random));
+
+        RetryPolicy jittered = new RetryPolicy(5, 1000, 1000, 0.5, 1);
+        for (int i = 0; i < 100; i++) {
+            long backoff = jittered.getBackoffMillis(1, random);
+            assertTrue(backoff > 500 && backoff <= 1000);
+        }
+    }
+
+    @Test
+    public void testSetWindowSizeResizesTheWindowWithSmsInFlight() throws Exception {
+        Sms first = new Sms();
+        Sms second = new Sms();
+        clientSession.sendSms(first, 0);
+        clientSession.sendSms(second, 0);
+
+        clientSession.setWindowSize(3);
+
+        assertEquals(3, clientSession.getMaxWindowSize());
+        assertFalse(clientSession.sendSms(new Sms(), 0).isDone());
+
+        clientSession.setWindowSize(1);
+        clientSession.fireInboundMessage(new Ack(first.getId(), AckType.SUCCESS, 0));
+        clientSession.fireInboundMessage(new Ack(second.getId(), AckType.SUCCESS, 0));
+
+        assertEquals(1, clientSession.getMaxWindowSize());
+        assertEquals(1, clientSession.getWindowSize());
+        assertTrue(clientSession.sendSms(new Sms(), 0).isDone());
+    }
+
+    @Test
+    public void testSetWindowSizeMovesTheLimitsOfTheAdaptiveWindow() throws Exception {
+        clientSessionConfiguration.setWindowSize(4);
+        clientSessionConfiguration.setMinWindowSize(1);
+        clientSessionConfiguration.setAdaptiveWindow(true);
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, sessionHandler);
+        AimdWindowController controller = session.getWindowController().get();
+
+        session.setWindowSize(8);
+
+        assertEquals(8, controller.getMaxLimit());
+        assertEquals(8, session.getMaxWindowSize());
+        assertEquals(controller.getLimit(), session.getWindow().getSizeLimit());
+
+        for (int i = 0; i < 100; i++) {
+            Sms sms = new Sms();
+            session.sendSms(sms, 5000);
+            session.fireInboundMessage(new Ack(sms.getId(), AckType.SUCCESS, 0));
+        }
+        assertTrue(controller.getLimit() > 4);
+
+        session.setWindowSize(2);
+
+        assertEquals(2, controller.getMaxLimit());
+        assertEquals(2, controller.getLimit());
+        assertEquals(2, session.getWindow().getSizeLimit());
+    }
+
+    @Test
+    public void testAckLatencyIsAveragedOverTheAcks() throws Exception {
+        assertEquals(0, clientSession.getAckLatencyNanos());
+
+        for (int i = 0; i < 10; i++) {
+            Sms sms = new Sms();
+            clientSession.sendSms(sms, 0);
+            Thread.sleep(1);
+            clientSession.fireInboundMessage(new Ack(sms.getId(), AckType.SUCCESS, 0));
+        }
+
+        assertTrue(clientSession.getAckLatencyNanos() >= TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testFixedWindowHasNoController() throws Exception {
+        assertFalse(clientSession.getWindowController().isPresent());
+    }
+
     @Test(expected = CancellationException.class)
     public void testSendSmsReturnsFailedFutureWhenWriteIsCancelled() throws Exception {
         DefaultChannelPromise promise = new DefaultChannelPromise(channel, eventExecutors.next());
@@ -495,6 +1076,123 @@ public class ClientSessionTest {
         }
     }
 
+    @Test
+    public void testConnectionClosedHandsOutstandingSmsToTheRequeueSink() throws Exception {
+        Sms sms = new Sms();
+        final List<Sms> requeued = new ArrayList<Sms>();
+        clientSession.setRequeueSink(new WindowVisitor<UUID, Sms, Ack>() {
+            @Override
+            public void visit(UUID key, Sms request, WindowFuture<Sms, Ack> future) {
+                requeued.add(request);
+            }
+        });
+
+        WindowFuture<Sms, Ack> future = clientSession.sendSms(sms, 10000);
+        clientSession.fireConnectionClosed();
+
+        assertEquals(Collections.singletonList(sms), requeued);
+        assertTrue(future.isDone());
+        assertEquals(0, clientSession.getWindowSize());
+    }
+
+    @Test
+    public void testExpiredSmsAreFiredInBatchesOnTheSessionExecutor() throws Exception {
+        final EventLoop sessionExecutor = eventExecutors.next();
+        ChannelPipeline pipeline = mock(ChannelPipeline.class);
+        when(channel.pipeline()).thenReturn(pipeline);
+        when(channel.eventLoop()).thenReturn(sessionExecutor);
+
+        final CountDownLatch fired = new CountDownLatch(2);
+        final List<Sms> expired = new CopyOnWriteArrayList<Sms>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                assertTrue(sessionExecutor.inEventLoop());
+                for (Sms sms : (List<Sms>) invocation.getArguments()[0]) {
+                    expired.add(sms);
+                    fired.countDown();
+                }
+                return null;
+            }
+        }).when((ExpiryBatchHandler) sessionHandler).fireMessagesExpired(Matchers.<List<Sms>>any());
+
+        clientSessionConfiguration.setRequestExpiryTimeout(1);
+        Sms first = new Sms();
+        Sms second = new Sms();
+        clientSession.sendSms(first, 1000);
+        clientSession.sendSms(second, 1000);
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertEquals(2, expired.size());
+        assertTrue(expired.containsAll(Arrays.asList(first, second)));
+        verify(sessionHandler, never()).fireMessageExpired(any(Sms.class));
+    }
+
+    @Test
+    public void testExpiredSmsAreFiredOneByOneToHandlersWithoutBatches() throws Exception {
+        SessionHandler plainHandler = mock(SessionHandler.class);
+        ClientSession session = new ClientSession(clientSessionConfiguration, channel, timer, plainHandler);
+        ChannelPipeline pipeline = mock(ChannelPipeline.class);
+        when(channel.pipeline()).thenReturn(pipeline);
+        when(channel.eventLoop()).thenReturn(eventExecutors.next());
+
+        clientSessionConfiguration.setRequestExpiryTimeout(1);
+        Sms first = new Sms();
+        Sms second = new Sms();
+        session.sendSms(first, 1000);
+        session.sendSms(second, 1000);
+
+        verify(plainHandler, timeout(5000)).fireMessageExpired(first);
+        verify(plainHandler, timeout(5000)).fireMessageExpired(second);
+        session.close();
+    }
+
+    @Test
+    public void testDrainAndCloseWaitsForTheOutstandingAcks() throws Exception {
+        final Sms sms = new Sms();
+        clientSession.sendSms(sms, 1000);
+        scheduledExecutorService.schedule(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return clientSession.getWindow().complete(sms.getId(), new Ack());
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        List<Sms> remaining = clientSession.drainAndClose(5000);
+
+        assertTrue(remaining.isEmpty());
+        assertTrue(clientSession.isClosed());
+        verify(sessionHandler, never()).fireChannelUnexpectedlyClosed();
+    }
+
+    @Test
+    public void testDrainAndCloseFailsAndReturnsTheSmsLeftAtTheDeadline() throws Exception {
+        Sms sms = new Sms();
+        WindowFuture<Sms, Ack> future = clientSession.sendSms(sms, 1000);
+
+        List<Sms> remaining = clientSession.drainAndClose(20);
+
+        assertEquals(Collections.singletonList(sms), remaining);
+        assertTrue(future.isDone());
+        assertEquals(0, clientSession.getWindowSize());
+        assertTrue(clientSession.isClosed());
+    }
+
+    @Test
+    public void testDrainingSessionRejectsNewSms() throws Exception {
+        clientSession.startDraining();
+
+        assertTrue(clientSession.isDraining());
+        assertFalse(clientSession.isAccepting());
+        try {
+            clientSession.sendSmsAsync(new Sms(), 1000);
+            fail("A draining session must not accept new sms");
+        } catch (IllegalStateException e) {
+            assertEquals(0, clientSession.getWindowSize());
+        }
+    }
+
     @Test
     public void testConnectionClosedWhenChannelIsClosedDoesNotInvokeHandler() throws Exception {
         clientSession.close();
@@ -600,4 +1298,210 @@ public class ClientSessionTest {
 
         clientSession.sendSmsAndWait(sms, 5000);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReconnectReplaysTheInFlightSmsWithTheirIds() throws Exception {
+        clientSessionConfiguration.setMaxReconnectAttempts(3);
+        clientSessionConfiguration.setReconnectBackoff(1);
+        EmbeddedChannel lost = new EmbeddedChannel();
+        final EmbeddedChannel reconnected = new EmbeddedChannel();
+        ClientSession session = new ClientSession(clientSessionConfiguration, lost, timer, sessionHandler);
+        session.setConnector(new SessionConnector() {
+            @Override
+            public ChannelFuture connect(ClientSession session) {
+                return reconnected.newSucceededFuture();
+            }
+        });
+        session.identify(new Admin(AdminCommand.IDENTIFY, "test box"));
+
+        Sms sms = new Sms();
+        WindowFuture<Sms, Ack> future = session.sendSms(sms, 1000);
+        lost.close();
+        session.fireConnectionClosed();
+
+        verify((BackpressureHandler) sessionHandler).fireSessionPaused(session);
+        awaitReconnected(session);
+
+        assertSame(reconnected, session.getChannel());
+        assertTrue(session.isIdentified());
+        assertEquals(AdminCommand.IDENTIFY, ((Admin) reconnected.readOutbound()).getAdminCommand());
+        assertEquals(sms.getId(), ((Sms) reconnected.readOutbound()).getId());
+        assertFalse("The replayed sms must stay pending", future.isDone());
+
+        Ack ack = new Ack(sms.getId());
+        session.fireInboundMessage(ack);
+
+        assertSame(ack, future.get());
+        verify((BackpressureHandler) sessionHandler, timeout(5000)).fireSessionResumed(session);
+        verify(sessionHandler, never()).fireChannelUnexpectedlyClosed();
+    }
+
+    @Test
+    public void testSmsSentWhileReconnectingAreWrittenOnceReconnected() throws Exception {
+        clientSessionConfiguration.setMaxReconnectAttempts(3);
+        clientSessionConfiguration.setReconnectBackoff(1);
+        EmbeddedChannel lost = new EmbeddedChannel();
+        EmbeddedChannel reconnected = new EmbeddedChannel();
+        final ChannelPromise connectPromise = reconnected.newPromise();
+        final CountDownLatch connecting = new CountDownLatch(1);
+        ClientSession session = new ClientSession(clientSessionConfiguration, lost, timer, sessionHandler);
+        session.setConnector(new SessionConnector() {
+            @Override
+            public ChannelFuture connect(ClientSession session) {
+                connecting.countDown();
+                return connectPromise;
+            }
+        });
+
+        lost.close();
+        session.fireConnectionClosed();
+        assertTrue(connecting.await(5, TimeUnit.SECONDS));
+
+        assertTrue(session.isReconnecting());
+        assertFalse(session.isAccepting());
+        Sms sms = new Sms();
+        WindowFuture<Sms, Ack> future = session.sendSmsAsync(sms, 1000);
+        assertNull("Nothing may be written to the lost channel", lost.readOutbound());
+
+        connectPromise.setSuccess();
+        awaitReconnected(session);
+
+        assertEquals(sms.getId(), ((Sms) reconnected.readOutbound()).getId());
+        assertNull("The held sms must be written once", reconnected.readOutbound());
+        assertFalse(future.isDone());
+    }
+
+    @Test
+    public void testSmsWhoseWriteFailsWithTheConnectionAreReplayed() throws Exception {
+        clientSessionConfiguration.setMaxReconnectAttempts(3);
+        clientSessionConfiguration.setReconnectBackoff(1);
+        EmbeddedChannel lost = new EmbeddedChannel();
+        final EmbeddedChannel reconnected = new EmbeddedChannel();
+        ClientSession session = new ClientSession(clientSessionConfiguration, lost, timer, sessionHandler);
+        session.setConnector(new SessionConnector() {
+            @Override
+            public ChannelFuture connect(ClientSession session) {
+                return reconnected.newSucceededFuture();
+            }
+        });
+
+        lost.close();
+        Sms sms = new Sms();
+        WindowFuture<Sms, Ack> future = session.sendSms(sms, 1000);
+        assertFalse("The failed write must wait for the reconnect", future.isDone());
+
+        session.fireConnectionClosed();
+        awaitReconnected(session);
+
+        assertEquals(sms.getId(), ((Sms) reconnected.readOutbound()).getId());
+        assertFalse(future.isDone());
+    }
+
+    @Test
+    public void testReconnectGivesUpAfterTheMaxAttempts() throws Exception {
+        clientSessionConfiguration.setMaxReconnectAttempts(2);
+        clientSessionConfiguration.setReconnectBackoff(1);
+        EmbeddedChannel lost = new EmbeddedChannel();
+        final EmbeddedChannel unconnected = new EmbeddedChannel();
+        final AtomicInteger attempts = new AtomicInteger();
+        ClientSession session = new ClientSession(clientSessionConfiguration, lost, timer, sessionHandler);
+        session.setConnector(new SessionConnector() {
+            @Override
+            public ChannelFuture connect(ClientSession session) {
+                attempts.incrementAndGet();
+                return unconnected.newFailedFuture(new ConnectException());
+            }
+        });
+
+        WindowFuture<Sms, Ack> future = session.sendSms(new Sms(), 1000);
+        lost.close();
+        session.fireConnectionClosed();
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("The sms must fail once the session gives up");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClosedChannelException);
+        }
+        assertTrue(session.isClosed());
+        assertEquals(2, attempts.get());
+        verify(sessionHandler, timeout(5000)).fireChannelUnexpectedlyClosed();
+    }
+
+    @Test
+    public void testCloseWhileReconnectingFailsTheInFlightSms() throws Exception {
+        clientSessionConfiguration.setMaxReconnectAttempts(3);
+        clientSessionConfiguration.setReconnectBackoff(60000);
+        EmbeddedChannel lost = new EmbeddedChannel();
+        SessionConnector connector = mock(SessionConnector.class);
+        ClientSession session = new ClientSession(clientSessionConfiguration, lost, timer, sessionHandler);
+        session.setConnector(connector);
+
+        WindowFuture<Sms, Ack> future = session.sendSms(new Sms(), 1000);
+        lost.close();
+        session.fireConnectionClosed();
+        session.close();
+
+        try {
+            future.get(0, TimeUnit.MILLISECONDS);
+            fail("The sms must fail when the session closes");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClosedChannelException);
+        }
+        assertTrue(session.isClosed());
+        verifyZeroInteractions(connector);
+    }
+
+    @Test
+    public void testDrainingWhileReconnectingStillReplaysTheWindow() throws Exception {
+        clientSessionConfiguration.setMaxReconnectAttempts(3);
+        clientSessionConfiguration.setReconnectBackoff(1);
+        EmbeddedChannel lost = new EmbeddedChannel();
+        final EmbeddedChannel reconnected = new EmbeddedChannel();
+        final ChannelPromise connecting = reconnected.newPromise();
+        final CountDownLatch connectStarted = new CountDownLatch(1);
+        ClientSession session = new ClientSession(clientSessionConfiguration, lost, timer, sessionHandler);
+        session.setConnector(new SessionConnector() {
+            @Override
+            public ChannelFuture connect(ClientSession session) {
+                connectStarted.countDown();
+                return connecting;
+            }
+        });
+        session.identify(new Admin(AdminCommand.IDENTIFY, "test box"));
+
+        Sms sms = new Sms();
+        WindowFuture<Sms, Ack> future = session.sendSms(sms, 1000);
+        lost.close();
+        session.fireConnectionClosed();
+
+        session.startDraining();
+        assertTrue(session.isDraining());
+        assertFalse(session.isAccepting());
+        assertTrue(connectStarted.await(5, TimeUnit.SECONDS));
+        connecting.setSuccess();
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (session.isReconnecting() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(reconnected.isOpen());
+        assertTrue(session.isDraining());
+        assertEquals(AdminCommand.IDENTIFY, ((Admin) reconnected.readOutbound()).getAdminCommand());
+        assertEquals(sms.getId(), ((Sms) reconnected.readOutbound()).getId());
+
+        session.fireInboundMessage(new Ack(sms.getId()));
+        assertTrue(future.isDone());
+        assertEquals(Collections.emptyList(), session.drainAndClose(1000));
+    }
+
+    private static void awaitReconnected(ClientSession session) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        // the session is resumed right after it leaves the reconnecting state
+        while ((session.isReconnecting() || !session.isAccepting()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertFalse("The session did not reconnect in time", session.isReconnecting());
+        assertTrue("The session was not resumed in time", session.isAccepting());
+    }
+}
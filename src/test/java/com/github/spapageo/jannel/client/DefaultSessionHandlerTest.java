@@ -30,6 +30,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import java.util.Arrays;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
@@ -62,6 +63,19 @@ public class DefaultSessionHandlerTest {
         verifyNoMoreInteractions(clientSession);
     }
 
+    @Test
+    public void testFireMessagesExpiredFiresEveryMessage() throws Exception {
+        DefaultSessionHandler spied = spy(handler);
+        Sms first = mock(Sms.class);
+        Sms second = mock(Sms.class);
+
+        spied.fireMessagesExpired(Arrays.asList(first, second));
+
+        verify(spied).fireMessageExpired(first);
+        verify(spied).fireMessageExpired(second);
+        verifyNoMoreInteractions(clientSession);
+    }
+
     @Test
     public void testFireBadMessageException() throws Exception {
         handler.fireBadMessageException(new StringSizeException(""));
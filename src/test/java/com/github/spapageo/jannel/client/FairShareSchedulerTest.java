@@ -0,0 +1,239 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.client;
+
+import com.github.spapageo.jannel.msg.Ack;
+import com.github.spapageo.jannel.msg.AckType;
+import com.github.spapageo.jannel.msg.Sms;
+import com.github.spapageo.jannel.windowing.PendingOfferRejectedException;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.netty.channel.Channel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+
+public class FairShareSchedulerTest {
+
+    @Mock(answer = Answers.RETURNS_MOCKS)
+    Channel channel;
+
+    @Mock(answer = Answers.RETURNS_MOCKS)
+    SessionHandler sessionHandler;
+
+    private final Timer timer = new HashedWheelTimer();
+
+    private ClientSession session;
+
+    private FairShareScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        ClientSessionConfiguration configuration = new ClientSessionConfiguration();
+        configuration.setWindowSize(1);
+        session = new ClientSession(configuration, channel, timer, sessionHandler);
+        scheduler = new FairShareScheduler(session, 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        timer.stop();
+    }
+
+    @Test
+    public void testBusyAccountsTakeTurns() throws Exception {
+        List<Sms> submitted = new ArrayList<Sms>();
+        submitted.add(submit("a"));
+        submitted.add(submit("a"));
+        submitted.add(submit("a"));
+        submitted.add(submit("b"));
+        submitted.add(submit("b"));
+
+        assertEquals(order(submitted, 0, 1, 3, 2, 4), drain(5));
+    }
+
+    @Test
+    public void testWeightsSetTheShareOfEachAccount() throws Exception {
+        scheduler.setWeight("b", 2);
+        List<Sms> submitted = new ArrayList<Sms>();
+        for (int i = 0; i < 4; i++) {
+            submitted.add(submit("a"));
+        }
+        for (int i = 0; i < 4; i++) {
+            submitted.add(submit("b"));
+        }
+
+        assertEquals(2, scheduler.getWeight("b"));
+        assertEquals(1, scheduler.getWeight("a"));
+        assertEquals(order(submitted, 0, 1, 4, 5, 2, 6, 7, 3), drain(8));
+    }
+
+    @Test
+    public void testIdleAccountLendsItsShare() throws Exception {
+        scheduler.setWeight("idle", 10);
+        List<Sms> submitted = new ArrayList<Sms>();
+        for (int i = 0; i < 3; i++) {
+            submitted.add(submit("busy"));
+        }
+
+        assertEquals(submitted, drain(3));
+        assertEquals(3, scheduler.getStatistics("busy").getCompletedCount());
+        assertEquals(0, scheduler.getStatistics("idle").getDispatchedCount());
+    }
+
+    @Test
+    public void testFutureCompletesWithTheAck() throws Exception {
+        Sms sms = new Sms();
+        sms.setAccount("a");
+        ListenableFuture<Ack> future = scheduler.submit(sms);
+        Ack ack = new Ack(sms.getId(), AckType.SUCCESS, 0);
+
+        session.fireInboundMessage(ack);
+
+        assertSame(ack, future.get());
+        assertEquals(0, scheduler.getInFlight());
+    }
+
+    @Test
+    public void testFullAccountQueueRejectsTheSms() throws Exception {
+        scheduler = new FairShareScheduler(session, 1, 1);
+        submit("a");
+        submit("a");
+        Sms rejected = new Sms();
+        rejected.setAccount("a");
+        Sms otherAccount = new Sms();
+        otherAccount.setAccount("b");
+
+        ListenableFuture<Ack> future = scheduler.submit(rejected);
+
+        try {
+            future.get();
+            fail("The sms should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PendingOfferRejectedException);
+        }
+        assertFalse(scheduler.submit(otherAccount).isDone());
+        assertEquals(2, scheduler.getQueued());
+    }
+
+    @Test
+    public void testStatisticsAreKeptPerAccount() throws Exception {
+        Sms sent = submit("a");
+        submit("a");
+        submit(null);
+
+        AccountStatistics statistics = scheduler.getStatistics("a");
+        assertEquals(1, statistics.getQueued());
+        assertEquals(1, statistics.getInFlight());
+        assertEquals(1, statistics.getDispatchedCount());
+        assertEquals(0, statistics.getCompletedCount());
+        assertEquals(1, scheduler.getStatistics(null).getQueued());
+        assertEquals(1, scheduler.getStatistics().get(FairShareScheduler.DEFAULT_ACCOUNT).getQueued());
+
+        session.fireInboundMessage(new Ack(sent.getId(), AckType.SUCCESS, 0));
+
+        statistics = scheduler.getStatistics("a");
+        assertEquals(0, statistics.getQueued());
+        assertEquals(1, statistics.getInFlight());
+        assertEquals(2, statistics.getDispatchedCount());
+        assertEquals(1, statistics.getCompletedCount());
+        assertEquals(1, scheduler.getStatistics(null).getQueued());
+    }
+
+    @Test
+    public void testDispatchRatesFollowTheShareOfEachAccount() throws Exception {
+        scheduler.setWeight("b", 2);
+        for (int i = 0; i < 6; i++) {
+            submit("a");
+            submit("b");
+        }
+        drain(8);
+
+        double rateOfA = scheduler.getStatistics("a").getDispatchRate();
+        double rateOfB = scheduler.getStatistics("b").getDispatchRate();
+        assertTrue(rateOfA > 0 && rateOfA <= 3);
+        assertEquals(2, rateOfB / rateOfA, 0.2);
+        assertEquals(0, scheduler.getStatistics("idle").getDispatchRate(), 0);
+
+        Thread.sleep(100);
+        assertTrue(scheduler.getStatistics("a").getDispatchRate() < rateOfA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroWeightIsRejected() throws Exception {
+        scheduler.setWeight("a", 0);
+    }
+
+    private Sms submit(String account) {
+        Sms sms = new Sms();
+        sms.setAccount(account);
+        scheduler.submit(sms);
+        return sms;
+    }
+
+    /**
+     * Acks the sms in the order they are written until the given number was written
+     */
+    private List<Sms> drain(int count) throws Exception {
+        ArgumentCaptor<Sms> written = ArgumentCaptor.forClass(Sms.class);
+        for (int i = 0; i < count; i++) {
+            verify(channel, atLeastOnce()).writeAndFlush(written.capture());
+            List<Sms> values = written.getAllValues();
+            Sms last = values.get(values.size() - 1);
+            session.fireInboundMessage(new Ack(last.getId(), AckType.SUCCESS, 0));
+        }
+
+        verify(channel, atLeastOnce()).writeAndFlush(written.capture());
+        List<Sms> order = new ArrayList<Sms>();
+        for (Sms sms : written.getAllValues()) {
+            if (!order.contains(sms)) {
+                order.add(sms);
+            }
+        }
+        return order;
+    }
+
+    private static List<Sms> order(List<Sms> submitted, int... indexes) {
+        List<Sms> order = new ArrayList<Sms>();
+        for (int index : indexes) {
+            order.add(submitted.get(index));
+        }
+        return order;
+    }
+}
@@ -27,26 +27,44 @@ import com.github.spapageo.jannel.channel.ChannelHandlerProvider;
 import com.github.spapageo.jannel.channel.HandlerType;
 import com.github.spapageo.jannel.msg.Admin;
 import com.github.spapageo.jannel.msg.AdminCommand;
+import com.github.spapageo.jannel.msg.Sms;
 import com.github.spapageo.jannel.transcode.Transcoder;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
+import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.handler.codec.PrematureChannelClosureException;
+import io.netty.util.Timeout;
 import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.ImmediateEventExecutor;
 import io.netty.util.concurrent.SucceededFuture;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.*;
 
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.*;
@@ -102,6 +120,8 @@ public class JannelClientTest {
 
         when(bootstrap.group()).thenReturn(eventLoopGroup);
         when(bootstrap.handler(any(ChannelHandler.class))).thenReturn(bootstrap);
+        when(bootstrap.clone()).thenReturn(bootstrap);
+        when(bootstrap.option(any(ChannelOption.class), any())).thenReturn(bootstrap);
 
         jannelClient = new JannelClient(bootstrap,
                                         eventExecutors,
@@ -114,13 +134,37 @@ public class JannelClientTest {
     public void testConstruction() throws Exception {
         JannelClient jannelClient = new JannelClient(4);
 
-        assertTrue("Wrong default event loop class", jannelClient.getEventLoopGroup() instanceof NioEventLoopGroup);
+        Class<?> defaultGroupClass = Transport.best() == Transport.EPOLL ? EpollEventLoopGroup.class : NioEventLoopGroup.class;
+        assertTrue("Wrong default event loop class", defaultGroupClass.isInstance(jannelClient.getEventLoopGroup()));
         assertTrue("Null channel handler", jannelClient.getChannelHandlerProvider() != null);
         assertTrue("Null transcoder", jannelClient.getTranscoder() != null);
         assertTrue("Null bootstrap", jannelClient.getClientBootstrap() != null);
         assertTrue("Wrong default event executor class", jannelClient.getSessionExecutor() instanceof NioEventLoopGroup);
     }
 
+    @Test
+    public void testConstructionWithTheNioTransport() throws Exception {
+        JannelClient jannelClient = new JannelClient(Transport.NIO, 1);
+        try {
+            assertTrue(jannelClient.getEventLoopGroup() instanceof NioEventLoopGroup);
+        } finally {
+            jannelClient.destroy();
+        }
+    }
+
+    @Test
+    public void testBestTransportIsEpollOnlyWhenItIsAvailable() throws Exception {
+        assertTrue(Transport.NIO.isAvailable());
+        assertEquals(Transport.EPOLL.isAvailable() ? Transport.EPOLL : Transport.NIO, Transport.best());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnavailableTransportCanNotBuildABootstrap() throws Exception {
+        Assume.assumeFalse(Transport.EPOLL.isAvailable());
+
+        Transport.EPOLL.newBootstrap(1);
+    }
+
     @Test
     public void testDefaultHandlerClassIsCorrect() throws Exception {
         verify(bootstrap).handler(any(JannelClient.DummyChannelHandler.class));
@@ -136,6 +180,51 @@ public class JannelClientTest {
         verify(eventLoopGroup).shutdownGracefully();
     }
 
+    @Test
+    public void testDrainAllClosesEverySessionAndReturnsTheUnacknowledgedSms() throws Exception {
+        Channel channel = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
+        ChannelPipeline channelPipeline = mock(ChannelPipeline.class);
+        when(channelPipeline.addLast(anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channelPipeline.addLast(any(EventExecutorGroup.class), anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channel.pipeline()).thenReturn(channelPipeline);
+        when(channel.writeAndFlush(any())).thenReturn(new DefaultChannelPromise(channel));
+
+        ClientSession acknowledged = jannelClient.createSession(channel, new ClientSessionConfiguration(), null);
+        ClientSession unacknowledged = jannelClient.createSession(channel, new ClientSessionConfiguration(), null);
+        Sms sms = new Sms();
+        unacknowledged.sendSms(sms, 1000);
+
+        Map<ClientSession, List<Sms>> remaining = jannelClient.drainAll(50);
+
+        assertEquals(2, remaining.size());
+        assertEquals(Collections.emptyList(), remaining.get(acknowledged));
+        assertEquals(Collections.singletonList(sms), remaining.get(unacknowledged));
+        assertTrue(acknowledged.isClosed());
+        assertTrue(unacknowledged.isClosed());
+        assertTrue(jannelClient.getSessions().isEmpty());
+    }
+
+    @Test
+    public void testClosedAndLostSessionsAreForgotten() throws Exception {
+        Channel channel = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
+        ChannelPipeline channelPipeline = mock(ChannelPipeline.class);
+        when(channelPipeline.addLast(anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channelPipeline.addLast(any(EventExecutorGroup.class), anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channel.pipeline()).thenReturn(channelPipeline);
+
+        ClientSession closed = jannelClient.createSession(channel, new ClientSessionConfiguration(), null);
+        ClientSession lost = jannelClient.createSession(channel, new ClientSessionConfiguration(), null);
+        ClientSession open = jannelClient.createSession(channel, new ClientSessionConfiguration(), null);
+
+        closed.close(0);
+        lost.fireConnectionClosed();
+
+        assertTrue(closed.getCloseFuture().isDone());
+        assertTrue(lost.getCloseFuture().isDone());
+        assertFalse(open.getCloseFuture().isDone());
+        assertEquals(Collections.singleton(open), jannelClient.getSessions());
+    }
+
     @Test
     public void testIdentifyAddsTheCorrectlyHandlersToThePipelineWithEnabledWriteTimeout() throws Exception {
         Channel channel = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
@@ -207,6 +296,47 @@ public class JannelClientTest {
         verify(channelHandlerProvider).getChangeHandler(eq(HandlerType.SESSION_WRAPPER), eq(configuration), any(ClientSession.class), eq(transcoder));
     }
 
+    @Test
+    public void testIdentifyAddsTheFlushCoalescerNextToTheSocketWhenEnabled() throws Exception {
+        Channel channel = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
+        ChannelHandler mockFlushHandler = mock(ChannelHandler.class);
+        mockWriteHandler = mock(ChannelHandler.class);
+
+        DefaultChannelPromise completedFuture = new DefaultChannelPromise(channel);
+        completedFuture.setSuccess();
+
+        ChannelPipeline channelPipeline = mock(ChannelPipeline.class);
+        when(channelPipeline.addLast(anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channelPipeline.addLast(any(EventExecutorGroup.class), anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channel.pipeline()).thenReturn(channelPipeline);
+        when(channel.isActive()).thenReturn(true);
+        when(channel.writeAndFlush(any())).thenReturn(completedFuture);
+        when(channelHandlerProvider.getChangeHandler(eq(HandlerType.FLUSH_COALESCER),
+                                                     any(ClientSessionConfiguration.class),
+                                                     any(ClientSession.class),
+                                                     any(Transcoder.class))).thenReturn(mockFlushHandler);
+        when(channelHandlerProvider.getChangeHandler(eq(HandlerType.WRITE_TIMEOUT_HANDLER),
+                                                     any(ClientSessionConfiguration.class),
+                                                     any(ClientSession.class),
+                                                     any(Transcoder.class))).thenReturn(mockWriteHandler);
+
+        when(bootstrap.connect(anyString(), anyInt())).thenReturn(completedFuture);
+
+        InOrder pipelineOrder = inOrder(channelPipeline);
+
+        ClientSessionConfiguration configuration = new ClientSessionConfiguration();
+        configuration.setWriteTimeout(1000);
+        configuration.setFlushCoalescing(true);
+
+        jannelClient.identify(configuration, null);
+
+        pipelineOrder.verify(channelPipeline).addLast(HandlerType.FLUSH_COALESCER.name(), mockFlushHandler);
+        pipelineOrder.verify(channelPipeline).addLast(HandlerType.WRITE_TIMEOUT_HANDLER.name(), mockWriteHandler);
+        pipelineOrder.verify(channelPipeline).remove(JannelClient.DummyChannelHandler.class);
+
+        verify(channelHandlerProvider).getChangeHandler(eq(HandlerType.FLUSH_COALESCER), eq(configuration), any(ClientSession.class), eq(transcoder));
+    }
+
     @Test
     public void testIdentifyAddsTheCorrectlyHandlersToThePipelineWithDisabledWriteTimeout() throws Exception {
         Channel channel = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
@@ -272,6 +402,7 @@ public class JannelClientTest {
         pipelineOrder.verify(channelPipeline).remove(JannelClient.DummyChannelHandler.class);
 
         verify(channelHandlerProvider, times(0)).getChangeHandler(eq(HandlerType.WRITE_TIMEOUT_HANDLER), eq(configuration), any(ClientSession.class), eq(transcoder));
+        verify(channelHandlerProvider, times(0)).getChangeHandler(eq(HandlerType.FLUSH_COALESCER), eq(configuration), any(ClientSession.class), eq(transcoder));
         verify(channelHandlerProvider).getChangeHandler(eq(HandlerType.LENGTH_FRAME_DECODER), eq(configuration), any(ClientSession.class), eq(transcoder));
         verify(channelHandlerProvider).getChangeHandler(eq(HandlerType.LENGTH_FRAME_ENCODER), eq(configuration), any(ClientSession.class), eq(transcoder));
         verify(channelHandlerProvider).getChangeHandler(eq(HandlerType.MESSAGE_DECODER), eq(configuration), any(ClientSession.class), eq(transcoder));
@@ -310,6 +441,190 @@ public class JannelClientTest {
         verify(bootstrap).option(ChannelOption.valueOf("connectTimeoutMillis"), configuration.getConnectTimeout());
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testIdentifyAsyncConnectsWithACopyOfTheBootstrap() throws Exception {
+        Bootstrap copy = mock(Bootstrap.class);
+        when(bootstrap.clone()).thenReturn(copy);
+        when(copy.option(any(ChannelOption.class), any())).thenReturn(copy);
+        when(copy.connect(anyString(), anyInt())).thenReturn(new DefaultChannelPromise(mock(Channel.class)));
+
+        ClientSessionConfiguration configuration = new ClientSessionConfiguration();
+        configuration.setConnectTimeout(1234);
+
+        jannelClient.identifyAsync(configuration, null);
+
+        verify(copy).option(ChannelOption.valueOf("connectTimeoutMillis"), 1234L);
+        verify(copy).connect(configuration.getHost(), configuration.getPort());
+        verify(bootstrap, never()).option(any(ChannelOption.class), any());
+        verify(bootstrap, never()).connect(anyString(), anyInt());
+    }
+
+    @Test
+    public void testIdentifyPoolOpensASessionPerConnection() throws Exception {
+        Channel channel = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
+
+        DefaultChannelPromise completedFuture = new DefaultChannelPromise(channel);
+        completedFuture.setSuccess();
+
+        ChannelPipeline channelPipeline = mock(ChannelPipeline.class);
+        when(channelPipeline.addLast(anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channelPipeline.addLast(any(EventExecutorGroup.class), anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channel.pipeline()).thenReturn(channelPipeline);
+        when(channel.isActive()).thenReturn(true);
+        when(channel.writeAndFlush(any())).thenReturn(completedFuture);
+
+        when(bootstrap.connect(anyString(), anyInt())).thenReturn(completedFuture);
+
+        ClientSessionConfiguration first = new ClientSessionConfiguration();
+        first.setHost("firstHost");
+        ClientSessionConfiguration second = new ClientSessionConfiguration();
+        second.setHost("secondHost");
+
+        SessionPool pool = jannelClient.identifyPool(Arrays.asList(first, second), 3, null);
+
+        assertEquals(6, pool.size());
+        assertEquals(6, jannelClient.getSessions().size());
+        verify(bootstrap, times(3)).connect(first.getHost(), first.getPort());
+        verify(bootstrap, times(3)).connect(second.getHost(), second.getPort());
+    }
+
+    @Test
+    public void testReconnectSetsUpThePipelineOfTheNewChannel() throws Exception {
+        Channel channel = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
+        ChannelPipeline channelPipeline = mock(ChannelPipeline.class);
+        when(channelPipeline.addLast(anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channelPipeline.addLast(any(EventExecutorGroup.class), anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channel.pipeline()).thenReturn(channelPipeline);
+
+        Channel reconnected = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
+        ChannelPipeline reconnectedPipeline = mock(ChannelPipeline.class);
+        when(reconnectedPipeline.addLast(anyString(), any(ChannelHandler.class))).thenReturn(reconnectedPipeline);
+        when(reconnectedPipeline.addLast(any(EventExecutorGroup.class), anyString(), any(ChannelHandler.class))).thenReturn(reconnectedPipeline);
+        when(reconnected.pipeline()).thenReturn(reconnectedPipeline);
+
+        DefaultChannelPromise connected = new DefaultChannelPromise(reconnected, ImmediateEventExecutor.INSTANCE);
+        connected.setSuccess();
+        when(bootstrap.connect("host", 13013)).thenReturn(connected);
+
+        ClientSessionConfiguration config = new ClientSessionConfiguration();
+        config.setHost("host");
+        config.setPort(13013);
+        config.setMaxReconnectAttempts(1);
+        ClientSession session = jannelClient.createSession(channel, config, null);
+
+        session.fireConnectionClosed();
+        ArgumentCaptor<TimerTask> reconnect = ArgumentCaptor.forClass(TimerTask.class);
+        verify(mockTimer).newTimeout(reconnect.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        reconnect.getValue().run(null);
+
+        verify(reconnectedPipeline).addLast(eq(eventExecutors),
+                                            eq(HandlerType.SESSION_WRAPPER.name()),
+                                            any(ChannelHandler.class));
+        assertSame(reconnected, session.getChannel());
+        assertFalse(session.isReconnecting());
+    }
+
+    @Test
+    public void testReconnectConnectsWithACopyOfTheBootstrap() throws Exception {
+        Channel channel = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
+        ChannelPipeline channelPipeline = mock(ChannelPipeline.class);
+        when(channelPipeline.addLast(anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channelPipeline.addLast(any(EventExecutorGroup.class), anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channel.pipeline()).thenReturn(channelPipeline);
+
+        Bootstrap copy = mock(Bootstrap.class);
+        when(bootstrap.clone()).thenReturn(copy);
+        when(copy.option(any(ChannelOption.class), any())).thenReturn(copy);
+        when(copy.connect(anyString(), anyInt())).thenReturn(new DefaultChannelPromise(channel));
+
+        ClientSessionConfiguration config = new ClientSessionConfiguration();
+        config.setHost("host");
+        config.setPort(13013);
+        config.setConnectTimeout(1234);
+        config.setMaxReconnectAttempts(1);
+        ClientSession session = jannelClient.createSession(channel, config, null);
+
+        session.fireConnectionClosed();
+        ArgumentCaptor<TimerTask> reconnect = ArgumentCaptor.forClass(TimerTask.class);
+        verify(mockTimer).newTimeout(reconnect.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        reconnect.getValue().run(null);
+
+        verify(copy).option(ChannelOption.valueOf("connectTimeoutMillis"), 1234L);
+        verify(copy).connect("host", 13013);
+        verify(bootstrap, never()).option(any(ChannelOption.class), any());
+        verify(bootstrap, never()).connect(anyString(), anyInt());
+    }
+
+    @Test
+    public void testIdentifyAsyncCompletesWithTheIdentifiedSession() throws Exception {
+        Channel channel = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
+        DefaultChannelPromise completedFuture = new DefaultChannelPromise(channel, ImmediateEventExecutor.INSTANCE);
+        completedFuture.setSuccess();
+
+        ChannelPipeline channelPipeline = mock(ChannelPipeline.class);
+        when(channelPipeline.addLast(anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channelPipeline.addLast(any(EventExecutorGroup.class), anyString(), any(ChannelHandler.class))).thenReturn(channelPipeline);
+        when(channel.pipeline()).thenReturn(channelPipeline);
+        when(channel.writeAndFlush(any())).thenReturn(completedFuture);
+        when(bootstrap.connect("host", 13013)).thenReturn(completedFuture);
+        Timeout attemptTimeout = mock(Timeout.class);
+        when(mockTimer.newTimeout(any(TimerTask.class), anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(attemptTimeout);
+
+        ClientSessionConfiguration config = new ClientSessionConfiguration("client");
+        config.setHost("host");
+        config.setPort(13013);
+        ClientSession session = jannelClient.identifyAsync(config, null).get();
+
+        assertTrue(session.isIdentified());
+        assertSame(channel, session.getChannel());
+        ArgumentCaptor<Admin> identify = ArgumentCaptor.forClass(Admin.class);
+        verify(channel).writeAndFlush(identify.capture());
+        assertEquals(AdminCommand.IDENTIFY, identify.getValue().getAdminCommand());
+        assertEquals("client", identify.getValue().getBoxId());
+        verify(attemptTimeout).cancel();
+    }
+
+    @Test
+    public void testIdentifyAsyncFailsWhenTheConnectFails() throws Exception {
+        Channel channel = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
+        DefaultChannelPromise failedFuture = new DefaultChannelPromise(channel, ImmediateEventExecutor.INSTANCE);
+        failedFuture.setFailure(new ConnectException());
+        when(bootstrap.connect(anyString(), anyInt())).thenReturn(failedFuture);
+        when(mockTimer.newTimeout(any(TimerTask.class), anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(mock(Timeout.class));
+
+        try {
+            jannelClient.identifyAsync(new ClientSessionConfiguration(), null).get();
+            fail("The connect failure must fail the future");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ConnectException);
+        }
+        assertTrue(jannelClient.getSessions().isEmpty());
+    }
+
+    @Test
+    public void testIdentifyAsyncAbandonsTheConnectWhenTheAttemptTimesOut() throws Exception {
+        Channel channel = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
+        DefaultChannelPromise connectFuture = new DefaultChannelPromise(channel, ImmediateEventExecutor.INSTANCE);
+        when(bootstrap.connect(anyString(), anyInt())).thenReturn(connectFuture);
+        when(mockTimer.newTimeout(any(TimerTask.class), anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(mock(Timeout.class));
+
+        ListenableFuture<ClientSession> session = jannelClient.identifyAsync(new ClientSessionConfiguration(), null);
+        assertFalse(session.isDone());
+
+        ArgumentCaptor<TimerTask> attemptTimeout = ArgumentCaptor.forClass(TimerTask.class);
+        verify(mockTimer).newTimeout(attemptTimeout.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        attemptTimeout.getValue().run(null);
+
+        try {
+            session.get();
+            fail("The timeout must fail the future");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(connectFuture.isCancelled());
+    }
+
     @Test
     public void testIdentifySendsCorrectIdentifyCommand() throws Exception {
         Channel channel = mock(Channel.class, Answers.RETURNS_SMART_NULLS.get());
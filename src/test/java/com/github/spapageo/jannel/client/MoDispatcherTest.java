@@ -0,0 +1,221 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.spapageo.jannel.client;
+
+import com.github.spapageo.jannel.msg.Sms;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MoDispatcherTest {
+
+    private ClientSession session;
+
+    private SessionHandler sessionHandler;
+
+    private EmbeddedChannel channel;
+
+    private MoDispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        session = mock(ClientSession.class);
+        sessionHandler = mock(SessionHandler.class);
+        channel = new EmbeddedChannel();
+        when(session.getSessionHandler()).thenReturn(sessionHandler);
+        when(session.getChannel()).thenReturn(channel);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacityIsRejected() throws Exception {
+        new MoDispatcher(session, 1, 0);
+    }
+
+    @Test
+    public void testSmsIsHandedToTheHandlerOnAWorker() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final CountDownLatch handled = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if (Thread.currentThread() != caller) {
+                    handled.countDown();
+                }
+                return null;
+            }
+        }).when(sessionHandler).fireSmsReceived(any(Sms.class));
+        dispatcher = new MoDispatcher(session, 2, 10);
+
+        dispatcher.dispatch(new Sms());
+
+        assertTrue(handled.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testReadsPauseWhenTheQueueIsFullAndResumeOnceItDrains() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                release.await();
+                return null;
+            }
+        }).when(sessionHandler).fireSmsReceived(any(Sms.class));
+        dispatcher = new MoDispatcher(session, 1, 2);
+
+        // the first sms goes straight to the worker, the next two fill the queue
+        dispatcher.dispatch(new Sms());
+        dispatcher.dispatch(new Sms());
+        assertTrue(channel.config().isAutoRead());
+
+        dispatcher.dispatch(new Sms());
+        assertTrue(dispatcher.isReadPaused());
+        assertFalse(channel.config().isAutoRead());
+
+        release.countDown();
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.isReadPaused() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(dispatcher.isReadPaused());
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testPausedReadsCarryOverToANewChannel() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                release.await();
+                return null;
+            }
+        }).when(sessionHandler).fireSmsReceived(any(Sms.class));
+        dispatcher = new MoDispatcher(session, 1, 1);
+
+        dispatcher.dispatch(new Sms());
+        dispatcher.dispatch(new Sms());
+        assertTrue(dispatcher.isReadPaused());
+
+        EmbeddedChannel reconnected = new EmbeddedChannel();
+        when(session.getChannel()).thenReturn(reconnected);
+        dispatcher.channelChanged();
+
+        assertFalse(reconnected.config().isAutoRead());
+        release.countDown();
+    }
+
+    @Test
+    public void testSmsThatOverflowTheQueueAreHandledInOrderWithoutBlocking() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Sms> handled = new CopyOnWriteArrayList<Sms>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                release.await();
+                handled.add((Sms) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(sessionHandler).fireSmsReceived(any(Sms.class));
+        dispatcher = new MoDispatcher(session, 1, 1);
+
+        final List<Sms> received = Arrays.asList(new Sms(), new Sms(), new Sms(), new Sms());
+        for (Sms sms : received) {
+            dispatcher.dispatch(sms);
+        }
+        assertEquals(3, dispatcher.getQueued());
+        assertTrue(dispatcher.isReadPaused());
+
+        release.countDown();
+
+        verify(sessionHandler, timeout(5000).times(4)).fireSmsReceived(any(Sms.class));
+        assertEquals(received, handled);
+        verify(session, never()).decrementMoBacklog();
+    }
+
+    @Test
+    public void testSmsDroppedOnShutdownAreTakenOutOfTheBacklog() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                release.await();
+                return null;
+            }
+        }).when(sessionHandler).fireSmsReceived(any(Sms.class));
+        dispatcher = new MoDispatcher(session, 1, 1);
+
+        dispatcher.dispatch(new Sms());
+        dispatcher.dispatch(new Sms());
+        dispatcher.dispatch(new Sms());
+        dispatcher.dispatch(new Sms());
+
+        dispatcher.shutdown();
+        verify(session, times(2)).decrementMoBacklog();
+
+        dispatcher.dispatch(new Sms());
+        verify(session, times(3)).decrementMoBacklog();
+        release.countDown();
+    }
+
+    @Test
+    public void testHandlerExceptionsAreReportedToTheSession() throws Exception {
+        RuntimeException failure = new RuntimeException();
+        doThrow(failure).when(sessionHandler).fireSmsReceived(any(Sms.class));
+        dispatcher = new MoDispatcher(session, 1, 10);
+
+        dispatcher.dispatch(new Sms());
+
+        verify(session, timeout(5000)).fireExceptionCaught(failure);
+    }
+}
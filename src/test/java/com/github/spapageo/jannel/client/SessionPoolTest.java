@@ -0,0 +1,174 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Spyros Papageorgiou
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.spapageo.jannel.client;
+
+import com.github.spapageo.jannel.msg.Ack;
+import com.github.spapageo.jannel.msg.Sms;
+import com.github.spapageo.jannel.windowing.Window;
+import com.github.spapageo.jannel.windowing.WindowFuture;
+import com.google.common.base.Optional;
+import org.junit.Test;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SessionPoolTest {
+
+    @Test
+    public void testSelectPicksTheSessionWithTheLeastUsedWindow() throws Exception {
+        ClientSession busy = session(10, 2, 0, 1000);
+        ClientSession idle = session(10, 8, 0, 1000);
+        SessionPool pool = new SessionPool(Arrays.asList(busy, idle));
+
+        assertSame(idle, pool.select());
+    }
+
+    @Test
+    public void testSelectWeighsTheWindowUsageByTheAckLatency() throws Exception {
+        ClientSession slow = session(10, 8, 0, 10000);
+        ClientSession fast = session(10, 5, 0, 1000);
+        SessionPool pool = new SessionPool(Arrays.asList(slow, fast));
+
+        assertSame(fast, pool.select());
+    }
+
+    @Test
+    public void testSessionWithoutAckIsWeightedByTheMeanLatency() throws Exception {
+        ClientSession unacked = session(10, 5, 0, 0);
+        ClientSession acked = session(10, 10, 0, 1000);
+        SessionPool pool = new SessionPool(Arrays.asList(unacked, acked));
+
+        assertSame(acked, pool.select());
+
+        when(acked.getWindow().getFreeSlots()).thenReturn(2);
+        assertSame(unacked, pool.select());
+    }
+
+    @Test
+    public void testLatencyWithoutRecentAcksFadesTowardsTheMean() throws Exception {
+        ClientSession slow = session(10, 10, 0, 10000);
+        ClientSession fast = session(10, 5, 0, 1000);
+        SessionPool pool = new SessionPool(Arrays.asList(slow, fast), 1000);
+
+        assertSame(fast, pool.select());
+
+        when(slow.getAckLatencyAgeNanos()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertSame(slow, pool.select());
+    }
+
+    @Test
+    public void testSelectCountsThePendingOffers() throws Exception {
+        ClientSession queued = session(10, 0, 5, 1000);
+        ClientSession full = session(10, 0, 0, 1000);
+        SessionPool pool = new SessionPool(Arrays.asList(queued, full));
+
+        assertSame(full, pool.select());
+    }
+
+    @Test
+    public void testSelectPrefersAcceptingSessions() throws Exception {
+        ClientSession paused = session(10, 10, 0, 1000);
+        ClientSession accepting = session(10, 1, 0, 1000);
+        when(paused.isAccepting()).thenReturn(false);
+        SessionPool pool = new SessionPool(Arrays.asList(paused, accepting));
+
+        assertSame(accepting, pool.select());
+
+        when(accepting.isAccepting()).thenReturn(false);
+        assertSame(paused, pool.select());
+    }
+
+    @Test
+    public void testClosedSessionsAreTakenOutOfThePool() throws Exception {
+        ClientSession closed = session(10, 10, 0, 0);
+        ClientSession open = session(10, 1, 0, 1000);
+        when(closed.isClosed()).thenReturn(true);
+        SessionPool pool = new SessionPool(Arrays.asList(closed, open));
+
+        assertSame(open, pool.select());
+        assertEquals(1, pool.size());
+        assertEquals(Collections.singletonList(open), pool.getSessions());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSelectFailsWhenEverySessionIsClosed() throws Exception {
+        ClientSession closed = session(10, 10, 0, 0);
+        when(closed.isClosed()).thenReturn(true);
+
+        new SessionPool(Collections.singletonList(closed)).select();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSendSmsUsesTheSelectedSession() throws Exception {
+        ClientSession busy = session(10, 0, 0, 1000);
+        ClientSession idle = session(10, 10, 0, 1000);
+        WindowFuture<Sms, Ack> future = mock(WindowFuture.class);
+        Sms sms = new Sms();
+        when(idle.sendSmsAsync(sms, 100)).thenReturn(future);
+        SessionPool pool = new SessionPool(Arrays.asList(busy, idle));
+
+        assertSame(future, pool.sendSmsAsync(sms, 100));
+        verify(busy, never()).sendSmsAsync(any(Sms.class), anyLong());
+    }
+
+    @Test
+    public void testCloseClosesEverySession() throws Exception {
+        ClientSession first = session(10, 10, 0, 0);
+        ClientSession second = session(10, 10, 0, 0);
+        SessionPool pool = new SessionPool(Arrays.asList(first, second));
+
+        pool.close();
+
+        verify(first).close();
+        verify(second).close();
+        assertEquals(0, pool.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyPoolIsRejected() throws Exception {
+        new SessionPool(Collections.<ClientSession>emptyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ClientSession session(int limit, int free, int pending, long ackLatencyNanos) {
+        Window<UUID, Sms, Ack> window = mock(Window.class);
+        when(window.getSizeLimit()).thenReturn(limit);
+        when(window.getFreeSlots()).thenReturn(free);
+        when(window.getPendingOfferCount()).thenReturn(pending);
+
+        ClientSession session = mock(ClientSession.class);
+        when(session.getWindow()).thenReturn(window);
+        when(session.getAckLatencyNanos()).thenReturn(ackLatencyNanos);
+        when(session.isAccepting()).thenReturn(true);
+        when(session.getRemoteAddress()).thenReturn(Optional.<SocketAddress>absent());
+        return session;
+    }
+}
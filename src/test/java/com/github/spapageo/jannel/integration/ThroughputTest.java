@@ -27,6 +27,7 @@ import com.github.spapageo.jannel.Integration;
 import com.github.spapageo.jannel.client.ClientSession;
 import com.github.spapageo.jannel.client.ClientSessionConfiguration;
 import com.github.spapageo.jannel.client.JannelClient;
+import com.github.spapageo.jannel.client.SessionPool;
 import com.github.spapageo.jannel.msg.Ack;
 import com.github.spapageo.jannel.msg.Sms;
 import com.github.spapageo.jannel.msg.SmsType;
@@ -120,4 +121,48 @@ public class ThroughputTest {
         assertTrue(latch.await(10000, TimeUnit.MILLISECONDS));
         testSmsc.stop();
     }
+
+    @Test
+    public void testThatAPoolOfEightSessionsDeliversTheMessages() throws Exception {
+        SessionPool pool = jannelClient.identifyPool(configuration, 8, null);
+        final int messageCount = 80000;
+        final CountDownLatch latch = new CountDownLatch(messageCount);
+
+        TestSmsc testSmsc = new TestSmsc(new TestSmsc.SubmitSmProcessor() {
+            @Override
+            public MessageId onAcceptSubmitSm(SubmitSm submitSm, SMPPServerSession source)
+                    throws ProcessRequestException {
+                return generator.newMessageId();
+            }
+        }, 7777);
+
+        final FutureCallback<Ack> futureCallback = new FutureCallback<Ack>() {
+            @Override
+            public void onSuccess(@Nullable Ack ack) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(@Nonnull Throwable throwable) {
+                LOGGER.error("Exception while sending the messages", throwable);
+                fail("Should not happen! Something went wrong");
+            }
+        };
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < messageCount; i++){
+            final Sms sms = new Sms("hello",
+                                    "306975834115",
+                                    "Hello World",
+                                    SmsType.MOBILE_TERMINATED_PUSH,
+                                    DataCoding.DC_7BIT);
+            Futures.addCallback(pool.sendSms(sms, 5000), futureCallback);
+        }
+
+        assertTrue(latch.await(10000, TimeUnit.MILLISECONDS));
+        LOGGER.info("Delivered {} messages over {} sessions in {} ms", messageCount, pool.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        pool.close();
+        testSmsc.stop();
+    }
 }
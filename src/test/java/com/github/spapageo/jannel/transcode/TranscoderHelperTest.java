@@ -115,6 +115,21 @@ public class TranscoderHelperTest {
         Assert.assertEquals("Type of ack response is incorrect", AckType.FAILED, ack.getResponse());
         assertEquals("The time is incorrect", 9, ack.getTime());
         assertEquals("Ack id is incorrect", uuid, ack.getId());
+        assertEquals("Ack id bits are incorrect", uuid.getMostSignificantBits(), ack.getIdMostSigBits());
+        assertEquals("Ack id bits are incorrect", uuid.getLeastSignificantBits(), ack.getIdLeastSigBits());
+        assertEquals("The whole message should be read", 0, encodedMessage.readableBytes());
+        encodedMessage.release();
+    }
+
+    @Test
+    public void testDecodeAckWithShortUUIDDecodesCorrectly() throws Exception {
+        ByteBuf encodedMessage = Unpooled.buffer();
+        encodedMessage.writeInt(1);
+        encodedMessage.writeInt(9);
+        ChannelBufferUtils.writeStringToOctetString("1-2-3-4-5", encodedMessage, Charsets.UTF_8);
+
+        Ack ack =  transcoderHelper.decodeAck(encodedMessage);
+        assertEquals("Ack id is incorrect", UUID.fromString("1-2-3-4-5"), ack.getId());
         encodedMessage.release();
     }
 
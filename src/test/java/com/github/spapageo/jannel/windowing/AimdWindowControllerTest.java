@@ -0,0 +1,144 @@
+package com.github.spapageo.jannel.windowing;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AimdWindowControllerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(10);
+
+    private final Timer timer = new HashedWheelTimer();
+
+    private Window<Integer, String, Boolean> window;
+
+    @Before
+    public void setUp() throws Exception {
+        window = new Window<Integer, String, Boolean>(10, timer);
+    }
+
+    @Test
+    public void constructionStartsAtTheMinimumLimit() throws Exception {
+        AimdWindowController controller = new AimdWindowController(window, 2, 10, 100);
+
+        assertEquals(2, controller.getLimit());
+        assertEquals(2, window.getSizeLimit());
+    }
+
+    @Test
+    public void aCutLimitDoesNotHoldTheWindowAboveItsHighWaterMark() throws Exception {
+        window.setWaterMarks(2, 6);
+        AimdWindowController controller = new AimdWindowController(window, 2, 10, 100, 0.3,
+                                                                   AimdWindowController.DEFAULT_HISTORY_SIZE);
+        assertFalse(window.isAboveHighWaterMark());
+
+        for (int i = 0; i < 100; i++) {
+            controller.onResponse(FAST);
+        }
+        for (int i = 0; i < 6; i++) {
+            window.offer(i, "request" + i, 0);
+        }
+        assertTrue(window.isAboveHighWaterMark());
+
+        controller.onCongestion(AdjustmentReason.TEMPORARY_FAILURE);
+        assertEquals(3, window.getSizeLimit());
+        for (int i = 0; i < 6; i++) {
+            window.complete(i, true);
+        }
+
+        // nothing is in flight, so nothing would ever grow the limit again while the window stays paused
+        assertFalse(window.isAboveHighWaterMark());
+        assertFalse(window.offer(6, "request6", 0).isDone());
+    }
+
+    @Test
+    public void fastResponsesGrowTheLimitByOnePerWindow() throws Exception {
+        AimdWindowController controller = new AimdWindowController(window, 2, 10, 100);
+
+        controller.onResponse(FAST);
+        assertEquals(2, controller.getLimit());
+        controller.onResponse(FAST);
+
+        assertEquals(3, controller.getLimit());
+        assertEquals(3, window.getSizeLimit());
+        List<WindowAdjustment> history = controller.getHistory();
+        assertEquals(1, history.size());
+        assertEquals(2, history.get(0).getPreviousLimit());
+        assertEquals(3, history.get(0).getLimit());
+        assertEquals(AdjustmentReason.ADDITIVE_INCREASE, history.get(0).getReason());
+    }
+
+    @Test
+    public void limitNeverExceedsTheMaximum() throws Exception {
+        AimdWindowController controller = new AimdWindowController(window, 1, 3, 100);
+
+        for (int i = 0; i < 100; i++) {
+            controller.onResponse(FAST);
+        }
+
+        assertEquals(3, controller.getLimit());
+    }
+
+    @Test
+    public void slowResponseCutsTheLimit() throws Exception {
+        AimdWindowController controller = new AimdWindowController(window, 1, 10, 100);
+        for (int i = 0; i < 100; i++) {
+            controller.onResponse(FAST);
+        }
+
+        controller.onResponse(SLOW);
+
+        assertEquals(5, controller.getLimit());
+        List<WindowAdjustment> history = controller.getHistory();
+        assertEquals(AdjustmentReason.LATENCY_SPIKE, history.get(history.size() - 1).getReason());
+    }
+
+    @Test
+    public void congestionWithinTheCooldownIsIgnored() throws Exception {
+        AimdWindowController controller = new AimdWindowController(window, 1, 10, 10000);
+        for (int i = 0; i < 100; i++) {
+            controller.onResponse(FAST);
+        }
+
+        controller.onCongestion(AdjustmentReason.TEMPORARY_FAILURE);
+        controller.onCongestion(AdjustmentReason.TEMPORARY_FAILURE);
+
+        assertEquals(5, controller.getLimit());
+    }
+
+    @Test
+    public void limitNeverDropsBelowTheMinimum() throws Exception {
+        AimdWindowController controller = new AimdWindowController(window, 3, 10, 1);
+
+        controller.onCongestion(AdjustmentReason.EXPIRED);
+
+        assertEquals(3, controller.getLimit());
+    }
+
+    @Test
+    public void historyIsBounded() throws Exception {
+        AimdWindowController controller = new AimdWindowController(window, 1, 10, 100, 0.5, 2);
+
+        for (int i = 0; i < 100; i++) {
+            controller.onResponse(FAST);
+        }
+
+        assertEquals(2, controller.getHistory().size());
+        assertEquals(10, controller.getHistory().get(1).getLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximumAboveTheWindowSizeIsRejected() throws Exception {
+        new AimdWindowController(window, 1, 11, 100);
+    }
+}
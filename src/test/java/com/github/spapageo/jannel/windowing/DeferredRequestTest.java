@@ -1,5 +1,6 @@
 package com.github.spapageo.jannel.windowing;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -8,6 +9,9 @@ import org.mockito.MockitoAnnotations;
 import java.io.IOException;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.verify;
@@ -75,6 +79,42 @@ public class DeferredRequestTest {
         verify(window).cancel(5, true);
     }
 
+    @Test
+    public void listenersRunOnCompletionAndWhenAddedAfterIt() throws Exception {
+        DeferredRequest<Integer, String, Boolean> deferredRequest = DeferredRequest.create(5, "request", window);
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+
+        deferredRequest.addListener(listener, MoreExecutors.directExecutor());
+        deferredRequest.addListener(listener, MoreExecutors.directExecutor());
+        assertEquals(0, runs.get());
+
+        deferredRequest.set(true);
+        assertEquals(2, runs.get());
+
+        deferredRequest.addListener(listener, MoreExecutors.directExecutor());
+        assertEquals(3, runs.get());
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void getWithTimeoutThrowsWhenNotCompleted() throws Exception {
+        DeferredRequest.create(5, "request", window).get(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void releaseOfAFutureWithoutPoolDoesNothing() throws Exception {
+        DeferredRequest<Integer, String, Boolean> deferredRequest = DeferredRequest.create(5, "request", window);
+        deferredRequest.set(true);
+        deferredRequest.release();
+
+        assertTrue(deferredRequest.get());
+    }
+
     @Test(expected = CancellationException.class)
     public void cancelInternalCancelsTheFuture() throws Throwable {
         DeferredRequest<Integer, String, Boolean> deferredRequest = DeferredRequest.create(5, "request", window);
@@ -89,4 +129,44 @@ public class DeferredRequestTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void claimedFutureCanNotBeCompletedOrReleasedUntilItExpires() throws Exception {
+        FuturePool<Integer, String, Boolean> pool = new FuturePool<Integer, String, Boolean>(window, false);
+        DeferredRequest<Integer, String, Boolean> future = pool.acquire(5, "request", 100);
+
+        future.setExpiryTicket(1);
+
+        assertTrue(future.claimExpiry(1));
+        assertFalse(future.set(true));
+        assertFalse(future.isDone());
+        try {
+            future.release();
+            fail("A claimed future must not be released");
+        } catch (IllegalStateException expected) {
+            // the claim keeps the future bound to the expiring request
+        }
+
+        future.expire(new TimeoutException());
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void claimWithTheTicketOfAPreviousRequestFails() throws Exception {
+        FuturePool<Integer, String, Boolean> pool = new FuturePool<Integer, String, Boolean>(window, false);
+        DeferredRequest<Integer, String, Boolean> future = pool.acquire(5, "request", 100);
+        future.setExpiryTicket(1);
+        future.set(true);
+        future.release();
+
+        assertSame(future, pool.acquire(5, "request2", 100));
+        assertFalse(future.claimExpiry(1));
+        future.setExpiryTicket(2);
+        assertFalse(future.claimExpiry(1));
+        assertTrue(future.isPending());
+    }
+}
@@ -0,0 +1,171 @@
+package com.github.spapageo.jannel.windowing;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ExpiryEngineTest {
+
+    @Mock
+    private Window<Integer, String, Boolean> window;
+
+    @Mock
+    private Timer timer;
+
+    @Mock
+    private Timeout timeout;
+
+    private ExpiryEngine<Integer, String, Boolean> engine;
+
+    private final Map<Integer, DeferredRequest<Integer, String, Boolean>> futures =
+            new HashMap<Integer, DeferredRequest<Integer, String, Boolean>>();
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(timer.newTimeout(any(TimerTask.class), anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(timeout);
+        when(window.removeExpired(Matchers.<List<DeferredRequest<Integer, String, Boolean>>>any()))
+                .thenAnswer(new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) throws Throwable {
+                        return invocation.getArguments()[0];
+                    }
+                });
+
+        when(window.getFuture(anyInt())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return futures.get(invocation.getArguments()[0]);
+            }
+        });
+
+        engine = new ExpiryEngine<Integer, String, Boolean>(window, timer, 100);
+    }
+
+    /**
+     * Makes the future the one the mocked window holds for its key
+     */
+    private DeferredRequest<Integer, String, Boolean> track(DeferredRequest<Integer, String, Boolean> future) {
+        futures.put(future.getKey(), future);
+        return future;
+    }
+
+    @Test
+    public void registerSchedulesASingleSweep() throws Exception {
+        engine.register(track(DeferredRequest.create(1, "request1", window)), 1000);
+        engine.register(track(DeferredRequest.create(2, "request2", window)), 1000);
+
+        verify(timer, times(1)).newTimeout(engine, 100, TimeUnit.MILLISECONDS);
+        assertEquals(2, engine.getPendingCount());
+    }
+
+    @Test
+    public void sweepExpiresOnlyOverdueRequests() throws Exception {
+        engine.register(track(DeferredRequest.create(1, "request1", window)), 1);
+        engine.register(track(DeferredRequest.create(2, "request2", window)), 100000);
+
+        int expired = engine.sweep(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertEquals(1, expired);
+        assertEquals(1, engine.getLastSweepExpiredCount());
+        assertEquals(1, engine.getExpiredCount());
+        assertEquals(1, engine.getPendingCount());
+    }
+
+    @Test
+    public void sweepSkipsCompletedRequests() throws Exception {
+        DeferredRequest<Integer, String, Boolean> completed = track(DeferredRequest.create(1, "request1", window));
+        engine.register(completed, 1);
+        completed.set(true);
+
+        int expired = engine.sweep(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertEquals(0, expired);
+        assertEquals(0, engine.getPendingCount());
+        verify(window, never()).removeExpired(Matchers.<List<DeferredRequest<Integer, String, Boolean>>>any());
+    }
+
+    @Test
+    public void sweepLeavesAFutureReusedAfterItsDeadlineWasRecorded() throws Exception {
+        FuturePool<Integer, String, Boolean> pool = new FuturePool<Integer, String, Boolean>(window, false);
+        DeferredRequest<Integer, String, Boolean> future = track(pool.acquire(1, "request1", 1));
+        engine.register(future, 1);
+
+        // the request completes and its future goes to a new request for the same key before the sweep runs
+        future.set(true);
+        future.release();
+        DeferredRequest<Integer, String, Boolean> reused = pool.acquire(1, "request2", 100000);
+        assertSame(future, reused);
+        engine.register(reused, 100000);
+
+        int expired = engine.sweep(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertEquals(0, expired);
+        assertTrue(reused.isPending());
+        assertFalse(reused.isDone());
+        verify(window, never()).removeExpired(Matchers.<List<DeferredRequest<Integer, String, Boolean>>>any());
+    }
+
+    @Test
+    public void sweepLeavesANewRequestWithTheKeyOfAnExpiredOne() throws Exception {
+        engine.register(track(DeferredRequest.create(1, "request1", window)), 1);
+        futures.get(1).set(true);
+        DeferredRequest<Integer, String, Boolean> next = track(DeferredRequest.create(1, "request2", window));
+        engine.register(next, 100000);
+
+        assertEquals(0, engine.sweep(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10)));
+        assertTrue(next.isPending());
+    }
+
+    @Test
+    public void sweepHandlesMoreRequestsThanTheInitialRingCapacity() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            engine.register(track(DeferredRequest.create(i, "request", window)), 1);
+        }
+
+        assertEquals(100, engine.sweep(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10)));
+        assertEquals(0, engine.getPendingCount());
+    }
+
+    @Test
+    public void runReschedulesWhileDeadlinesArePending() throws Exception {
+        engine.register(track(DeferredRequest.create(1, "request1", window)), 100000);
+
+        engine.run(timeout);
+
+        verify(timer, times(2)).newTimeout(engine, 100, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void stopCancelsTheSweepAndIgnoresNewRequests() throws Exception {
+        engine.register(track(DeferredRequest.create(1, "request1", window)), 1000);
+
+        engine.stop();
+        engine.register(track(DeferredRequest.create(2, "request2", window)), 1000);
+
+        verify(timeout).cancel();
+        assertEquals(0, engine.getPendingCount());
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.spapageo.jannel.windowing;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.*;
+
+public class FuturePoolTest {
+
+    @Mock
+    private Window<Integer, String, Boolean> window;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void acquireCreatesAFutureWhenThePoolIsEmpty() throws Exception {
+        FuturePool<Integer, String, Boolean> pool = new FuturePool<Integer, String, Boolean>(window, false);
+
+        DeferredRequest<Integer, String, Boolean> future = pool.acquire(1, "request", 100);
+
+        assertEquals(Integer.valueOf(1), future.getKey());
+        assertEquals("request", future.getRequest());
+        assertEquals(100, future.getExpireTimeoutMillis());
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void releasedFutureIsResetAndReused() throws Exception {
+        FuturePool<Integer, String, Boolean> pool = new FuturePool<Integer, String, Boolean>(window, false);
+        DeferredRequest<Integer, String, Boolean> future = pool.acquire(1, "request1", 100);
+        future.set(true);
+
+        future.release();
+        assertEquals(1, pool.size());
+        assertEquals(1, future.getGeneration());
+
+        DeferredRequest<Integer, String, Boolean> reused = pool.acquire(2, "request2", -1);
+        assertSame(future, reused);
+        assertEquals(0, pool.size());
+        assertFalse(reused.isDone());
+        assertEquals(Integer.valueOf(2), reused.getKey());
+        assertEquals("request2", reused.getRequest());
+        assertEquals(-1, reused.getExpireTimeoutMillis());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasingAPendingFutureFails() throws Exception {
+        new FuturePool<Integer, String, Boolean>(window, false).acquire(1, "request", -1).release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasingTwiceFails() throws Exception {
+        DeferredRequest<Integer, String, Boolean> future =
+                new FuturePool<Integer, String, Boolean>(window, false).acquire(1, "request", -1);
+        future.set(true);
+
+        future.release();
+        future.release();
+    }
+
+    @Test
+    public void debugPoolDetectsUseAfterRelease() throws Exception {
+        FuturePool<Integer, String, Boolean> pool = new FuturePool<Integer, String, Boolean>(window, true);
+        DeferredRequest<Integer, String, Boolean> future = pool.acquire(1, "request", -1);
+        future.set(true);
+        future.release();
+
+        assertEquals(0, pool.size());
+        assertNotSame(future, pool.acquire(2, "request2", -1));
+
+        try {
+            future.get();
+            fail();
+        } catch (IllegalStateException e) {
+            assertNotNull(e.getCause());
+            assertEquals("The future was released here", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void poolKeepsABoundedNumberOfFutures() throws Exception {
+        FuturePool<Integer, String, Boolean> pool = new FuturePool<Integer, String, Boolean>(window, false);
+        int stripes = KeyIndex.tableSizeFor(Runtime.getRuntime().availableProcessors() * 2);
+        int limit = stripes * FuturePool.STRIPE_CAPACITY;
+
+        for (int i = 0; i < limit + 10; i++) {
+            DeferredRequest<Integer, String, Boolean> future =
+                    new DeferredRequest<Integer, String, Boolean>(i, "request", window, -1, pool);
+            future.set(true);
+            future.release();
+        }
+
+        assertEquals(limit, pool.size());
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.spapageo.jannel.windowing;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.*;
+
+public class PendingOfferQueueTest {
+
+    @Mock
+    private Window<Integer, String, Boolean> window;
+
+    @Mock
+    private OfferListener<Integer, String> listener;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void singleClassQueueIsFifo() throws Exception {
+        PendingOfferQueue<Integer, String, Boolean> queue =
+                new PendingOfferQueue<Integer, String, Boolean>(10, PriorityClasses.NONE);
+        PendingOffer<Integer, String, Boolean> first = pendingOffer(1, 0);
+        PendingOffer<Integer, String, Boolean> second = pendingOffer(2, 0);
+
+        assertTrue(queue.offer(first));
+        assertTrue(queue.offer(second));
+
+        assertEquals(2, queue.size());
+        assertSame(first, queue.poll(Integer.MAX_VALUE));
+        assertSame(second, queue.poll(Integer.MAX_VALUE));
+        assertNull(queue.poll(Integer.MAX_VALUE));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void offerFailsWhenTheQueueIsFull() throws Exception {
+        PendingOfferQueue<Integer, String, Boolean> queue =
+                new PendingOfferQueue<Integer, String, Boolean>(1, PriorityClasses.NONE);
+
+        assertTrue(queue.offer(pendingOffer(1, 0)));
+        assertFalse(queue.offer(pendingOffer(2, 0)));
+        assertFalse(queue.offer(pendingOffer(3, 0), 10));
+    }
+
+    @Test
+    public void pollPrefersHigherPriorities() throws Exception {
+        PendingOfferQueue<Integer, String, Boolean> queue =
+                new PendingOfferQueue<Integer, String, Boolean>(10, new PriorityClasses(new int[]{0, 0, 0}, 0));
+        PendingOffer<Integer, String, Boolean> low = pendingOffer(1, 0);
+        PendingOffer<Integer, String, Boolean> high = pendingOffer(2, 2);
+        PendingOffer<Integer, String, Boolean> medium = pendingOffer(3, 1);
+        queue.offer(low);
+        queue.offer(high);
+        queue.offer(medium);
+
+        assertTrue(queue.hasWaitingAtOrAbove(2));
+        assertSame(high, queue.poll(1));
+        assertFalse(queue.hasWaitingAtOrAbove(2));
+        assertSame(medium, queue.poll(1));
+        assertSame(low, queue.poll(1));
+    }
+
+    @Test
+    public void reservedSlotsAreOnlyGrantedToHigherPriorities() throws Exception {
+        PendingOfferQueue<Integer, String, Boolean> queue =
+                new PendingOfferQueue<Integer, String, Boolean>(10, new PriorityClasses(new int[]{0, 2}, 0));
+        PendingOffer<Integer, String, Boolean> low = pendingOffer(1, 0);
+        queue.offer(low);
+
+        assertTrue(queue.isReserving());
+        assertEquals(2, queue.getReservedAbove(0));
+        assertEquals(0, queue.getReservedAbove(1));
+        assertNull(queue.poll(2));
+        assertSame(low, queue.poll(3));
+    }
+
+    @Test
+    public void agedOffersOvertakeHigherPriorities() throws Exception {
+        PendingOfferQueue<Integer, String, Boolean> queue =
+                new PendingOfferQueue<Integer, String, Boolean>(10, new PriorityClasses(new int[]{0, 0}, 1));
+        PendingOffer<Integer, String, Boolean> low = pendingOffer(1, 0);
+        queue.offer(low);
+        Thread.sleep(5);
+        PendingOffer<Integer, String, Boolean> high = pendingOffer(2, 1);
+        queue.offer(high);
+
+        assertTrue(queue.isAging());
+        assertSame(low, queue.poll(1));
+        assertSame(high, queue.poll(1));
+    }
+
+    @Test
+    public void pollOldestTakesTheLowestPriorityFirst() throws Exception {
+        PendingOfferQueue<Integer, String, Boolean> queue =
+                new PendingOfferQueue<Integer, String, Boolean>(10, new PriorityClasses(new int[]{0, 0}, 0));
+        PendingOffer<Integer, String, Boolean> high = pendingOffer(1, 1);
+        PendingOffer<Integer, String, Boolean> low = pendingOffer(2, 0);
+        queue.offer(high);
+        queue.offer(low);
+
+        assertSame(low, queue.pollOldest());
+        assertSame(high, queue.pollOldest());
+        assertNull(queue.pollOldest());
+    }
+
+    @Test
+    public void removeByKeyAndRemoveFreeRoom() throws Exception {
+        PendingOfferQueue<Integer, String, Boolean> queue =
+                new PendingOfferQueue<Integer, String, Boolean>(2, new PriorityClasses(new int[]{0, 0}, 0));
+        PendingOffer<Integer, String, Boolean> first = pendingOffer(1, 1);
+        PendingOffer<Integer, String, Boolean> second = pendingOffer(2, 0);
+        queue.offer(first);
+        queue.offer(second);
+
+        assertSame(second, queue.removeByKey(2));
+        assertNull(queue.removeByKey(2));
+        assertTrue(queue.remove(first));
+        assertFalse(queue.remove(first));
+        assertTrue(queue.isEmpty());
+    }
+
+    private PendingOffer<Integer, String, Boolean> pendingOffer(int key, int priority) {
+        return new PendingOffer<Integer, String, Boolean>(DeferredRequest.create(key, "request" + key, window),
+                                                          listener,
+                                                          window,
+                                                          priority);
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.spapageo.jannel.windowing;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class SlotAllocatorTest {
+
+    private static final long LAST_TAG = 0xFFFFFFFFL;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityAboveThePackedHeadIsRejected() throws Exception {
+        new SlotAllocator(SlotAllocator.MAXIMUM_CAPACITY + 1);
+    }
+
+    @Test
+    public void theTagWrapsAroundWithoutLosingSlots() throws Exception {
+        SlotAllocator allocator = new SlotAllocator(4, 1, LAST_TAG - 2);
+
+        for (int i = 0; i < 10; i++) {
+            allocator.release(allocator.tryAcquire());
+        }
+        int[] slots = new int[3];
+        assertEquals(3, allocator.tryAcquireAll(slots, 3));
+        allocator.releaseAll(slots, 3);
+
+        Set<Integer> acquired = new HashSet<Integer>();
+        for (int i = 0; i < 4; i++) {
+            acquired.add(allocator.tryAcquire());
+        }
+        assertEquals(4, acquired.size());
+        assertFalse(acquired.contains(SlotStore.NO_SLOT));
+        assertEquals(SlotStore.NO_SLOT, allocator.tryAcquire());
+        assertEquals(0, allocator.getFreeCount());
+    }
+
+    @Test
+    public void concurrentReservationsNeverShareASlotAcrossTheTagWraparound() throws Exception {
+        final int capacity = 16;
+        final int threads = 8;
+        final int operations = 20000;
+        final SlotAllocator allocator = new SlotAllocator(capacity, 1, LAST_TAG - 1000);
+        final AtomicIntegerArray owned = new AtomicIntegerArray(capacity);
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final int[] slots = new int[3];
+                    try {
+                        for (int i = 0; i < operations; i++) {
+                            // single and bulk pops both have to see a changed tag after the head moved
+                            final int count = i % 2 == 0 ? oneSlot(slots) : allocator.tryAcquireAll(slots, 3);
+                            for (int j = 0; j < count; j++) {
+                                if (!owned.compareAndSet(slots[j], 0, 1)) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                            for (int j = 0; j < count; j++) {
+                                owned.set(slots[j], 0);
+                            }
+                            allocator.releaseAll(slots, count);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+
+                private int oneSlot(int[] slots) {
+                    slots[0] = allocator.tryAcquire();
+                    return slots[0] == SlotStore.NO_SLOT ? 0 : 1;
+                }
+            });
+        }
+
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(0, failures.get());
+        assertEquals(capacity, allocator.getFreeCount());
+    }
+}
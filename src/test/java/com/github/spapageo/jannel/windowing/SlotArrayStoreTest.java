@@ -0,0 +1,428 @@
+package com.github.spapageo.jannel.windowing;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SlotArrayStoreTest {
+
+    @Test
+    public void acquireHandsOutEverySlotOnce() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(4);
+
+        Set<Integer> slots = new HashSet<Integer>();
+        for (int i = 0; i < 4; i++) {
+            slots.add(store.acquire(0));
+        }
+
+        assertEquals(4, slots.size());
+        assertFalse(slots.contains(SlotStore.NO_SLOT));
+        assertEquals(SlotStore.NO_SLOT, store.acquire(0));
+        assertEquals(0, store.getFreeCount());
+    }
+
+    @Test
+    public void bindRejectsDuplicateKeys() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(2);
+
+        assertTrue(store.bind(store.acquire(0), 1, "first"));
+        int slot = store.acquire(0);
+        assertFalse(store.bind(slot, 1, "second"));
+
+        store.release(slot);
+
+        assertEquals("first", store.get(1));
+        assertEquals(1, store.size());
+        assertEquals(1, store.getFreeCount());
+    }
+
+    @Test
+    public void removeFreesTheSlot() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(1);
+
+        assertTrue(store.bind(store.acquire(0), 1, "value"));
+        assertEquals(SlotStore.NO_SLOT, store.acquire(0));
+
+        assertEquals("value", store.remove(1));
+        assertNull(store.remove(1));
+        assertNull(store.get(1));
+        assertEquals(0, store.size());
+        assertTrue(store.acquire(0) != SlotStore.NO_SLOT);
+    }
+
+    @Test
+    public void removeAllEmptiesTheStore() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(100);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(store.bind(store.acquire(0), i, "value" + i));
+        }
+
+        List<String> removed = new ArrayList<String>();
+        int count = store.removeAll(collector(removed));
+
+        assertEquals(100, removed.size());
+        assertEquals(100, count);
+        assertEquals(0, store.size());
+        assertEquals(100, store.getFreeCount());
+    }
+
+    @Test
+    public void forEachVisitsEveryValueWithoutRemovingIt() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(100);
+
+        for (int i = 0; i < 60; i++) {
+            assertTrue(store.bind(store.acquire(0), i, "value" + i));
+        }
+
+        List<String> visited = new ArrayList<String>();
+        store.forEach(collector(visited));
+
+        assertEquals(60, visited.size());
+        assertTrue(visited.contains("value0"));
+        assertTrue(visited.contains("value59"));
+        assertEquals(60, store.size());
+        assertEquals("value7", store.get(7));
+    }
+
+    @Test
+    public void indexSurvivesCollidingRemovals() throws Exception {
+        KeyIndex<Integer> index = new KeyIndex<Integer>(4);
+
+        // every key lands on the same home position
+        for (int i = 0; i < 64; i++) {
+            assertEquals(SlotStore.NO_SLOT, index.putIfAbsent(i, 0, i));
+        }
+        for (int i = 0; i < 64; i += 2) {
+            assertEquals(i, index.remove(i, 0));
+        }
+        for (int i = 1; i < 64; i += 2) {
+            assertEquals(i, index.get(i, 0));
+        }
+
+        assertEquals(32, index.size());
+    }
+
+    @Test
+    public void acquireWaitsForARelease() throws Exception {
+        final SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(1);
+        final int slot = store.acquire(0);
+        final Timer timer = new HashedWheelTimer();
+
+        timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                store.release(slot);
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+
+        assertEquals(slot, store.acquire(5000));
+        timer.stop();
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void interruptWaitersInterruptsWaitingThreads() throws Exception {
+        final SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(1);
+        store.acquire(0);
+        final Timer timer = new HashedWheelTimer();
+
+        timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                store.interruptWaiters();
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+
+        try {
+            store.acquire(5000);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void drainRemovesTheFreeSlots() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(3);
+
+        store.drain();
+
+        assertEquals(0, store.getFreeCount());
+        assertEquals(SlotStore.NO_SLOT, store.acquire(0));
+    }
+
+    @Test
+    public void concurrentProducersNeverExceedTheCapacity() throws Exception {
+        assertConcurrentProducersNeverExceedTheCapacity(new SlotArrayStore<Integer, Integer>(16), 16);
+    }
+
+    @Test
+    public void concurrentProducersNeverExceedTheCapacityOfAStripedStore() throws Exception {
+        assertConcurrentProducersNeverExceedTheCapacity(new SlotArrayStore<Integer, Integer>(6, 4), 6);
+    }
+
+    private static void assertConcurrentProducersNeverExceedTheCapacity(final SlotArrayStore<Integer, Integer> store,
+                                                                        final int capacity) throws Exception {
+        final int threads = 8;
+        final int operations = 20000;
+        final AtomicInteger keys = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < operations; i++) {
+                            int slot = store.acquire(1000);
+                            int key = keys.incrementAndGet();
+                            if (slot == SlotStore.NO_SLOT || !store.bind(slot, key, key) || store.size() > capacity) {
+                                failures.incrementAndGet();
+                            }
+                            if (store.remove(key) == null) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(0, failures.get());
+        assertEquals(0, store.size());
+        assertEquals(capacity, store.getFreeCount());
+    }
+
+    @Test
+    public void setLimitWithholdsFreeSlots() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(4);
+
+        store.setLimit(2);
+
+        assertEquals(2, store.getLimit());
+        assertEquals(2, store.getFreeCount());
+        assertNotEquals(SlotStore.NO_SLOT, store.acquire(0));
+        assertNotEquals(SlotStore.NO_SLOT, store.acquire(0));
+        assertEquals(SlotStore.NO_SLOT, store.acquire(0));
+    }
+
+    @Test
+    public void setLimitBelowReservedSlotsWithholdsThemOnRelease() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(2);
+        int first = store.acquire(0);
+        int second = store.acquire(0);
+
+        store.setLimit(1);
+        store.release(first);
+
+        assertEquals(0, store.getFreeCount());
+
+        store.release(second);
+
+        assertEquals(1, store.getFreeCount());
+    }
+
+    @Test
+    public void raisingTheLimitReturnsWithheldSlots() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(4);
+        int reserved = store.acquire(0);
+
+        store.setLimit(1);
+        store.setLimit(4);
+        store.release(reserved);
+
+        assertEquals(4, store.getLimit());
+        assertEquals(4, store.getFreeCount());
+    }
+
+    @Test
+    public void tryAcquireAllReservesUpToTheFreeSlots() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(4);
+        store.acquire(0);
+
+        int[] slots = new int[5];
+        assertEquals(3, store.tryAcquireAll(slots, 5));
+        assertEquals(0, store.getFreeCount());
+        assertEquals(0, store.tryAcquireAll(slots, 5));
+
+        Set<Integer> distinct = new HashSet<Integer>();
+        for (int i = 0; i < 3; i++) {
+            distinct.add(slots[i]);
+        }
+        assertEquals(3, distinct.size());
+
+        store.releaseAll(slots, 3);
+
+        assertEquals(3, store.getFreeCount());
+        assertEquals(3, store.tryAcquireAll(slots, 3));
+    }
+
+    @Test
+    public void releaseAllWithholdsSlotsBelowTheLimit() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(4);
+        int[] slots = new int[4];
+        assertEquals(4, store.tryAcquireAll(slots, 4));
+
+        store.setLimit(1);
+        store.releaseAll(slots, 4);
+
+        assertEquals(1, store.getFreeCount());
+    }
+
+    @Test
+    public void removeKeysFreesTheSlotsOfThePresentKeys() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(store.bind(store.acquire(0), i, "value" + i));
+        }
+
+        List<String> removed = new ArrayList<String>();
+        store.removeKeys(Arrays.asList(2, 7, 0), removed);
+
+        assertEquals(Arrays.asList("value2", null, "value0"), removed);
+        assertEquals(1, store.size());
+        assertEquals(2, store.getFreeCount());
+        assertEquals("value1", store.get(1));
+    }
+
+    @Test
+    public void stripedStoreStealsFromTheOtherStripes() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(6, 4);
+        assertEquals(4, store.getStripes());
+
+        Set<Integer> slots = new HashSet<Integer>();
+        for (int i = 0; i < 6; i++) {
+            slots.add(store.tryAcquire());
+        }
+
+        assertEquals(6, slots.size());
+        assertFalse(slots.contains(SlotStore.NO_SLOT));
+        assertEquals(SlotStore.NO_SLOT, store.tryAcquire());
+
+        for (int slot : slots) {
+            store.release(slot);
+        }
+        assertEquals(6, store.getFreeCount());
+    }
+
+    @Test
+    public void stripedStoreReservesBatchesAcrossStripes() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(8, 4);
+        int[] slots = new int[10];
+
+        assertEquals(8, store.tryAcquireAll(slots, 10));
+        assertEquals(0, store.getFreeCount());
+
+        store.releaseAll(slots, 8);
+        assertEquals(8, store.getFreeCount());
+
+        for (int i = 0; i < 8; i++) {
+            assertTrue(store.bind(store.tryAcquire(), i, "value" + i));
+        }
+        List<String> removed = new ArrayList<String>();
+        assertEquals(8, store.removeAll(collector(removed)));
+        assertEquals(8, store.getFreeCount());
+    }
+
+    @Test
+    public void stripedStoreLimitSpansEveryStripe() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(8, 4);
+
+        store.setLimit(3);
+
+        assertEquals(3, store.getFreeCount());
+        int[] slots = new int[8];
+        assertEquals(3, store.tryAcquireAll(slots, 8));
+
+        store.setLimit(8);
+        assertEquals(5, store.getFreeCount());
+    }
+
+    @Test
+    public void growAddsSlotsOnceTheLimitIncludesThem() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(2);
+        int[] slots = new int[2];
+        assertEquals(2, store.tryAcquireAll(slots, 2));
+        store.bind(slots[0], 0, "0");
+        store.bind(slots[1], 1, "1");
+
+        store.grow(200);
+
+        assertEquals(200, store.getCapacity());
+        assertEquals(2, store.getLimit());
+        assertEquals(SlotStore.NO_SLOT, store.tryAcquire());
+
+        store.setLimit(200);
+        for (int key = 2; key < 200; key++) {
+            int slot = store.tryAcquire();
+            assertTrue(slot >= 2 && slot < 200);
+            assertTrue(store.bind(slot, key, String.valueOf(key)));
+        }
+        assertEquals(SlotStore.NO_SLOT, store.tryAcquire());
+        assertEquals("0", store.get(0));
+        assertEquals("199", store.get(199));
+        assertEquals(200, store.size());
+
+        List<String> removed = new ArrayList<String>();
+        assertEquals(200, store.removeAll(collector(removed)));
+        assertEquals(200, store.getFreeCount());
+    }
+
+    @Test
+    public void growingAStripedStoreSpreadsTheNewSlots() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(4, 4);
+
+        store.grow(16);
+        store.setLimit(16);
+
+        assertEquals(16, store.getFreeCount());
+        int[] slots = new int[16];
+        assertEquals(16, store.tryAcquireAll(slots, 16));
+        store.releaseAll(slots, 16);
+
+        store.setLimit(8);
+        assertEquals(8, store.getFreeCount());
+    }
+
+    @Test
+    public void growNeverShrinksTheStore() throws Exception {
+        SlotArrayStore<Integer, String> store = new SlotArrayStore<Integer, String>(4);
+
+        store.grow(2);
+
+        assertEquals(4, store.getCapacity());
+        assertEquals(4, store.getFreeCount());
+    }
+
+    private static <V> SlotStore.ValueVisitor<V> collector(final List<V> sink) {
+        return new SlotStore.ValueVisitor<V>() {
+            @Override
+            public void visit(V value) {
+                sink.add(value);
+            }
+        };
+    }
+}
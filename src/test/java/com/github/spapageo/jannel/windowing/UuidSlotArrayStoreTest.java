@@ -0,0 +1,111 @@
+package com.github.spapageo.jannel.windowing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class UuidSlotArrayStoreTest {
+
+    @Test
+    public void bindAndLookupByBitsAndByUuidAgree() throws Exception {
+        UuidSlotArrayStore<String> store = new UuidSlotArrayStore<String>(4);
+        UUID key = UUID.randomUUID();
+
+        assertTrue(store.bind(store.acquire(0), key, "value"));
+
+        assertEquals("value", store.get(key));
+        assertEquals("value", store.get(key.getMostSignificantBits(), key.getLeastSignificantBits()));
+        assertNull(store.get(key.getLeastSignificantBits(), key.getMostSignificantBits()));
+    }
+
+    @Test
+    public void removeByBitsFreesTheSlot() throws Exception {
+        UuidSlotArrayStore<String> store = new UuidSlotArrayStore<String>(1);
+        UUID key = UUID.randomUUID();
+        store.bind(store.acquire(0), key, "value");
+
+        assertEquals("value", store.remove(key.getMostSignificantBits(), key.getLeastSignificantBits()));
+        assertEquals(0, store.size());
+        assertNotEquals(SlotStore.NO_SLOT, store.acquire(0));
+    }
+
+    @Test
+    public void bindRejectsDuplicateKeys() throws Exception {
+        UuidSlotArrayStore<String> store = new UuidSlotArrayStore<String>(2);
+        UUID key = UUID.randomUUID();
+
+        assertTrue(store.bind(store.acquire(0), key, "first"));
+        int slot = store.acquire(0);
+        assertFalse(store.bind(slot, new UUID(key.getMostSignificantBits(), key.getLeastSignificantBits()), "second"));
+        store.release(slot);
+
+        assertEquals("first", store.get(key));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void removeWithValueOnlyRemovesTheBoundValue() throws Exception {
+        UuidSlotArrayStore<String> store = new UuidSlotArrayStore<String>(2);
+        UUID key = UUID.randomUUID();
+        store.bind(store.acquire(0), key, "value");
+
+        assertFalse(store.remove(key, "other"));
+        assertTrue(store.remove(key, "value"));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void manyKeysSurviveRehashAndRemoval() throws Exception {
+        int capacity = 1000;
+        UuidSlotArrayStore<Integer> store = new UuidSlotArrayStore<Integer>(capacity);
+        List<UUID> keys = new ArrayList<UUID>();
+        for (int i = 0; i < capacity; i++) {
+            UUID key = new UUID(i, i * 31L);
+            keys.add(key);
+            assertTrue(store.bind(store.acquire(0), key, i));
+        }
+
+        for (int i = 0; i < capacity; i += 2) {
+            assertEquals(Integer.valueOf(i), store.remove(keys.get(i)));
+        }
+        for (int i = 1; i < capacity; i += 2) {
+            assertEquals(Integer.valueOf(i), store.get(keys.get(i)));
+        }
+
+        List<Integer> removed = new ArrayList<Integer>();
+        int count = store.removeAll(collector(removed));
+        assertEquals(capacity / 2, removed.size());
+        assertEquals(capacity / 2, count);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void removeKeysFreesTheSlotsOfThePresentKeys() throws Exception {
+        UuidSlotArrayStore<String> store = new UuidSlotArrayStore<String>(2);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        store.bind(store.acquire(0), first, "first");
+        store.bind(store.acquire(0), second, "second");
+
+        List<String> removed = new ArrayList<String>();
+        store.removeKeys(Arrays.asList(second, UUID.randomUUID(), first), removed);
+
+        assertEquals(Arrays.asList("second", null, "first"), removed);
+        assertEquals(0, store.size());
+        assertEquals(2, store.getFreeCount());
+    }
+
+    private static <V> SlotStore.ValueVisitor<V> collector(final List<V> sink) {
+        return new SlotStore.ValueVisitor<V>() {
+            @Override
+            public void visit(V value) {
+                sink.add(value);
+            }
+        };
+    }
+}
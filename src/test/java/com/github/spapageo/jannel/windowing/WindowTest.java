@@ -6,8 +6,20 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -206,4 +218,963 @@ public class WindowTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void slotArrayEngineCompletesAndFreesSlots() throws Exception {
+        Window<Integer, String, Boolean> slotWindow =
+                new Window<Integer, String, Boolean>(2, timer, WindowEngine.SLOT_ARRAY);
+
+        WindowFuture<String, Boolean> request = slotWindow.offer(1, "request1", 1);
+        slotWindow.offer(2, "request2", 1);
+        assertEquals(2, slotWindow.getSize());
+        assertTrue(slotWindow.containsKey(2));
+
+        WindowFuture<String, Boolean> full = slotWindow.offer(3, "request3", 1);
+        try {
+            full.get();
+            fail("The window should be full");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        assertSame(request, slotWindow.complete(1, true));
+        assertTrue(request.get());
+        assertEquals(1, slotWindow.getSize());
+
+        assertFalse(slotWindow.offer(3, "request3", 1).isDone());
+    }
+
+    @Test
+    public void slotArrayEngineFailsDuplicateKeys() throws Exception {
+        Window<Integer, String, Boolean> slotWindow =
+                new Window<Integer, String, Boolean>(2, timer, WindowEngine.SLOT_ARRAY);
+
+        slotWindow.offer(1, "request1", 1);
+        WindowFuture<String, Boolean> duplicate = slotWindow.offer(1, "request1", 1);
+
+        try {
+            duplicate.get();
+            fail("The offer should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DuplicateKeyException);
+        }
+        assertEquals(1, slotWindow.getSize());
+        assertFalse(slotWindow.offer(2, "request2", 1).isDone());
+    }
+
+    @Test
+    public void slotArrayEngineFailAllFailsEveryRequest() throws Exception {
+        Window<Integer, String, Boolean> slotWindow =
+                new Window<Integer, String, Boolean>(2, timer, WindowEngine.SLOT_ARRAY);
+
+        WindowFuture<String, Boolean> request = slotWindow.offer(1, "request1", 1);
+        WindowFuture<String, Boolean> request2 = slotWindow.offer(2, "request2", 1);
+
+        List<WindowFuture<String, Boolean>> failed = slotWindow.failAll(new IOException());
+
+        assertEquals(2, failed.size());
+        assertTrue(failed.contains(request));
+        assertTrue(failed.contains(request2));
+        assertEquals(0, slotWindow.getSize());
+        assertFalse(slotWindow.offer(3, "request3", 1).isDone());
+    }
+
+    @Test
+    public void failAllHandsEveryRequestToTheVisitorBeforeFailingIt() throws Exception {
+        for (WindowEngine engine : Arrays.asList(WindowEngine.CONCURRENT_MAP, WindowEngine.SLOT_ARRAY, WindowEngine.SHARDED)) {
+            Window<Integer, String, Boolean> slotWindow = new Window<Integer, String, Boolean>(2, timer, engine);
+            slotWindow.offer(1, "request1", 1);
+            slotWindow.offer(2, "request2", 1);
+            slotWindow.offerAsync(3, "request3", 1000, -1, new RecordingListener());
+
+            final List<String> requeued = new ArrayList<String>();
+            int failed = slotWindow.failAll(new IOException(), new WindowVisitor<Integer, String, Boolean>() {
+                @Override
+                public void visit(Integer key, String request, WindowFuture<String, Boolean> future) {
+                    assertFalse(future.isDone());
+                    requeued.add(key + ":" + request);
+                }
+            });
+
+            assertEquals(3, failed);
+            assertEquals(3, requeued.size());
+            assertTrue(requeued.containsAll(Arrays.asList("1:request1", "2:request2", "3:request3")));
+            assertEquals(0, slotWindow.getSize());
+            assertEquals(0, slotWindow.getPendingOfferCount());
+            assertFalse(slotWindow.offer(4, "request4", 1).isDone());
+            assertFalse(slotWindow.offer(5, "request5", 1).isDone());
+        }
+    }
+
+    @Test
+    public void cancelAllWithoutVisitorCancelsEveryRequest() throws Exception {
+        WindowFuture<String, Boolean> request = window.offer(1, "request1", 1);
+        window.offer(2, "request2", 1);
+        WindowFuture<String, Boolean> pending = window.offerAsync(3, "request3", 1000, -1, new RecordingListener());
+
+        assertEquals(3, window.cancelAll(null));
+
+        assertTrue(request.isCancelled());
+        assertTrue(pending.isCancelled());
+        assertEquals(0, window.getSize());
+    }
+
+    @Test
+    public void offerAsyncWhenSlotIsFreeAcceptsImmediately() throws Exception {
+        RecordingListener listener = new RecordingListener();
+
+        WindowFuture<String, Boolean> request = window.offerAsync(1, "request1", 100, -1, listener);
+
+        assertFalse(request.isDone());
+        assertEquals(1, window.getSize());
+        assertEquals(1, listener.accepted.size());
+        assertEquals("request1", listener.accepted.get(0));
+    }
+
+    @Test
+    public void offerAsyncWhenWindowFullIsAcceptedWhenSlotIsFreed() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        window.offer(1, "request1", 1);
+        window.offer(2, "request2", 1);
+
+        WindowFuture<String, Boolean> request = window.offerAsync(3, "request3", 0, -1, listener);
+
+        assertFalse(request.isDone());
+        assertTrue(listener.accepted.isEmpty());
+        assertEquals(1, window.getPendingOfferCount());
+
+        window.complete(1, true);
+
+        assertEquals(0, window.getPendingOfferCount());
+        assertTrue(window.containsKey(3));
+        assertEquals(1, listener.accepted.size());
+        assertEquals("request3", listener.accepted.get(0));
+    }
+
+    @Test
+    public void offerAsyncTimesOutInPendingQueue() throws Exception {
+        window.offer(1, "request1", 1);
+        window.offer(2, "request2", 1);
+
+        WindowFuture<String, Boolean> request = window.offerAsync(3, "request3", 10, -1, new RecordingListener());
+
+        try {
+            request.get(5, TimeUnit.SECONDS);
+            fail("The offer should time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, window.getPendingOfferCount());
+    }
+
+    @Test
+    public void offerAsyncWithRejectPolicyFailsWhenQueueIsFull() throws Exception {
+        Window<Integer, String, Boolean> smallWindow =
+                new Window<Integer, String, Boolean>(1, timer, WindowEngine.CONCURRENT_MAP, 1, OverflowPolicy.REJECT);
+        smallWindow.offer(1, "request1", 1);
+
+        WindowFuture<String, Boolean> queued = smallWindow.offerAsync(2, "request2", 0, -1, new RecordingListener());
+        WindowFuture<String, Boolean> rejected = smallWindow.offerAsync(3, "request3", 0, -1, new RecordingListener());
+
+        assertFalse(queued.isDone());
+        try {
+            rejected.get();
+            fail("The offer should be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PendingOfferRejectedException);
+        }
+    }
+
+    @Test
+    public void offerAsyncWithDropOldestPolicyFailsOldestOffer() throws Exception {
+        Window<Integer, String, Boolean> smallWindow =
+                new Window<Integer, String, Boolean>(1, timer, WindowEngine.SLOT_ARRAY, 1, OverflowPolicy.DROP_OLDEST);
+        smallWindow.offer(1, "request1", 1);
+
+        WindowFuture<String, Boolean> dropped = smallWindow.offerAsync(2, "request2", 0, -1, new RecordingListener());
+        WindowFuture<String, Boolean> queued = smallWindow.offerAsync(3, "request3", 0, -1, new RecordingListener());
+
+        assertFalse(queued.isDone());
+        try {
+            dropped.get();
+            fail("The offer should be dropped");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PendingOfferRejectedException);
+        }
+
+        smallWindow.complete(1, true);
+        assertTrue(smallWindow.containsKey(3));
+    }
+
+    @Test
+    public void offerAsyncWithBlockPolicyTimesOutWhenQueueStaysFull() throws Exception {
+        Window<Integer, String, Boolean> smallWindow =
+                new Window<Integer, String, Boolean>(1, timer, WindowEngine.CONCURRENT_MAP, 1, OverflowPolicy.BLOCK);
+        smallWindow.offer(1, "request1", 1);
+        smallWindow.offerAsync(2, "request2", 0, -1, new RecordingListener());
+
+        WindowFuture<String, Boolean> blocked = smallWindow.offerAsync(3, "request3", 10, -1, new RecordingListener());
+
+        try {
+            blocked.get();
+            fail("The offer should time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void cancelRemovesPendingOffer() throws Exception {
+        window.offer(1, "request1", 1);
+        window.offer(2, "request2", 1);
+        RecordingListener listener = new RecordingListener();
+
+        WindowFuture<String, Boolean> request = window.offerAsync(3, "request3", 0, -1, listener);
+
+        assertTrue(request.cancel(true));
+        assertEquals(0, window.getPendingOfferCount());
+
+        window.complete(1, true);
+        assertFalse(window.containsKey(3));
+        assertTrue(listener.accepted.isEmpty());
+    }
+
+    @Test
+    public void failAllFailsPendingOffers() throws Exception {
+        window.offer(1, "request1", 1);
+        window.offer(2, "request2", 1);
+        WindowFuture<String, Boolean> pending = window.offerAsync(3, "request3", 0, -1, new RecordingListener());
+
+        List<WindowFuture<String, Boolean>> failed = window.failAll(new IOException());
+
+        assertEquals(3, failed.size());
+        assertTrue(failed.contains(pending));
+        assertTrue(pending.isDone());
+        assertEquals(0, window.getSize());
+        assertEquals(0, window.getPendingOfferCount());
+    }
+
+    @Test
+    public void offerWithExpiryTimeoutExpiresRequest() throws Exception {
+        WindowFuture<String, Boolean> request = window.offer(1, "request1", 1, 1);
+
+        try {
+            request.get(5, TimeUnit.SECONDS);
+            fail("The request should expire");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, window.getSize());
+        assertEquals(1, window.getExpiredCount());
+    }
+
+    @Test
+    public void completedRequestDoesNotExpire() throws Exception {
+        WindowFuture<String, Boolean> request = window.offer(1, "request1", 1, 50);
+        window.complete(1, true);
+
+        Thread.sleep(300);
+
+        assertTrue(request.get());
+        assertEquals(0, window.getExpiredCount());
+    }
+
+    @Test
+    public void setSizeLimitBlocksOffersAboveTheLimit() throws Exception {
+        window.setSizeLimit(1);
+
+        assertEquals(1, window.getSizeLimit());
+        assertFalse(window.offer(1, "request1", 1).isDone());
+        assertTrue(window.offer(2, "request2", 1).isDone());
+    }
+
+    @Test
+    public void raisingTheSizeLimitAdmitsPendingOffers() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        window.setSizeLimit(1);
+        window.offer(1, "request1", 1);
+        window.offerAsync(2, "request2", 0, -1, listener);
+
+        window.setSizeLimit(2);
+
+        assertTrue(window.containsKey(2));
+        assertEquals(1, listener.accepted.size());
+    }
+
+    @Test
+    public void resizeGrowsTheWindowWhileRequestsAreInFlight() throws Exception {
+        for (WindowEngine engine : WindowEngine.values()) {
+            Window<UUID, String, Boolean> resized = new Window<UUID, String, Boolean>(2, timer, engine);
+            resized.offer(UUID.randomUUID(), "request1", 1);
+            resized.offer(UUID.randomUUID(), "request2", 1);
+            UUID pending = UUID.randomUUID();
+            WindowFuture<String, Boolean> pendingFuture =
+                    resized.offerAsync(pending, "request3", 0, -1, new OfferListener<UUID, String>() {
+                        @Override
+                        public void onOfferAccepted(UUID key, String request) {
+                        }
+                    });
+
+            resized.resize(200);
+
+            assertEquals(200, resized.getMaxSize());
+            assertEquals(200, resized.getSizeLimit());
+            assertTrue(resized.containsKey(pending));
+            assertFalse(pendingFuture.isDone());
+            for (int i = 3; i < 200; i++) {
+                assertFalse(resized.offer(UUID.randomUUID(), "request", 0).isDone());
+            }
+            assertTrue(resized.offer(UUID.randomUUID(), "request", 0).isDone());
+            assertEquals(200, resized.getSize());
+        }
+    }
+
+    @Test
+    public void resizeShrinksTheWindowAsRequestsComplete() throws Exception {
+        for (WindowEngine engine : WindowEngine.values()) {
+            Window<UUID, String, Boolean> resized = new Window<UUID, String, Boolean>(4, timer, engine);
+            List<UUID> keys = new ArrayList<UUID>();
+            for (int i = 0; i < 4; i++) {
+                keys.add(UUID.randomUUID());
+                resized.offer(keys.get(i), "request", 0);
+            }
+
+            resized.resize(2);
+
+            assertEquals(2, resized.getMaxSize());
+            assertEquals(4, resized.getSize());
+            resized.complete(keys.get(0), true);
+            resized.complete(keys.get(1), true);
+            assertTrue(resized.offer(UUID.randomUUID(), "request", 0).isDone());
+
+            resized.complete(keys.get(2), true);
+            assertFalse(resized.offer(UUID.randomUUID(), "request", 0).isDone());
+            assertTrue(resized.offer(UUID.randomUUID(), "request", 0).isDone());
+        }
+    }
+
+    @Test
+    public void resizeOnlyClampsALoweredSizeLimit() throws Exception {
+        Window<Integer, String, Boolean> resized = new Window<Integer, String, Boolean>(4, timer);
+        resized.setSizeLimit(2);
+
+        resized.resize(8);
+        assertEquals(2, resized.getSizeLimit());
+
+        resized.resize(1);
+        assertEquals(1, resized.getSizeLimit());
+
+        resized.resize(3);
+        assertEquals(3, resized.getSizeLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void resizeBelowTheHighWaterMarkIsRejected() throws Exception {
+        window.setWaterMarks(0, 2);
+
+        window.resize(1);
+    }
+
+    @Test
+    public void resizeIsSafeUnderConcurrentOffers() throws Exception {
+        for (final WindowEngine engine : Arrays.asList(WindowEngine.CONCURRENT_MAP, WindowEngine.SLOT_ARRAY, WindowEngine.SHARDED)) {
+            final Window<Integer, String, Boolean> resized = new Window<Integer, String, Boolean>(8, timer, engine);
+            final AtomicInteger keys = new AtomicInteger();
+            final AtomicBoolean running = new AtomicBoolean(true);
+            ExecutorService producers = Executors.newFixedThreadPool(4);
+            for (int i = 0; i < 4; i++) {
+                producers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        while (running.get()) {
+                            int key = keys.incrementAndGet();
+                            if (!resized.offer(key, "request", 1).isDone()) {
+                                assertNotNull(resized.complete(key, true));
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            for (int size = 1; size <= 64; size++) {
+                resized.resize(size % 2 == 0 ? size * 4 : size);
+            }
+            running.set(false);
+            producers.shutdown();
+            assertTrue(producers.awaitTermination(5, TimeUnit.SECONDS));
+
+            resized.resize(16);
+            assertEquals(0, resized.getSize());
+            for (int key = -1; key >= -16; key--) {
+                assertFalse(resized.offer(key, "request", 0).isDone());
+            }
+            assertTrue(resized.offer(-17, "request", 0).isDone());
+        }
+    }
+
+    @Test
+    public void expiryListenerReceivesExpiredRequests() throws Exception {
+        final BlockingQueue<List<WindowFuture<String, Boolean>>> expired =
+                new LinkedBlockingQueue<List<WindowFuture<String, Boolean>>>();
+        window.setExpiryListener(new ExpiryListener<String, Boolean>() {
+            @Override
+            public void requestsExpired(List<WindowFuture<String, Boolean>> futures) {
+                for (WindowFuture<String, Boolean> future : futures) {
+                    assertFalse(future.isDone());
+                }
+                expired.add(futures);
+            }
+        });
+
+        WindowFuture<String, Boolean> request = window.offer(1, "request1", 1, 1);
+
+        List<WindowFuture<String, Boolean>> futures = expired.poll(5, TimeUnit.SECONDS);
+        assertNotNull(futures);
+        assertEquals(1, futures.size());
+        assertSame(request, futures.get(0));
+        assertFailedWith(request, TimeoutException.class);
+    }
+
+    @Test
+    public void completeByUuidBitsWorksWithEveryEngine() throws Exception {
+        for (WindowEngine engine : WindowEngine.values()) {
+            Window<UUID, String, Boolean> uuidWindow = new Window<UUID, String, Boolean>(2, timer, engine);
+            UUID key = UUID.randomUUID();
+            WindowFuture<String, Boolean> request = uuidWindow.offer(key, "request", 1);
+
+            assertNull(uuidWindow.complete(key.getLeastSignificantBits(), key.getMostSignificantBits(), true));
+            assertSame(request, uuidWindow.complete(key.getMostSignificantBits(), key.getLeastSignificantBits(), true));
+            assertTrue(request.get());
+            assertEquals(0, uuidWindow.getSize());
+        }
+    }
+
+    @Test
+    public void pooledWindowReusesReleasedFutures() throws Exception {
+        Window<Integer, String, Boolean> pooledWindow = new Window<Integer, String, Boolean>(
+                2, timer, WindowEngine.SLOT_ARRAY, 2, OverflowPolicy.REJECT, FutureRecycling.POOLED);
+
+        WindowFuture<String, Boolean> first = pooledWindow.offer(1, "request1", 1);
+        pooledWindow.complete(1, true);
+        assertTrue(first.get());
+        first.release();
+
+        WindowFuture<String, Boolean> second = pooledWindow.offer(2, "request2", 1);
+        assertSame(first, second);
+        assertFalse(second.isDone());
+        assertEquals("request2", second.getRequest());
+        assertSame(second, pooledWindow.complete(2, false));
+        assertFalse(second.get());
+    }
+
+    @Test
+    public void recycledFutureIsNotExpiredByTheDeadlineOfItsPreviousRequest() throws Exception {
+        Window<Integer, String, Boolean> pooledWindow = new Window<Integer, String, Boolean>(
+                2, timer, WindowEngine.SLOT_ARRAY, 2, OverflowPolicy.REJECT, FutureRecycling.POOLED);
+
+        WindowFuture<String, Boolean> first = pooledWindow.offer(1, "request1", 1, 50);
+        pooledWindow.complete(1, true);
+        first.release();
+
+        WindowFuture<String, Boolean> second = pooledWindow.offer(2, "request2", 1, 60000);
+        assertSame(first, second);
+
+        Thread.sleep(500);
+        assertFalse(second.isDone());
+        assertEquals(0, pooledWindow.getExpiredCount());
+    }
+
+    @Test
+    public void responseListenerSeesTheRequestBeforeItsFutureCompletes() throws Exception {
+        final List<String> responded = new CopyOnWriteArrayList<String>();
+        final WindowFuture<String, Boolean> request = window.offer(1, "request1", 1);
+        window.setResponseListener(new ResponseListener<String, Boolean>() {
+            @Override
+            public void responseReceived(String req, Boolean response, long latencyNanos) {
+                assertFalse(request.isDone());
+                assertTrue(latencyNanos >= 0);
+                responded.add(req);
+            }
+        });
+
+        window.complete(1, true);
+
+        assertEquals(1, responded.size());
+        assertEquals("request1", responded.get(0));
+    }
+
+    @Test
+    public void pendingOffersAreAdmittedByPriority() throws Exception {
+        Window<Integer, String, Boolean> priorityWindow = new Window<Integer, String, Boolean>(
+                1, timer, WindowEngine.SLOT_ARRAY, 10, OverflowPolicy.REJECT, FutureRecycling.NONE,
+                new PriorityClasses(new int[]{0, 0, 0, 0}, 0));
+        RecordingListener listener = new RecordingListener();
+
+        priorityWindow.offerAsync(1, "first", 0, 0, -1, listener);
+        priorityWindow.offerAsync(2, "bulk", 0, 0, -1, listener);
+        priorityWindow.offerAsync(3, "otp", 3, 0, -1, listener);
+        priorityWindow.offerAsync(4, "undefined", -1, 0, -1, listener);
+
+        priorityWindow.complete(1, true);
+        priorityWindow.complete(3, true);
+        priorityWindow.complete(2, true);
+
+        assertEquals(Arrays.asList("first", "otp", "bulk", "undefined"), listener.accepted);
+        assertEquals(2, priorityWindow.getWaitStatistics(0).getWaitedCount());
+        assertEquals(1, priorityWindow.getWaitStatistics(3).getWaitedCount());
+        assertEquals(0, priorityWindow.getWaitStatistics(2).getWaitedCount());
+        assertTrue(priorityWindow.getWaitStatistics(0).getMaxWaitNanos() > 0);
+    }
+
+    @Test
+    public void reservedSlotsAreKeptForHigherPriorities() throws Exception {
+        Window<Integer, String, Boolean> priorityWindow = new Window<Integer, String, Boolean>(
+                2, timer, WindowEngine.CONCURRENT_MAP, 10, OverflowPolicy.REJECT, FutureRecycling.NONE,
+                new PriorityClasses(new int[]{0, 1}, 0));
+        RecordingListener listener = new RecordingListener();
+
+        priorityWindow.offerAsync(1, "bulk1", 0, 0, -1, listener);
+        WindowFuture<String, Boolean> bulk = priorityWindow.offerAsync(2, "bulk2", 0, 0, -1, listener);
+        priorityWindow.offerAsync(3, "otp", 1, 0, -1, listener);
+
+        assertEquals(Arrays.asList("bulk1", "otp"), listener.accepted);
+        assertFalse(bulk.isDone());
+        assertEquals(1, priorityWindow.getPendingOfferCount());
+
+        priorityWindow.complete(3, true);
+        assertEquals(Arrays.asList("bulk1", "otp"), listener.accepted);
+
+        priorityWindow.complete(1, true);
+        assertEquals(Arrays.asList("bulk1", "otp", "bulk2"), listener.accepted);
+    }
+
+    @Test
+    public void agingAdmitsLowPrioritiesIntoReservedSlots() throws Exception {
+        Window<Integer, String, Boolean> priorityWindow = new Window<Integer, String, Boolean>(
+                2, timer, WindowEngine.SLOT_ARRAY, 10, OverflowPolicy.REJECT, FutureRecycling.NONE,
+                new PriorityClasses(new int[]{0, 1}, 50));
+        RecordingListener listener = new RecordingListener();
+
+        priorityWindow.offerAsync(1, "bulk1", 0, 0, -1, listener);
+        WindowFuture<String, Boolean> bulk = priorityWindow.offerAsync(2, "bulk2", 0, 0, -1, listener);
+        priorityWindow.complete(1, true);
+        assertFalse(bulk.isDone());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.accepted.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList("bulk1", "bulk2"), listener.accepted);
+    }
+
+    @Test
+    public void blockingOfferOfAPriorityWindowWaitsForItsTurn() throws Exception {
+        final Window<Integer, String, Boolean> priorityWindow = new Window<Integer, String, Boolean>(
+                1, timer, WindowEngine.SLOT_ARRAY, 10, OverflowPolicy.REJECT, FutureRecycling.NONE,
+                new PriorityClasses(new int[]{0, 0}, 0));
+        priorityWindow.offer(1, "first", 1, 0, -1);
+
+        assertTrue(priorityWindow.offer(2, "immediate", 1, 0, -1).isDone());
+
+        Future<WindowFuture<String, Boolean>> blocked = executorService.submit(
+                new Callable<WindowFuture<String, Boolean>>() {
+                    @Override
+                    public WindowFuture<String, Boolean> call() throws Exception {
+                        return priorityWindow.offer(3, "waiting", 1, 5000, -1);
+                    }
+                });
+
+        while (priorityWindow.getPendingOfferCount() == 0) {
+            Thread.sleep(1);
+        }
+        priorityWindow.complete(1, true);
+
+        WindowFuture<String, Boolean> admitted = blocked.get(5, TimeUnit.SECONDS);
+        assertFalse(admitted.isDone());
+        assertTrue(priorityWindow.containsKey(3));
+        assertEquals(1, priorityWindow.getWaitStatistics(1).getWaitedCount());
+    }
+
+    @Test
+    public void blockingOfferOfAPriorityWindowKeepsItsTimeoutAcrossTheQueueWait() throws Exception {
+        final Window<Integer, String, Boolean> priorityWindow = new Window<Integer, String, Boolean>(
+                1, timer, WindowEngine.SLOT_ARRAY, 1, OverflowPolicy.REJECT, FutureRecycling.NONE,
+                new PriorityClasses(new int[]{0, 0}, 0));
+        priorityWindow.offer(1, "first", 1, 0, -1);
+        priorityWindow.offerAsync(2, "queued", 1, 0, -1, new RecordingListener());
+
+        Future<Long> blocked = executorService.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                final long start = System.nanoTime();
+                WindowFuture<String, Boolean> future = priorityWindow.offer(3, "waiting", 1, 600, -1);
+                final long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                try {
+                    future.get();
+                    fail("The offer must time out");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof TimeoutException);
+                }
+                return waitedMillis;
+            }
+        });
+
+        // the queued offer takes the slot and leaves room in the pending offer queue
+        Thread.sleep(400);
+        priorityWindow.complete(1, true);
+
+        assertTrue(blocked.get(5, TimeUnit.SECONDS) < 900);
+        assertFalse(priorityWindow.containsKey(3));
+    }
+
+    @Test
+    public void blockedAsyncOfferKeepsItsTimeoutAcrossTheQueueWait() throws Exception {
+        final Window<Integer, String, Boolean> blockingWindow = new Window<Integer, String, Boolean>(
+                1, timer, WindowEngine.SLOT_ARRAY, 1, OverflowPolicy.BLOCK);
+        final RecordingListener listener = new RecordingListener();
+        blockingWindow.offer(1, "first", 0);
+        blockingWindow.offerAsync(2, "queued", 0, -1, listener);
+
+        final long start = System.nanoTime();
+        Future<WindowFuture<String, Boolean>> blocked = executorService.submit(
+                new Callable<WindowFuture<String, Boolean>>() {
+                    @Override
+                    public WindowFuture<String, Boolean> call() throws Exception {
+                        return blockingWindow.offerAsync(3, "waiting", 600, -1, listener);
+                    }
+                });
+
+        // the queued offer takes the slot and leaves room in the pending offer queue
+        Thread.sleep(400);
+        blockingWindow.complete(1, true);
+
+        try {
+            blocked.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+            fail("The offer must time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 900);
+    }
+
+    @Test
+    public void blockingOfferRecordsItsWait() throws Exception {
+        window.offer(1, "request1", 1);
+        window.offer(2, "request2", 1);
+        executorService.schedule(new Runnable() {
+            @Override
+            public void run() {
+                window.complete(1, true);
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+
+        assertFalse(window.offer(3, "request3", 5000).isDone());
+
+        WaitStatistics statistics = window.getWaitStatistics(0);
+        assertEquals(1, statistics.getWaitedCount());
+        assertTrue(statistics.getMaxWaitNanos() > 0);
+        assertEquals(statistics.getMaxWaitNanos(), statistics.getTotalWaitNanos());
+    }
+
+    @Test
+    public void waterMarkListenerIsNotifiedWhenTheMarksAreCrossed() throws Exception {
+        Window<Integer, String, Boolean> markedWindow = new Window<Integer, String, Boolean>(4, timer);
+        final List<String> events = new CopyOnWriteArrayList<String>();
+        markedWindow.setWaterMarkListener(new WaterMarkListener() {
+            @Override
+            public void highWaterMarkReached() {
+                events.add("high");
+            }
+
+            @Override
+            public void lowWaterMarkReached() {
+                events.add("low");
+            }
+        });
+        markedWindow.setWaterMarks(1, 3);
+
+        markedWindow.offer(1, "request1", 1);
+        markedWindow.offer(2, "request2", 1);
+        assertFalse(markedWindow.isAboveHighWaterMark());
+
+        markedWindow.offer(3, "request3", 1);
+        markedWindow.offer(4, "request4", 1);
+        assertTrue(markedWindow.isAboveHighWaterMark());
+        assertEquals(Arrays.asList("high"), events);
+
+        markedWindow.complete(1, true);
+        markedWindow.complete(2, true);
+        assertTrue(markedWindow.isAboveHighWaterMark());
+
+        markedWindow.complete(3, true);
+        assertFalse(markedWindow.isAboveHighWaterMark());
+        assertEquals(Arrays.asList("high", "low"), events);
+    }
+
+    @Test
+    public void loweringTheSizeLimitDoesNotCountTowardsTheHighWaterMark() throws Exception {
+        for (WindowEngine engine : Arrays.asList(WindowEngine.CONCURRENT_MAP, WindowEngine.SLOT_ARRAY)) {
+            Window<Integer, String, Boolean> markedWindow = new Window<Integer, String, Boolean>(4, timer, engine);
+            markedWindow.setWaterMarks(1, 3);
+            markedWindow.offer(1, "request1", 1);
+
+            markedWindow.setSizeLimit(2);
+            assertFalse(markedWindow.isAboveHighWaterMark());
+
+            markedWindow.setSizeLimit(4);
+            markedWindow.offer(2, "request2", 1);
+            markedWindow.offer(3, "request3", 1);
+            assertTrue(markedWindow.isAboveHighWaterMark());
+
+            // the requests above the new limit stay counted until they complete
+            markedWindow.setSizeLimit(2);
+            assertTrue(markedWindow.isAboveHighWaterMark());
+            markedWindow.complete(1, true);
+            markedWindow.complete(2, true);
+            assertFalse(markedWindow.isAboveHighWaterMark());
+        }
+    }
+
+    @Test
+    public void offerAllAdmitsTheBatchUpToTheFreeSlots() throws Exception {
+        for (WindowEngine engine : Arrays.asList(WindowEngine.CONCURRENT_MAP, WindowEngine.SLOT_ARRAY, WindowEngine.SHARDED)) {
+            Window<Integer, String, Boolean> bulkWindow = new Window<Integer, String, Boolean>(3, timer, engine);
+            bulkWindow.offer(1, "existing", 1);
+
+            Map<Integer, String> requests = new LinkedHashMap<Integer, String>();
+            requests.put(1, "duplicate");
+            requests.put(2, "request2");
+            requests.put(3, "request3");
+            requests.put(4, "request4");
+
+            Map<Integer, WindowFuture<String, Boolean>> futures = bulkWindow.offerAll(requests, 1, -1);
+
+            assertEquals(Arrays.asList(1, 2, 3, 4), new ArrayList<Integer>(futures.keySet()));
+            assertFailedWith(futures.get(1), DuplicateKeyException.class);
+            assertFalse(futures.get(2).isDone());
+            assertFalse(futures.get(3).isDone());
+            assertFailedWith(futures.get(4), TimeoutException.class);
+            assertEquals("existing", bulkWindow.get(1).getRequest());
+            assertEquals(3, bulkWindow.getSize());
+        }
+    }
+
+    @Test
+    public void offerAllWaitsForSlotsFreedDuringTheOffer() throws Exception {
+        window.offer(1, "request1", 1);
+        window.offer(2, "request2", 1);
+        executorService.schedule(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return window.complete(1, true);
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        Map<Integer, String> requests = new LinkedHashMap<Integer, String>();
+        requests.put(3, "request3");
+        Map<Integer, WindowFuture<String, Boolean>> futures = window.offerAll(requests, 5000, -1);
+
+        assertFalse(futures.get(3).isDone());
+        assertTrue(window.containsKey(3));
+    }
+
+    @Test
+    public void offerAllFailsTheRemainingRequestsWhenInterrupted() throws Exception {
+        window.offer(1, "request1", 1);
+
+        Map<Integer, String> requests = new LinkedHashMap<Integer, String>();
+        requests.put(2, "request2");
+        requests.put(3, "request3");
+        requests.put(4, "request4");
+
+        Thread.currentThread().interrupt();
+        Map<Integer, WindowFuture<String, Boolean>> futures = window.offerAll(requests, 5000, -1);
+
+        assertTrue(Thread.interrupted());
+        assertFalse(futures.get(2).isDone());
+        assertFailedWith(futures.get(3), InterruptedException.class);
+        assertFailedWith(futures.get(4), InterruptedException.class);
+        assertEquals(2, window.getSize());
+    }
+
+    @Test
+    public void offerAllRejectsANullBeforeReservingAnySlot() throws Exception {
+        for (WindowEngine engine : Arrays.asList(WindowEngine.CONCURRENT_MAP, WindowEngine.SLOT_ARRAY, WindowEngine.SHARDED)) {
+            Window<Integer, String, Boolean> bulkWindow = new Window<Integer, String, Boolean>(2, timer, engine);
+            Map<Integer, String> requests = new LinkedHashMap<Integer, String>();
+            requests.put(1, "request1");
+            requests.put(2, null);
+
+            try {
+                bulkWindow.offerAll(requests, 0, -1);
+                fail();
+            } catch (NullPointerException e) {
+                // expected
+            }
+
+            assertEquals(0, bulkWindow.getSize());
+            assertEquals(2, bulkWindow.getFreeSlots());
+        }
+    }
+
+    @Test
+    public void offerAllReleasesTheUnusedSlotsWhenTheBatchFails() throws Exception {
+        for (WindowEngine engine : Arrays.asList(WindowEngine.CONCURRENT_MAP, WindowEngine.SLOT_ARRAY, WindowEngine.SHARDED)) {
+            Window<Integer, String, Boolean> bulkWindow = new Window<Integer, String, Boolean>(3, timer, engine);
+            final Map<Integer, String> entries = new LinkedHashMap<Integer, String>();
+            entries.put(1, "request1");
+            entries.put(2, "request2");
+            entries.put(3, "request3");
+            // the entries are validated on the first pass and offered on the second, which fails after one request
+            Map<Integer, String> requests = new AbstractMap<Integer, String>() {
+                private int passes;
+
+                @Override
+                public Set<Entry<Integer, String>> entrySet() {
+                    if (passes++ == 0) {
+                        return entries.entrySet();
+                    }
+                    return new AbstractSet<Entry<Integer, String>>() {
+                        @Override
+                        public Iterator<Entry<Integer, String>> iterator() {
+                            final Iterator<Entry<Integer, String>> iterator = entries.entrySet().iterator();
+                            return new Iterator<Entry<Integer, String>>() {
+                                private int returned;
+
+                                @Override
+                                public boolean hasNext() {
+                                    return iterator.hasNext();
+                                }
+
+                                @Override
+                                public Entry<Integer, String> next() {
+                                    if (returned++ == 1) {
+                                        throw new ConcurrentModificationException();
+                                    }
+                                    return iterator.next();
+                                }
+
+                                @Override
+                                public void remove() {
+                                    throw new UnsupportedOperationException();
+                                }
+                            };
+                        }
+
+                        @Override
+                        public int size() {
+                            return entries.size();
+                        }
+                    };
+                }
+            };
+
+            try {
+                bulkWindow.offerAll(requests, 0, -1);
+                fail();
+            } catch (ConcurrentModificationException e) {
+                // expected
+            }
+
+            assertEquals(1, bulkWindow.getSize());
+            assertTrue(bulkWindow.containsKey(1));
+            assertEquals(2, bulkWindow.getFreeSlots());
+        }
+    }
+
+    @Test
+    public void awaitEmptyReturnsOnceTheLastRequestAndPendingOfferComplete() throws Exception {
+        for (WindowEngine engine : Arrays.asList(WindowEngine.CONCURRENT_MAP, WindowEngine.SLOT_ARRAY, WindowEngine.SHARDED)) {
+            final Window<Integer, String, Boolean> drainedWindow = new Window<Integer, String, Boolean>(1, timer, engine);
+            drainedWindow.offer(1, "request1", 1);
+            drainedWindow.offerAsync(2, "request2", 0, -1, new OfferListener<Integer, String>() {
+                @Override
+                public void onOfferAccepted(Integer key, String request) {
+                }
+            });
+            executorService.schedule(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    drainedWindow.complete(1, true);
+                    return drainedWindow.complete(2, true);
+                }
+            }, 50, TimeUnit.MILLISECONDS);
+
+            assertTrue(drainedWindow.awaitEmpty(5000));
+            assertEquals(0, drainedWindow.getSize());
+            assertEquals(0, drainedWindow.getPendingOfferCount());
+        }
+    }
+
+    @Test
+    public void awaitEmptyTimesOutWhileARequestIsOutstanding() throws Exception {
+        window.offer(1, "request1", 1);
+
+        long start = System.nanoTime();
+        assertFalse(window.awaitEmpty(50));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, window.getSize());
+    }
+
+    @Test
+    public void completeAllCompletesTheKnownKeysAndAdmitsPendingOffers() throws Exception {
+        for (WindowEngine engine : Arrays.asList(WindowEngine.CONCURRENT_MAP, WindowEngine.SLOT_ARRAY, WindowEngine.SHARDED)) {
+            Window<Integer, String, Boolean> bulkWindow = new Window<Integer, String, Boolean>(2, timer, engine);
+            WindowFuture<String, Boolean> first = bulkWindow.offer(1, "request1", 1);
+            WindowFuture<String, Boolean> second = bulkWindow.offer(2, "request2", 1);
+            RecordingListener listener = new RecordingListener();
+            bulkWindow.offerAsync(3, "request3", 1000, -1, listener);
+
+            List<Map.Entry<Integer, Boolean>> responses = new ArrayList<Map.Entry<Integer, Boolean>>();
+            responses.add(new AbstractMap.SimpleEntry<Integer, Boolean>(2, false));
+            responses.add(new AbstractMap.SimpleEntry<Integer, Boolean>(5, true));
+            responses.add(new AbstractMap.SimpleEntry<Integer, Boolean>(1, true));
+
+            List<WindowFuture<String, Boolean>> completed = bulkWindow.completeAll(responses);
+
+            assertEquals(3, completed.size());
+            assertSame(second, completed.get(0));
+            assertNull(completed.get(1));
+            assertSame(first, completed.get(2));
+            assertFalse(second.get());
+            assertTrue(first.get());
+            assertEquals(Arrays.asList("request3"), listener.accepted);
+            assertEquals(1, bulkWindow.getSize());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setWaterMarksRejectsALowMarkAboveTheHighOne() throws Exception {
+        window.setWaterMarks(2, 1);
+    }
+
+    @Test
+    public void testRejectReturnsAFailedFutureWithoutTakingASlot() throws Exception {
+        WindowFuture<String, Boolean> future = window.reject(1, "request", new IOException());
+
+        assertFailedWith(future, IOException.class);
+        assertEquals("request", future.getRequest());
+        assertEquals(0, window.getSize());
+        assertNull(window.get(1));
+    }
+
+    private static void assertFailedWith(WindowFuture<String, Boolean> future, Class<? extends Throwable> cause)
+            throws InterruptedException {
+        try {
+            future.get();
+            fail("The future should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(cause.isInstance(e.getCause()));
+        }
+    }
+
+    private static class RecordingListener implements OfferListener<Integer, String> {
+
+        private final List<String> accepted = new CopyOnWriteArrayList<String>();
+
+        @Override
+        public void onOfferAccepted(Integer key, String request) {
+            accepted.add(request);
+        }
+    }
+}